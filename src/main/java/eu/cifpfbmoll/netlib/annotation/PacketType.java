@@ -1,5 +1,7 @@
 package eu.cifpfbmoll.netlib.annotation;
 
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -9,4 +11,6 @@ import java.lang.annotation.Target;
 @Target(ElementType.TYPE)
 public @interface PacketType {
     String value();
+
+    PacketPriority priority() default PacketPriority.NORMAL;
 }
@@ -1,8 +1,40 @@
 package eu.cifpfbmoll.netlib.internal;
 
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
 import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
 
-@PacketType(ACKPacket.type)
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@PacketType(value = ACKPacket.type, priority = PacketPriority.CONTROL)
 public class ACKPacket {
     public static final String type = "ACK";
+
+    @PacketAttribute
+    private int port;
+
+    @PacketAttribute
+    private List<MemberUpdate> members = new ArrayList<>();
+
+    public ACKPacket() {
+    }
+
+    public ACKPacket(int port) {
+        this.port = port;
+    }
+
+    public ACKPacket(int port, Collection<MemberUpdate> members) {
+        this.port = port;
+        this.members = new ArrayList<>(members);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public List<MemberUpdate> getMembers() {
+        return members;
+    }
 }
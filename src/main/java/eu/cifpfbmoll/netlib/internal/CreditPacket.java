@@ -0,0 +1,30 @@
+package eu.cifpfbmoll.netlib.internal;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+
+/**
+ * Grant credits to the other end of a connection.
+ *
+ * <p>The limit is the total number of Packets the other end may have sent
+ * on the connection, so a lost or late grant is covered by the next one.</p>
+ */
+@PacketType(value = CreditPacket.type, priority = PacketPriority.CONTROL)
+public class CreditPacket {
+    public static final String type = "CRED";
+
+    @PacketAttribute
+    private long limit;
+
+    public CreditPacket() {
+    }
+
+    public CreditPacket(long limit) {
+        this.limit = limit;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+}
@@ -1,8 +1,39 @@
 package eu.cifpfbmoll.netlib.internal;
 
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
 import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
 
-@PacketType(HelloPacket.type)
+/**
+ * First Packet sent to a node to identify ourselves.
+ *
+ * <p>The sender's ID is the source ID of the Packet. Discovery sends it
+ * to be answered with an ACKPacket, while a connection sends it before
+ * anything else so the other node knows which node it is talking to.</p>
+ */
+@PacketType(value = HelloPacket.type, priority = PacketPriority.CONTROL)
 public class HelloPacket {
     public static final String type = "HELO";
+
+    @PacketAttribute
+    private boolean connect;
+
+    @PacketAttribute
+    private int port;
+
+    public HelloPacket() {
+    }
+
+    public HelloPacket(boolean connect, int port) {
+        this.connect = connect;
+        this.port = port;
+    }
+
+    public boolean isConnect() {
+        return connect;
+    }
+
+    public int getPort() {
+        return port;
+    }
 }
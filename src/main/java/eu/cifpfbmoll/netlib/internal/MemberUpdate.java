@@ -0,0 +1,80 @@
+package eu.cifpfbmoll.netlib.internal;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+
+/**
+ * Change in the state of a cluster member, piggybacked on membership Packets.
+ *
+ * <p>Every member numbers the states it announces about itself with an
+ * incarnation. Higher incarnations override older news, so a member can
+ * refute a suspicion by announcing itself alive with a new incarnation.</p>
+ *
+ * @see eu.cifpfbmoll.netlib.node.Membership
+ */
+public class MemberUpdate {
+    /**
+     * State of a member.
+     */
+    public enum State {
+        ALIVE,
+        SUSPECT,
+        DEAD
+    }
+
+    @PacketAttribute
+    private int id;
+
+    @PacketAttribute
+    private String ip;
+
+    @PacketAttribute
+    private int port;
+
+    @PacketAttribute
+    private State state;
+
+    @PacketAttribute
+    private int incarnation;
+
+    public MemberUpdate() {
+    }
+
+    public MemberUpdate(int id, String ip, int port, State state, int incarnation) {
+        this.id = id;
+        this.ip = ip;
+        this.port = port;
+        this.state = state;
+        this.incarnation = incarnation;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getIncarnation() {
+        return incarnation;
+    }
+
+    @Override
+    public String toString() {
+        return "MemberUpdate{" +
+                "id=" + id +
+                ", ip='" + ip + '\'' +
+                ", port=" + port +
+                ", state=" + state +
+                ", incarnation=" + incarnation +
+                '}';
+    }
+}
@@ -0,0 +1,33 @@
+package eu.cifpfbmoll.netlib.internal;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Request a member to prove it is alive by answering with an ACKPacket.
+ *
+ * <p>Sent to one member per protocol period, carrying membership updates.</p>
+ */
+@PacketType(value = PingPacket.type, priority = PacketPriority.CONTROL)
+public class PingPacket {
+    public static final String type = "PING";
+
+    @PacketAttribute
+    private List<MemberUpdate> members = new ArrayList<>();
+
+    public PingPacket() {
+    }
+
+    public PingPacket(Collection<MemberUpdate> members) {
+        this.members = new ArrayList<>(members);
+    }
+
+    public List<MemberUpdate> getMembers() {
+        return members;
+    }
+}
@@ -0,0 +1,42 @@
+package eu.cifpfbmoll.netlib.internal;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Ask a member to ping an other member that did not answer us.
+ *
+ * <p>The ACKPacket is only sent back if the target answered, so a member
+ * behind a broken link is not suspected while others can still reach it.</p>
+ */
+@PacketType(value = PingReqPacket.type, priority = PacketPriority.CONTROL)
+public class PingReqPacket {
+    public static final String type = "PREQ";
+
+    @PacketAttribute
+    private int target;
+
+    @PacketAttribute
+    private List<MemberUpdate> members = new ArrayList<>();
+
+    public PingReqPacket() {
+    }
+
+    public PingReqPacket(int target, Collection<MemberUpdate> members) {
+        this.target = target;
+        this.members = new ArrayList<>(members);
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    public List<MemberUpdate> getMembers() {
+        return members;
+    }
+}
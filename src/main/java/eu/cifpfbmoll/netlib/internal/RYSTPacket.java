@@ -1,8 +1,28 @@
 package eu.cifpfbmoll.netlib.internal;
 
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
 import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
 
-@PacketType(RYSTPacket.type)
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@PacketType(value = RYSTPacket.type, priority = PacketPriority.CONTROL)
 public class RYSTPacket {
     public static final String type = "RYST";
+
+    @PacketAttribute
+    private List<MemberUpdate> members = new ArrayList<>();
+
+    public RYSTPacket() {
+    }
+
+    public RYSTPacket(Collection<MemberUpdate> members) {
+        this.members = new ArrayList<>(members);
+    }
+
+    public List<MemberUpdate> getMembers() {
+        return members;
+    }
 }
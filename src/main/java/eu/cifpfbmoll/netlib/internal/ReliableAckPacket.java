@@ -0,0 +1,62 @@
+package eu.cifpfbmoll.netlib.internal;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Acknowledge the Packets received through a reliable session.
+ *
+ * <p>Every Packet up to the cumulative sequence number was received, and
+ * so was every Packet in the selective ranges, given as pairs of first and
+ * last sequence numbers. The instance identifies the receiving node's run,
+ * so the sender can tell when it restarted and lost track of the session.
+ * An epoch newer than the sender's own tells it that it restarted and
+ * reused an older epoch.</p>
+ */
+@PacketType(value = ReliableAckPacket.type, priority = PacketPriority.CONTROL)
+public class ReliableAckPacket {
+    public static final String type = "RACK";
+
+    @PacketAttribute
+    private int epoch;
+
+    @PacketAttribute
+    private int instance;
+
+    @PacketAttribute
+    private int cumulative;
+
+    @PacketAttribute
+    private List<Integer> ranges = new ArrayList<>();
+
+    public ReliableAckPacket() {
+    }
+
+    public ReliableAckPacket(int epoch, int instance, int cumulative, Collection<Integer> ranges) {
+        this.epoch = epoch;
+        this.instance = instance;
+        this.cumulative = cumulative;
+        this.ranges = new ArrayList<>(ranges);
+    }
+
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public int getInstance() {
+        return instance;
+    }
+
+    public int getCumulative() {
+        return cumulative;
+    }
+
+    public List<Integer> getRanges() {
+        return ranges;
+    }
+}
@@ -0,0 +1,73 @@
+package eu.cifpfbmoll.netlib.internal;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Advertise the distance from a node to every destination it can reach.
+ *
+ * <p>A full packet replaces every route advertised by the node before,
+ * otherwise only the listed destinations change. Unreachable destinations
+ * are advertised with {@link eu.cifpfbmoll.netlib.node.RoutingTable#INFINITY}.</p>
+ *
+ * <p>Large advertisements are split in packets of at most
+ * {@link RoutePacket#MAX_ROUTES} routes, so they fit in a Packet.</p>
+ */
+@PacketType(value = RoutePacket.type, priority = PacketPriority.CONTROL)
+public class RoutePacket {
+    public static final String type = "ROUT";
+    public static final int MAX_ROUTES = 64;
+
+    @PacketAttribute
+    private boolean full;
+
+    @PacketAttribute
+    private Map<Integer, Integer> routes;
+
+    public RoutePacket() {
+    }
+
+    public RoutePacket(boolean full, Map<Integer, Integer> routes) {
+        this.full = full;
+        this.routes = new HashMap<>(routes);
+    }
+
+    /**
+     * Split an advertisement in packets that fit in a Packet.
+     *
+     * <p>Only the first packet of a full advertisement is full, the rest
+     * add their routes to it.</p>
+     *
+     * @param full   true if the routes replace every route advertised before
+     * @param routes distance to each destination
+     * @return packets holding every route, at least one
+     */
+    public static List<RoutePacket> split(boolean full, Map<Integer, Integer> routes) {
+        List<RoutePacket> packets = new ArrayList<>();
+        Map<Integer, Integer> chunk = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : routes.entrySet()) {
+            chunk.put(entry.getKey(), entry.getValue());
+            if (chunk.size() >= MAX_ROUTES) {
+                packets.add(new RoutePacket(full && packets.isEmpty(), chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty() || packets.isEmpty())
+            packets.add(new RoutePacket(full && packets.isEmpty(), chunk));
+        return packets;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public Map<Integer, Integer> getRoutes() {
+        return routes;
+    }
+}
@@ -0,0 +1,87 @@
+package eu.cifpfbmoll.netlib.internal;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Advertise the topics a node subscribes to.
+ *
+ * <p>A full packet replaces every subscription known for the node,
+ * otherwise the topics are added to and removed from the current ones.</p>
+ *
+ * <p>Large snapshots are split in packets of at most
+ * {@link SubscribePacket#MAX_TOPIC_BYTES} bytes of topic names, so they
+ * fit in a Packet.</p>
+ */
+@PacketType(value = SubscribePacket.type, priority = PacketPriority.CONTROL)
+public class SubscribePacket {
+    public static final String type = "SUBS";
+    public static final int MAX_TOPIC_BYTES = 768;
+    private static final int TOPIC_OVERHEAD = 3;
+
+    @PacketAttribute
+    private boolean full;
+
+    @PacketAttribute
+    private List<String> subscribe;
+
+    @PacketAttribute
+    private List<String> unsubscribe;
+
+    public SubscribePacket() {
+    }
+
+    public SubscribePacket(boolean full, Collection<String> subscribe, Collection<String> unsubscribe) {
+        this.full = full;
+        this.subscribe = new ArrayList<>(subscribe);
+        this.unsubscribe = new ArrayList<>(unsubscribe);
+    }
+
+    /**
+     * Split the topics a node subscribes to in packets that fit in a Packet.
+     *
+     * <p>Only the first packet of a full snapshot is full, the rest add
+     * their topics to it. Topics too long for a Packet get one of their own.</p>
+     *
+     * @param full      true if the topics replace every subscription known before
+     * @param subscribe subscribed topics
+     * @return packets holding every topic, at least one
+     */
+    public static List<SubscribePacket> split(boolean full, Collection<String> subscribe) {
+        List<SubscribePacket> packets = new ArrayList<>();
+        List<String> chunk = new ArrayList<>();
+        int bytes = 0;
+        for (String topic : subscribe) {
+            int size = topic.getBytes(Packet.CHARSET_ENCODING).length + TOPIC_OVERHEAD;
+            if (!chunk.isEmpty() && bytes + size > MAX_TOPIC_BYTES) {
+                packets.add(new SubscribePacket(full && packets.isEmpty(), chunk, Collections.emptyList()));
+                chunk.clear();
+                bytes = 0;
+            }
+            chunk.add(topic);
+            bytes += size;
+        }
+        if (!chunk.isEmpty() || packets.isEmpty())
+            packets.add(new SubscribePacket(full && packets.isEmpty(), chunk, Collections.emptyList()));
+        return packets;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public List<String> getSubscribe() {
+        return subscribe;
+    }
+
+    public List<String> getUnsubscribe() {
+        return unsubscribe;
+    }
+}
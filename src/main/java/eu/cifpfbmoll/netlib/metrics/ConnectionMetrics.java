@@ -0,0 +1,193 @@
+package eu.cifpfbmoll.netlib.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Traffic of the connections with a single node.
+ *
+ * <p>Counters add up every connection opened with the node, so they
+ * survive reconnections. The queue depth is read from the current one.</p>
+ */
+public class ConnectionMetrics implements ConnectionMetricsMBean {
+    private final int id;
+    private final LongAdder packetsIn = new LongAdder();
+    private final LongAdder packetsOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile IntSupplier queueDepth = () -> 0;
+
+    /**
+     * Immutable copy of a ConnectionMetrics.
+     */
+    public static class Snapshot {
+        private final int id;
+        private final long packetsIn;
+        private final long packetsOut;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final int queueDepth;
+        private final long reconnects;
+        private final long dropped;
+
+        private Snapshot(ConnectionMetrics metrics) {
+            this.id = metrics.id;
+            this.packetsIn = metrics.getPacketsIn();
+            this.packetsOut = metrics.getPacketsOut();
+            this.bytesIn = metrics.getBytesIn();
+            this.bytesOut = metrics.getBytesOut();
+            this.queueDepth = metrics.getQueueDepth();
+            this.reconnects = metrics.getReconnects();
+            this.dropped = metrics.getDropped();
+        }
+
+        public int getNodeId() {
+            return id;
+        }
+
+        public long getPacketsIn() {
+            return packetsIn;
+        }
+
+        public long getPacketsOut() {
+            return packetsOut;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getReconnects() {
+            return reconnects;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        @Override
+        public String toString() {
+            return "ConnectionMetrics{" +
+                    "id=" + id +
+                    ", packetsIn=" + packetsIn +
+                    ", packetsOut=" + packetsOut +
+                    ", bytesIn=" + bytesIn +
+                    ", bytesOut=" + bytesOut +
+                    ", queueDepth=" + queueDepth +
+                    ", reconnects=" + reconnects +
+                    ", dropped=" + dropped +
+                    '}';
+        }
+    }
+
+    /**
+     * Create a ConnectionMetrics.
+     *
+     * @param id connected node ID
+     */
+    public ConnectionMetrics(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Count a Packet read from the node.
+     *
+     * @param bytes Packet size
+     */
+    public void received(int bytes) {
+        this.packetsIn.increment();
+        this.bytesIn.add(bytes);
+    }
+
+    /**
+     * Count a Packet written to the node.
+     *
+     * @param bytes Packet size
+     */
+    public void sent(int bytes) {
+        this.packetsOut.increment();
+        this.bytesOut.add(bytes);
+    }
+
+    /**
+     * Count a connection re-established after it dropped.
+     */
+    public void reconnected() {
+        this.reconnects.increment();
+    }
+
+    /**
+     * Count a Packet dropped because the outbound queue was full.
+     */
+    public void dropped() {
+        this.dropped.increment();
+    }
+
+    /**
+     * Read the queue depth from a new connection.
+     *
+     * @param queueDepth supplier of the number of queued Packets
+     */
+    public void setQueueDepth(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Copy the metrics.
+     *
+     * @return snapshot of the metrics
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    @Override
+    public int getNodeId() {
+        return id;
+    }
+
+    @Override
+    public long getPacketsIn() {
+        return this.packetsIn.sum();
+    }
+
+    @Override
+    public long getPacketsOut() {
+        return this.packetsOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return this.bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return this.bytesOut.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return this.queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getReconnects() {
+        return this.reconnects.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+}
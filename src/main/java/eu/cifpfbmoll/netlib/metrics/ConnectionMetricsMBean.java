@@ -0,0 +1,24 @@
+package eu.cifpfbmoll.netlib.metrics;
+
+/**
+ * JMX view of the metrics of the connection with a node.
+ *
+ * @see ConnectionMetrics
+ */
+public interface ConnectionMetricsMBean {
+    int getNodeId();
+
+    long getPacketsIn();
+
+    long getPacketsOut();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    int getQueueDepth();
+
+    long getReconnects();
+
+    long getDropped();
+}
@@ -0,0 +1,137 @@
+package eu.cifpfbmoll.netlib.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of non-negative values in log-scaled buckets.
+ *
+ * <p>Every power of two is split in {@link Histogram#SUB_BUCKETS} buckets,
+ * so values are kept with less than 25% error from 1 up to
+ * {@link Long#MAX_VALUE} in a fixed array. Recording a value only
+ * increments a few counters, without allocating or locking.</p>
+ */
+public class Histogram {
+    public static final int SUB_BUCKETS = 4;
+    private static final int SUB_BITS = 2;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Immutable copy of a Histogram.
+     */
+    public static class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] buckets, long sum, long max) {
+            long count = 0;
+            for (long bucket : buckets) count += bucket;
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Get the mean of the recorded values.
+         *
+         * @return mean or 0 if nothing was recorded
+         */
+        public double getMean() {
+            return this.count == 0 ? 0 : (double) this.sum / this.count;
+        }
+
+        /**
+         * Get the value below which a fraction of the recorded values fall.
+         *
+         * @param quantile fraction between 0 and 1, like 0.99
+         * @return upper bound of the bucket holding the quantile, at most the maximum value
+         */
+        public long getPercentile(double quantile) {
+            if (this.count == 0) return 0;
+            long rank = (long) Math.ceil(Math.min(1, Math.max(0, quantile)) * this.count);
+            long seen = 0;
+            for (int i = 0; i < this.buckets.length; i++) {
+                seen += this.buckets[i];
+                if (seen >= Math.max(1, rank)) return Math.min(upperBound(i), this.max);
+            }
+            return this.max;
+        }
+
+        @Override
+        public String toString() {
+            return "Histogram{" +
+                    "count=" + count +
+                    ", mean=" + String.format("%.1f", getMean()) +
+                    ", p50=" + getPercentile(0.5) +
+                    ", p99=" + getPercentile(0.99) +
+                    ", max=" + max +
+                    '}';
+        }
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value value to record, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        this.buckets.incrementAndGet(index(value));
+        this.sum.add(value);
+        long max;
+        while (value > (max = this.max.get()) && !this.max.compareAndSet(max, value)) ;
+    }
+
+    /**
+     * Copy the recorded values.
+     *
+     * <p>Values recorded while copying might be left out of some totals.</p>
+     *
+     * @return snapshot of the histogram
+     */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = this.buckets.get(i);
+        return new Snapshot(buckets, this.sum.sum(), this.max.get());
+    }
+
+    /**
+     * Get the bucket of a value.
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    /**
+     * Get the highest value of a bucket.
+     */
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = (index >> SUB_BITS) + SUB_BITS - 1;
+        long lower = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
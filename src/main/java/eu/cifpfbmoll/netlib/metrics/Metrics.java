@@ -0,0 +1,323 @@
+package eu.cifpfbmoll.netlib.metrics;
+
+import eu.cifpfbmoll.netlib.packet.Packet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a node, per Packet type and per connected node.
+ *
+ * <p>Traffic and latencies are only recorded while the metrics are
+ * enabled: every instrumented path checks a single volatile flag first,
+ * so disabled metrics cost next to nothing. Metrics are looked up by
+ * numeric key in sorted arrays that are replaced when a key is added,
+ * so recording needs neither locks nor allocations.</p>
+ *
+ * <p>While enabled, the node, every Packet type and every connection are
+ * registered as MBeans under the {@link Metrics#DOMAIN} domain. Dropped
+ * Packets are always counted.</p>
+ */
+public class Metrics implements MetricsMBean {
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+    public static final String DOMAIN = "eu.cifpfbmoll.netlib";
+    private final int id;
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder unroutable = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private volatile boolean enabled = false;
+    private volatile Table<TypeMetrics> types = new Table<>();
+    private volatile Table<ConnectionMetrics> connections = new Table<>();
+
+    /**
+     * Immutable map from int keys to values, sorted by key.
+     *
+     * @param <V> value type
+     */
+    private static final class Table<V> {
+        private final int[] keys;
+        private final Object[] values;
+
+        private Table() {
+            this(new int[0], new Object[0]);
+        }
+
+        private Table(int[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @SuppressWarnings("unchecked")
+        private V get(int key) {
+            int index = Arrays.binarySearch(this.keys, key);
+            return index < 0 ? null : (V) this.values[index];
+        }
+
+        private Table<V> with(int key, V value) {
+            int index = -Arrays.binarySearch(this.keys, key) - 1;
+            int[] keys = new int[this.keys.length + 1];
+            Object[] values = new Object[this.values.length + 1];
+            System.arraycopy(this.keys, 0, keys, 0, index);
+            System.arraycopy(this.values, 0, values, 0, index);
+            keys[index] = key;
+            values[index] = value;
+            System.arraycopy(this.keys, index, keys, index + 1, this.keys.length - index);
+            System.arraycopy(this.values, index, values, index + 1, this.values.length - index);
+            return new Table<>(keys, values);
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<V> values() {
+            List<V> values = new ArrayList<>(this.values.length);
+            for (Object value : this.values) values.add((V) value);
+            return values;
+        }
+    }
+
+    /**
+     * Immutable copy of every metric of a node.
+     */
+    public static class Snapshot {
+        private final boolean enabled;
+        private final long expired;
+        private final long duplicates;
+        private final long unroutable;
+        private final long overflows;
+        private final Map<String, TypeMetrics.Snapshot> types = new TreeMap<>();
+        private final Map<Integer, ConnectionMetrics.Snapshot> connections = new TreeMap<>();
+
+        private Snapshot(Metrics metrics) {
+            this.enabled = metrics.enabled;
+            this.expired = metrics.getExpired();
+            this.duplicates = metrics.getDuplicates();
+            this.unroutable = metrics.getUnroutable();
+            this.overflows = metrics.getOverflows();
+            for (TypeMetrics type : metrics.types.values())
+                this.types.put(type.getType(), type.snapshot());
+            for (ConnectionMetrics connection : metrics.connections.values())
+                this.connections.put(connection.getNodeId(), connection.snapshot());
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public long getExpired() {
+            return expired;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getUnroutable() {
+            return unroutable;
+        }
+
+        public long getOverflows() {
+            return overflows;
+        }
+
+        /**
+         * Get the metrics of every Packet type seen.
+         *
+         * @return metrics by Packet type
+         */
+        public Map<String, TypeMetrics.Snapshot> getTypes() {
+            return Collections.unmodifiableMap(types);
+        }
+
+        /**
+         * Get the metrics of every node connected to.
+         *
+         * @return metrics by node ID
+         */
+        public Map<Integer, ConnectionMetrics.Snapshot> getConnections() {
+            return Collections.unmodifiableMap(connections);
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics{" +
+                    "enabled=" + enabled +
+                    ", expired=" + expired +
+                    ", duplicates=" + duplicates +
+                    ", unroutable=" + unroutable +
+                    ", overflows=" + overflows +
+                    ", types=" + types.values() +
+                    ", connections=" + connections.values() +
+                    '}';
+        }
+    }
+
+    /**
+     * Create the Metrics of a node, disabled.
+     *
+     * @param id node ID, used to name the MBeans
+     */
+    public Metrics(int id) {
+        this.id = id;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start or stop recording, registering or unregistering the MBeans.
+     *
+     * <p>Recorded values are kept while disabled.</p>
+     *
+     * @param enabled true to record metrics
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        if (this.enabled == enabled) return;
+        this.enabled = enabled;
+        if (enabled) {
+            register(this, "type=Node");
+            for (TypeMetrics type : this.types.values()) register(type, typeName(type));
+            for (ConnectionMetrics connection : this.connections.values()) register(connection, connectionName(connection));
+        } else {
+            unregister("type=Node");
+            for (TypeMetrics type : this.types.values()) unregister(typeName(type));
+            for (ConnectionMetrics connection : this.connections.values()) unregister(connectionName(connection));
+        }
+    }
+
+    /**
+     * Get the metrics of a Packet type, creating them on first use.
+     *
+     * @param code Packet type code
+     * @return metrics of the type
+     */
+    public TypeMetrics type(int code) {
+        TypeMetrics type = this.types.get(code);
+        return type != null ? type : addType(code);
+    }
+
+    /**
+     * Get the metrics of the connections with a node, creating them on first use.
+     *
+     * @param id node ID
+     * @return metrics of the node's connections
+     */
+    public ConnectionMetrics connection(int id) {
+        ConnectionMetrics connection = this.connections.get(id);
+        return connection != null ? connection : addConnection(id);
+    }
+
+    /**
+     * Count a Packet dropped because its TTL expired.
+     */
+    public void expired() {
+        this.expired.increment();
+    }
+
+    /**
+     * Count a Packet dropped because it was already seen.
+     */
+    public void duplicate() {
+        this.duplicates.increment();
+    }
+
+    /**
+     * Count a Packet dropped because its destination could not be reached.
+     */
+    public void unroutable() {
+        this.unroutable.increment();
+    }
+
+    /**
+     * Count a Packet dropped because an outbound queue was full.
+     */
+    public void overflow() {
+        this.overflows.increment();
+    }
+
+    @Override
+    public long getExpired() {
+        return this.expired.sum();
+    }
+
+    @Override
+    public long getDuplicates() {
+        return this.duplicates.sum();
+    }
+
+    @Override
+    public long getUnroutable() {
+        return this.unroutable.sum();
+    }
+
+    @Override
+    public long getOverflows() {
+        return this.overflows.sum();
+    }
+
+    /**
+     * Copy every metric.
+     *
+     * @return snapshot of the metrics
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    private synchronized TypeMetrics addType(int code) {
+        TypeMetrics type = this.types.get(code);
+        if (type != null) return type;
+        type = new TypeMetrics(Packet.typeName(code).trim());
+        this.types = this.types.with(code, type);
+        if (this.enabled) register(type, typeName(type));
+        return type;
+    }
+
+    private synchronized ConnectionMetrics addConnection(int id) {
+        ConnectionMetrics connection = this.connections.get(id);
+        if (connection != null) return connection;
+        connection = new ConnectionMetrics(id);
+        this.connections = this.connections.with(id, connection);
+        if (this.enabled) register(connection, connectionName(connection));
+        return connection;
+    }
+
+    private static String typeName(TypeMetrics type) {
+        return "type=PacketType,name=" + ObjectName.quote(type.getType());
+    }
+
+    private static String connectionName(ConnectionMetrics connection) {
+        return "type=Connection,peer=" + connection.getNodeId();
+    }
+
+    private ObjectName objectName(String properties) throws JMException {
+        return new ObjectName(String.format("%s:node=%d,%s", DOMAIN, this.id, properties));
+    }
+
+    private void register(Object mbean, String properties) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = objectName(properties);
+            if (!server.isRegistered(name)) server.registerMBean(mbean, name);
+        } catch (JMException e) {
+            log.debug(String.format("failed to register MBean %s: %s", properties, e));
+        }
+    }
+
+    private void unregister(String properties) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = objectName(properties);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (JMException e) {
+            log.debug(String.format("failed to unregister MBean %s: %s", properties, e));
+        }
+    }
+}
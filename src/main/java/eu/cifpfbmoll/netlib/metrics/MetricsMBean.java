@@ -0,0 +1,18 @@
+package eu.cifpfbmoll.netlib.metrics;
+
+/**
+ * JMX view of the Packets dropped by a node.
+ *
+ * @see Metrics
+ */
+public interface MetricsMBean {
+    boolean isEnabled();
+
+    long getExpired();
+
+    long getDuplicates();
+
+    long getUnroutable();
+
+    long getOverflows();
+}
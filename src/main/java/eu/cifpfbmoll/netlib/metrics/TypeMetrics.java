@@ -0,0 +1,217 @@
+package eu.cifpfbmoll.netlib.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic and latencies of a single Packet type.
+ *
+ * <p>Latencies are recorded in nanoseconds: the time to serialize an
+ * object into a Packet, to deserialize a received Packet, and to run the
+ * handler of the type, once per Packet or once per batch.</p>
+ */
+public class TypeMetrics implements TypeMetricsMBean {
+    private final String type;
+    private final LongAdder packetsIn = new LongAdder();
+    private final LongAdder packetsOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final Histogram serialize = new Histogram();
+    private final Histogram deserialize = new Histogram();
+    private final Histogram handler = new Histogram();
+
+    /**
+     * Immutable copy of a TypeMetrics.
+     */
+    public static class Snapshot {
+        private final String type;
+        private final long packetsIn;
+        private final long packetsOut;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final Histogram.Snapshot serialize;
+        private final Histogram.Snapshot deserialize;
+        private final Histogram.Snapshot handler;
+
+        private Snapshot(TypeMetrics metrics) {
+            this.type = metrics.type;
+            this.packetsIn = metrics.getPacketsIn();
+            this.packetsOut = metrics.getPacketsOut();
+            this.bytesIn = metrics.getBytesIn();
+            this.bytesOut = metrics.getBytesOut();
+            this.serialize = metrics.serialize.snapshot();
+            this.deserialize = metrics.deserialize.snapshot();
+            this.handler = metrics.handler.snapshot();
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public long getPacketsIn() {
+            return packetsIn;
+        }
+
+        public long getPacketsOut() {
+            return packetsOut;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public Histogram.Snapshot getSerialize() {
+            return serialize;
+        }
+
+        public Histogram.Snapshot getDeserialize() {
+            return deserialize;
+        }
+
+        public Histogram.Snapshot getHandler() {
+            return handler;
+        }
+
+        @Override
+        public String toString() {
+            return "TypeMetrics{" +
+                    "type='" + type + '\'' +
+                    ", packetsIn=" + packetsIn +
+                    ", packetsOut=" + packetsOut +
+                    ", bytesIn=" + bytesIn +
+                    ", bytesOut=" + bytesOut +
+                    ", serialize=" + serialize +
+                    ", deserialize=" + deserialize +
+                    ", handler=" + handler +
+                    '}';
+        }
+    }
+
+    /**
+     * Create a TypeMetrics.
+     *
+     * @param type Packet type
+     */
+    public TypeMetrics(String type) {
+        this.type = type;
+    }
+
+    /**
+     * Count a Packet read from a connection.
+     *
+     * @param bytes Packet size
+     */
+    public void received(int bytes) {
+        this.packetsIn.increment();
+        this.bytesIn.add(bytes);
+    }
+
+    /**
+     * Count a Packet written to a connection.
+     *
+     * @param bytes Packet size
+     */
+    public void sent(int bytes) {
+        this.packetsOut.increment();
+        this.bytesOut.add(bytes);
+    }
+
+    /**
+     * Record the time taken to create a Packet.
+     *
+     * @param nanos elapsed nanoseconds
+     */
+    public void serialized(long nanos) {
+        this.serialize.record(nanos);
+    }
+
+    /**
+     * Record the time taken to read the objects of a Packet.
+     *
+     * @param nanos elapsed nanoseconds
+     */
+    public void deserialized(long nanos) {
+        this.deserialize.record(nanos);
+    }
+
+    /**
+     * Record the time taken by the handler of a Packet or batch.
+     *
+     * @param nanos elapsed nanoseconds
+     */
+    public void handled(long nanos) {
+        this.handler.record(nanos);
+    }
+
+    /**
+     * Copy the metrics.
+     *
+     * @return snapshot of the metrics
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public long getPacketsIn() {
+        return this.packetsIn.sum();
+    }
+
+    @Override
+    public long getPacketsOut() {
+        return this.packetsOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return this.bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return this.bytesOut.sum();
+    }
+
+    @Override
+    public double getSerializeMean() {
+        return this.serialize.snapshot().getMean();
+    }
+
+    @Override
+    public long getSerializeP99() {
+        return this.serialize.snapshot().getPercentile(0.99);
+    }
+
+    @Override
+    public double getDeserializeMean() {
+        return this.deserialize.snapshot().getMean();
+    }
+
+    @Override
+    public long getDeserializeP99() {
+        return this.deserialize.snapshot().getPercentile(0.99);
+    }
+
+    @Override
+    public double getHandlerMean() {
+        return this.handler.snapshot().getMean();
+    }
+
+    @Override
+    public long getHandlerP99() {
+        return this.handler.snapshot().getPercentile(0.99);
+    }
+
+    @Override
+    public long getHandlerMax() {
+        return this.handler.snapshot().getMax();
+    }
+}
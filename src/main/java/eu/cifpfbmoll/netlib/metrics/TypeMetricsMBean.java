@@ -0,0 +1,32 @@
+package eu.cifpfbmoll.netlib.metrics;
+
+/**
+ * JMX view of the metrics of a Packet type, latencies in nanoseconds.
+ *
+ * @see TypeMetrics
+ */
+public interface TypeMetricsMBean {
+    String getType();
+
+    long getPacketsIn();
+
+    long getPacketsOut();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getSerializeMean();
+
+    long getSerializeP99();
+
+    double getDeserializeMean();
+
+    long getDeserializeP99();
+
+    double getHandlerMean();
+
+    long getHandlerP99();
+
+    long getHandlerMax();
+}
@@ -0,0 +1,115 @@
+package eu.cifpfbmoll.netlib.node;
+
+/**
+ * Phi-accrual failure detector.
+ *
+ * <p>Instead of declaring a node dead after a fixed number of missed
+ * heartbeats, the detector keeps a history of the intervals between the
+ * Packets received from it and turns the time since the last one into a
+ * suspicion level (phi). A phi of 1 means there is a 10% chance of being
+ * wrong if the node is declared dead, a phi of 2 a 1% chance, and so on,
+ * so busy and idle links, and slow networks, share the same threshold.</p>
+ *
+ * <p>The phi is computed with a logistic approximation of the normal
+ * distribution, as in "The φ Accrual Failure Detector" by Hayashibara et al.</p>
+ */
+public class FailureDetector {
+    public static final int DEFAULT_WINDOW = 100;
+    public static final double DEFAULT_THRESHOLD = 8.0;
+    public static final int DEFAULT_MIN_STD_DEVIATION = 200;
+    public static final int DEFAULT_ACCEPTABLE_PAUSE = 3000;
+    private final long[] intervals;
+    private final int minStdDeviation;
+    private int count = 0;
+    private int index = 0;
+    private double sum = 0;
+    private double squares = 0;
+    private long last = now();
+
+    /**
+     * Create a FailureDetector with the default history size.
+     */
+    public FailureDetector() {
+        this(DEFAULT_WINDOW, DEFAULT_MIN_STD_DEVIATION);
+    }
+
+    /**
+     * Create a FailureDetector.
+     *
+     * @param window          number of intervals kept in the history
+     * @param minStdDeviation minimum standard deviation in milliseconds, so
+     *                        a very regular history is not too sensitive
+     * @throws IllegalArgumentException if window or minStdDeviation are lower than 1
+     */
+    public FailureDetector(int window, int minStdDeviation) throws IllegalArgumentException {
+        if (window < 1 || minStdDeviation < 1)
+            throw new IllegalArgumentException(String.format("Invalid failure detector window or deviation: %d, %d", window, minStdDeviation));
+        this.intervals = new long[window];
+        this.minStdDeviation = minStdDeviation;
+    }
+
+    /**
+     * Record the arrival of any Packet from the node.
+     */
+    public synchronized void heartbeat() {
+        long now = now();
+        long interval = now - this.last;
+        this.last = now;
+        if (this.count == this.intervals.length) {
+            long old = this.intervals[this.index];
+            this.sum -= old;
+            this.squares -= (double) old * old;
+        } else {
+            this.count++;
+        }
+        this.intervals[this.index] = interval;
+        this.index = (this.index + 1) % this.intervals.length;
+        this.sum += interval;
+        this.squares += (double) interval * interval;
+    }
+
+    /**
+     * Get the time since the last Packet arrived.
+     *
+     * @return milliseconds since the last heartbeat
+     */
+    public synchronized long idle() {
+        return now() - this.last;
+    }
+
+    /**
+     * Get the current suspicion level of the node.
+     *
+     * <p>The time since the last Packet is measured against the intervals
+     * observed so far, probes and their answers included, so the detector
+     * follows the link as it gets busier or idler. Until a Packet arrives,
+     * the next one is expected after probeInterval milliseconds. The
+     * acceptable pause is added on top, to tolerate pauses like garbage
+     * collection, and the probe of a busy link that went idle, without
+     * raising suspicion, so it should be longer than the probe interval
+     * plus a round trip.</p>
+     *
+     * @param probeInterval    milliseconds after which an idle link is probed
+     * @param acceptablePause  extra milliseconds of silence to tolerate
+     * @return suspicion level, higher values mean the node is more likely dead
+     */
+    public synchronized double phi(long probeInterval, long acceptablePause) {
+        double mean = this.count == 0 ? probeInterval : this.sum / this.count;
+        double variance = this.count == 0 ? 0 : this.squares / this.count - mean * mean;
+        double deviation = Math.max(Math.sqrt(Math.max(variance, 0)), this.minStdDeviation);
+        mean += acceptablePause;
+        double y = (now() - this.last - mean) / deviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (y > 0) return -Math.log10(e / (1.0 + e));
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    /**
+     * Get the time of the monotonic clock used by the detector.
+     *
+     * @return milliseconds since an arbitrary origin
+     */
+    static long now() {
+        return System.nanoTime() / 1000000L;
+    }
+}
@@ -0,0 +1,135 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.internal.CreditPacket;
+import eu.cifpfbmoll.netlib.util.HashedWheelTimer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Credit-based flow control of a NodeConnection.
+ *
+ * <p>Each end grants the other a limit on the total number of Packets it
+ * may send, the Packets received so far plus a window shrunk by the
+ * handler tasks still waiting to run for the node. Grants are only sent
+ * once they move the limit by a quarter of the window, and rechecked
+ * shortly while a slow handler keeps the node close to its limit.</p>
+ *
+ * <p>Nodes only hold Packets back once they got a first grant, so
+ * connections to nodes without flow control are not throttled. Held
+ * Packets wait on the {@link OutboundQueue}, and sends fail once it is
+ * full, instead of blocking the writer on a full socket buffer.</p>
+ *
+ * @see NodeManager#setFlowWindow(int)
+ */
+public class FlowControl {
+    public static final int DEFAULT_WINDOW = 4096;
+    private static final int UPDATE_DELAY = 20;
+    private final NodeConnection nodeConnection;
+    private final int window;
+    private long received = 0;
+    private long advertised = 0;
+    private boolean run = false;
+    private HashedWheelTimer.Timeout update = null;
+
+    /**
+     * Create a FlowControl.
+     *
+     * @param nodeConnection connection to control
+     * @param window         Packets the node may send ahead of the handlers
+     * @throws IllegalArgumentException if window is lower than 1
+     */
+    public FlowControl(NodeConnection nodeConnection, int window) throws IllegalArgumentException {
+        if (window < 1)
+            throw new IllegalArgumentException(String.format("Invalid flow control window: %d", window));
+        this.nodeConnection = nodeConnection;
+        this.window = window;
+    }
+
+    /**
+     * Get the number of Packets the node may send ahead of the handlers.
+     *
+     * @return window in Packets
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Get the limit granted to the node.
+     *
+     * @return total Packets the node may send
+     */
+    public synchronized long getAdvertised() {
+        return advertised;
+    }
+
+    /**
+     * Get the number of Packets received from the node.
+     *
+     * @return total Packets received
+     */
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    /**
+     * Grant the first window to the node.
+     */
+    public synchronized void start() {
+        this.run = true;
+        this.advertised = this.window;
+        this.nodeConnection.send(new CreditPacket(this.advertised));
+    }
+
+    /**
+     * Stop granting credits.
+     */
+    public synchronized void stop() {
+        this.run = false;
+        if (this.update != null) this.update.cancel();
+    }
+
+    /**
+     * Record Packets received from the node, granting more credits if the handlers keep up.
+     *
+     * @param count Packets received
+     */
+    public synchronized void received(int count) {
+        this.received += count;
+        update();
+    }
+
+    /**
+     * Apply a grant received from the node.
+     *
+     * @param credit received grant
+     */
+    public void granted(CreditPacket credit) {
+        this.nodeConnection.getOutboundQueue().grant(credit.getLimit());
+    }
+
+    /**
+     * Grant credits if the limit moved enough, or check again soon if the
+     * node is running out of them.
+     */
+    private void update() {
+        if (!this.run) return;
+        NodeManager manager = this.nodeConnection.getManager();
+        int backlog = manager.getPacketManager().getBacklog(this.nodeConnection.getNode().getId());
+        long limit = this.received + Math.max(0, this.window - backlog);
+        if (limit - this.advertised >= Math.max(1, this.window / 4)) {
+            this.advertised = limit;
+            this.nodeConnection.send(new CreditPacket(limit));
+        } else if (this.advertised - this.received < this.window / 2 && this.update == null) {
+            try {
+                this.update = manager.getTimer().schedule(this::recheck, UPDATE_DELAY, TimeUnit.MILLISECONDS);
+            } catch (IllegalStateException ignored) {
+            }
+        }
+    }
+
+    private synchronized void recheck() {
+        this.update = null;
+        update();
+    }
+}
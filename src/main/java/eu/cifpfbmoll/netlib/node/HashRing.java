@@ -0,0 +1,197 @@
+package eu.cifpfbmoll.netlib.node;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Consistent-hash ring assigning keys to nodes.
+ *
+ * <p>Every node is placed on the ring at a number of pseudo-random points
+ * (virtual nodes), and a key belongs to the node at the first point after
+ * the key's hash. When a node joins or leaves, only the keys next to its
+ * points change owner, about 1/N of them, and every node with the same
+ * members computes the same owners.</p>
+ *
+ * <p>The points are kept in sorted arrays that are replaced on every
+ * change, so lookups only need a lock-free binary search. Points are
+ * compared by the top 32 bits of their hash, ties go to the lowest ID.</p>
+ */
+public class HashRing {
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+    private final int virtualNodes;
+    private final Set<Integer> members = new HashSet<>();
+    private volatile Points points = new Points(new long[0], new int[0]);
+
+    /**
+     * Sorted positions on the ring and the node at each one.
+     */
+    private static final class Points {
+        private final long[] hashes;
+        private final int[] owners;
+
+        private Points(long[] hashes, int[] owners) {
+            this.hashes = hashes;
+            this.owners = owners;
+        }
+    }
+
+    /**
+     * Create a HashRing with the default number of virtual nodes.
+     */
+    public HashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Create a HashRing.
+     *
+     * <p>More virtual nodes spread the keys more evenly at the cost of
+     * memory and slower membership changes.</p>
+     *
+     * @param virtualNodes points on the ring per node
+     * @throws IllegalArgumentException if virtualNodes is lower than 1
+     */
+    public HashRing(int virtualNodes) throws IllegalArgumentException {
+        if (virtualNodes < 1)
+            throw new IllegalArgumentException(String.format("Invalid number of virtual nodes: %d", virtualNodes));
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Add a node to the ring.
+     *
+     * @param id node ID
+     * @return true if the node was added, false if it was already a member
+     */
+    public synchronized boolean add(Integer id) {
+        if (id == null || !this.members.add(id)) return false;
+        rebuild();
+        return true;
+    }
+
+    /**
+     * Remove a node from the ring.
+     *
+     * @param id node ID
+     * @return true if the node was removed, false if it was not a member
+     */
+    public synchronized boolean remove(Integer id) {
+        if (id == null || !this.members.remove(id)) return false;
+        rebuild();
+        return true;
+    }
+
+    /**
+     * Check if a node is on the ring.
+     *
+     * @param id node ID
+     * @return true if the node is a member
+     */
+    public synchronized boolean contains(Integer id) {
+        return this.members.contains(id);
+    }
+
+    /**
+     * Get the nodes on the ring.
+     *
+     * @return copy of the members
+     */
+    public synchronized Set<Integer> getMembers() {
+        return new HashSet<>(this.members);
+    }
+
+    /**
+     * Get the node owning a key.
+     *
+     * @param key key to look up
+     * @return owner node ID or null if the ring is empty
+     */
+    public Integer getOwner(String key) {
+        Points points = this.points;
+        if (points.hashes.length == 0) return null;
+        return points.owners[index(points.hashes, hash(key))];
+    }
+
+    /**
+     * Get the distinct nodes following a key on the ring, to replicate it.
+     *
+     * @param key   key to look up
+     * @param count maximum number of nodes
+     * @return owner node IDs, the first one being {@link HashRing#getOwner(String)}
+     */
+    public List<Integer> getOwners(String key, int count) {
+        Points points = this.points;
+        int size = points.hashes.length;
+        List<Integer> result = new ArrayList<>(Math.max(0, count));
+        if (size == 0) return result;
+        int start = index(points.hashes, hash(key));
+        for (int i = 0; i < size && result.size() < count; i++) {
+            Integer owner = points.owners[(start + i) % size];
+            if (!result.contains(owner)) result.add(owner);
+        }
+        return result;
+    }
+
+    /**
+     * Get the hash of a key on the ring.
+     *
+     * @param key key to hash
+     * @return 64 bit hash, the same on every node
+     */
+    public static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : String.valueOf(key).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Get the position of a node's virtual node on the ring.
+     */
+    private static long point(int id, int replica) {
+        return mix(((long) id << 32) | (replica & 0xffffffffL));
+    }
+
+    /**
+     * Spread the bits of a value, as in MurmurHash3's finalizer.
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Find the first point at or after a hash, wrapping around.
+     */
+    private static int index(long[] points, long hash) {
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) index = -index - 1;
+        return index == points.length ? 0 : index;
+    }
+
+    /**
+     * Recompute the sorted points of every member.
+     */
+    private void rebuild() {
+        int size = this.members.size() * this.virtualNodes;
+        long[] keys = new long[size];
+        int i = 0;
+        for (Integer id : this.members)
+            for (int replica = 0; replica < this.virtualNodes; replica++)
+                keys[i++] = point(id, replica) & ~0xffffffffL | (id & 0xffffffffL);
+        Arrays.sort(keys);
+        long[] hashes = new long[size];
+        int[] owners = new int[size];
+        for (i = 0; i < size; i++) {
+            hashes[i] = keys[i] & ~0xffffffffL;
+            owners[i] = (int) keys[i];
+        }
+        this.points = new Points(hashes, owners);
+    }
+}
@@ -0,0 +1,341 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.internal.MemberUpdate;
+import eu.cifpfbmoll.netlib.internal.MemberUpdate.State;
+
+import java.util.*;
+
+/**
+ * SWIM-style membership table of the cluster.
+ *
+ * <p>Every member is alive, suspected or dead, together with the highest
+ * incarnation heard about it. Changes are spread by piggybacking them on
+ * membership Packets: each change is sent a number of times that grows
+ * with the logarithm of the cluster size, preferring the changes sent the
+ * fewest times, so news reach every member without extra Packets.</p>
+ *
+ * <p>When a member hears it is suspected or dead, it refutes it by
+ * announcing itself alive with a higher incarnation. Incarnations start at
+ * the current time in seconds, so a restarted member always overrides the
+ * news about its previous run.</p>
+ *
+ * @see NodeProber
+ */
+public class Membership {
+    public static final int RETRANSMIT_MULTIPLIER = 3;
+    public static final int MAX_PIGGYBACK = 8;
+    private final Integer id;
+    private final String ip;
+    private final int port;
+    private final Map<Integer, Member> members = new HashMap<>();
+    private final Map<Integer, Gossip> gossip = new HashMap<>();
+    private int incarnation;
+
+    /**
+     * Known state of a member.
+     */
+    public static class Member {
+        private final Integer id;
+        private String ip;
+        private int port;
+        private State state;
+        private int incarnation;
+        private long since;
+
+        private Member(Integer id, String ip, int port, State state, int incarnation) {
+            this.id = id;
+            this.ip = ip;
+            this.port = port;
+            this.state = state;
+            this.incarnation = incarnation;
+            this.since = System.currentTimeMillis();
+        }
+
+        private Member(Member member) {
+            this(member.id, member.ip, member.port, member.state, member.incarnation);
+            this.since = member.since;
+        }
+
+        public Integer getId() {
+            return id;
+        }
+
+        public String getIp() {
+            return ip;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getIncarnation() {
+            return incarnation;
+        }
+
+        /**
+         * Get the time the member entered its current state.
+         *
+         * @return milliseconds since the epoch
+         */
+        public long getSince() {
+            return since;
+        }
+
+        private MemberUpdate toUpdate() {
+            return new MemberUpdate(this.id, this.ip, this.port, this.state, this.incarnation);
+        }
+
+        @Override
+        public String toString() {
+            return "Member{" +
+                    "id=" + id +
+                    ", ip='" + ip + '\'' +
+                    ", port=" + port +
+                    ", state=" + state +
+                    ", incarnation=" + incarnation +
+                    '}';
+        }
+    }
+
+    /**
+     * Change waiting to be piggybacked.
+     */
+    private static class Gossip {
+        private final MemberUpdate update;
+        private int transmits = 0;
+
+        private Gossip(MemberUpdate update) {
+            this.update = update;
+        }
+    }
+
+    /**
+     * Create a Membership table and announce this node as alive.
+     *
+     * @param id   this node's ID
+     * @param ip   this node's IP
+     * @param port this node's server port
+     */
+    public Membership(Integer id, String ip, int port) {
+        this.id = id;
+        this.ip = ip;
+        this.port = port;
+        this.incarnation = (int) (System.currentTimeMillis() / 1000);
+        announce(self());
+    }
+
+    /**
+     * Get this node's current incarnation.
+     *
+     * @return incarnation
+     */
+    public synchronized int getIncarnation() {
+        return this.incarnation;
+    }
+
+    /**
+     * Get a member.
+     *
+     * @param id member ID
+     * @return copy of the member or null if it is unknown
+     */
+    public synchronized Member getMember(Integer id) {
+        Member member = this.members.get(id);
+        return member == null ? null : new Member(member);
+    }
+
+    /**
+     * Get every known member, dead ones included.
+     *
+     * @return copies of the members
+     */
+    public synchronized List<Member> getMembers() {
+        List<Member> members = new ArrayList<>(this.members.size());
+        for (Member member : this.members.values())
+            members.add(new Member(member));
+        return members;
+    }
+
+    /**
+     * Get the members that are not dead.
+     *
+     * @return IDs of alive and suspected members, this node excluded
+     */
+    public synchronized List<Integer> getLive() {
+        List<Integer> live = new ArrayList<>(this.members.size());
+        for (Member member : this.members.values())
+            if (member.state != State.DEAD) live.add(member.id);
+        return live;
+    }
+
+    /**
+     * Record a member we talked to directly.
+     *
+     * <p>Unknown and dead members become alive with the last incarnation
+     * heard about them. This is not spread: the member announces itself.</p>
+     *
+     * @param id   member ID
+     * @param ip   member IP
+     * @param port member server port
+     */
+    public synchronized void alive(Integer id, String ip, int port) {
+        if (this.id.equals(id)) return;
+        Member member = this.members.get(id);
+        if (member == null) {
+            this.members.put(id, new Member(id, ip, port, State.ALIVE, 0));
+        } else {
+            member.ip = ip;
+            member.port = port;
+            if (member.state == State.DEAD) setState(member, State.ALIVE, member.incarnation);
+        }
+    }
+
+    /**
+     * Suspect an alive member that did not answer a probe.
+     *
+     * @param id member ID
+     * @return true if the member became suspected
+     */
+    public synchronized boolean suspect(Integer id) {
+        Member member = this.members.get(id);
+        if (member == null || member.state != State.ALIVE) return false;
+        setState(member, State.SUSPECT, member.incarnation);
+        announce(member.toUpdate());
+        return true;
+    }
+
+    /**
+     * Forget a member completely, it can come back with any incarnation.
+     *
+     * @param id member ID
+     */
+    public synchronized void remove(Integer id) {
+        this.members.remove(id);
+        this.gossip.remove(id);
+    }
+
+    /**
+     * Apply the updates received from an other member.
+     *
+     * @param updates received updates
+     * @return updates that changed the table, to act on
+     */
+    public synchronized List<MemberUpdate> merge(Collection<MemberUpdate> updates) {
+        if (updates == null || updates.isEmpty()) return Collections.emptyList();
+        List<MemberUpdate> applied = new ArrayList<>();
+        for (MemberUpdate update : updates) {
+            if (update == null || update.getState() == null) continue;
+            if (this.id.equals(update.getId())) {
+                refute(update);
+                continue;
+            }
+            Member member = this.members.get(update.getId());
+            if (member == null) {
+                member = new Member(update.getId(), update.getIp(), update.getPort(), update.getState(), update.getIncarnation());
+                this.members.put(member.id, member);
+            } else if (!overrides(update, member)) {
+                continue;
+            } else {
+                if (update.getIp() != null) member.ip = update.getIp();
+                if (update.getPort() > 0) member.port = update.getPort();
+                setState(member, update.getState(), update.getIncarnation());
+            }
+            MemberUpdate change = member.toUpdate();
+            announce(change);
+            applied.add(change);
+        }
+        return applied;
+    }
+
+    /**
+     * Declare dead the members suspected for too long, and forget
+     * the members that have been dead for long enough.
+     *
+     * @param suspicionTimeout milliseconds a member can stay suspected
+     * @param deadRetention    milliseconds dead members are remembered
+     * @return IDs of the members that just died
+     */
+    public synchronized List<Integer> expire(long suspicionTimeout, long deadRetention) {
+        long now = System.currentTimeMillis();
+        List<Integer> dead = new ArrayList<>();
+        Iterator<Member> iterator = this.members.values().iterator();
+        while (iterator.hasNext()) {
+            Member member = iterator.next();
+            if (member.state == State.SUSPECT && now - member.since >= suspicionTimeout) {
+                setState(member, State.DEAD, member.incarnation);
+                announce(member.toUpdate());
+                dead.add(member.id);
+            } else if (member.state == State.DEAD && now - member.since >= deadRetention) {
+                iterator.remove();
+            }
+        }
+        return dead;
+    }
+
+    /**
+     * Take the updates to piggyback on an outgoing membership Packet.
+     *
+     * @return up to {@link Membership#MAX_PIGGYBACK} updates
+     */
+    public synchronized List<MemberUpdate> piggyback() {
+        if (this.gossip.isEmpty()) return Collections.emptyList();
+        List<Gossip> queued = new ArrayList<>(this.gossip.values());
+        queued.sort(Comparator.comparingInt(g -> g.transmits));
+        int limit = RETRANSMIT_MULTIPLIER * (32 - Integer.numberOfLeadingZeros(this.members.size() + 1));
+        List<MemberUpdate> updates = new ArrayList<>(Math.min(MAX_PIGGYBACK, queued.size()));
+        for (int i = 0; i < queued.size() && updates.size() < MAX_PIGGYBACK; i++) {
+            Gossip gossip = queued.get(i);
+            updates.add(gossip.update);
+            if (++gossip.transmits >= limit) this.gossip.remove(gossip.update.getId());
+        }
+        return updates;
+    }
+
+    /**
+     * Check if an update carries newer news than the known state of a member.
+     */
+    private static boolean overrides(MemberUpdate update, Member member) {
+        int incarnation = update.getIncarnation();
+        switch (update.getState()) {
+            case ALIVE:
+                return incarnation > member.incarnation;
+            case SUSPECT:
+                return incarnation > member.incarnation || (incarnation == member.incarnation && member.state == State.ALIVE);
+            default:
+                return member.state != State.DEAD && incarnation >= member.incarnation;
+        }
+    }
+
+    /**
+     * Announce this node alive with a new incarnation if an update says otherwise.
+     */
+    private void refute(MemberUpdate update) {
+        if (update.getState() == State.ALIVE || update.getIncarnation() < this.incarnation) return;
+        this.incarnation = update.getIncarnation() + 1;
+        announce(self());
+    }
+
+    /**
+     * Get the update announcing this node alive.
+     */
+    private MemberUpdate self() {
+        return new MemberUpdate(this.id, this.ip, this.port, State.ALIVE, this.incarnation);
+    }
+
+    /**
+     * Queue an update to be piggybacked, replacing older news about the same member.
+     */
+    private void announce(MemberUpdate update) {
+        this.gossip.put(update.getId(), new Gossip(update));
+    }
+
+    private static void setState(Member member, State state, int incarnation) {
+        member.state = state;
+        member.incarnation = incarnation;
+        member.since = System.currentTimeMillis();
+    }
+}
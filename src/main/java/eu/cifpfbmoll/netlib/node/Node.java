@@ -8,6 +8,7 @@ package eu.cifpfbmoll.netlib.node;
 public class Node {
     private Integer id;
     private String ip;
+    private int port = NodeServer.DEFAULT_PORT;
 
     public Integer getId() {
         return id;
@@ -25,6 +26,14 @@ public class Node {
         this.ip = ip;
     }
 
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
     /**
      * Create a new Node with a specific ID and IP.
      *
@@ -36,6 +45,19 @@ public class Node {
         this.ip = ip;
     }
 
+    /**
+     * Create a new Node with a specific ID, IP and server port.
+     *
+     * @param id   node ID
+     * @param ip   node IP
+     * @param port node server port
+     */
+    public Node(Integer id, String ip, int port) {
+        this.id = id;
+        this.ip = ip;
+        this.port = port;
+    }
+
     public Node() {
     }
 }
@@ -1,32 +1,48 @@
 package eu.cifpfbmoll.netlib.node;
 
 import eu.cifpfbmoll.netlib.internal.ACKPacket;
+import eu.cifpfbmoll.netlib.internal.CreditPacket;
 import eu.cifpfbmoll.netlib.internal.RYSTPacket;
 import eu.cifpfbmoll.netlib.packet.PacketManager;
-import eu.cifpfbmoll.netlib.util.Threaded;
+import eu.cifpfbmoll.netlib.util.HashedWheelTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
-public class NodeChannel extends Threaded {
+/**
+ * Keep track of the liveness of a NodeConnection.
+ *
+ * <p>Every Packet received counts as a heartbeat. A RYSTPacket is only
+ * sent when nothing arrived for a while, and the connection is closed once
+ * the suspicion level of its {@link FailureDetector} passes the threshold
+ * configured on the NodeManager. Both carry piggybacked membership updates.</p>
+ *
+ * <p>Checks run on the NodeManager's timer, so idle connections do not
+ * need a thread of their own.</p>
+ */
+public class NodeChannel {
     private static final Logger log = LoggerFactory.getLogger(NodeChannel.class);
-    private static final int SEND_DELAY = 1000;
-    private static final int MAX_ACK_TRIES = 5;
+    private static final int MIN_CHECK_DELAY = 10;
     private final NodeConnection nodeConnection;
     private final PacketManager packetManager = new PacketManager();
-    private final AtomicInteger tries = new AtomicInteger(0);
+    private final FailureDetector detector = new FailureDetector();
+    private volatile boolean run = false;
+    private volatile HashedWheelTimer.Timeout check = null;
+    private long probed = FailureDetector.now();
 
     public NodeChannel(NodeConnection nodeConnection) {
         this.nodeConnection = nodeConnection;
 
         this.packetManager.add(RYSTPacket.class, (id, ryst) -> {
-            this.nodeConnection.send(new ACKPacket());
+            NodeManager manager = this.nodeConnection.getManager();
+            manager.merge(ryst.getMembers());
+            this.nodeConnection.send(new ACKPacket(manager.getPort(), manager.piggyback()));
         });
 
-        this.packetManager.add(ACKPacket.class, (id, ack) -> {
-            this.tries.set(0);
-        });
+        this.packetManager.add(ACKPacket.class, (id, ack) -> this.nodeConnection.getManager().merge(ack.getMembers()));
+
+        this.packetManager.add(CreditPacket.class, (id, credit) -> this.nodeConnection.getFlowControl().granted(credit));
     }
 
     /**
@@ -38,19 +54,72 @@ public class NodeChannel extends Threaded {
         return packetManager;
     }
 
-    @Override
-    public void run() {
-        RYSTPacket ryst = new RYSTPacket();
-        while (this.run && !this.nodeConnection.getNodeSocket().isClosed()) {
-            try {
-                this.nodeConnection.send(ryst);
-                Thread.sleep(SEND_DELAY);
-                if (this.tries.getAndIncrement() > MAX_ACK_TRIES)
-                    this.nodeConnection.getNodeSocket().safeClose();
-            } catch (Exception e) {
-                log.error("NodeChannel thread failed: ", e);
+    /**
+     * Get the failure detector of the connection.
+     *
+     * @return failure detector
+     */
+    public FailureDetector getDetector() {
+        return detector;
+    }
+
+    /**
+     * Record that Packets arrived from the node.
+     */
+    public void heartbeat() {
+        this.detector.heartbeat();
+    }
+
+    /**
+     * Start checking the connection's liveness.
+     */
+    public void start() {
+        this.run = true;
+        schedule();
+    }
+
+    /**
+     * Stop checking the connection's liveness.
+     */
+    public void stop() {
+        this.run = false;
+        HashedWheelTimer.Timeout check = this.check;
+        if (check != null) check.cancel();
+    }
+
+    /**
+     * Schedule the next check on the NodeManager's timer.
+     */
+    private void schedule() {
+        int probeInterval = this.nodeConnection.getManager().getProbeInterval();
+        this.check = this.nodeConnection.getManager().getTimer().schedule(this::check,
+                Math.max(MIN_CHECK_DELAY, probeInterval / 4), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Probe the node if the link is idle and close it if the node is suspected dead.
+     */
+    private void check() {
+        if (!this.run || this.nodeConnection.getNodeSocket().isClosed()) return;
+        try {
+            NodeManager manager = this.nodeConnection.getManager();
+            int probeInterval = manager.getProbeInterval();
+            long now = FailureDetector.now();
+            if (this.detector.idle() >= probeInterval && now - this.probed >= probeInterval) {
+                this.nodeConnection.send(new RYSTPacket(manager.piggyback()));
+                this.probed = now;
+            }
+            double phi = this.detector.phi(probeInterval, manager.getAcceptablePause());
+            if (phi > manager.getPhiThreshold()) {
+                log.info(String.format("node %d suspected dead: phi %.2f", this.nodeConnection.getNode().getId(), phi));
                 this.nodeConnection.getNodeSocket().safeClose();
+                return;
             }
+        } catch (Exception e) {
+            log.error("NodeChannel check failed: ", e);
+            this.nodeConnection.getNodeSocket().safeClose();
+            return;
         }
+        if (this.run) schedule();
     }
 }
@@ -4,23 +4,34 @@ import eu.cifpfbmoll.netlib.internal.ACKPacket;
 import eu.cifpfbmoll.netlib.internal.HelloPacket;
 import eu.cifpfbmoll.netlib.packet.Packet;
 import eu.cifpfbmoll.netlib.packet.PacketManager;
-import eu.cifpfbmoll.netlib.util.Threaded;
+import eu.cifpfbmoll.netlib.util.Backoff;
+import eu.cifpfbmoll.netlib.util.HashedWheelTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Sends messages until connects with another pc.
+ *
+ * <p>Attempts are scheduled on the NodeManager's timer and run on its
+ * I/O threads, so waiting between attempts takes no thread. The
+ * delay between attempts grows exponentially, with jitter.</p>
  */
-public class NodeClient extends Threaded {
+public class NodeClient {
     private static final Logger log = LoggerFactory.getLogger(NodeClient.class);
     private static final int CONNECTION_DELAY = 1000;
+    private static final int MAX_CONNECTION_DELAY = 30000;
     private static final int ACK_DELAY = 300;
     private final NodeManager manager;
     private final String ip;
     private final PacketManager packetManager = new PacketManager();
-    private NodeSocket socket = null;
+    private final Backoff backoff = new Backoff(CONNECTION_DELAY, MAX_CONNECTION_DELAY);
+    private volatile boolean run = false;
+    private volatile HashedWheelTimer.Timeout attempt = null;
 
     /**
      * Creates NodeClient instance with given parameters.
@@ -30,6 +41,15 @@ public class NodeClient extends Threaded {
     public NodeClient(String ip, NodeManager manager) {
         this.manager = manager;
         this.ip = ip;
+        this.packetManager.add(ACKPacket.class, (id, ack) -> {
+            int port = ack.getPort() > 0 ? ack.getPort() : NodeServer.DEFAULT_PORT;
+            if (this.manager.isIdInUse(id, this.ip, port)) {
+                log.warn(String.format("ignored node %s:%d, ID %d is already in use", this.ip, port, id));
+                return;
+            }
+            this.manager.addNode(id, this.ip, port);
+            this.manager.merge(ack.getMembers());
+        });
         this.start();
     }
 
@@ -42,35 +62,67 @@ public class NodeClient extends Threaded {
         return ip;
     }
 
-    @Override
-    public void run() {
-        HelloPacket hello = new HelloPacket();
+    /**
+     * Start sending hellos to the target IP.
+     */
+    public void start() {
+        this.run = true;
+        schedule(0);
+    }
+
+    /**
+     * Stop sending hellos to the target IP.
+     */
+    public void stop() {
+        this.run = false;
+        HashedWheelTimer.Timeout attempt = this.attempt;
+        if (attempt != null) attempt.cancel();
+    }
+
+    /**
+     * Schedule the next attempt on the NodeManager's timer.
+     */
+    private void schedule(long delay) {
+        if (!this.run) return;
+        try {
+            this.attempt = this.manager.getTimer().schedule(() -> this.manager.execute(this::attempt), delay, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            this.run = false;
+        }
+    }
+
+    /**
+     * Connect and say hello until the node answers or the attempt times out.
+     */
+    private void attempt() {
+        if (!this.run) return;
+        NodeSocket socket = NodeSocket.connect(this.ip, NodeServer.DEFAULT_PORT, ACK_DELAY);
+        if (socket == null) {
+            schedule(this.backoff.next());
+            return;
+        }
+        HelloPacket hello = new HelloPacket(false, this.manager.getPort());
+        PacketReader reader = new PacketReader(socket);
+        long deadline = System.currentTimeMillis() + CONNECTION_DELAY;
         try {
-            while (this.run && this.socket == null) {
-                this.socket = NodeSocket.connect(this.ip, NodeServer.DEFAULT_PORT);
-                Thread.sleep(CONNECTION_DELAY);
-            }
-            if (this.socket != null) {
-                this.packetManager.add(ACKPacket.class, (id, ack) -> {
-                    this.manager.addNode(id, this.socket.getIp());
-                    this.socket.safeClose();
-                });
-                while (this.run && !this.socket.isClosed()) {
-                    this.socket.send(hello, this.manager.getId(), 0);
-                    Thread.sleep(ACK_DELAY);
-                    byte[] data = new byte[1024];
-                    int size = this.socket.read(data);
-                    if (size > 0) {
-                        Packet packet = Packet.load(data);
+            socket.send(hello, this.manager.getId(), 0);
+            while (this.run && !socket.isClosed() && System.currentTimeMillis() < deadline) {
+                try {
+                    for (Packet packet : reader.read())
                         this.packetManager.process(packet);
-                    }
+                } catch (SocketTimeoutException e) {
+                    socket.send(hello, this.manager.getId(), 0);
                 }
             }
-        } catch (SocketException ignored) {
+        } catch (SocketException | EOFException ignored) {
         } catch (Exception e) {
-            log.error("NodeClient's thread failed: ", e);
+            log.error("NodeClient attempt failed: ", e);
         } finally {
-            if (this.socket != null) this.socket.safeClose();
+            socket.safeClose();
+        }
+        if (this.run) {
+            schedule(this.backoff.next());
+        } else {
             this.manager.removeNodeClient(this);
         }
     }
@@ -1,11 +1,19 @@
 package eu.cifpfbmoll.netlib.node;
 
+import eu.cifpfbmoll.netlib.internal.HelloPacket;
+import eu.cifpfbmoll.netlib.metrics.ConnectionMetrics;
+import eu.cifpfbmoll.netlib.metrics.Metrics;
 import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketParser;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
 import eu.cifpfbmoll.netlib.util.Threaded;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -21,13 +29,43 @@ public class NodeConnection extends Threaded {
     private final Node node;
     private final NodeSocket socket;
     private final NodeManager manager;
+    private final PacketReader reader;
+    private final boolean outbound;
+    private final OutboundQueue queue = new OutboundQueue();
+    private final NodeWriter writer;
     private final NodeChannel channel = new NodeChannel(this);
+    private final FlowControl flowControl;
+    private volatile boolean disconnected = false;
 
     public NodeConnection(Node node, NodeSocket socket, NodeManager manager) {
+        this(node, socket, manager, new PacketReader(socket), false);
+    }
+
+    /**
+     * Create a NodeConnection.
+     *
+     * <p>Outbound connections start by sending a HelloPacket,
+     * so the other node can tell which node connected to it.</p>
+     *
+     * @param node     connected node
+     * @param socket   connected socket
+     * @param manager  NodeManager owning the connection
+     * @param reader   PacketReader of the socket, it might hold Packets already read
+     * @param outbound true if this node opened the connection
+     */
+    public NodeConnection(Node node, NodeSocket socket, NodeManager manager, PacketReader reader, boolean outbound) {
         this.node = node;
         this.socket = socket;
         this.manager = manager;
+        this.reader = reader;
+        this.outbound = outbound;
+        this.flowControl = new FlowControl(this, manager.getFlowWindow());
+        if (outbound)
+            send(new HelloPacket(true, manager.getPort()));
+        this.flowControl.start();
+        this.writer = new NodeWriter(socket, this.queue, manager.getMetrics(), node.getId());
         this.start();
+        this.writer.start();
         this.channel.start();
     }
 
@@ -58,49 +96,157 @@ public class NodeConnection extends Threaded {
         return manager;
     }
 
+    /**
+     * Check if this node opened the connection.
+     *
+     * @return true if the connection is outbound, false if it was accepted by the NodeServer
+     */
+    public boolean isOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Get the channel keeping track of the connection's liveness.
+     *
+     * @return NodeChannel of the connection
+     */
+    public NodeChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Get the credit-based flow control of the connection.
+     *
+     * @return FlowControl of the connection
+     */
+    public FlowControl getFlowControl() {
+        return flowControl;
+    }
+
+    /**
+     * Get the queue of Packets waiting to be written.
+     *
+     * @return outbound queue
+     */
+    public OutboundQueue getOutboundQueue() {
+        return queue;
+    }
+
     /**
      * Send a Packet to the connected node.
      *
+     * <p>The Packet is queued with the priority declared on its
+     * {@link eu.cifpfbmoll.netlib.annotation.PacketType}, raw
+     * Packets are queued with NORMAL priority.</p>
+     *
      * @param object PacketObject to send
-     * @return true if send was successful, false otherwise
+     * @return true if the Packet was queued, false otherwise
      */
     public boolean send(Object object) {
         if (object == null) return false;
+        PacketPriority priority = object instanceof Packet ? PacketPriority.NORMAL : PacketParser.getInstance().getPacketPriority(object.getClass());
+        return send(object, priority);
+    }
+
+    /**
+     * Send a Packet to the connected node with a specific priority.
+     *
+     * @param object   PacketObject to send
+     * @param priority priority lane to queue the Packet on
+     * @return true if the Packet was queued, false otherwise
+     */
+    public boolean send(Object object, PacketPriority priority) {
+        if (object == null || this.socket.isClosed()) return false;
         try {
-            if (object instanceof Packet) {
-                this.socket.write(((Packet) object).dump());
-                return true;
-            } else {
-                return this.socket.send(object, this.manager.getId(), this.node.getId());
-            }
+            Packet packet = object instanceof Packet ? (Packet) object : this.manager.createPacket(object, this.node.getId());
+            if (packet == null) return false;
+            if (this.queue.offer(packet, priority)) return true;
+            Metrics metrics = this.manager.getMetrics();
+            metrics.overflow();
+            if (metrics.isEnabled()) metrics.connection(this.node.getId()).dropped();
+            return false;
         } catch (Exception e) {
             return false;
         }
     }
 
+    /**
+     * Count Packets read from the node if metrics are enabled.
+     *
+     * @param packets read Packets
+     */
+    private void received(List<Packet> packets) {
+        Metrics metrics = this.manager.getMetrics();
+        if (!metrics.isEnabled()) return;
+        ConnectionMetrics connection = metrics.connection(this.node.getId());
+        for (Packet packet : packets) {
+            int bytes = packet.size();
+            connection.received(bytes);
+            metrics.type(packet.getTypeCode()).received(bytes);
+        }
+    }
+
+    /**
+     * Close the connection once every queued Packet has been written.
+     *
+     * <p>Disconnected nodes are not reconnected.</p>
+     */
+    public void disconnect() {
+        this.disconnected = true;
+        this.writer.closeWhenFlushed();
+    }
+
+    /**
+     * Check if the connection was closed on purpose.
+     *
+     * @return true if {@link NodeConnection#disconnect()} was called
+     */
+    public boolean isDisconnected() {
+        return disconnected;
+    }
+
     @Override
     public void run() {
+        PacketReader reader = this.reader;
+        List<Packet> local = new ArrayList<>();
         while (this.run && !this.socket.isClosed()) {
             try {
-                byte[] data = new byte[1024];
-                int size = this.socket.read(data);
-                if (size < 0) continue;
-                Packet packet = Packet.load(data);
-                if (!Objects.equals(packet.getDestinationId(), this.manager.getId())) {
-                    packet.addResender(this.manager.getId());
-                    packet.decreaseTTL();
-                    this.manager.send(packet.getDestinationId(), packet);
-                } else {
-                    if (!this.manager.getPacketManager().process(packet))
-                        this.channel.getPacketManager().process(packet);
+                local.clear();
+                List<Packet> packets = reader.read();
+                if (!packets.isEmpty()) {
+                    this.channel.heartbeat();
+                    received(packets);
+                }
+                for (Packet packet : packets) {
+                    if (packet.isReliable() && !packet.isBroadcast() && Objects.equals(packet.getDestinationId(), this.manager.getId())) {
+                        if (!this.manager.receiveReliable(packet)) continue;
+                    } else if (!this.manager.accept(packet)) {
+                        continue;
+                    }
+                    if (packet.isBroadcast()) {
+                        this.manager.relay(packet);
+                        local.add(packet);
+                    } else if (!Objects.equals(packet.getDestinationId(), this.manager.getId())) {
+                        this.manager.forward(packet);
+                    } else if (packet.isResponse()) {
+                        this.manager.completeRequest(packet);
+                    } else if (!this.channel.getPacketManager().process(packet)) {
+                        local.add(packet);
+                    }
                 }
-            } catch (SocketException ignored) {
+                if (!local.isEmpty())
+                    this.manager.getPacketManager().process(local);
+                if (!packets.isEmpty()) this.flowControl.received(packets.size());
+            } catch (SocketException | EOFException ignored) {
                 this.socket.safeClose();
             } catch (Exception e) {
                 log.error("NodeConnection thread failed: ", e);
                 this.socket.safeClose();
             }
         }
+        this.writer.stop();
+        this.channel.stop();
+        this.flowControl.stop();
         this.manager.removeNodeConnection(this);
     }
 }
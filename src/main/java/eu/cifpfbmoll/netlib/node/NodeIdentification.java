@@ -4,56 +4,97 @@ package eu.cifpfbmoll.netlib.node;
 import eu.cifpfbmoll.netlib.internal.ACKPacket;
 import eu.cifpfbmoll.netlib.internal.HelloPacket;
 import eu.cifpfbmoll.netlib.packet.Packet;
-import eu.cifpfbmoll.netlib.packet.PacketManager;
+import eu.cifpfbmoll.netlib.packet.PacketParser;
+import eu.cifpfbmoll.netlib.util.HashedWheelTimer;
 import eu.cifpfbmoll.netlib.util.Threaded;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
+import java.io.EOFException;
 import java.net.SocketException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Identifies if this user is a Damn user.
+ * Identifies the node behind a socket accepted by the NodeServer.
+ *
+ * <p>Nodes send a HelloPacket with their ID first. Discovery hellos are
+ * answered with an ACKPacket and closed, connection hellos turn the socket
+ * into a NodeConnection. Hellos claiming the ID of another node are
+ * rejected. Nodes that do not say hello are identified by
+ * their IP, as long as it is already in the nodes table. Sockets that
+ * send nothing for {@link NodeIdentification#HANDSHAKE_TIMEOUT}
+ * milliseconds are closed.</p>
  */
 public class NodeIdentification extends Threaded {
     private static final Logger log = LoggerFactory.getLogger(NodeIdentification.class);
-    private static final int ATTEMPS = 10;
+    public static final int HANDSHAKE_TIMEOUT = 5000;
+    private static final int HELLO_TYPE = Packet.typeCode(HelloPacket.type);
     private final NodeSocket socket;
     private final NodeManager manager;
-    private final PacketManager packetManager = new PacketManager();
 
     public NodeIdentification(NodeSocket socket, NodeManager manager) {
         this.manager = manager;
         this.socket = socket;
         this.start();
-
-        this.packetManager.add(HelloPacket.class, (id, hello) -> {
-            try {
-                this.socket.send(new ACKPacket(), this.manager.getId(), id);
-                this.manager.addNode(id, this.socket.getIp());
-                this.socket.safeClose();
-            } catch (Exception ignored) {
-            }
-        });
     }
 
     @Override
     public void run() {
-        while (this.run && !this.socket.isClosed()) {
-            try {
-                for (int i = 0; i < ATTEMPS && !this.socket.isClosed(); i++) {
-                    byte[] data = new byte[1024];
-                    int size = this.socket.read(data);
-                    if (size < 0) continue;
-                    Packet packet = Packet.load(data);
-                    this.packetManager.process(packet);
+        PacketReader reader = new PacketReader(this.socket);
+        String ip = this.socket.getIp();
+        HashedWheelTimer.Timeout timeout = this.manager.getTimer().schedule(this.socket::safeClose, HANDSHAKE_TIMEOUT, TimeUnit.MILLISECONDS);
+        try {
+            List<Packet> packets = Collections.emptyList();
+            while (this.run && packets.isEmpty() && !this.socket.isClosed())
+                packets = reader.read();
+            if (packets.isEmpty() || !timeout.cancel()) return;
+            Packet first = packets.get(0);
+            Integer id;
+            int port;
+            int read = 0;
+            if (first.getTypeCode() == HELLO_TYPE) {
+                HelloPacket hello = PacketParser.getInstance().deserialize(HelloPacket.class, first.getData());
+                id = first.getSourceId();
+                port = hello.getPort() > 0 ? hello.getPort() : NodeServer.DEFAULT_PORT;
+                if (this.manager.isIdInUse(id, ip, port)) {
+                    log.warn(String.format("rejected node %s:%d, ID %d is already in use", ip, port, id));
+                    this.socket.safeClose();
+                    return;
+                }
+                if (id.equals(this.manager.getId())) {
+                    this.socket.safeClose();
+                    return;
+                }
+                this.manager.addNode(id, ip, port);
+                if (!hello.isConnect()) {
+                    this.socket.send(new ACKPacket(this.manager.getPort(), this.manager.piggyback()), this.manager.getId(), id);
+                    this.socket.safeClose();
+                    return;
+                }
+                reader.unread(packets.subList(1, packets.size()));
+                read = 1;
+            } else {
+                id = this.manager.getNodeIdByIP(ip);
+                if (id == null) {
+                    this.socket.safeClose();
+                    return;
                 }
-            } catch (SocketException ignored) {
-            } catch (IOException e) {
-                log.error("NodeIdentification's thread failed: ", e);
-            } finally {
-                this.socket.safeClose();
+                port = this.manager.getNodePort(id);
+                reader.unread(packets);
             }
+            NodeConnection nodeConnection = new NodeConnection(new Node(id, ip, port), this.socket, this.manager, reader, false);
+            // The node counted its hello against our credits
+            if (read > 0) nodeConnection.getFlowControl().received(read);
+            this.manager.addNodeConnection(nodeConnection);
+        } catch (SocketException | EOFException ignored) {
+            timeout.cancel();
+            this.socket.safeClose();
+        } catch (Exception e) {
+            log.error("NodeIdentification's thread failed: ", e);
+            timeout.cancel();
+            this.socket.safeClose();
         }
     }
 }
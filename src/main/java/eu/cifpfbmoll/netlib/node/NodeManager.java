@@ -1,29 +1,97 @@
 package eu.cifpfbmoll.netlib.node;
 
-import eu.cifpfbmoll.netlib.packet.PacketHandler;
-import eu.cifpfbmoll.netlib.packet.PacketManager;
+import eu.cifpfbmoll.netlib.internal.ACKPacket;
+import eu.cifpfbmoll.netlib.internal.MemberUpdate;
+import eu.cifpfbmoll.netlib.internal.PingPacket;
+import eu.cifpfbmoll.netlib.internal.PingReqPacket;
+import eu.cifpfbmoll.netlib.internal.ReliableAckPacket;
+import eu.cifpfbmoll.netlib.internal.RoutePacket;
+import eu.cifpfbmoll.netlib.internal.SubscribePacket;
+import eu.cifpfbmoll.netlib.metrics.ConnectionMetrics;
+import eu.cifpfbmoll.netlib.metrics.Metrics;
+import eu.cifpfbmoll.netlib.packet.*;
+import eu.cifpfbmoll.netlib.util.Backoff;
+import eu.cifpfbmoll.netlib.util.DaemonThreadFactory;
+import eu.cifpfbmoll.netlib.util.DuplicateFilter;
+import eu.cifpfbmoll.netlib.util.HashedWheelTimer;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Discover, connect and manage nodes in the network.
  */
-public class NodeManager {
+public class NodeManager implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(NodeManager.class);
-    private final List<NodeConnection> nodeConnections = new ArrayList<>();
-    private final List<NodeClient> clientList = new ArrayList<>();
-    private final Map<Integer, String> nodes = new HashMap<>();
+    public static final int DEFAULT_PROBE_INTERVAL = 1000;
+    public static final int DEFAULT_GOSSIP_FANOUT = 3;
+    public static final int DEFAULT_GOSSIP_REDUNDANCY = 1;
+    public static final int CONNECT_TIMEOUT = 3000;
+    public static final int DEFAULT_RECONNECT_MIN_DELAY = 250;
+    public static final int DEFAULT_RECONNECT_MAX_DELAY = 30000;
+    public static final int DEFAULT_RECONNECT_ATTEMPTS = 8;
+    public static final int RECONNECT_CAPACITY = 1024;
+    public static final long PEER_CACHE_MAX_AGE = TimeUnit.DAYS.toMillis(7);
+    private static final int GOSSIP_INTERVAL = 200;
+    private static final int PEER_CACHE_DELAY = 1000;
+    private static final int DISPATCH_KEEP_ALIVE = 60000;
+    private static final int IO_THREADS = 8;
+    private final Map<Integer, NodeConnection> nodeConnections = new ConcurrentHashMap<>();
+    private final List<NodeClient> clientList = new CopyOnWriteArrayList<>();
+    private final List<NodeScanner> scanners = new CopyOnWriteArrayList<>();
+    private final Map<Integer, NodeReconnector> reconnectors = new ConcurrentHashMap<>();
+    private final Map<Integer, ReliableSession> sessions = new ConcurrentHashMap<>();
+    private final Map<Integer, String> nodes = new ConcurrentHashMap<>();
+    private final Map<String, Integer> nodeIds = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> ports = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> lastSeen = new ConcurrentHashMap<>();
+    private final AtomicBoolean peerSaveScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final PeerCache peerCache;
+    private volatile Outbox outbox;
     private final PacketManager packetManager;
+    private final ExecutorService dispatchExecutor;
+    private final ExecutorService ioExecutor;
+    private final HashedWheelTimer timer = new HashedWheelTimer(new DaemonThreadFactory("NodeTimer"));
+    private final Map<Integer, PendingRequest<?>> requests = new ConcurrentHashMap<>();
+    private final AtomicInteger correlationIds = new AtomicInteger(0);
+    private final SubscriptionTable subscriptions = new SubscriptionTable();
+    private final Set<String> topics = ConcurrentHashMap.newKeySet();
+    private final RoutingTable routingTable;
+    private final HashRing ring = new HashRing();
+    private final Membership membership;
+    private final NodeProber prober;
+    private final DuplicateFilter duplicateFilter = new DuplicateFilter();
+    private final Metrics metrics;
+    private final PacketCounters counters;
+    private final AtomicInteger sequence = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+    private final int instance = (int) (System.currentTimeMillis() / 1000);
+    private final AtomicInteger reliableEpochs = new AtomicInteger(this.instance - 1);
+    private volatile int gossipFanout = DEFAULT_GOSSIP_FANOUT;
+    private volatile int gossipRedundancy = DEFAULT_GOSSIP_REDUNDANCY;
+    private volatile double phiThreshold = FailureDetector.DEFAULT_THRESHOLD;
+    private volatile int probeInterval = DEFAULT_PROBE_INTERVAL;
+    private volatile int acceptablePause = FailureDetector.DEFAULT_ACCEPTABLE_PAUSE;
+    private volatile int reconnectMinDelay = DEFAULT_RECONNECT_MIN_DELAY;
+    private volatile int reconnectMaxDelay = DEFAULT_RECONNECT_MAX_DELAY;
+    private volatile int reconnectAttempts = DEFAULT_RECONNECT_ATTEMPTS;
+    private volatile int flowWindow = FlowControl.DEFAULT_WINDOW;
+    private volatile Executor executor;
     private final NodeServer nodeServer;
     private final Integer id;
     private final String ip;
+    private final int serverPort;
 
     /**
      * Get ID for an IP.
@@ -40,6 +108,39 @@ public class NodeManager {
         }
     }
 
+    /**
+     * Get the default ID for a node listening on an IP and port.
+     *
+     * <p>The ID is derived from the whole IPv4 address and the port, so nodes
+     * on different subnets or on the same host get different IDs. Collisions
+     * are unlikely but possible, a node claiming the ID of a connected node
+     * is rejected at the handshake, see {@link NodeManager#isIdInUse(Integer, String, int)}.
+     * Use explicit IDs when collisions must be avoided altogether.</p>
+     *
+     * <p>Derived IDs are almost always above 255, so every Packet is sent
+     * with the wide header, which nodes older than it cannot read: they can
+     * only talk to new nodes using IDs of 255 or less, such as the ones
+     * from {@link NodeManager#getIdForIp(String)}.</p>
+     *
+     * @param ip   node IP
+     * @param port node server port
+     * @return positive node ID
+     */
+    public static Integer getIdForEndpoint(String ip, int port) {
+        long key = port & 0xffff;
+        try {
+            for (byte b : InetAddress.getByName(ip).getAddress())
+                key = (key << 8 | (b & 0xff)) ^ (key >>> 56);
+        } catch (Exception e) {
+            key ^= (long) String.valueOf(ip).hashCode() << 16;
+        }
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        int id = (int) key & Integer.MAX_VALUE;
+        return id == 0 ? 1 : id;
+    }
+
     /**
      * Get all network interfaces.
      *
@@ -106,14 +207,102 @@ public class NodeManager {
      * Create a NodeManager instance with an IP and specify if
      * NodeServer should be creted.
      *
+     * <p>The node ID is derived from the IP and port, use
+     * {@link NodeManager#NodeManager(Integer, String, boolean, int)} with
+     * an ID of 255 or less to talk to nodes without wide headers.</p>
+     *
      * @param ip     user's IP
      * @param server boolean value if server should be created
      */
     public NodeManager(String ip, boolean server, int serverPort) {
-        this.id = getIdForIp(ip);
+        this(getIdForEndpoint(ip, serverPort), ip, server, serverPort);
+    }
+
+    /**
+     * Create a NodeManager instance with an explicit node ID.
+     *
+     * <p>Other nodes learn the ID when we say hello to them,
+     * so it does not need to match the IP in any way.</p>
+     *
+     * @param id         node ID
+     * @param ip         user's IP
+     * @param server     boolean value if server should be created
+     * @param serverPort port the NodeServer listens on
+     */
+    public NodeManager(Integer id, String ip, boolean server, int serverPort) {
+        this(id, ip, server, serverPort, null);
+    }
+
+    /**
+     * Create a NodeManager instance that remembers known nodes across restarts.
+     *
+     * <p>Nodes stored in the peer cache are added to the nodes table and
+     * dialled in parallel right away, so a scan only has to find the nodes
+     * that are not in the cache. The cache is updated shortly after the
+     * nodes table changes.</p>
+     *
+     * @param id         node ID
+     * @param ip         user's IP
+     * @param server     boolean value if server should be created
+     * @param serverPort port the NodeServer listens on
+     * @param peerCache  peer cache file or null to keep no cache
+     * @see PeerCache
+     */
+    public NodeManager(Integer id, String ip, boolean server, int serverPort, Path peerCache) {
+        if (id == null)
+            throw new NullPointerException("Node ID cannot be null.");
+        this.id = id;
         this.ip = ip;
+        this.serverPort = serverPort;
         this.packetManager = new PacketManager();
+        this.metrics = new Metrics(this.id);
+        this.counters = new PacketCounters(this.metrics);
+        this.packetManager.setMetrics(this.metrics);
+        this.routingTable = new RoutingTable(this.id);
+        this.ring.add(this.id);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor dispatchExecutor = new ThreadPoolExecutor(threads, threads, DISPATCH_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory("NodeDispatcher"));
+        dispatchExecutor.allowCoreThreadTimeOut(true);
+        this.dispatchExecutor = dispatchExecutor;
+        ThreadPoolExecutor ioExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, DISPATCH_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory("NodeIO"));
+        ioExecutor.allowCoreThreadTimeOut(true);
+        this.ioExecutor = ioExecutor;
+        this.executor = this.dispatchExecutor;
+        this.packetManager.setExecutor(this.dispatchExecutor);
+        this.packetManager.setResponder(this::respond);
+        this.packetManager.add(SubscribePacket.class, (src, subs) -> {
+            if (subs.isFull()) {
+                this.subscriptions.replace(src, subs.getSubscribe());
+            } else {
+                this.subscriptions.subscribe(src, subs.getSubscribe());
+                this.subscriptions.unsubscribe(src, subs.getUnsubscribe());
+            }
+        });
+        this.packetManager.add(RoutePacket.class, (src, route) -> {
+            if (nodeConnectionById(src) != null)
+                routesChanged(this.routingTable.update(src, route.getRoutes(), route.isFull()));
+        });
+        this.membership = new Membership(this.id, ip, server ? serverPort : 0);
+        this.prober = new NodeProber(this, this.membership);
+        this.packetManager.addRequest(PingPacket.class, (src, ping) -> {
+            merge(ping.getMembers());
+            return new ACKPacket(getPort(), piggyback());
+        });
+        this.packetManager.addRequest(PingReqPacket.class, (src, req) -> {
+            merge(req.getMembers());
+            return this.prober.ping(req.getTarget(), this.prober.getPeriod() / 2)
+                    .thenApply(ack -> new ACKPacket(getPort(), piggyback()));
+        });
+        this.packetManager.add(ReliableAckPacket.class, (src, ack) -> {
+            ReliableSession session = this.sessions.get(src);
+            if (session != null) session.acknowledge(ack);
+        });
+        this.peerCache = peerCache == null ? null : new PeerCache(peerCache);
         this.nodeServer = server ? new NodeServer(this, serverPort) : null;
+        if (this.peerCache != null) restorePeers();
+        this.prober.start();
     }
 
     /**
@@ -123,12 +312,17 @@ public class NodeManager {
      * @return True if is in HashMap, False otherwise.
      */
     public boolean nodeInHash(String ip) {
-        return nodes.containsValue(ip);
+        return ip != null && this.nodeIds.containsKey(ip);
     }
 
     /**
      * Connect to a Node by ID.
      *
+     * <p>If another thread connects to the same Node concurrently,
+     * only one connection is kept and returned to both callers. If the
+     * Node connects to us at the same time, the connection opened by the
+     * node with the lowest ID is kept on both ends.</p>
+     *
      * @param id Node ID to connect to
      * @return new NodeConnection with Node or null if connection failed
      */
@@ -138,9 +332,9 @@ public class NodeManager {
         String ip = this.nodes.get(id);
         if (ip == null) return null;
         try {
-            NodeSocket socket = new NodeSocket(ip, NodeServer.DEFAULT_PORT);
-            conn = new NodeConnection(new Node(id, ip), socket, this);
-            addNodeConnection(conn);
+            int port = getNodePort(id);
+            NodeSocket socket = new NodeSocket(ip, port, CONNECT_TIMEOUT);
+            conn = keep(new NodeConnection(new Node(id, ip, port), socket, this, new PacketReader(socket), true));
         } catch (IOException e) {
             log.error("failed to create connection with ", e);
         }
@@ -160,341 +354,1801 @@ public class NodeManager {
     /**
      * Send a Packet object to an other node with id.
      *
+     * <p>Nodes without a direct connection are reached through the next
+     * hop of their route. Packets for nodes being reconnected without a
+     * route wait until the node is back, other nodes are dialed directly.</p>
+     *
      * @param id     target node id
      * @param packet packet object to send
      * @return true if send was successful, false otherwise
      */
     public boolean send(Integer id, Object packet) {
-        NodeConnection conn = connect(id);
-        if (conn != null) return conn.send(packet);
-        if (this.nodes.get(id) == null)
-            broadcast(packet);
-        return false;
+        if (packet == null) return false;
+        return send(id, packet, packet instanceof Packet ? PacketPriority.NORMAL : PacketParser.getInstance().getPacketPriority(packet.getClass()));
     }
 
     /**
-     * Send a single packet to a node and disconnect.
+     * Get the consistent-hash ring of the nodes that can be reached.
      *
-     * @param id     node id to send packet to
-     * @param object packet object to send
-     * @return true if send was successful, false otherwise
+     * @return hash ring, including this node
      */
-    public boolean sendAndDisconnect(Integer id, Object object) {
-        boolean result = false;
-        NodeConnection conn = connect(id);
-        if (conn != null) {
-            result = conn.send(object);
-            conn.getNodeSocket().safeClose();
-        }
-        return result;
+    public HashRing getRing() {
+        return this.ring;
     }
 
     /**
-     * Broadcast a packet object to all known nodes.
+     * Get the node owning a key on the hash ring.
+     *
+     * @param key partition key, like a room name
+     * @return owner node ID, this node's ID if no other node is reachable
+     */
+    public Integer getOwner(String key) {
+        Integer owner = this.ring.getOwner(key);
+        return owner == null ? this.id : owner;
+    }
+
+    /**
+     * Send a Packet object to the node owning a key.
      *
+     * <p>Keys are spread over the reachable nodes with a consistent-hash
+     * ring, so every node sends the same key to the same owner, and only
+     * about 1/N of the keys move when a node joins or leaves. Objects owned
+     * by this node are handled locally, as if they came from this node.</p>
+     *
+     * @param key    partition key, like a room name
      * @param object packet object to send
+     * @return true if the object was sent or handled, false otherwise
+     * @see HashRing
      */
-    public void broadcast(Object object) {
-        for (Integer id : this.nodes.keySet()) {
-            NodeConnection conn = nodeConnectionById(id);
-            if (conn != null) {
-                conn.send(object);
-            } else {
-                sendAndDisconnect(id, object);
-            }
+    public boolean sendToOwner(String key, Object object) {
+        Integer owner = getOwner(key);
+        if (!this.id.equals(owner)) return send(owner, object);
+        try {
+            Packet packet = createPacket(object, this.id);
+            return packet != null && this.packetManager.process(packet);
+        } catch (Exception e) {
+            log.error("failed to create packet: ", e);
+            return false;
         }
     }
 
     /**
-     * Connect and send a Packet object to an other node with ip.
+     * Send a Packet object to an other node with id, overriding the
+     * priority declared on its PacketType.
      *
-     * <p>This method does not check if the target machine
-     * is running the same program and won't be added to the
-     * NodeConnection's list, this might cause issues.
-     * Use at your own risk.</p>
+     * <p>The Packet goes through the direct connection to the node, or the
+     * next hop of its route. Packets for nodes that have neither are
+     * dropped instead of flooded to every node.</p>
      *
-     * @param ip     target node ip
-     * @param port   target node port
-     * @param packet packet object to send
-     * @return NodeConnection or null if the operation failed
+     * @param id       target node id
+     * @param packet   packet object to send
+     * @param priority priority lane to queue the packet on
+     * @return true if send was successful, false otherwise
      */
-    public NodeConnection send(String ip, int port, Object packet) {
-        NodeConnection conn = null;
+    public boolean send(Integer id, Object packet, PacketPriority priority) {
+        if (id == null || packet == null) return false;
+        NodeConnection conn = nodeConnectionById(id);
+        if (conn == null) conn = nodeConnectionById(this.routingTable.getNextHop(id));
+        if (conn == null) {
+            NodeReconnector reconnector = this.reconnectors.get(id);
+            if (reconnector != null) return reconnector.send(packet, priority);
+            conn = connect(id);
+        }
+        if (conn == null) {
+            this.metrics.unroutable();
+            log.debug(String.format("dropped packet for unreachable node %d", id));
+            return false;
+        }
+        if (conn.getNode().getId().equals(id)) return conn.send(packet, priority);
         try {
-            NodeSocket socket = new NodeSocket(ip, port);
-            conn = new NodeConnection(new Node(-1, ip), socket, this);
-            conn.send(packet);
+            Packet relayed = packet instanceof Packet ? (Packet) packet : createPacket(packet, id);
+            if (relayed == null) return false;
+            if (!relayed.hasSequence() && this.id.equals(relayed.getSourceId()))
+                stamp(relayed);
+            return conn.send(relayed, priority);
         } catch (Exception e) {
-            log.error("failed to create connection with ", e);
-            return null;
+            log.error("failed to create packet: ", e);
+            return false;
         }
-        return conn;
     }
 
     /**
-     * Get PacketManager.
+     * Send a Packet object to an other node reliably.
      *
-     * @return current PacketManager
+     * <p>The Packet is kept until the node acknowledges it, and sent again
+     * if the connection drops before that, once the node is back. Each
+     * Packet is delivered at most once, but not necessarily in order. Only
+     * {@link ReliableSession#DEFAULT_WINDOW} Packets can wait for their
+     * acknowledgement at a time.</p>
+     *
+     * @param id     target node id
+     * @param object packet object to send
+     * @return true if the Packet was accepted for delivery, false if the window is full
+     * @see ReliableSession
      */
-    public PacketManager getPacketManager() {
-        return this.packetManager;
+    public boolean sendReliable(Integer id, Object object) {
+        if (object == null) return false;
+        return sendReliable(id, object, object instanceof Packet ? PacketPriority.NORMAL : PacketParser.getInstance().getPacketPriority(object.getClass()));
     }
 
     /**
-     * Get NodeServer.
+     * Send a Packet object to an other node reliably, overriding the
+     * priority declared on its PacketType.
      *
-     * @return current NodeServer
+     * @param id       target node id
+     * @param object   packet object to send
+     * @param priority priority lane to queue the packet on
+     * @return true if the Packet was accepted for delivery, false if the window is full
      */
-    public NodeServer getNodeServer() {
-        return nodeServer;
+    public boolean sendReliable(Integer id, Object object, PacketPriority priority) {
+        if (id == null || object == null || this.id.equals(id)) return false;
+        return session(id).send(object, priority);
     }
 
     /**
-     * Get Node's id
+     * Send a Packet object to an other node, storing it on disk if the
+     * node cannot be reached right now.
      *
-     * @return current node's id
+     * <p>Every Packet is stored first and sent reliably, in the order it
+     * was stored, while the node can be reached, or when it connects, in
+     * this run or after a restart. Packets stay stored until the node
+     * acknowledges them, so they are delivered at least once, but not
+     * necessarily in order.</p>
+     *
+     * @param id     target node id
+     * @param object packet object to send
+     * @return true if the Packet was sent or stored, false if it could not be stored
+     * @throws IllegalStateException if no outbox was set
+     * @see NodeManager#setOutbox(Path, long)
      */
-    public Integer getId() {
-        return id;
+    public boolean sendDurable(Integer id, Object object) throws IllegalStateException {
+        Outbox outbox = this.outbox;
+        if (outbox == null)
+            throw new IllegalStateException("No outbox set.");
+        if (id == null || object == null || this.id.equals(id)) return false;
+        PacketPriority priority = object instanceof Packet ? PacketPriority.NORMAL : PacketParser.getInstance().getPacketPriority(object.getClass());
+        boolean reachable = this.routingTable.getRoute(id) != null;
+        try {
+            Packet packet = object instanceof Packet ? (Packet) object : createPacket(object, id);
+            if (packet == null || !outbox.store(id, packet, priority)) return false;
+        } catch (Exception e) {
+            log.error("failed to create packet: ", e);
+            return false;
+        }
+        if (reachable) outbox.drain(id);
+        return true;
     }
 
     /**
-     * Get an IP address for a node ID.
+     * Keep the Packets sent with {@link NodeManager#sendDurable(Integer, Object)}
+     * in a directory, replacing the previous outbox.
      *
-     * @param id node ID
-     * @return node IP address or null if no entry was found for ID
+     * <p>Packets left in the directory by a previous run are delivered
+     * when their destinations connect.</p>
+     *
+     * @param directory outbox directory
+     * @param maxBytes  maximum bytes stored per destination
+     * @throws IOException              if the outbox could not be opened
+     * @throws IllegalArgumentException if maxBytes is lower than a log segment
+     * @see Outbox
      */
-    public String getNodeIPById(Integer id) {
-        return this.nodes.get(id);
+    public void setOutbox(Path directory, long maxBytes) throws IOException, IllegalArgumentException {
+        Outbox outbox = new Outbox(this, directory, maxBytes);
+        Outbox previous = this.outbox;
+        this.outbox = outbox;
+        if (previous != null) previous.close();
+        for (NodeConnection conn : this.nodeConnections.values())
+            outbox.drain(conn.getNode().getId());
     }
 
     /**
-     * Get Node's ID by its IP.
+     * Get the outbox of Packets waiting for their destinations.
      *
-     * @param ip Node's IP
-     * @return Node's ID or null if no matching IP was found
+     * @return outbox or null if none was set
      */
-    public Integer getNodeIdByIP(String ip) {
-        for (Integer id : this.nodes.keySet())
-            if (StringUtils.equals(this.nodes.get(id), ip))
-                return id;
-        return null;
+    public Outbox getOutbox() {
+        return this.outbox;
     }
 
     /**
-     * Add a node to the table.
+     * Get the reliable session with a node.
      *
      * @param id node ID
-     * @param ip node IP address
+     * @return reliable session or null if nothing was sent or received reliably
      */
-    public synchronized void addNode(Integer id, String ip) {
-        this.nodes.put(id, ip);
-        this.removeNodeClientByIp(ip);
-        log.info(String.format("added node: %d - %s", id, ip));
-        notifyAll();
+    public ReliableSession getReliableSession(Integer id) {
+        return id == null ? null : this.sessions.get(id);
     }
 
     /**
-     * Get nodes HashMap.
+     * Check if a reliable Packet addressed to this node has to be handled.
      *
-     * @return nodes hashmap
+     * @param packet received Packet
+     * @return true if the Packet is new, false if it is a duplicate
      */
-    public Map<Integer, String> getNodes() {
-        return this.nodes;
+    public boolean receiveReliable(Packet packet) {
+        if (session(packet.getSourceId()).receive(packet)) return true;
+        this.metrics.duplicate();
+        return false;
     }
 
     /**
-     * Remove Node from the table.
+     * Get the identifier of this node's run, to tell restarts apart.
+     *
+     * @return start time in seconds
+     */
+    protected int getInstance() {
+        return this.instance;
+    }
+
+    /**
+     * Get a new epoch for a reliable session.
+     *
+     * <p>Epochs grow with time, so sessions started after a restart
+     * usually override the ones started before. When they do not, the
+     * receiving node answers with the epoch it last saw and the session
+     * moves past it.</p>
+     *
+     * @return epoch higher than any returned before
+     */
+    protected int nextReliableEpoch() {
+        int now = (int) (System.currentTimeMillis() / 1000);
+        return this.reliableEpochs.updateAndGet(epoch -> Math.max(epoch + 1, now));
+    }
+
+    /**
+     * Get the reliable session with a node, starting it if needed.
      *
      * @param id node ID
+     * @return reliable session
      */
-    public void removeNodeId(Integer id) {
-        this.nodes.remove(id);
+    protected ReliableSession session(Integer id) {
+        return this.sessions.computeIfAbsent(id, key -> new ReliableSession(this, key, nextReliableEpoch(), ReliableSession.DEFAULT_WINDOW));
     }
 
     /**
-     * Get NodeConnection from NodeConnections list with matching node id.
+     * Forward a Packet addressed to an other node to the next hop of its route.
      *
-     * @param id node id to look for
-     * @return matching NodeConnection
+     * <p>The Packet's TTL is decreased and Packets whose TTL expires are
+     * dropped. Unlike {@link NodeManager#send(Integer, Object)}, forwarding
+     * never opens new connections, Packets without a route are dropped.</p>
+     *
+     * @param packet Packet to forward
+     * @return true if the Packet was queued, false if it was dropped
      */
-    public NodeConnection nodeConnectionById(Integer id) {
-        NodeConnection nodeConnection = null;
-        for (NodeConnection conn : this.nodeConnections) {
-            if (conn.getNode().getId().equals(id)) {
-                nodeConnection = conn;
-                break;
-            }
+    public boolean forward(Packet packet) {
+        Integer destination = packet.getDestinationId();
+        packet.addResender(this.id);
+        packet.decreaseTTL();
+        if (packet.getTTL() <= 0) {
+            this.metrics.expired();
+            log.debug(String.format("dropped expired packet for node %d", destination));
+            return false;
         }
-        return nodeConnection;
+        NodeConnection conn = nodeConnectionById(this.routingTable.getNextHop(destination));
+        if (conn == null) conn = nodeConnectionById(destination);
+        if (conn == null) {
+            this.metrics.unroutable();
+            log.debug(String.format("dropped packet for unreachable node %d", destination));
+            return false;
+        }
+        return conn.send(packet);
     }
 
     /**
-     * Remove NodeConnection from NodeConnections list with matching node id.
+     * Check if a received Packet should be handled or forwarded.
      *
-     * @param id node id to remove
+     * <p>Packets with a sequence number are identified by their source and
+     * sequence number, and dropped if the same Packet was seen recently.</p>
+     *
+     * @param packet received Packet
+     * @return true if the Packet is new, false if it is a duplicate
      */
-    public synchronized void removeNodeConnectionById(Integer id) {
-        for (int i = 0; i < this.nodeConnections.size(); i++) {
-            NodeConnection conn = this.nodeConnections.get(i);
-            if (conn.getNode().getId().equals(id)) {
-                this.nodeConnections.remove(i);
-                break;
-            }
-        }
-        notifyAll();
+    public boolean accept(Packet packet) {
+        if (!packet.hasSequence()) return true;
+        if (this.duplicateFilter.add(sequenceKey(packet))) return true;
+        this.metrics.duplicate();
+        return false;
     }
 
     /**
-     * Add NodeConnection to NodeConnections list if not present.
+     * Give a Packet originated by this node the next sequence number.
      *
-     * @param nodeConnection NodeConnection to add
+     * <p>Sequence numbers start from a random value on every run, so the
+     * Packets of a node that restarted are not taken for the ones other
+     * nodes saw before the restart.</p>
+     *
+     * @param packet Packet to stamp
      */
-    public synchronized void addNodeConnection(NodeConnection nodeConnection) {
-        Integer id = nodeConnection.getNode().getId();
-        NodeConnection conn = nodeConnectionById(id);
-        if (conn != null) {
-            conn.getNodeSocket().safeClose();
-            this.removeNodeConnectionById(conn.getNode().getId());
-        }
-        this.nodeConnections.add(nodeConnection);
-        notifyAll();
+    protected void stamp(Packet packet) {
+        packet.setSequence(this.sequence.incrementAndGet());
+        this.duplicateFilter.add(sequenceKey(packet));
     }
 
     /**
-     * Remove NodeConnection from NodeConnections list.
+     * Get the key identifying a Packet across the network.
      *
-     * @param nodeConnection NodeConnection to remove
+     * @param packet Packet with a sequence number
+     * @return source ID and sequence number packed in a long
      */
-    public void removeNodeConnection(NodeConnection nodeConnection) {
-        removeNodeConnectionById(nodeConnection.getNode().getId());
+    private static long sequenceKey(Packet packet) {
+        return ((long) packet.getSourceId() << 32) | (packet.getSequence() & 0xffffffffL);
     }
 
     /**
-     * Add NodeClient to NodeClients list.
+     * Get the counters of dropped Packets.
      *
-     * @param nodeClient NodeClient to add
+     * @return dropped Packet counters
+     * @see NodeManager#metrics()
      */
-    public synchronized void addNodeClient(NodeClient nodeClient) {
-        this.clientList.add(nodeClient);
-        notifyAll();
+    public PacketCounters getCounters() {
+        return this.counters;
     }
 
     /**
-     * Remove NodeClient from NodeClients list.
+     * Get the Metrics of this node.
      *
-     * @param ip NodeClient's IP to remove
+     * @return node Metrics
      */
-    public synchronized void removeNodeClientByIp(String ip) {
-        for (NodeClient nc : this.clientList) {
-            if (StringUtils.equals(nc.getIp(), ip)) {
-                nc.stop();
-                this.clientList.remove(nc);
-                break;
-            }
-        }
-        notifyAll();
+    public Metrics getMetrics() {
+        return this.metrics;
     }
 
     /**
-     * Remove NodeClient from NodeClients list.
+     * Copy the Metrics of this node.
      *
-     * @param nodeClient NodeClient to remove
+     * <p>Traffic and latencies are only recorded while metrics are enabled,
+     * dropped Packets are always counted.</p>
+     *
+     * @return snapshot of the Metrics
+     * @see NodeManager#setMetricsEnabled(boolean)
      */
-    public synchronized void removeNodeClient(NodeClient nodeClient) {
-        nodeClient.stop();
-        this.clientList.remove(nodeClient);
-        notifyAll();
+    public Metrics.Snapshot metrics() {
+        return this.metrics.snapshot();
     }
 
     /**
-     * Register a Packet Handler for Packet type.
+     * Start or stop recording traffic and latencies, and registering them as MBeans.
      *
-     * @param clazz   object class to handle
-     * @param handler packet handler to handle a Packet type
-     * @throws NullPointerException     if object's class or handler are null
-     * @throws IllegalArgumentException if object's class does not have the PacketType annotation or packet type is already registered
-     * @see PacketHandler
+     * <p>Metrics are disabled by default. Connections opened while metrics
+     * are disabled do not report their queue depth.</p>
+     *
+     * @param enabled true to record metrics
+     * @see Metrics
      */
-    public <T> void register(Class<T> clazz, PacketHandler<T> handler) throws NullPointerException, IllegalArgumentException {
-        this.packetManager.add(clazz, handler);
+    public void setMetricsEnabled(boolean enabled) {
+        this.metrics.setEnabled(enabled);
     }
 
     /**
-     * Remove registered Packet Handler for Packet type.
+     * Create a Packet sent by this node, timing the serialization while metrics are enabled.
      *
-     * @param type packet type to remove
+     * @param object PacketObject to serialize
+     * @param dst    destination node id
+     * @return new Packet or null if the object could not be serialized
+     * @throws IllegalAccessException   if reading a field fails
+     * @throws IllegalArgumentException if the object is not a PacketType or it is too big
      */
-    public void unregister(String type) {
-        this.packetManager.remove(type);
+    protected Packet createPacket(Object object, Integer dst) throws IllegalAccessException, IllegalArgumentException {
+        if (!this.metrics.isEnabled()) return NodeSocket.createPacket(object, this.id, dst);
+        long start = System.nanoTime();
+        Packet packet = NodeSocket.createPacket(object, this.id, dst);
+        if (packet != null) this.metrics.type(packet.getTypeCode()).serialized(System.nanoTime() - start);
+        return packet;
     }
 
     /**
-     * Remove registered Packet Handler for Packet type.
+     * Get the routing table used to reach nodes without a direct connection.
      *
-     * @param clazz class of the packet type to remove
+     * @return routing table
      */
-    public void unregister(Class<?> clazz) {
-        this.packetManager.remove(clazz);
+    public RoutingTable getRoutingTable() {
+        return this.routingTable;
     }
 
     /**
-     * Check if a certain IP is a Node.
+     * Send a request to an other node and wait asynchronously for its response.
      *
-     * @param ip IP to check
+     * <p>Any number of requests can be in flight on the same connection,
+     * responses are matched to their request by a correlation ID. The
+     * returned future completes exceptionally with a TimeoutException if
+     * no response arrives in time, and cancelling it forgets the request.
+     * Requests that cannot be encoded complete it exceptionally with an
+     * IllegalArgumentException right away.</p>
+     *
+     * @param id            target node id
+     * @param request       request object to send
+     * @param responseClass class of the expected response object
+     * @param timeout       time to wait for the response in milliseconds
+     * @return future completed with the response object
+     * @see RequestHandler
      */
-    public void discover(String ip) {
+    public <R> CompletableFuture<R> request(Integer id, Object request, Class<R> responseClass, long timeout) {
+        CompletableFuture<R> future = new CompletableFuture<>();
         try {
-            if (nodeInHash(ip)) return;
-            NodeClient nodeClient = new NodeClient(ip, this);
-            this.clientList.add(nodeClient);
+            if (request == null || responseClass == null)
+                throw new NullPointerException("Request object and response class cannot be null.");
+            int correlationId = this.correlationIds.incrementAndGet();
+            Packet packet = createPacket(request, id);
+            if (packet == null)
+                throw new IllegalArgumentException(String.format("%s cannot be encoded", request.getClass().getSimpleName()));
+            packet.setRequest(correlationId);
+            NodeSocket.checkSize(packet);
+            PendingRequest<R> pending = new PendingRequest<>(id, responseClass, future);
+            HashedWheelTimer.Timeout task = this.timer.schedule(() -> future.completeExceptionally(new TimeoutException(
+                    String.format("No response from node %d after %d ms", id, timeout))), timeout, TimeUnit.MILLISECONDS);
+            this.requests.put(correlationId, pending);
+            future.whenComplete((response, e) -> {
+                this.requests.remove(correlationId, pending);
+                task.cancel();
+            });
+            if (!send(id, packet, PacketParser.getInstance().getPacketPriority(request.getClass())))
+                future.completeExceptionally(new IOException(String.format("Unable to send request to node %d", id)));
         } catch (Exception e) {
-            log.error("failed to create NodeClient: ", e);
+            future.completeExceptionally(e);
         }
+        return future;
     }
 
     /**
-     * Start Node scan with the specified IPs.
+     * Complete the pending request matching a response Packet.
      *
-     * @param ips IPs to scan
+     * <p>Responses for requests that already timed out or were cancelled,
+     * and responses from other nodes than the requested one, are discarded.</p>
+     *
+     * @param packet response Packet
      */
-    public void startScan(List<String> ips) {
-        for (String ip : ips) {
-            if (StringUtils.equals(this.ip, ip) || nodeInHash(ip)) continue;
-            discover(ip);
+    protected void completeRequest(Packet packet) {
+        PendingRequest<?> pending = this.requests.get(packet.getCorrelationId());
+        if (pending == null || !Objects.equals(pending.id, packet.getSourceId()) || !this.requests.remove(packet.getCorrelationId(), pending)) {
+            log.debug(String.format("discarded response %d from node %d", packet.getCorrelationId(), packet.getSourceId()));
+            return;
         }
+        dispatch(() -> pending.complete(packet));
     }
 
     /**
-     * Stop Nodes scan.
+     * Send the response returned by a RequestHandler back to the requesting node.
+     *
+     * @param request  request Packet
+     * @param response response object
      */
-    public void stopScan() {
-        for (NodeClient client : this.clientList) {
-            client.stop();
+    private void respond(Packet request, Object response) {
+        try {
+            Packet packet = createPacket(response, request.getSourceId());
+            packet.setResponse(request.getCorrelationId());
+            NodeSocket.checkSize(packet);
+            send(request.getSourceId(), packet, PacketParser.getInstance().getPacketPriority(response.getClass()));
+        } catch (Exception e) {
+            log.error("failed to send response: ", e);
         }
     }
 
     /**
-     * Get all of the IP's for a given subnet.
+     * Send a single packet to a node and disconnect.
      *
-     * @param subnet subnet to calculate IPs from
-     * @return list of IPs in subnet
+     * @param id     node id to send packet to
+     * @param object packet object to send
+     * @return true if send was successful, false otherwise
      */
-    public List<String> getIpsForSubnet(String subnet) {
-        List<String> ips = new ArrayList<>();
-        for (int i = 1; i < 255; i++)
-            ips.add(String.format("%s.%d", subnet, i));
-        return ips;
+    public boolean sendAndDisconnect(Integer id, Object object) {
+        boolean result = false;
+        NodeConnection conn = connect(id);
+        if (conn != null) {
+            result = conn.send(object);
+            conn.disconnect();
+        }
+        return result;
     }
 
     /**
-     * Get subnet for a given IP.
+     * Broadcast a packet object to all known nodes.
      *
-     * @param ip IP to take subnet from
-     * @return IP's subnet
+     * @param object packet object to send
      */
-    public String getSubnet(String ip) {
-        String[] splitIp = ip.split("\\.");
-        return String.format("%s.%s.%s", splitIp[0], splitIp[1], splitIp[2]);
+    public void broadcast(Object object) {
+        for (Integer id : this.nodes.keySet()) {
+            NodeConnection conn = nodeConnectionById(id);
+            if (conn != null) {
+                conn.send(object);
+            } else {
+                sendAndDisconnect(id, object);
+            }
+        }
+    }
+
+    /**
+     * Get the topic of a Packet type.
+     *
+     * @param clazz class with the PacketType annotation
+     * @return topic for the Packet type
+     * @throws IllegalArgumentException if the class does not have the PacketType annotation
+     */
+    public static String getTopic(Class<?> clazz) throws IllegalArgumentException {
+        String type = PacketParser.getInstance().getPacketType(clazz);
+        if (type == null)
+            throw new IllegalArgumentException(String.format("%s must contain @PacketType", clazz.getSimpleName()));
+        return Packet.formatType(type);
+    }
+
+    /**
+     * Subscribe to a named topic.
+     *
+     * <p>Connected nodes are told about the new subscription right away,
+     * other nodes receive every subscription once they connect.</p>
+     *
+     * @param topic topic to subscribe to
+     */
+    public void subscribe(String topic) {
+        if (topic != null && this.topics.add(topic))
+            advertise(new SubscribePacket(false, Collections.singleton(topic), Collections.emptySet()));
+    }
+
+    /**
+     * Subscribe to every object published with a Packet type.
+     *
+     * @param clazz class with the PacketType annotation
+     * @throws IllegalArgumentException if the class does not have the PacketType annotation
+     */
+    public void subscribe(Class<?> clazz) throws IllegalArgumentException {
+        subscribe(getTopic(clazz));
+    }
+
+    /**
+     * Unsubscribe from a named topic.
+     *
+     * @param topic topic to unsubscribe from
+     */
+    public void unsubscribe(String topic) {
+        if (topic != null && this.topics.remove(topic))
+            advertise(new SubscribePacket(false, Collections.emptySet(), Collections.singleton(topic)));
+    }
+
+    /**
+     * Unsubscribe from a Packet type.
+     *
+     * @param clazz class with the PacketType annotation
+     * @throws IllegalArgumentException if the class does not have the PacketType annotation
+     */
+    public void unsubscribe(Class<?> clazz) throws IllegalArgumentException {
+        unsubscribe(getTopic(clazz));
+    }
+
+    /**
+     * Publish a packet object to the nodes subscribed to its Packet type.
+     *
+     * @param object packet object to publish
+     * @return number of nodes the object was sent to
+     * @throws IllegalArgumentException if the object does not have the PacketType annotation
+     */
+    public int publish(Object object) throws IllegalArgumentException {
+        return publish(getTopic(object.getClass()), object);
+    }
+
+    /**
+     * Publish a packet object to the nodes subscribed to a named topic.
+     *
+     * <p>Unlike {@link NodeManager#broadcast(Object)}, nodes that are not
+     * interested in the topic never receive the object.</p>
+     *
+     * @param topic  topic to publish on
+     * @param object packet object to publish
+     * @return number of nodes the object was sent to
+     */
+    public int publish(String topic, Object object) {
+        int count = 0;
+        for (Integer id : this.subscriptions.getSubscribers(topic))
+            if (send(id, object)) count++;
+        return count;
+    }
+
+    /**
+     * Get the topics this node subscribes to.
+     *
+     * @return subscribed topics
+     */
+    public Set<String> getTopics() {
+        return Collections.unmodifiableSet(this.topics);
+    }
+
+    /**
+     * Get the subscriptions of every known node.
+     *
+     * @return subscription table
+     */
+    public SubscriptionTable getSubscriptions() {
+        return this.subscriptions;
+    }
+
+    /**
+     * Send a subscription change to every connected node.
+     *
+     * @param subs subscription change
+     */
+    private void advertise(SubscribePacket subs) {
+        for (NodeConnection conn : this.nodeConnections.values())
+            conn.send(subs);
+    }
+
+    /**
+     * Broadcast a packet object to every node in the network through gossip.
+     *
+     * <p>Unlike {@link NodeManager#broadcast(Object)}, the object is only
+     * sent to a few random neighbours over live connections, and every
+     * node relays it to a few of its own neighbours until the whole
+     * network has it. Nodes handle and relay each broadcast once.</p>
+     *
+     * @param object packet object to broadcast
+     * @return number of neighbours the object was sent to
+     * @throws IllegalArgumentException if the object does not have the PacketType annotation or is too big
+     * @see NodeManager#setGossip(int, int)
+     */
+    public int gossip(Object object) throws IllegalArgumentException {
+        try {
+            Packet packet = createPacket(object, this.id);
+            if (packet == null) return 0;
+            packet.setBroadcast();
+            stamp(packet);
+            PacketPriority priority = PacketParser.getInstance().getPacketPriority(object.getClass());
+            return spread(packet, priority, new HashSet<>(), this.gossipRedundancy);
+        } catch (IllegalAccessException e) {
+            log.error("failed to create packet: ", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Relay a broadcast Packet received from an other node.
+     *
+     * <p>The Packet is relayed on the priority lane of its type.</p>
+     *
+     * @param packet broadcast Packet
+     * @return true if the Packet was relayed, false if its TTL expired
+     */
+    public boolean relay(Packet packet) {
+        Set<Integer> skip = new HashSet<>(Arrays.asList(packet.getResenderIds()));
+        skip.add(packet.getSourceId());
+        packet.addResender(this.id);
+        packet.decreaseTTL();
+        if (packet.getTTL() <= 0) {
+            this.metrics.expired();
+            return false;
+        }
+        spread(packet, this.packetManager.getPriority(packet.getTypeCode()), skip, this.gossipRedundancy);
+        return true;
+    }
+
+    /**
+     * Set how broadcasts sent with {@link NodeManager#gossip(Object)} spread.
+     *
+     * <p>A higher fanout reaches every node in fewer hops at the cost of
+     * more duplicate Packets. Each extra level of redundancy makes every
+     * node push the broadcast to new neighbours once more, a little later,
+     * so the broadcast still reaches every node when some links fail.</p>
+     *
+     * @param fanout     neighbours every node sends a broadcast to
+     * @param redundancy number of times every node pushes a broadcast
+     * @throws IllegalArgumentException if fanout or redundancy are lower than 1
+     */
+    public void setGossip(int fanout, int redundancy) throws IllegalArgumentException {
+        if (fanout < 1 || redundancy < 1)
+            throw new IllegalArgumentException(String.format("Invalid gossip fanout or redundancy: %d, %d", fanout, redundancy));
+        this.gossipFanout = fanout;
+        this.gossipRedundancy = redundancy;
+    }
+
+    /**
+     * Configure how connections to dead nodes are detected.
+     *
+     * <p>Any Packet received counts as a sign of life, and links that stay
+     * idle for probeInterval milliseconds are probed with a RYSTPacket. A
+     * connection is closed once the suspicion level of its
+     * {@link FailureDetector} passes the threshold: lower thresholds detect
+     * failures sooner, higher ones make false positives less likely.</p>
+     *
+     * @param phiThreshold    suspicion level at which a node is considered dead
+     * @param probeInterval   milliseconds without Packets before an idle link is probed
+     * @param acceptablePause extra milliseconds of silence to tolerate, longer than the probe interval plus a round trip
+     * @throws IllegalArgumentException if threshold or interval are not positive, or pause is negative
+     */
+    public void setFailureDetection(double phiThreshold, int probeInterval, int acceptablePause) throws IllegalArgumentException {
+        if (phiThreshold <= 0 || probeInterval <= 0 || acceptablePause < 0)
+            throw new IllegalArgumentException(String.format("Invalid failure detection settings: %f, %d, %d", phiThreshold, probeInterval, acceptablePause));
+        this.phiThreshold = phiThreshold;
+        this.probeInterval = probeInterval;
+        this.acceptablePause = acceptablePause;
+    }
+
+    /**
+     * Configure how dropped connections are re-established.
+     *
+     * <p>Connections that drop without being disconnected are dialed again
+     * in the background, waiting twice as long after every failed attempt.
+     * Packets sent meanwhile are queued, up to {@link NodeManager#RECONNECT_CAPACITY}
+     * Packets per node, and sent once the node is back.</p>
+     *
+     * @param minDelay    milliseconds before the first attempt
+     * @param maxDelay    maximum milliseconds between attempts
+     * @param maxAttempts attempts before giving up, 0 to never reconnect
+     * @throws IllegalArgumentException if delays are not positive or ordered, or attempts is negative
+     */
+    public void setReconnect(int minDelay, int maxDelay, int maxAttempts) throws IllegalArgumentException {
+        if (minDelay < 1 || minDelay > maxDelay || maxAttempts < 0)
+            throw new IllegalArgumentException(String.format("Invalid reconnect settings: %d, %d, %d", minDelay, maxDelay, maxAttempts));
+        this.reconnectMinDelay = minDelay;
+        this.reconnectMaxDelay = maxDelay;
+        this.reconnectAttempts = maxAttempts;
+    }
+
+    /**
+     * Configure the credit-based flow control of new connections.
+     *
+     * <p>Nodes may send up to window Packets that this node did not handle
+     * yet, and wait for more credits when their handlers fall behind.</p>
+     *
+     * @param window Packets a node may send ahead of the handlers
+     * @throws IllegalArgumentException if window is lower than 1
+     * @see FlowControl
+     */
+    public void setFlowWindow(int window) throws IllegalArgumentException {
+        if (window < 1)
+            throw new IllegalArgumentException(String.format("Invalid flow control window: %d", window));
+        this.flowWindow = window;
+    }
+
+    /**
+     * Get the flow control window of new connections.
+     *
+     * @return window in Packets
+     */
+    public int getFlowWindow() {
+        return this.flowWindow;
+    }
+
+    /**
+     * Check if a dropped connection with a node is being re-established.
+     *
+     * @param id node ID
+     * @return true if the node is being reconnected
+     */
+    public boolean isReconnecting(Integer id) {
+        return id != null && this.reconnectors.containsKey(id);
+    }
+
+    /**
+     * Start reconnecting to the node of a connection that dropped.
+     *
+     * <p>Only one NodeReconnector is started per node, even if several
+     * connections with it drop at the same time.</p>
+     *
+     * @param nodeConnection dropped NodeConnection, its queued Packets are kept
+     */
+    private void reconnect(NodeConnection nodeConnection) {
+        Integer id = nodeConnection.getNode().getId();
+        if (this.reconnectAttempts == 0 || this.closed.get() || !this.nodes.containsKey(id)) return;
+        NodeReconnector reconnector = this.reconnectors.computeIfAbsent(id, key -> {
+            NodeReconnector created = new NodeReconnector(this, key, RECONNECT_CAPACITY,
+                    new Backoff(this.reconnectMinDelay, this.reconnectMaxDelay), this.reconnectAttempts);
+            created.start();
+            return created;
+        });
+        int moved = nodeConnection.getOutboundQueue().transferTo(reconnector.getQueue());
+        log.info(String.format("reconnecting to node %d, %d packets queued", id, moved));
+    }
+
+    /**
+     * Forget a NodeReconnector that gave up, dropping its queued Packets.
+     *
+     * @param reconnector NodeReconnector that gave up
+     */
+    protected synchronized void removeReconnector(NodeReconnector reconnector) {
+        reconnector.stop();
+        this.reconnectors.remove(reconnector.getId(), reconnector);
+    }
+
+    /**
+     * Configure the SWIM membership protocol.
+     *
+     * <p>Every period one member of the cluster is pinged, directly and then
+     * through indirectProbes other members. Members that do not answer are
+     * suspected, and declared dead and removed from the nodes table unless
+     * they refute it in suspicionMultiplier times log10(N) periods.
+     * Membership changes are piggybacked on the pings and on the
+     * RYSTPacket and ACKPacket of idle connections.</p>
+     *
+     * @param period              milliseconds between probes
+     * @param indirectProbes      members asked to ping a member that did not answer
+     * @param suspicionMultiplier periods a member stays suspected, times log10 of the cluster size
+     * @throws IllegalArgumentException if period or multiplier are lower than 1, or indirect probes is negative
+     * @see Membership
+     */
+    public void setMembership(int period, int indirectProbes, int suspicionMultiplier) throws IllegalArgumentException {
+        this.prober.configure(period, indirectProbes, suspicionMultiplier);
+    }
+
+    /**
+     * Get the membership table of the cluster.
+     *
+     * @return membership table
+     */
+    public Membership getMembership() {
+        return this.membership;
+    }
+
+    /**
+     * Apply membership updates piggybacked on a received Packet.
+     *
+     * <p>Members learnt from other nodes are added to the nodes table,
+     * so they do not need to be discovered by scanning.</p>
+     *
+     * @param updates received updates
+     */
+    protected void merge(Collection<MemberUpdate> updates) {
+        for (MemberUpdate update : this.membership.merge(updates)) {
+            Integer id = update.getId();
+            if (update.getState() == MemberUpdate.State.DEAD) {
+                memberDied(id);
+            } else if (update.getIp() != null && (!update.getIp().equals(this.nodes.get(id))
+                    || (update.getPort() > 0 && update.getPort() != getNodePort(id)))) {
+                addNode(id, update.getIp(), update.getPort() > 0 ? update.getPort() : NodeServer.DEFAULT_PORT);
+            }
+        }
+    }
+
+    /**
+     * Take the membership updates to piggyback on an outgoing Packet.
+     *
+     * @return membership updates
+     */
+    protected List<MemberUpdate> piggyback() {
+        return this.membership.piggyback();
+    }
+
+    /**
+     * Remove a member declared dead from the nodes table, closing its connection.
+     *
+     * @param id dead member ID
+     */
+    protected void memberDied(Integer id) {
+        removeNode(id);
+        NodeConnection conn = nodeConnectionById(id);
+        if (conn != null) conn.disconnect();
+    }
+
+    /**
+     * Get the suspicion level at which a node is considered dead.
+     *
+     * @return phi threshold
+     */
+    public double getPhiThreshold() {
+        return this.phiThreshold;
+    }
+
+    /**
+     * Get the time without Packets after which an idle link is probed.
+     *
+     * @return probe interval in milliseconds
+     */
+    public int getProbeInterval() {
+        return this.probeInterval;
+    }
+
+    /**
+     * Get the extra silence tolerated before a node is suspected.
+     *
+     * @return acceptable pause in milliseconds
+     */
+    public int getAcceptablePause() {
+        return this.acceptablePause;
+    }
+
+    /**
+     * Send a broadcast Packet to random neighbours that did not get it yet.
+     *
+     * @param packet   broadcast Packet
+     * @param priority priority lane to queue the Packet on
+     * @param skip     neighbours to leave out, the chosen ones are added to it
+     * @param rounds   times to push the Packet, including this one
+     * @return number of neighbours the Packet was sent to in this round
+     */
+    private int spread(Packet packet, PacketPriority priority, Set<Integer> skip, int rounds) {
+        List<NodeConnection> candidates = new ArrayList<>();
+        for (NodeConnection conn : this.nodeConnections.values())
+            if (!skip.contains(conn.getNode().getId())) candidates.add(conn);
+        Collections.shuffle(candidates, ThreadLocalRandom.current());
+        int count = Math.min(this.gossipFanout, candidates.size());
+        for (int i = 0; i < count; i++) {
+            NodeConnection conn = candidates.get(i);
+            skip.add(conn.getNode().getId());
+            conn.send(packet, priority);
+        }
+        if (rounds > 1 && count < candidates.size())
+            this.timer.schedule(() -> spread(packet, priority, skip, rounds - 1), GOSSIP_INTERVAL, TimeUnit.MILLISECONDS);
+        return count;
+    }
+
+    /**
+     * Connect and send a Packet object to an other node with ip.
+     *
+     * <p>This method does not check if the target machine
+     * is running the same program and won't be added to the
+     * NodeConnection's list, this might cause issues.
+     * Use at your own risk.</p>
+     *
+     * @param ip     target node ip
+     * @param port   target node port
+     * @param packet packet object to send
+     * @return NodeConnection or null if the operation failed
+     */
+    public NodeConnection send(String ip, int port, Object packet) {
+        NodeConnection conn = null;
+        try {
+            NodeSocket socket = new NodeSocket(ip, port);
+            conn = new NodeConnection(new Node(-1, ip, port), socket, this, new PacketReader(socket), true);
+            conn.send(packet);
+        } catch (Exception e) {
+            log.error("failed to create connection with ", e);
+            return null;
+        }
+        return conn;
+    }
+
+    /**
+     * Get PacketManager.
+     *
+     * @return current PacketManager
+     */
+    public PacketManager getPacketManager() {
+        return this.packetManager;
+    }
+
+    /**
+     * Set the Executor used to run registered Packet Handlers.
+     *
+     * <p>By default handlers run on a fixed pool owned by the NodeManager,
+     * so a slow handler never blocks a connection from reading. Packets
+     * from the same node are always handled in arrival order. A null
+     * Executor runs handlers on the connection's thread.</p>
+     *
+     * <p>The owned pool is kept, its threads stop after a while when it is
+     * not used, so it can be set back with the Executor returned by
+     * {@link NodeManager#getDispatchExecutor()}.</p>
+     *
+     * @param executor dispatch executor or null to dispatch inline
+     */
+    public void setDispatchExecutor(Executor executor) {
+        this.executor = executor;
+        this.packetManager.setExecutor(executor);
+    }
+
+    /**
+     * Get the Executor used to run registered Packet Handlers.
+     *
+     * @return dispatch executor or null if handlers are dispatched inline
+     */
+    public Executor getDispatchExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Get the timer shared by everything this NodeManager schedules.
+     *
+     * <p>Request deadlines, liveness checks, retries and gossip rounds all
+     * run on this single thread, so its tasks must never block.</p>
+     *
+     * @return NodeManager's timer
+     */
+    public HashedWheelTimer getTimer() {
+        return this.timer;
+    }
+
+    /**
+     * Run a task that may block off the timer's thread.
+     *
+     * <p>Connects, retries, file writes and other background work run on
+     * a small pool of I/O threads owned by the NodeManager, never on the
+     * threads running Packet handlers, so unreachable nodes cannot stall
+     * the dispatch of Packets. The task never runs on the calling thread,
+     * which may be the timer's.</p>
+     *
+     * @param task task to run
+     */
+    protected void execute(Runnable task) {
+        try {
+            this.ioExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (!this.closed.get()) log.error("failed to run task: ", e);
+        }
+    }
+
+    /**
+     * Run a task that calls user code, like the callbacks of a response,
+     * on the dispatch Executor.
+     *
+     * <p>The task runs on the pool owned by the NodeManager when handlers
+     * are dispatched inline or the dispatch Executor rejects it, so it
+     * never runs on the connection's thread.</p>
+     *
+     * @param task task to run
+     */
+    private void dispatch(Runnable task) {
+        Executor executor = this.executor;
+        if (executor != null && executor != this.dispatchExecutor) {
+            try {
+                executor.execute(task);
+                return;
+            } catch (RejectedExecutionException ignored) {
+            }
+        }
+        try {
+            this.dispatchExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.error("failed to run task: ", e);
+        }
+    }
+
+    /**
+     * Get NodeServer.
+     *
+     * @return current NodeServer
+     */
+    public NodeServer getNodeServer() {
+        return nodeServer;
+    }
+
+    /**
+     * Get the port of this node's NodeServer, advertised to other nodes.
+     *
+     * @return server port or 0 if this node has no NodeServer
+     */
+    public int getPort() {
+        if (this.nodeServer == null) return 0;
+        int port = this.nodeServer.getPort();
+        return port > 0 ? port : this.serverPort;
+    }
+
+    /**
+     * Get the server port of a node.
+     *
+     * @param id node ID
+     * @return node server port, or the default port if it is unknown
+     */
+    public int getNodePort(Integer id) {
+        Integer port = id == null ? null : this.ports.get(id);
+        return port == null ? NodeServer.DEFAULT_PORT : port;
+    }
+
+    /**
+     * Get Node's id
+     *
+     * @return current node's id
+     */
+    public Integer getId() {
+        return id;
+    }
+
+    /**
+     * Get an IP address for a node ID.
+     *
+     * @param id node ID
+     * @return node IP address or null if no entry was found for ID
+     */
+    public String getNodeIPById(Integer id) {
+        return this.nodes.get(id);
+    }
+
+    /**
+     * Get Node's ID by its IP.
+     *
+     * @param ip Node's IP
+     * @return Node's ID or null if no matching IP was found
+     */
+    public Integer getNodeIdByIP(String ip) {
+        return ip == null ? null : this.nodeIds.get(ip);
+    }
+
+    /**
+     * Add a node listening on the default port to the table.
+     *
+     * @param id node ID
+     * @param ip node IP address
+     */
+    public void addNode(Integer id, String ip) {
+        addNode(id, ip, NodeServer.DEFAULT_PORT);
+    }
+
+    /**
+     * Add a node to the table.
+     *
+     * <p>A node that was known with another IP is updated. Several nodes
+     * can share the same IP as long as they listen on different ports,
+     * {@link NodeManager#getNodeIdByIP(String)} returns the last one added.</p>
+     *
+     * @param id   node ID
+     * @param ip   node IP address
+     * @param port node server port
+     */
+    public synchronized void addNode(Integer id, String ip, int port) {
+        String oldIp = this.nodes.put(id, ip);
+        this.ports.put(id, port);
+        if (oldIp != null && !oldIp.equals(ip))
+            reindex(oldIp, id);
+        this.nodeIds.put(ip, id);
+        this.membership.alive(id, ip, port);
+        seen(id);
+        this.removeNodeClientByIp(ip);
+        log.info(String.format("added node: %d - %s", id, ip));
+        notifyAll();
+    }
+
+    /**
+     * Check if the ID a node claims at the handshake is already used by another node.
+     *
+     * <p>An ID is used when it is this node's ID announced for another port,
+     * or the ID of a node connected from another endpoint. A node that comes
+     * back from a new endpoint after losing its connection is not a collision.</p>
+     *
+     * @param id   ID claimed by the node
+     * @param ip   node IP address
+     * @param port node server port
+     * @return true if the node must be rejected, false otherwise
+     */
+    public boolean isIdInUse(Integer id, String ip, int port) {
+        if (id.equals(this.id)) return port != getPort();
+        NodeConnection conn = nodeConnectionById(id);
+        if (conn == null) return false;
+        Node node = conn.getNode();
+        return !node.getIp().equals(ip) || node.getPort() != port;
+    }
+
+    /**
+     * Get nodes table.
+     *
+     * <p>The returned view is read-only, use {@link NodeManager#addNode(Integer, String)}
+     * and {@link NodeManager#removeNodeId(Integer)} to change it.</p>
+     *
+     * @return nodes table
+     */
+    public Map<Integer, String> getNodes() {
+        return Collections.unmodifiableMap(this.nodes);
+    }
+
+    /**
+     * Remove Node from the table.
+     *
+     * <p>The node is forgotten by the membership protocol too,
+     * until it is added again or other members announce it.</p>
+     *
+     * @param id node ID
+     */
+    public synchronized void removeNodeId(Integer id) {
+        removeNode(id);
+        this.membership.remove(id);
+    }
+
+    /**
+     * Remove Node from the table, leaving its membership alone.
+     *
+     * @param id node ID
+     */
+    private synchronized void removeNode(Integer id) {
+        String ip = this.nodes.remove(id);
+        this.ports.remove(id);
+        this.lastSeen.remove(id);
+        NodeReconnector reconnector = this.reconnectors.remove(id);
+        if (reconnector != null) reconnector.stop();
+        ReliableSession session = this.sessions.remove(id);
+        if (session != null) session.stop();
+        if (ip != null) reindex(ip, id);
+        this.subscriptions.remove(id);
+        schedulePeerSave();
+    }
+
+    /**
+     * Point an IP to another node using it once a node stops using it.
+     *
+     * @param ip IP no longer used by the node
+     * @param id node that stopped using the IP
+     */
+    private void reindex(String ip, Integer id) {
+        if (!this.nodeIds.remove(ip, id)) return;
+        for (Map.Entry<Integer, String> entry : this.nodes.entrySet()) {
+            if (ip.equals(entry.getValue())) {
+                this.nodeIds.put(ip, entry.getKey());
+                break;
+            }
+        }
+    }
+
+    /**
+     * Get the last time a node was added, connected or disconnected.
+     *
+     * @param id node ID
+     * @return milliseconds since the epoch, or 0 if the node is unknown
+     */
+    public long getLastSeen(Integer id) {
+        Long time = id == null ? null : this.lastSeen.get(id);
+        return time == null ? 0 : time;
+    }
+
+    /**
+     * Write the nodes table to the peer cache right away.
+     *
+     * @throws IOException if the peer cache could not be written
+     */
+    public void savePeers() throws IOException {
+        if (this.peerCache == null) return;
+        List<PeerCache.Peer> peers = new ArrayList<>();
+        for (Map.Entry<Integer, String> entry : this.nodes.entrySet()) {
+            Integer id = entry.getKey();
+            peers.add(new PeerCache.Peer(new Node(id, entry.getValue(), getNodePort(id)), getLastSeen(id)));
+        }
+        this.peerCache.save(peers);
+    }
+
+    /**
+     * Add the nodes in the peer cache to the table and dial them in parallel.
+     */
+    private void restorePeers() {
+        long now = System.currentTimeMillis();
+        List<Integer> restored = new ArrayList<>();
+        for (PeerCache.Peer peer : this.peerCache.load()) {
+            Node node = peer.getNode();
+            if (this.id.equals(node.getId()) || now - peer.getLastSeen() > PEER_CACHE_MAX_AGE) continue;
+            addNode(node.getId(), node.getIp(), node.getPort());
+            this.lastSeen.put(node.getId(), peer.getLastSeen());
+            restored.add(node.getId());
+        }
+        log.info(String.format("restored %d nodes from %s", restored.size(), this.peerCache.getFile()));
+        for (Integer id : restored)
+            execute(() -> connect(id));
+    }
+
+    /**
+     * Record that a node was just seen and update the peer cache.
+     *
+     * @param id node ID
+     */
+    private void seen(Integer id) {
+        if (!this.nodes.containsKey(id)) return;
+        this.lastSeen.put(id, System.currentTimeMillis());
+        schedulePeerSave();
+    }
+
+    /**
+     * Save the peer cache shortly, coalescing changes made in the meantime.
+     */
+    private void schedulePeerSave() {
+        if (this.peerCache == null || !this.peerSaveScheduled.compareAndSet(false, true)) return;
+        this.timer.schedule(() -> execute(() -> {
+            this.peerSaveScheduled.set(false);
+            try {
+                savePeers();
+            } catch (IOException e) {
+                log.error("failed to save peer cache: ", e);
+            }
+        }), PEER_CACHE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get NodeConnection with matching node id.
+     *
+     * @param id node id to look for
+     * @return matching NodeConnection or null if the node is not connected
+     */
+    public NodeConnection nodeConnectionById(Integer id) {
+        return id == null ? null : this.nodeConnections.get(id);
+    }
+
+    /**
+     * Get every open NodeConnection.
+     *
+     * @return read-only view of the open NodeConnections
+     */
+    public Collection<NodeConnection> getNodeConnections() {
+        return Collections.unmodifiableCollection(this.nodeConnections.values());
+    }
+
+    /**
+     * Remove NodeConnection with matching node id.
+     *
+     * @param id node id to remove
+     */
+    public synchronized void removeNodeConnectionById(Integer id) {
+        if (this.nodeConnections.remove(id) != null) {
+            seen(id);
+            routesChanged(this.routingTable.removeNeighbour(id));
+        }
+        notifyAll();
+    }
+
+    /**
+     * Add NodeConnection, replacing and closing the current
+     * NodeConnection with the same node if there is one.
+     *
+     * <p>When both nodes connected to each other at the same time, the
+     * connection opened by the node with the lowest ID is kept instead.</p>
+     *
+     * @param nodeConnection NodeConnection to add
+     */
+    public void addNodeConnection(NodeConnection nodeConnection) {
+        keep(nodeConnection);
+    }
+
+    /**
+     * Make a new NodeConnection the current connection with its node,
+     * unless the current one outranks it.
+     *
+     * <p>The Packets queued on the connection that is closed are moved to
+     * the one that is kept.</p>
+     *
+     * @param nodeConnection new NodeConnection
+     * @return NodeConnection kept, or null if the NodeManager is closed
+     */
+    private synchronized NodeConnection keep(NodeConnection nodeConnection) {
+        Integer id = nodeConnection.getNode().getId();
+        if (this.closed.get()) {
+            nodeConnection.getNodeSocket().safeClose();
+            return null;
+        }
+        NodeConnection current = this.nodeConnections.get(id);
+        if (current == nodeConnection) return current;
+        if (current != null && outranks(current, nodeConnection)) {
+            nodeConnection.getOutboundQueue().transferTo(current.getOutboundQueue());
+            nodeConnection.getNodeSocket().safeClose();
+            return current;
+        }
+        this.nodeConnections.put(id, nodeConnection);
+        if (current != null) {
+            current.getOutboundQueue().transferTo(nodeConnection.getOutboundQueue());
+            current.getNodeSocket().safeClose();
+        }
+        connected(nodeConnection);
+        return nodeConnection;
+    }
+
+    /**
+     * Check if the current connection with a node must be kept over a new one.
+     *
+     * <p>Both ends of a pair of connections opened at the same time make the
+     * same choice: the connection opened by the node with the lowest ID
+     * wins. Closed connections always lose. Between connections opened by
+     * the same node, we keep our own first one and the other node's newest
+     * one, since a new connection from the other node means it restarted.</p>
+     *
+     * @param current        current NodeConnection
+     * @param nodeConnection new NodeConnection with the same node
+     * @return true if the current NodeConnection must be kept
+     */
+    private boolean outranks(NodeConnection current, NodeConnection nodeConnection) {
+        if (current.getNodeSocket().isClosed()) return false;
+        int opener = Integer.compare(opener(current), opener(nodeConnection));
+        return opener < 0 || (opener == 0 && nodeConnection.isOutbound());
+    }
+
+    /**
+     * Get the ID of the node that opened a connection.
+     *
+     * @param nodeConnection NodeConnection
+     * @return ID of this node for outbound connections, of the other node otherwise
+     */
+    private int opener(NodeConnection nodeConnection) {
+        return nodeConnection.isOutbound() ? this.id : nodeConnection.getNode().getId();
+    }
+
+    /**
+     * Remove NodeConnection if it is still the current connection with its node.
+     *
+     * <p>Unless the connection was disconnected on purpose, the node is
+     * reconnected in the background.</p>
+     *
+     * @param nodeConnection NodeConnection to remove
+     */
+    public synchronized void removeNodeConnection(NodeConnection nodeConnection) {
+        Integer id = nodeConnection.getNode().getId();
+        if (this.nodeConnections.remove(id, nodeConnection)) {
+            seen(id);
+            if (!nodeConnection.isDisconnected()) reconnect(nodeConnection);
+            routesChanged(this.routingTable.removeNeighbour(id));
+        }
+        notifyAll();
+    }
+
+    /**
+     * Start using a NodeConnection that was just added.
+     *
+     * @param nodeConnection new NodeConnection
+     */
+    private synchronized void connected(NodeConnection nodeConnection) {
+        Integer id = nodeConnection.getNode().getId();
+        seen(id);
+        send(nodeConnection, SubscribePacket.split(true, this.topics));
+        Set<Integer> changed = this.routingTable.addNeighbour(id);
+        send(nodeConnection, RoutePacket.split(true, this.routingTable.advertise(id, null)));
+        NodeReconnector reconnector = this.reconnectors.remove(id);
+        if (reconnector != null) {
+            reconnector.stop();
+            reconnector.getQueue().transferTo(nodeConnection.getOutboundQueue());
+        }
+        if (this.metrics.isEnabled()) {
+            ConnectionMetrics connectionMetrics = this.metrics.connection(id);
+            OutboundQueue queue = nodeConnection.getOutboundQueue();
+            connectionMetrics.setQueueDepth(queue::size);
+            if (reconnector != null) connectionMetrics.reconnected();
+        }
+        ReliableSession session = this.sessions.get(id);
+        if (session != null) execute(session::replay);
+        Outbox outbox = this.outbox;
+        if (outbox != null) outbox.drain(id);
+        routesChanged(changed);
+        notifyAll();
+    }
+
+    /**
+     * Update the hash ring and the neighbours after routes changed.
+     *
+     * <p>Nodes are on the ring while they can be reached, directly or
+     * through a route.</p>
+     *
+     * @param destinations destinations whose route changed
+     */
+    private void routesChanged(Set<Integer> destinations) {
+        for (Integer destination : destinations) {
+            if (this.routingTable.getRoute(destination) != null) {
+                this.ring.add(destination);
+            } else if (!this.id.equals(destination)) {
+                this.ring.remove(destination);
+            }
+        }
+        advertiseRoutes(destinations);
+    }
+
+    /**
+     * Send the routes that changed to every neighbour.
+     *
+     * @param destinations destinations whose route changed
+     */
+    private void advertiseRoutes(Set<Integer> destinations) {
+        if (destinations.isEmpty()) return;
+        for (NodeConnection conn : this.nodeConnections.values()) {
+            Integer id = conn.getNode().getId();
+            Map<Integer, Integer> routes = this.routingTable.advertise(id, destinations);
+            if (!routes.isEmpty()) send(conn, RoutePacket.split(false, routes));
+        }
+    }
+
+    /**
+     * Send the packets of a split advertisement to a neighbour.
+     *
+     * @param conn    neighbour connection
+     * @param packets packet objects to send in order
+     */
+    private void send(NodeConnection conn, List<?> packets) {
+        for (Object packet : packets) {
+            if (!conn.send(packet))
+                log.warn(String.format("failed to send %s to node %d", packet.getClass().getSimpleName(), conn.getNode().getId()));
+        }
+    }
+
+    /**
+     * Add NodeClient to NodeClients list.
+     *
+     * @param nodeClient NodeClient to add
+     */
+    public synchronized void addNodeClient(NodeClient nodeClient) {
+        this.clientList.add(nodeClient);
+        notifyAll();
+    }
+
+    /**
+     * Remove NodeClient from NodeClients list.
+     *
+     * @param ip NodeClient's IP to remove
+     */
+    public synchronized void removeNodeClientByIp(String ip) {
+        for (NodeClient nc : this.clientList) {
+            if (StringUtils.equals(nc.getIp(), ip)) {
+                nc.stop();
+                this.clientList.remove(nc);
+                break;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Remove NodeClient from NodeClients list.
+     *
+     * @param nodeClient NodeClient to remove
+     */
+    public synchronized void removeNodeClient(NodeClient nodeClient) {
+        nodeClient.stop();
+        this.clientList.remove(nodeClient);
+        notifyAll();
+    }
+
+    /**
+     * Register a Packet Handler for Packet type.
+     *
+     * @param clazz   object class to handle
+     * @param handler packet handler to handle a Packet type
+     * @throws NullPointerException     if object's class or handler are null
+     * @throws IllegalArgumentException if object's class does not have the PacketType annotation or packet type is already registered
+     * @see PacketHandler
+     */
+    public <T> void register(Class<T> clazz, PacketHandler<T> handler) throws NullPointerException, IllegalArgumentException {
+        this.packetManager.add(clazz, handler);
+    }
+
+    /**
+     * Register a Packet Handler for Packet type, choosing whether it
+     * runs on the connection's thread instead of the dispatch Executor.
+     *
+     * @param clazz   object class to handle
+     * @param handler packet handler to handle a Packet type
+     * @param inline  true to run the handler on the connection's thread
+     * @throws NullPointerException     if object's class or handler are null
+     * @throws IllegalArgumentException if object's class does not have the PacketType annotation or packet type is already registered
+     * @see PacketHandler
+     */
+    public <T> void register(Class<T> clazz, PacketHandler<T> handler, boolean inline) throws NullPointerException, IllegalArgumentException {
+        this.packetManager.add(clazz, handler, inline);
+    }
+
+    /**
+     * Register a Batch Packet Handler for Packet type.
+     *
+     * <p>Every Packet of this type received from a node in a single read
+     * is handed to the handler in one call.</p>
+     *
+     * @param clazz   object class to handle
+     * @param handler batch packet handler to handle a Packet type
+     * @throws NullPointerException     if object's class or handler are null
+     * @throws IllegalArgumentException if object's class does not have the PacketType annotation or packet type is already registered
+     * @see BatchPacketHandler
+     */
+    public <T> void registerBatch(Class<T> clazz, BatchPacketHandler<T> handler) throws NullPointerException, IllegalArgumentException {
+        this.packetManager.addBatch(clazz, handler);
+    }
+
+    /**
+     * Register a Request Handler for Packet type.
+     *
+     * <p>The object returned by the handler is sent back as the response
+     * to the node that made the request.</p>
+     *
+     * @param clazz   object class to handle
+     * @param handler request handler to answer a Packet type
+     * @throws NullPointerException     if object's class or handler are null
+     * @throws IllegalArgumentException if object's class does not have the PacketType annotation or packet type is already registered
+     * @see RequestHandler
+     * @see NodeManager#request(Integer, Object, Class, long)
+     */
+    public <T> void registerRequest(Class<T> clazz, RequestHandler<T> handler) throws NullPointerException, IllegalArgumentException {
+        this.packetManager.addRequest(clazz, handler);
+    }
+
+    /**
+     * Register a Packet Handler for Packet type, atomically replacing
+     * the handler that might already be registered.
+     *
+     * @param clazz   object class to handle
+     * @param handler packet handler to handle a Packet type
+     * @throws NullPointerException     if object's class or handler are null
+     * @throws IllegalArgumentException if object's class does not have the PacketType annotation
+     * @see PacketHandler
+     */
+    public <T> void replace(Class<T> clazz, PacketHandler<T> handler) throws NullPointerException, IllegalArgumentException {
+        this.packetManager.replace(clazz, handler, false);
+    }
+
+    /**
+     * Remove registered Packet Handler for Packet type.
+     *
+     * @param type packet type to remove
+     */
+    public void unregister(String type) {
+        this.packetManager.remove(type);
+    }
+
+    /**
+     * Remove registered Packet Handler for Packet type.
+     *
+     * @param clazz class of the packet type to remove
+     */
+    public void unregister(Class<?> clazz) {
+        this.packetManager.remove(clazz);
+    }
+
+    /**
+     * Check if a certain IP is a Node.
+     *
+     * @param ip IP to check
+     */
+    public void discover(String ip) {
+        try {
+            if (nodeInHash(ip)) return;
+            NodeClient nodeClient = new NodeClient(ip, this);
+            this.clientList.add(nodeClient);
+        } catch (Exception e) {
+            log.error("failed to create NodeClient: ", e);
+        }
+    }
+
+    /**
+     * Start Node scan with the specified IPs.
+     *
+     * <p>IPs already in the nodes table, like the ones restored from the
+     * peer cache, are skipped.</p>
+     *
+     * @param ips IPs to scan
+     */
+    public void startScan(List<String> ips) {
+        List<InetAddress> addresses = new ArrayList<>();
+        for (String ip : ips) {
+            if (StringUtils.equals(this.ip, ip) || nodeInHash(ip)) continue;
+            try {
+                addresses.add(InetAddress.getByName(ip));
+            } catch (Exception e) {
+                log.error(String.format("invalid IP to scan: %s", ip), e);
+            }
+        }
+        scan(new NodeScanner(this, addresses.iterator(), NodeServer.DEFAULT_PORT));
+    }
+
+    /**
+     * Scan a CIDR range of addresses for nodes listening on the default port.
+     *
+     * @param cidr address range, like 192.168.0.0/20 or fd00::/120
+     * @return running NodeScanner
+     * @throws IllegalArgumentException if the range is not valid
+     * @see NodeScanner#range(String)
+     */
+    public NodeScanner scan(String cidr) throws IllegalArgumentException {
+        return scan(cidr, NodeServer.DEFAULT_PORT);
+    }
+
+    /**
+     * Scan a CIDR range of addresses for nodes listening on a port.
+     *
+     * @param cidr address range, like 192.168.0.0/20 or fd00::/120
+     * @param port port to probe on every address
+     * @return running NodeScanner
+     * @throws IllegalArgumentException if the range is not valid
+     * @see NodeScanner#range(String)
+     */
+    public NodeScanner scan(String cidr, int port) throws IllegalArgumentException {
+        return scan(new NodeScanner(this, NodeScanner.range(cidr), port));
+    }
+
+    /**
+     * Start a configured NodeScanner, it can be stopped with {@link NodeManager#stopScan()}.
+     *
+     * @param scanner NodeScanner to start
+     * @return started NodeScanner
+     */
+    public NodeScanner scan(NodeScanner scanner) {
+        this.scanners.add(scanner);
+        scanner.start();
+        return scanner;
+    }
+
+    /**
+     * Forget a NodeScanner that finished.
+     *
+     * @param scanner finished NodeScanner
+     */
+    protected void removeScanner(NodeScanner scanner) {
+        this.scanners.remove(scanner);
+    }
+
+    /**
+     * Stop Nodes scan.
+     */
+    public void stopScan() {
+        for (NodeScanner scanner : this.scanners) {
+            scanner.stop();
+        }
+        for (NodeClient client : this.clientList) {
+            removeNodeClient(client);
+        }
+    }
+
+    /**
+     * Stop the NodeManager and release every resource it holds.
+     *
+     * <p>Scans, probes, reconnections and reliable sessions are stopped,
+     * the server stops accepting connections and every connection is
+     * closed once its queued Packets are written. The peer cache is saved,
+     * the timer and the pools owned by the NodeManager are shut down, and
+     * the outbox is written to disk and closed. Metrics stop recording and
+     * their MBeans are unregistered, so an other NodeManager with the same
+     * ID can register them. Executors set with
+     * {@link NodeManager#setDispatchExecutor(Executor)} are left running.</p>
+     *
+     * <p>A closed NodeManager cannot be started again.</p>
+     */
+    @Override
+    public void close() {
+        if (!this.closed.compareAndSet(false, true)) return;
+        this.prober.stop();
+        stopScan();
+        if (this.nodeServer != null) this.nodeServer.close();
+        synchronized (this) {
+            for (NodeReconnector reconnector : this.reconnectors.values())
+                reconnector.stop();
+            this.reconnectors.clear();
+        }
+        for (ReliableSession session : this.sessions.values())
+            session.stop();
+        for (NodeConnection conn : this.nodeConnections.values())
+            conn.disconnect();
+        try {
+            savePeers();
+        } catch (IOException e) {
+            log.error("failed to save peer cache: ", e);
+        }
+        this.timer.stop();
+        this.ioExecutor.shutdown();
+        this.dispatchExecutor.shutdown();
+        Outbox outbox = this.outbox;
+        if (outbox != null) outbox.close();
+        this.metrics.setEnabled(false);
+    }
+
+    /**
+     * Check if the NodeManager was closed.
+     *
+     * @return true if {@link NodeManager#close()} was called
+     */
+    public boolean isClosed() {
+        return this.closed.get();
+    }
+
+    /**
+     * Get all of the IP's for a given subnet.
+     *
+     * @param subnet subnet to calculate IPs from
+     * @return list of IPs in subnet
+     */
+    public List<String> getIpsForSubnet(String subnet) {
+        List<String> ips = new ArrayList<>();
+        for (int i = 1; i < 255; i++)
+            ips.add(String.format("%s.%d", subnet, i));
+        return ips;
+    }
+
+    /**
+     * Get subnet for a given IP.
+     *
+     * @param ip IP to take subnet from
+     * @return IP's subnet
+     */
+    public String getSubnet(String ip) {
+        String[] splitIp = ip.split("\\.");
+        return String.format("%s.%s.%s", splitIp[0], splitIp[1], splitIp[2]);
+    }
+
+    /**
+     * Request waiting for its response.
+     */
+    private static class PendingRequest<R> {
+        private final Integer id;
+        private final Class<R> responseClass;
+        private final CompletableFuture<R> future;
+
+        private PendingRequest(Integer id, Class<R> responseClass, CompletableFuture<R> future) {
+            this.id = id;
+            this.responseClass = responseClass;
+            this.future = future;
+        }
+
+        private void complete(Packet packet) {
+            try {
+                this.future.complete(PacketParser.getInstance().deserialize(this.responseClass, packet.getData()));
+            } catch (Exception e) {
+                this.future.completeExceptionally(e);
+            }
+        }
     }
 }
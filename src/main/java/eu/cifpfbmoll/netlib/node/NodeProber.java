@@ -0,0 +1,220 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.internal.ACKPacket;
+import eu.cifpfbmoll.netlib.internal.PingPacket;
+import eu.cifpfbmoll.netlib.internal.PingReqPacket;
+import eu.cifpfbmoll.netlib.util.HashedWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Detect failed cluster members with the SWIM protocol.
+ *
+ * <p>Every protocol period a single member is pinged, going through the
+ * members in random order. If it does not answer in time, a few other
+ * members are asked to ping it for us, and it is only suspected if none
+ * of them gets an answer either. Suspected members that do not refute the
+ * suspicion are declared dead after a timeout that grows with the
+ * logarithm of the cluster size.</p>
+ *
+ * <p>Each member sends a constant number of probes per period whatever the
+ * size of the cluster, and membership changes travel piggybacked on them.</p>
+ *
+ * @see Membership
+ * @see NodeManager#setMembership(int, int, int)
+ */
+public class NodeProber {
+    private static final Logger log = LoggerFactory.getLogger(NodeProber.class);
+    public static final int DEFAULT_PERIOD = 1000;
+    public static final int DEFAULT_INDIRECT_PROBES = 3;
+    public static final int DEFAULT_SUSPICION_MULTIPLIER = 4;
+    private static final int DEAD_RETENTION_PERIODS = 60;
+    private final NodeManager manager;
+    private final Membership membership;
+    private List<Integer> order = Collections.emptyList();
+    private int next = 0;
+    private volatile int period = DEFAULT_PERIOD;
+    private volatile int indirectProbes = DEFAULT_INDIRECT_PROBES;
+    private volatile int suspicionMultiplier = DEFAULT_SUSPICION_MULTIPLIER;
+    private volatile boolean run = false;
+    private volatile HashedWheelTimer.Timeout tick = null;
+
+    /**
+     * Create a NodeProber.
+     *
+     * @param manager    NodeManager to send the probes with
+     * @param membership membership table to keep up to date
+     */
+    public NodeProber(NodeManager manager, Membership membership) {
+        this.manager = manager;
+        this.membership = membership;
+    }
+
+    /**
+     * Configure the protocol.
+     *
+     * @param period              milliseconds between probes
+     * @param indirectProbes      members asked to ping a member that did not answer
+     * @param suspicionMultiplier protocol periods a member stays suspected, times log10 of the cluster size
+     * @throws IllegalArgumentException if period or multiplier are lower than 1, or indirect probes is negative
+     */
+    public void configure(int period, int indirectProbes, int suspicionMultiplier) throws IllegalArgumentException {
+        if (period < 1 || indirectProbes < 0 || suspicionMultiplier < 1)
+            throw new IllegalArgumentException(String.format("Invalid membership settings: %d, %d, %d", period, indirectProbes, suspicionMultiplier));
+        this.period = period;
+        this.indirectProbes = indirectProbes;
+        this.suspicionMultiplier = suspicionMultiplier;
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    public int getIndirectProbes() {
+        return indirectProbes;
+    }
+
+    public int getSuspicionMultiplier() {
+        return suspicionMultiplier;
+    }
+
+    /**
+     * Start probing members.
+     */
+    public void start() {
+        this.run = true;
+        schedule();
+    }
+
+    /**
+     * Stop probing members.
+     */
+    public void stop() {
+        this.run = false;
+        HashedWheelTimer.Timeout tick = this.tick;
+        if (tick != null) tick.cancel();
+    }
+
+    /**
+     * Ping a member and merge the updates piggybacked on its answer.
+     *
+     * <p>The ping is sent from the NodeManager's I/O threads, since
+     * reaching the member might require connecting to it.</p>
+     *
+     * @param id      member ID
+     * @param timeout milliseconds to wait for the answer
+     * @return future completed with the member's answer
+     */
+    public CompletableFuture<ACKPacket> ping(Integer id, long timeout) {
+        CompletableFuture<ACKPacket> future = new CompletableFuture<>();
+        this.manager.execute(() -> this.manager.request(id, new PingPacket(this.membership.piggyback()), ACKPacket.class, timeout)
+                .whenComplete((ack, e) -> {
+                    if (e != null) {
+                        future.completeExceptionally(e);
+                        return;
+                    }
+                    this.manager.merge(ack.getMembers());
+                    future.complete(ack);
+                }));
+        return future;
+    }
+
+    /**
+     * Schedule the next protocol period on the NodeManager's timer.
+     */
+    private void schedule() {
+        if (!this.run) return;
+        try {
+            this.tick = this.manager.getTimer().schedule(this::tick, this.period, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            this.run = false;
+        }
+    }
+
+    /**
+     * Run a protocol period: expire suspicions and probe the next member.
+     */
+    private void tick() {
+        if (!this.run) return;
+        try {
+            int period = this.period;
+            int size = this.membership.getLive().size() + 1;
+            long suspicionTimeout = (long) (this.suspicionMultiplier * Math.max(1, Math.log10(size)) * period);
+            for (Integer id : this.membership.expire(suspicionTimeout, (long) DEAD_RETENTION_PERIODS * period)) {
+                log.info(String.format("member %d declared dead", id));
+                this.manager.memberDied(id);
+            }
+            Integer target = nextTarget();
+            if (target != null) probe(target, period);
+        } catch (Exception e) {
+            log.error("NodeProber failed: ", e);
+        }
+        schedule();
+    }
+
+    /**
+     * Get the next member to probe, reshuffling the members after every round.
+     */
+    private Integer nextTarget() {
+        List<Integer> live = this.membership.getLive();
+        if (live.isEmpty()) return null;
+        while (true) {
+            if (this.next >= this.order.size()) {
+                this.order = new ArrayList<>(live);
+                Collections.shuffle(this.order, ThreadLocalRandom.current());
+                this.next = 0;
+            }
+            Integer id = this.order.get(this.next++);
+            if (live.contains(id)) return id;
+        }
+    }
+
+    /**
+     * Ping a member directly, then indirectly, and suspect it if nobody reaches it.
+     */
+    private void probe(Integer target, int period) {
+        ping(target, period / 3).whenComplete((ack, e) -> {
+            if (e != null) this.manager.execute(() -> probeIndirectly(target, period - period / 3));
+        });
+    }
+
+    /**
+     * Ask other members to ping a member that did not answer.
+     */
+    private void probeIndirectly(Integer target, long timeout) {
+        List<Integer> helpers = new ArrayList<>(this.membership.getLive());
+        helpers.remove(target);
+        Collections.shuffle(helpers, ThreadLocalRandom.current());
+        helpers = helpers.subList(0, Math.min(this.indirectProbes, helpers.size()));
+        if (helpers.isEmpty()) {
+            suspect(target);
+            return;
+        }
+        AtomicBoolean answered = new AtomicBoolean(false);
+        AtomicInteger pending = new AtomicInteger(helpers.size());
+        for (Integer helper : helpers) {
+            this.manager.request(helper, new PingReqPacket(target, this.membership.piggyback()), ACKPacket.class, timeout)
+                    .whenComplete((ack, e) -> {
+                        if (e == null && answered.compareAndSet(false, true)) {
+                            this.manager.merge(ack.getMembers());
+                        } else if (pending.decrementAndGet() == 0 && !answered.get()) {
+                            suspect(target);
+                        }
+                    });
+        }
+    }
+
+    private void suspect(Integer target) {
+        if (this.membership.suspect(target))
+            log.info(String.format("member %d suspected", target));
+    }
+}
@@ -0,0 +1,143 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.metrics.Metrics;
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+import eu.cifpfbmoll.netlib.util.Backoff;
+import eu.cifpfbmoll.netlib.util.HashedWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconnect to a node whose connection dropped.
+ *
+ * <p>Attempts are scheduled on the NodeManager's timer with exponential
+ * backoff and jitter, and run on its I/O threads. Packets sent to the
+ * node in the meantime wait in a bounded queue that is moved to the new
+ * connection, sends fail fast once the queue is full.</p>
+ *
+ * @see NodeManager#setReconnect(int, int, int)
+ */
+public class NodeReconnector {
+    private static final Logger log = LoggerFactory.getLogger(NodeReconnector.class);
+    private final NodeManager manager;
+    private final Integer id;
+    private final OutboundQueue queue;
+    private final Backoff backoff;
+    private final int maxAttempts;
+    private volatile int attempts = 0;
+    private volatile boolean run = false;
+    private volatile HashedWheelTimer.Timeout attempt = null;
+
+    /**
+     * Create a NodeReconnector.
+     *
+     * @param manager     NodeManager to reconnect with
+     * @param id          node to reconnect to
+     * @param capacity    maximum number of Packets queued until the node is back
+     * @param backoff     delays between attempts
+     * @param maxAttempts attempts before giving up
+     */
+    public NodeReconnector(NodeManager manager, Integer id, int capacity, Backoff backoff, int maxAttempts) {
+        this.manager = manager;
+        this.id = id;
+        this.queue = new OutboundQueue(capacity);
+        this.backoff = backoff;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Get the node to reconnect to.
+     *
+     * @return node ID
+     */
+    public Integer getId() {
+        return id;
+    }
+
+    /**
+     * Get the Packets waiting for the node to come back.
+     *
+     * @return queued Packets
+     */
+    public OutboundQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Get the number of attempts made so far.
+     *
+     * @return failed attempts
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Queue a Packet until the node is back.
+     *
+     * @param object   PacketObject to send
+     * @param priority priority lane to queue the Packet on
+     * @return true if the Packet was queued, false if the queue is full or reconnection stopped
+     */
+    public boolean send(Object object, PacketPriority priority) {
+        if (object == null || !this.run) return false;
+        try {
+            Packet packet = object instanceof Packet ? (Packet) object : this.manager.createPacket(object, this.id);
+            if (packet == null) return false;
+            if (this.queue.offer(packet, priority)) return true;
+            Metrics metrics = this.manager.getMetrics();
+            metrics.overflow();
+            if (metrics.isEnabled()) metrics.connection(this.id).dropped();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Start reconnecting.
+     */
+    public void start() {
+        this.run = true;
+        schedule();
+    }
+
+    /**
+     * Stop reconnecting, queued Packets are kept.
+     */
+    public void stop() {
+        this.run = false;
+        HashedWheelTimer.Timeout attempt = this.attempt;
+        if (attempt != null) attempt.cancel();
+    }
+
+    /**
+     * Schedule the next attempt on the NodeManager's timer.
+     */
+    private void schedule() {
+        if (!this.run) return;
+        try {
+            this.attempt = this.manager.getTimer().schedule(() -> this.manager.execute(this::attempt), this.backoff.next(), TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            this.run = false;
+        }
+    }
+
+    /**
+     * Try to connect, the NodeManager takes the queued Packets if it works.
+     */
+    private void attempt() {
+        if (!this.run) return;
+        this.attempts++;
+        if (this.manager.connect(this.id) != null) return;
+        if (this.attempts >= this.maxAttempts) {
+            log.info(String.format("gave up reconnecting to node %d after %d attempts", this.id, this.attempts));
+            this.manager.removeReconnector(this);
+            return;
+        }
+        schedule();
+    }
+}
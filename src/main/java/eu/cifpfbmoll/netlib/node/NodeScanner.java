@@ -0,0 +1,361 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.internal.ACKPacket;
+import eu.cifpfbmoll.netlib.internal.HelloPacket;
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketParser;
+import eu.cifpfbmoll.netlib.util.Threaded;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Discover nodes in a range of addresses using non-blocking connects.
+ *
+ * <p>A single thread probes every address: it connects, says hello and
+ * waits for the ACKPacket of a node. Every node found is added to the
+ * NodeManager's table and handed to the listener. The number of probes in
+ * flight, the time each probe may take and the number of probes started
+ * per second are limited, so large ranges can be scanned without flooding
+ * the network or creating a thread per address.</p>
+ *
+ * @see NodeManager#scan(String)
+ */
+public class NodeScanner extends Threaded {
+    private static final Logger log = LoggerFactory.getLogger(NodeScanner.class);
+    public static final int DEFAULT_CONCURRENCY = 256;
+    public static final int DEFAULT_TIMEOUT = 1000;
+    public static final int DEFAULT_RATE = 1000;
+    private static final int ACK_TYPE = Packet.typeCode(ACKPacket.type);
+    private static final int BUFFER_SIZE = 1024;
+    private final NodeManager manager;
+    private final Iterator<InetAddress> addresses;
+    private final int port;
+    private final AtomicInteger probed = new AtomicInteger(0);
+    private final AtomicInteger found = new AtomicInteger(0);
+    private volatile int concurrency = DEFAULT_CONCURRENCY;
+    private volatile int timeout = DEFAULT_TIMEOUT;
+    private volatile int rate = DEFAULT_RATE;
+    private volatile Consumer<Node> listener = null;
+
+    /**
+     * Connection attempt with a single address.
+     */
+    private static class Probe {
+        private final InetAddress address;
+        private final SocketChannel channel;
+        private final ByteBuffer hello;
+        private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        private final long deadline;
+
+        private Probe(InetAddress address, SocketChannel channel, ByteBuffer hello, long deadline) {
+            this.address = address;
+            this.channel = channel;
+            this.hello = hello;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Create a NodeScanner for a range of addresses.
+     *
+     * <p>The scan begins when {@link NodeScanner#start()} is called.</p>
+     *
+     * @param manager   NodeManager to add the nodes found to
+     * @param addresses addresses to probe
+     * @param port      port to probe on every address
+     * @see NodeScanner#range(String)
+     */
+    public NodeScanner(NodeManager manager, Iterator<InetAddress> addresses, int port) {
+        this.manager = manager;
+        this.addresses = addresses;
+        this.port = port;
+    }
+
+    /**
+     * Get every address in a CIDR range, like 192.168.0.0/20 or fd00::/120.
+     *
+     * <p>Addresses are generated as they are iterated, so even huge ranges
+     * take no memory. The network and broadcast addresses of IPv4 ranges
+     * are left out. An address without prefix length is a range of one.</p>
+     *
+     * @param cidr address range
+     * @return iterator over the addresses of the range
+     * @throws IllegalArgumentException if the range is not valid
+     */
+    public static Iterator<InetAddress> range(String cidr) throws IllegalArgumentException {
+        String[] parts = cidr == null ? new String[0] : cidr.trim().split("/");
+        if (parts.length < 1 || parts.length > 2 || parts[0].isEmpty())
+            throw new IllegalArgumentException(String.format("Invalid address range: %s", cidr));
+        byte[] base;
+        int prefix;
+        try {
+            base = InetAddress.getByName(parts[0]).getAddress();
+            prefix = parts.length > 1 ? Integer.parseInt(parts[1]) : base.length * Byte.SIZE;
+        } catch (Exception e) {
+            throw new IllegalArgumentException(String.format("Invalid address range: %s", cidr), e);
+        }
+        int bits = base.length * Byte.SIZE;
+        if (prefix < 0 || prefix > bits)
+            throw new IllegalArgumentException(String.format("Invalid prefix length for %s: %d", cidr, prefix));
+        int hostBits = bits - prefix;
+        BigInteger size = BigInteger.ONE.shiftLeft(hostBits);
+        BigInteger first = new BigInteger(1, base).shiftRight(hostBits).shiftLeft(hostBits);
+        BigInteger last = first.add(size).subtract(BigInteger.ONE);
+        if (base.length == 4 && hostBits >= 2) {
+            first = first.add(BigInteger.ONE);
+            last = last.subtract(BigInteger.ONE);
+        }
+        BigInteger start = first;
+        BigInteger end = last;
+        int length = base.length;
+        return new Iterator<InetAddress>() {
+            private BigInteger next = start;
+
+            @Override
+            public boolean hasNext() {
+                return this.next.compareTo(end) <= 0;
+            }
+
+            @Override
+            public InetAddress next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                byte[] raw = this.next.toByteArray();
+                byte[] address = new byte[length];
+                int copy = Math.min(raw.length, length);
+                System.arraycopy(raw, raw.length - copy, address, length - copy, copy);
+                this.next = this.next.add(BigInteger.ONE);
+                try {
+                    return InetAddress.getByAddress(address);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Set the maximum number of probes in flight.
+     *
+     * @param concurrency maximum number of simultaneous probes
+     * @throws IllegalArgumentException if concurrency is lower than 1
+     */
+    public void setConcurrency(int concurrency) throws IllegalArgumentException {
+        if (concurrency < 1)
+            throw new IllegalArgumentException(String.format("Invalid scan concurrency: %d", concurrency));
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Set the time a probe may take before the address is given up.
+     *
+     * @param timeout probe timeout in milliseconds
+     * @throws IllegalArgumentException if timeout is lower than 1
+     */
+    public void setTimeout(int timeout) throws IllegalArgumentException {
+        if (timeout < 1)
+            throw new IllegalArgumentException(String.format("Invalid scan timeout: %d", timeout));
+        this.timeout = timeout;
+    }
+
+    /**
+     * Set the maximum number of probes started per second.
+     *
+     * @param rate probes per second, 0 for no limit
+     * @throws IllegalArgumentException if rate is negative
+     */
+    public void setRate(int rate) throws IllegalArgumentException {
+        if (rate < 0)
+            throw new IllegalArgumentException(String.format("Invalid scan rate: %d", rate));
+        this.rate = rate;
+    }
+
+    /**
+     * Set the function called with every node found.
+     *
+     * @param listener node listener, called on the scanner's thread
+     */
+    public void setListener(Consumer<Node> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the number of addresses probed so far.
+     *
+     * @return probed addresses
+     */
+    public int getProbed() {
+        return this.probed.get();
+    }
+
+    /**
+     * Get the number of nodes found so far.
+     *
+     * @return nodes found
+     */
+    public int getFound() {
+        return this.found.get();
+    }
+
+    @Override
+    public void run() {
+        Selector selector = null;
+        try {
+            selector = Selector.open();
+            byte[] hello = NodeSocket.createPacket(new HelloPacket(false, this.manager.getPort()), this.manager.getId(), 0).dump();
+            long next = System.nanoTime();
+            while (this.run && (this.addresses.hasNext() || !selector.keys().isEmpty())) {
+                long now = System.nanoTime();
+                long interval = this.rate > 0 ? 1000000000L / this.rate : 0;
+                while (this.addresses.hasNext() && selector.keys().size() < this.concurrency && now - next >= 0) {
+                    probe(selector, this.addresses.next(), hello, now);
+                    next = Math.max(next + interval, now - interval);
+                }
+                long wait = this.timeout;
+                if (this.addresses.hasNext() && selector.keys().size() < this.concurrency)
+                    wait = Math.min(wait, (next - now) / 1000000L);
+                for (SelectionKey key : selector.keys())
+                    wait = Math.min(wait, (((Probe) key.attachment()).deadline - now) / 1000000L);
+                selector.select(Math.max(1, wait));
+                for (SelectionKey key : selector.selectedKeys())
+                    handle(key);
+                selector.selectedKeys().clear();
+                now = System.nanoTime();
+                for (SelectionKey key : selector.keys())
+                    if (now - ((Probe) key.attachment()).deadline >= 0) close(key);
+            }
+        } catch (Exception e) {
+            log.error("NodeScanner's thread failed: ", e);
+        } finally {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) close(key);
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+            this.run = false;
+            this.manager.removeScanner(this);
+        }
+    }
+
+    /**
+     * Start probing an address.
+     */
+    private void probe(Selector selector, InetAddress address, byte[] hello, long now) {
+        if (this.manager.nodeInHash(address.getHostAddress())) return;
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            Probe probe = new Probe(address, channel, ByteBuffer.wrap(hello), now + this.timeout * 1000000L);
+            this.probed.incrementAndGet();
+            if (channel.connect(new InetSocketAddress(address, this.port))) {
+                channel.register(selector, SelectionKey.OP_WRITE, probe);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, probe);
+            }
+        } catch (IOException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Move a probe forward once its channel is ready.
+     */
+    private void handle(SelectionKey key) {
+        Probe probe = (Probe) key.attachment();
+        try {
+            if (!key.isValid()) return;
+            if (key.isConnectable()) {
+                if (!probe.channel.finishConnect()) return;
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+            if (key.isWritable() || key.interestOps() == SelectionKey.OP_WRITE) {
+                probe.channel.write(probe.hello);
+                if (!probe.hello.hasRemaining()) key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            if (key.isReadable()) {
+                if (probe.channel.read(probe.input) < 0 || !probe.input.hasRemaining()) {
+                    close(key);
+                    return;
+                }
+                probe.input.flip();
+                while (probe.input.hasRemaining()) {
+                    probe.input.mark();
+                    Packet packet;
+                    try {
+                        packet = Packet.load(probe.input);
+                    } catch (BufferUnderflowException e) {
+                        probe.input.reset();
+                        break;
+                    }
+                    if (packet.getTypeCode() == ACK_TYPE) {
+                        found(probe, packet);
+                        close(key);
+                        return;
+                    }
+                }
+                probe.input.compact();
+            }
+        } catch (Exception e) {
+            close(key);
+        }
+    }
+
+    /**
+     * Add the node that answered a probe.
+     */
+    private void found(Probe probe, Packet packet) throws IllegalAccessException {
+        ACKPacket ack = PacketParser.getInstance().deserialize(ACKPacket.class, packet.getData());
+        Integer id = packet.getSourceId();
+        int port = ack.getPort() > 0 ? ack.getPort() : this.port;
+        String ip = probe.address.getHostAddress();
+        if (this.manager.isIdInUse(id, ip, port)) {
+            log.warn(String.format("ignored node %s:%d, ID %d is already in use", ip, port, id));
+            return;
+        }
+        if (id.equals(this.manager.getId())) return;
+        this.manager.addNode(id, ip, port);
+        this.manager.merge(ack.getMembers());
+        this.found.incrementAndGet();
+        Consumer<Node> listener = this.listener;
+        if (listener != null) {
+            try {
+                listener.accept(new Node(id, ip, port));
+            } catch (Exception e) {
+                log.error("NodeScanner listener failed: ", e);
+            }
+        }
+    }
+
+    /**
+     * Give up a probe.
+     */
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -41,20 +41,35 @@ public class NodeServer extends Threaded {
         }
     }
 
+    /**
+     * Get the port the server is listening on.
+     *
+     * @return server port or 0 if the server could not be created
+     */
+    public int getPort() {
+        return this.socket == null ? 0 : this.socket.getLocalPort();
+    }
+
+    /**
+     * Stop accepting connections and close the server socket.
+     */
+    public void close() {
+        stop();
+        try {
+            if (this.socket != null) this.socket.close();
+        } catch (IOException e) {
+            log.error("failed to close ServerSocket: ", e);
+        }
+    }
+
     @Override
     public void run() {
         while (this.run) {
             try {
                 NodeSocket nodeSocket = new NodeSocket(this.socket.accept());
-                if (this.manager.nodeInHash(nodeSocket.getIp())) {
-                    Integer nodeID = this.manager.getNodeIdByIP(nodeSocket.getIp());
-                    NodeConnection nodeConnection = new NodeConnection(new Node(nodeID, nodeSocket.getIp()), nodeSocket, this.manager);
-                    this.manager.addNodeConnection(nodeConnection);
-                } else {
-                    new NodeIdentification(nodeSocket, this.manager);
-                }
+                new NodeIdentification(nodeSocket, this.manager);
             } catch (Exception e) {
-                log.error("Error in NodeServer run", e);
+                if (this.run) log.error("Error in NodeServer run", e);
             }
         }
         try {
@@ -9,6 +9,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 
 /**
@@ -51,6 +52,26 @@ public class NodeSocket implements Closeable {
         }
     }
 
+    /**
+     * Attempt a connection to a device, giving up after a timeout.
+     *
+     * <p>Reads on the returned NodeSocket time out after the same delay.</p>
+     *
+     * @param ip      IP to connect to
+     * @param port    Port to connect to
+     * @param timeout connect and read timeout in milliseconds
+     * @return NodeSocket on successful connection, null if the connection failed
+     */
+    public static NodeSocket connect(String ip, int port, int timeout) {
+        try {
+            NodeSocket socket = new NodeSocket(ip, port, timeout);
+            socket.getSocket().setSoTimeout(timeout);
+            return socket;
+        } catch (Exception ignored) {
+            return null;
+        }
+    }
+
     /**
      * Create a new NodeSocket with a host and port.
      *
@@ -62,6 +83,33 @@ public class NodeSocket implements Closeable {
         this(new Socket(host, port));
     }
 
+    /**
+     * Create a new NodeSocket with a host and port, giving up
+     * if the connection takes longer than a timeout.
+     *
+     * @param host    host name
+     * @param port    port number
+     * @param timeout connect timeout in milliseconds
+     * @throws IOException if the connection fails or times out
+     */
+    public NodeSocket(String host, int port, int timeout) throws IOException {
+        this(connectSocket(host, port, timeout));
+    }
+
+    /**
+     * Open a standard Socket with a connect timeout.
+     */
+    private static Socket connectSocket(String host, int port, int timeout) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeout);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
     /**
      * Create a new NodeSocket from an existing standard Socket.
      *
@@ -122,25 +170,54 @@ public class NodeSocket implements Closeable {
     }
 
     /**
-     * Send a PacketObject to the connected node.
+     * Create a Packet holding a serialized PacketObject.
      *
-     * @param object PacketObject to send
-     * @return true if send was successful, false otherwise
+     * @param object PacketObject to serialize
+     * @param src    source node id
+     * @param dst    destination node id
+     * @return new Packet or null if the object could not be serialized
+     * @throws IllegalAccessException   if reading a field fails
+     * @throws IllegalArgumentException if the object is not a PacketType or it is too big
      */
-    public boolean send(Object object, Integer src, Integer dst) throws IOException, IllegalAccessException {
-        if (object == null) return false;
+    public static Packet createPacket(Object object, Integer src, Integer dst) throws IllegalAccessException, IllegalArgumentException {
+        if (object == null) return null;
         Class<?> clazz = object.getClass();
         PacketParser parser = PacketParser.getInstance();
-        String type = parser.getPacketType(clazz);
+        Integer type = parser.getPacketTypeCode(clazz);
         if (type == null)
             throw new IllegalArgumentException(String.format("%s must contain @PacketType", clazz.getSimpleName()));
-        type = Packet.formatType(type);
         byte[] data = parser.serialize(object);
-        if (data == null) return false;
+        if (data == null) return null;
         Packet packet = Packet.create(type, src, dst, data);
         int size = packet.size();
         if (size > Packet.MAX_PACKET_SIZE)
             throw new IllegalArgumentException(String.format("Object %s passed maximum size: %d/%d", clazz.getSimpleName(), packet.size(), Packet.MAX_PACKET_SIZE));
+        return packet;
+    }
+
+    /**
+     * Check a Packet still fits in {@link Packet#MAX_PACKET_SIZE} after
+     * extensions were added to its header.
+     *
+     * @param packet Packet to check
+     * @return the same Packet
+     * @throws IllegalArgumentException if the Packet is too big
+     */
+    public static Packet checkSize(Packet packet) throws IllegalArgumentException {
+        if (packet.size() > Packet.MAX_PACKET_SIZE)
+            throw new IllegalArgumentException(String.format("Packet %s passed maximum size: %d/%d", packet.getType().trim(), packet.size(), Packet.MAX_PACKET_SIZE));
+        return packet;
+    }
+
+    /**
+     * Send a PacketObject to the connected node.
+     *
+     * @param object PacketObject to send
+     * @return true if send was successful, false otherwise
+     */
+    public boolean send(Object object, Integer src, Integer dst) throws IOException, IllegalAccessException {
+        Packet packet = createPacket(object, src, dst);
+        if (packet == null) return false;
         write(packet.dump());
         return true;
     }
@@ -0,0 +1,95 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.metrics.Metrics;
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.util.Threaded;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.net.SocketException;
+
+/**
+ * Write the Packets queued on a NodeConnection to its NodeSocket.
+ *
+ * <p>Every Packet available when the writer wakes up is written with a
+ * single socket write, up to {@link NodeWriter#MAX_WRITE_SIZE} bytes.</p>
+ *
+ * <p>Written Packets are counted on the node's {@link Metrics} while they are enabled.</p>
+ *
+ * @see OutboundQueue
+ */
+public class NodeWriter extends Threaded {
+    private static final Logger log = LoggerFactory.getLogger(NodeWriter.class);
+    private static final int POLL_DELAY = 500;
+    public static final int MAX_WRITE_SIZE = 64 * 1024;
+    private final NodeSocket socket;
+    private final OutboundQueue queue;
+    private final Metrics metrics;
+    private final int id;
+    private volatile boolean closing = false;
+
+    public NodeWriter(NodeSocket socket, OutboundQueue queue) {
+        this(socket, queue, null, 0);
+    }
+
+    /**
+     * Create a NodeWriter.
+     *
+     * @param socket  socket to write to
+     * @param queue   queue to take Packets from
+     * @param metrics Metrics to count written Packets on, or null
+     * @param id      connected node ID
+     */
+    public NodeWriter(NodeSocket socket, OutboundQueue queue, Metrics metrics, int id) {
+        this.socket = socket;
+        this.queue = queue;
+        this.metrics = metrics;
+        this.id = id;
+    }
+
+    /**
+     * Close the NodeSocket once every queued Packet has been written.
+     */
+    public void closeWhenFlushed() {
+        this.closing = true;
+        synchronized (this.queue) {
+            this.queue.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (this.run && !this.socket.isClosed()) {
+            try {
+                Packet packet = this.queue.take(POLL_DELAY);
+                if (packet == null) {
+                    if (this.closing) this.socket.safeClose();
+                    continue;
+                }
+                out.reset();
+                do {
+                    byte[] bytes = packet.dump();
+                    out.write(bytes);
+                    sent(packet, bytes.length);
+                } while (out.size() < MAX_WRITE_SIZE && (packet = this.queue.poll()) != null);
+                this.socket.write(out.toByteArray());
+            } catch (SocketException ignored) {
+                this.socket.safeClose();
+            } catch (Exception e) {
+                log.error("NodeWriter thread failed: ", e);
+                this.socket.safeClose();
+            }
+        }
+    }
+
+    /**
+     * Count a written Packet if metrics are enabled.
+     */
+    private void sent(Packet packet, int bytes) {
+        if (this.metrics == null || !this.metrics.isEnabled()) return;
+        this.metrics.connection(this.id).sent(bytes);
+        this.metrics.type(packet.getTypeCode()).sent(bytes);
+    }
+}
@@ -0,0 +1,186 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded queue of Packets waiting to be written, with one lane per {@link PacketPriority}.
+ *
+ * <p>Packets are taken from the first non-empty lane, so control Packets
+ * always overtake queued data. Only CONTROL Packets are accepted once the
+ * queue is full.</p>
+ *
+ * <p>Once a limit is granted, data Packets are only taken while fewer
+ * Packets than the limit were taken in total. CONTROL Packets are always
+ * taken, and counted against the limit.</p>
+ *
+ * @see FlowControl
+ */
+public class OutboundQueue {
+    public static final int DEFAULT_CAPACITY = 4096;
+    private final ArrayDeque<Packet>[] lanes;
+    private final int capacity;
+    private int size = 0;
+    private long taken = 0;
+    private long limit = -1;
+
+    /**
+     * Create an OutboundQueue with the default capacity.
+     */
+    public OutboundQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an OutboundQueue.
+     *
+     * @param capacity maximum number of non-control Packets
+     */
+    @SuppressWarnings("unchecked")
+    public OutboundQueue(int capacity) {
+        this.capacity = capacity;
+        this.lanes = (ArrayDeque<Packet>[]) new ArrayDeque<?>[PacketPriority.values().length];
+        for (int i = 0; i < this.lanes.length; i++)
+            this.lanes[i] = new ArrayDeque<>();
+    }
+
+    /**
+     * Add a Packet to the end of its priority lane.
+     *
+     * @param packet   Packet to queue
+     * @param priority Packet's priority
+     * @return true if the Packet was queued, false if the queue is full
+     */
+    public synchronized boolean offer(Packet packet, PacketPriority priority) {
+        if (priority != PacketPriority.CONTROL && this.size >= this.capacity) return false;
+        this.lanes[priority.ordinal()].add(packet);
+        this.size++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Take the next Packet without waiting.
+     *
+     * @return next Packet or null if the queue is empty
+     */
+    public synchronized Packet poll() {
+        int lanes = hasCredit() ? this.lanes.length : 1;
+        for (int i = 0; i < lanes; i++) {
+            Packet packet = this.lanes[i].poll();
+            if (packet != null) {
+                this.size--;
+                this.taken++;
+                notifyAll();
+                return packet;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take the next Packet, waiting until one is queued.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @return next Packet or null if the timeout elapsed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized Packet take(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (this.size == 0 || (!hasCredit() && this.lanes[PacketPriority.CONTROL.ordinal()].isEmpty())) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return null;
+            wait(remaining);
+        }
+        return poll();
+    }
+
+    /**
+     * Remove every queued Packet, in the order they would have been written.
+     *
+     * @return removed Packets
+     */
+    public synchronized List<Packet> drain() {
+        List<Packet> packets = new ArrayList<>(this.size);
+        for (ArrayDeque<Packet> lane : this.lanes) {
+            packets.addAll(lane);
+            lane.clear();
+        }
+        this.size = 0;
+        notifyAll();
+        return packets;
+    }
+
+    /**
+     * Remove every Packet queued in a priority lane.
+     *
+     * @param priority lane to empty
+     * @return removed Packets, in the order they would have been written
+     */
+    public synchronized List<Packet> drain(PacketPriority priority) {
+        ArrayDeque<Packet> lane = this.lanes[priority.ordinal()];
+        List<Packet> packets = new ArrayList<>(lane);
+        lane.clear();
+        this.size -= packets.size();
+        notifyAll();
+        return packets;
+    }
+
+    /**
+     * Move every queued data Packet to another queue, keeping its lane.
+     *
+     * <p>CONTROL Packets describe the state of a single connection, so
+     * they are dropped instead of moved. Packets that do not fit in the
+     * other queue are dropped too.</p>
+     *
+     * @param target queue to move the Packets to
+     * @return number of Packets moved
+     */
+    public int transferTo(OutboundQueue target) {
+        int moved = 0;
+        for (PacketPriority priority : PacketPriority.values()) {
+            List<Packet> packets = drain(priority);
+            if (priority == PacketPriority.CONTROL) continue;
+            for (Packet packet : packets)
+                if (target.offer(packet, priority)) moved++;
+        }
+        return moved;
+    }
+
+    /**
+     * Raise the number of Packets that can be taken in total.
+     *
+     * @param limit Packets that can be taken since the queue was created
+     */
+    public synchronized void grant(long limit) {
+        if (limit <= this.limit) return;
+        this.limit = limit;
+        notifyAll();
+    }
+
+    /**
+     * Get the number of data Packets that can still be taken.
+     *
+     * @return remaining credits or -1 if no limit was granted
+     */
+    public synchronized long getCredits() {
+        return this.limit < 0 ? -1 : Math.max(0, this.limit - this.taken);
+    }
+
+    private boolean hasCredit() {
+        return this.limit < 0 || this.taken < this.limit;
+    }
+
+    /**
+     * Get number of queued Packets.
+     *
+     * @return queued Packets
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,274 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+import eu.cifpfbmoll.netlib.util.SegmentLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store Packets for nodes that cannot be reached, and deliver them once the
+ * nodes are back.
+ *
+ * <p>Every destination has its own {@link SegmentLog} in a subdirectory
+ * named after its ID, holding the serialized Packets and their priority, so
+ * they survive restarts and do not stay on heap. A destination is drained in
+ * order through its reliable session when it connects, pausing while the
+ * session's window is full.</p>
+ *
+ * <p>Packets stay in the log until the destination acknowledges them. If
+ * the session is dropped, or this node stops, before that, they are sent
+ * again through a new session, so a Packet may be delivered more than
+ * once. Like every reliable Packet, they are not reordered on arrival.</p>
+ *
+ * @see NodeManager#sendDurable(Integer, Object)
+ */
+public class Outbox {
+    private static final Logger log = LoggerFactory.getLogger(Outbox.class);
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+    private static final int DRAIN_RETRY_DELAY = 50;
+    private final NodeManager manager;
+    private final Path directory;
+    private final long maxBytes;
+    private final Map<Integer, SegmentLog> logs = new ConcurrentHashMap<>();
+    private final Map<Integer, Delivery> deliveries = new ConcurrentHashMap<>();
+    private final Set<Integer> draining = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Packets of a destination handed to its reliable session and not acknowledged yet.
+     */
+    private static final class Delivery {
+        private final SegmentLog segmentLog;
+        private final TreeMap<Long, Long> inFlight = new TreeMap<>();
+        private final Set<Long> acked = new HashSet<>();
+        private ReliableSession session;
+        private int generation = 0;
+
+        private Delivery(SegmentLog segmentLog) {
+            this.segmentLog = segmentLog;
+        }
+    }
+
+    /**
+     * Open an Outbox, loading the Packets stored by a previous run.
+     *
+     * @param manager   NodeManager to deliver the Packets with
+     * @param directory directory holding a log per destination
+     * @param maxBytes  maximum bytes stored per destination
+     * @throws IOException              if the stored logs could not be opened
+     * @throws IllegalArgumentException if maxBytes cannot hold a segment
+     */
+    public Outbox(NodeManager manager, Path directory, long maxBytes) throws IOException, IllegalArgumentException {
+        if (maxBytes < SegmentLog.DEFAULT_SEGMENT_SIZE)
+            throw new IllegalArgumentException(String.format("Invalid outbox size: %d bytes", maxBytes));
+        this.manager = manager;
+        this.directory = directory.toAbsolutePath();
+        this.maxBytes = maxBytes;
+        Files.createDirectories(this.directory);
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(this.directory, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                try {
+                    Integer id = Integer.valueOf(dir.getFileName().toString());
+                    this.logs.put(id, new SegmentLog(dir, SegmentLog.DEFAULT_SEGMENT_SIZE, maxBytes));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the outbox directory.
+     *
+     * @return outbox directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Store a Packet until its destination can be reached.
+     *
+     * @param id       destination node ID
+     * @param packet   Packet to store
+     * @param priority priority lane to send the Packet on
+     * @return true if the Packet was stored, false if the destination's log is full or could not be written
+     */
+    public boolean store(Integer id, Packet packet, PacketPriority priority) {
+        byte[] data = packet.dump();
+        byte[] frame = new byte[data.length + 1];
+        frame[0] = (byte) priority.ordinal();
+        System.arraycopy(data, 0, frame, 1, data.length);
+        try {
+            return segmentLog(id).append(frame);
+        } catch (IOException | UncheckedIOException e) {
+            log.error(String.format("failed to store packet for node %d: ", id), e);
+            return false;
+        }
+    }
+
+    /**
+     * Check if Packets are waiting for a destination.
+     *
+     * @param id destination node ID
+     * @return true if every Packet stored for the destination was acknowledged
+     */
+    public boolean isEmpty(Integer id) {
+        SegmentLog segmentLog = this.logs.get(id);
+        return segmentLog == null || segmentLog.isEmpty();
+    }
+
+    /**
+     * Get the bytes stored for a destination.
+     *
+     * @param id destination node ID
+     * @return stored bytes
+     */
+    public long size(Integer id) {
+        SegmentLog segmentLog = this.logs.get(id);
+        return segmentLog == null ? 0 : segmentLog.size();
+    }
+
+    /**
+     * Deliver the Packets stored for a destination, on the NodeManager's
+     * I/O threads.
+     *
+     * @param id destination node ID
+     */
+    public void drain(Integer id) {
+        if (!hasUnsent(id) || !this.draining.add(id)) return;
+        this.manager.execute(() -> {
+            boolean drained = false;
+            try {
+                drained = drainNow(id);
+            } finally {
+                this.draining.remove(id);
+            }
+            if (drained) drain(id);
+        });
+    }
+
+    /**
+     * Write every stored Packet to the storage device.
+     */
+    public void flush() {
+        for (SegmentLog segmentLog : this.logs.values())
+            segmentLog.flush();
+    }
+
+    /**
+     * Write every stored Packet to the storage device and close every log.
+     * Stored Packets are kept for the next run.
+     */
+    public void close() {
+        for (SegmentLog segmentLog : this.logs.values()) {
+            try {
+                segmentLog.flush();
+                segmentLog.close();
+            } catch (IOException e) {
+                log.warn(String.format("failed to close outbox log: %s", e));
+            }
+        }
+    }
+
+    /**
+     * Check if stored Packets were not handed to the destination's current session yet.
+     */
+    private boolean hasUnsent(Integer id) {
+        SegmentLog segmentLog = this.logs.get(id);
+        if (segmentLog == null || segmentLog.isEmpty()) return false;
+        if (!segmentLog.isRead()) return true;
+        Delivery delivery = this.deliveries.get(id);
+        if (delivery == null) return true;
+        synchronized (delivery) {
+            return delivery.session != this.manager.getReliableSession(id);
+        }
+    }
+
+    /**
+     * Hand the stored Packets to the destination's reliable session in order,
+     * retrying later if the window fills up while the destination is reachable.
+     *
+     * <p>When the session changed, the Packets the previous one dropped
+     * without an acknowledgement are handed again.</p>
+     *
+     * @return true if every Packet was handed, Packets stored meanwhile have to be drained too
+     */
+    private boolean drainNow(Integer id) {
+        SegmentLog segmentLog = this.logs.get(id);
+        if (segmentLog == null) return false;
+        Delivery delivery = this.deliveries.computeIfAbsent(id, key -> new Delivery(segmentLog));
+        ReliableSession session = this.manager.session(id);
+        synchronized (delivery) {
+            if (delivery.session != session) {
+                delivery.session = session;
+                delivery.generation++;
+                delivery.inFlight.clear();
+                delivery.acked.clear();
+                segmentLog.rewind();
+            }
+        }
+        PacketPriority[] priorities = PacketPriority.values();
+        byte[] frame;
+        while ((frame = segmentLog.peek()) != null) {
+            if (this.manager.getRoutingTable().getRoute(id) == null) return false;
+            PacketPriority priority = priorities[Math.min(frame[0], priorities.length - 1)];
+            Packet packet = Packet.load(Arrays.copyOfRange(frame, 1, frame.length));
+            synchronized (delivery) {
+                long start = segmentLog.getPosition();
+                int generation = delivery.generation;
+                if (!session.send(packet, priority, () -> acknowledged(id, delivery, generation, start))) {
+                    try {
+                        this.manager.getTimer().schedule(() -> drain(id), DRAIN_RETRY_DELAY, TimeUnit.MILLISECONDS);
+                    } catch (IllegalStateException ignored) {
+                    }
+                    return false;
+                }
+                delivery.inFlight.put(start, segmentLog.advance());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Commit the Packets acknowledged in order, deleting the segments
+     * that were delivered entirely.
+     */
+    private void acknowledged(Integer id, Delivery delivery, int generation, long start) {
+        synchronized (delivery) {
+            if (delivery.generation != generation) return;
+            delivery.acked.add(start);
+            long commit = -1;
+            Map.Entry<Long, Long> first;
+            while ((first = delivery.inFlight.firstEntry()) != null && delivery.acked.remove(first.getKey())) {
+                commit = first.getValue();
+                delivery.inFlight.pollFirstEntry();
+            }
+            if (commit < 0) return;
+            delivery.segmentLog.commit(commit);
+        }
+        try {
+            delivery.segmentLog.compact();
+        } catch (IOException e) {
+            log.warn(String.format("failed to compact outbox of node %d: %s", id, e));
+        }
+    }
+
+    private SegmentLog segmentLog(Integer id) {
+        return this.logs.computeIfAbsent(id, key -> {
+            try {
+                return new SegmentLog(this.directory.resolve(String.valueOf(key)), SegmentLog.DEFAULT_SEGMENT_SIZE, this.maxBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
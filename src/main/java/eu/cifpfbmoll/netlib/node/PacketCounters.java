@@ -0,0 +1,78 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.metrics.Metrics;
+
+/**
+ * Counters for the Packets a node dropped instead of handling or forwarding them.
+ *
+ * <p>The counters are read from the node's {@link Metrics}.</p>
+ */
+public class PacketCounters {
+    private final Metrics metrics;
+
+    /**
+     * Create a PacketCounters.
+     *
+     * @param metrics node Metrics holding the counters
+     */
+    public PacketCounters(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Count a Packet dropped because its TTL expired.
+     */
+    public void expired() {
+        this.metrics.expired();
+    }
+
+    /**
+     * Count a Packet dropped because it was already seen.
+     */
+    public void duplicate() {
+        this.metrics.duplicate();
+    }
+
+    /**
+     * Count a Packet dropped because its destination could not be reached.
+     */
+    public void unroutable() {
+        this.metrics.unroutable();
+    }
+
+    /**
+     * Get the number of Packets dropped because their TTL expired.
+     *
+     * @return expired Packets
+     */
+    public long getExpired() {
+        return this.metrics.getExpired();
+    }
+
+    /**
+     * Get the number of Packets dropped because they were already seen.
+     *
+     * @return duplicate Packets
+     */
+    public long getDuplicates() {
+        return this.metrics.getDuplicates();
+    }
+
+    /**
+     * Get the number of Packets dropped because their destination could not be reached.
+     *
+     * @return unroutable Packets
+     */
+    public long getUnroutable() {
+        return this.metrics.getUnroutable();
+    }
+
+    @Override
+    public String toString() {
+        return "PacketCounters{" +
+                "expired=" + getExpired() +
+                ", duplicates=" + getDuplicates() +
+                ", unroutable=" + getUnroutable() +
+                '}';
+    }
+}
@@ -0,0 +1,86 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.packet.Packet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Split the byte stream of a NodeSocket into Packets.
+ *
+ * <p>A single read may return several Packets, or only part of one.
+ * Incomplete Packets are kept until the rest of their bytes arrive.</p>
+ *
+ * @see NodeSocket
+ */
+public class PacketReader {
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private final NodeSocket socket;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private List<Packet> pending = Collections.emptyList();
+
+    /**
+     * Create a new PacketReader for a NodeSocket.
+     *
+     * @param socket socket to read Packets from
+     */
+    public PacketReader(NodeSocket socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Read once from the socket and load every complete Packet received.
+     *
+     * @return loaded Packets, empty if no Packet was completed by this read
+     * @throws EOFException if the connection was closed by the other end
+     * @throws IOException  if an IO error occurs
+     */
+    public List<Packet> read() throws IOException {
+        if (!this.pending.isEmpty()) {
+            List<Packet> packets = this.pending;
+            this.pending = Collections.emptyList();
+            return packets;
+        }
+        if (!this.buffer.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(this.buffer.capacity() * 2);
+            this.buffer.flip();
+            bigger.put(this.buffer);
+            this.buffer = bigger;
+        }
+        int size = this.socket.read(this.buffer.array(), this.buffer.position(), this.buffer.remaining());
+        if (size < 0) throw new EOFException("NodeSocket closed by peer.");
+        this.buffer.position(this.buffer.position() + size);
+        this.buffer.flip();
+        List<Packet> packets = Collections.emptyList();
+        while (this.buffer.hasRemaining()) {
+            this.buffer.mark();
+            try {
+                Packet packet = Packet.load(this.buffer);
+                if (packets.isEmpty()) packets = new ArrayList<>();
+                packets.add(packet);
+            } catch (BufferUnderflowException e) {
+                this.buffer.reset();
+                break;
+            }
+        }
+        this.buffer.compact();
+        return packets;
+    }
+
+    /**
+     * Give back Packets that were read but not used,
+     * they are returned again by the next read.
+     *
+     * @param packets Packets to return on the next read
+     */
+    public void unread(List<Packet> packets) {
+        List<Packet> tmp = new ArrayList<>(packets);
+        tmp.addAll(this.pending);
+        this.pending = tmp;
+    }
+}
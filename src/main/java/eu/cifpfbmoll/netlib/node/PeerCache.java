@@ -0,0 +1,154 @@
+package eu.cifpfbmoll.netlib.node;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keep the nodes table in a local file across restarts.
+ *
+ * <p>Every node is stored in binary with its ID, address, server port and
+ * the last time it was seen. Snapshots are written to a temporary file and
+ * moved over the previous one, so a crash never leaves a half written
+ * cache behind.</p>
+ *
+ * @see NodeManager#NodeManager(Integer, String, boolean, int, Path)
+ */
+public class PeerCache {
+    private static final Logger log = LoggerFactory.getLogger(PeerCache.class);
+    private static final int MAGIC = 0x4e4c5043;
+    private static final byte VERSION = 1;
+    private final Path file;
+
+    /**
+     * Node stored in the cache.
+     */
+    public static class Peer {
+        private final Node node;
+        private final long lastSeen;
+
+        /**
+         * Create a new Peer.
+         *
+         * @param node     node ID, IP and port
+         * @param lastSeen last time the node was seen, in milliseconds since the epoch
+         */
+        public Peer(Node node, long lastSeen) {
+            this.node = node;
+            this.lastSeen = lastSeen;
+        }
+
+        public Node getNode() {
+            return node;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+    }
+
+    /**
+     * Create a PeerCache stored in a file.
+     *
+     * @param file cache file, created on the first save
+     * @throws NullPointerException if file is null
+     */
+    public PeerCache(Path file) throws NullPointerException {
+        if (file == null)
+            throw new NullPointerException("Peer cache file cannot be null.");
+        this.file = file.toAbsolutePath();
+    }
+
+    /**
+     * Get the cache file.
+     *
+     * @return cache file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Read every node in the cache.
+     *
+     * <p>A missing or unreadable cache is treated as empty.</p>
+     *
+     * @return cached nodes
+     */
+    public List<Peer> load() {
+        if (!Files.exists(this.file)) return Collections.emptyList();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                log.warn(String.format("ignored invalid peer cache: %s", this.file));
+                return Collections.emptyList();
+            }
+            int count = in.readInt();
+            List<Peer> peers = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                int port = in.readUnsignedShort();
+                long lastSeen = in.readLong();
+                byte[] address = new byte[in.readUnsignedByte()];
+                in.readFully(address);
+                peers.add(new Peer(new Node(id, InetAddress.getByAddress(address).getHostAddress(), port), lastSeen));
+            }
+            return peers;
+        } catch (IOException e) {
+            log.warn(String.format("failed to read peer cache %s: %s", this.file, e));
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Replace the cache with a snapshot of the nodes table.
+     *
+     * <p>Nodes whose IP is not a literal address are left out.</p>
+     *
+     * @param peers nodes to store
+     * @throws IOException if the cache could not be written
+     */
+    public synchronized void save(Collection<Peer> peers) throws IOException {
+        List<byte[]> addresses = new ArrayList<>(peers.size());
+        List<Peer> stored = new ArrayList<>(peers.size());
+        for (Peer peer : peers) {
+            try {
+                addresses.add(InetAddress.getByName(peer.node.getIp()).getAddress());
+                stored.add(peer);
+            } catch (Exception ignored) {
+            }
+        }
+        Path parent = this.file.getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, this.file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeInt(stored.size());
+                for (int i = 0; i < stored.size(); i++) {
+                    Peer peer = stored.get(i);
+                    byte[] address = addresses.get(i);
+                    out.writeInt(peer.node.getId());
+                    out.writeShort(peer.node.getPort());
+                    out.writeLong(peer.lastSeen);
+                    out.writeByte(address.length);
+                    out.write(address);
+                }
+            }
+            try {
+                Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
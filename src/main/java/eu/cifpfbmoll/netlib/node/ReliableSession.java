@@ -0,0 +1,375 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.internal.ReliableAckPacket;
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+import eu.cifpfbmoll.netlib.util.HashedWheelTimer;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reliable delivery of Packets to a single node.
+ *
+ * <p>Packets sent through the session are numbered and kept in a bounded
+ * replay buffer until the node acknowledges them. Acknowledgements carry
+ * the last sequence number received in order and ranges of Packets
+ * received after a gap, so only the missing Packets are sent again.
+ * Unacknowledged Packets are retransmitted when the node reconnects, and
+ * after a timeout that doubles on every attempt while it stays reachable.</p>
+ *
+ * <p>Received Packets are delivered once per sequence number, duplicates
+ * are dropped and acknowledged again. Packets are not reordered: a
+ * retransmitted Packet is delivered when it arrives.</p>
+ *
+ * <p>Sequence numbers start at 1 on every epoch. A sender starts a new
+ * epoch when the receiver restarts, numbering the Packets it still holds
+ * again, since the receiver no longer knows which ones it got. Packets
+ * of an epoch older than the last one received are answered with that
+ * epoch, so a sender that restarted and picked a lower epoch moves past it.</p>
+ *
+ * @see NodeManager#sendReliable(Integer, Object)
+ */
+public class ReliableSession {
+    public static final int DEFAULT_WINDOW = 1024;
+    public static final int ACK_DELAY = 20;
+    public static final int ACK_EVERY = 32;
+    public static final int MIN_RETRANSMIT_TIMEOUT = 1000;
+    public static final int MAX_RETRANSMIT_TIMEOUT = 30000;
+    private static final int MAX_ACK_RANGES = 32;
+    private final NodeManager manager;
+    private final Integer id;
+    private final int window;
+    private final TreeMap<Integer, Pending> unacked = new TreeMap<>();
+    private final TreeSet<Integer> received = new TreeSet<>();
+    private int epoch;
+    private int nextSequence = 0;
+    private int peerInstance = 0;
+    private int remoteEpoch = 0;
+    private int cumulative = 0;
+    private int pendingAcks = 0;
+    private boolean run = true;
+    private HashedWheelTimer.Timeout retransmit = null;
+    private HashedWheelTimer.Timeout ack = null;
+
+    /**
+     * Packet waiting to be acknowledged.
+     */
+    private static class Pending {
+        private Packet packet;
+        private final PacketPriority priority;
+        private final Runnable acknowledged;
+        private long sentAt;
+        private int transmits = 0;
+
+        private Pending(Packet packet, PacketPriority priority, Runnable acknowledged) {
+            this.packet = packet;
+            this.priority = priority;
+            this.acknowledged = acknowledged;
+        }
+
+        /**
+         * Get a copy of the Packet to send, so it can be relayed and stamped
+         * every time as a new Packet.
+         */
+        private Packet transmit() {
+            this.sentAt = System.currentTimeMillis();
+            this.transmits++;
+            return Packet.load(this.packet.dump());
+        }
+
+        private long timeout() {
+            return Math.min((long) MIN_RETRANSMIT_TIMEOUT << Math.min(this.transmits - 1, 16), MAX_RETRANSMIT_TIMEOUT);
+        }
+    }
+
+    /**
+     * Create a ReliableSession.
+     *
+     * @param manager NodeManager to send the Packets with
+     * @param id      node at the other end
+     * @param epoch   first epoch of the Packets sent
+     * @param window  maximum distance between the oldest unacknowledged Packet and the newest one
+     * @throws IllegalArgumentException if window is lower than 1
+     */
+    public ReliableSession(NodeManager manager, Integer id, int epoch, int window) throws IllegalArgumentException {
+        if (window < 1)
+            throw new IllegalArgumentException(String.format("Invalid reliable window: %d", window));
+        this.manager = manager;
+        this.id = id;
+        this.epoch = epoch;
+        this.window = window;
+    }
+
+    /**
+     * Get the node at the other end.
+     *
+     * @return node ID
+     */
+    public Integer getId() {
+        return id;
+    }
+
+    /**
+     * Get the number of Packets waiting to be acknowledged.
+     *
+     * @return size of the replay buffer
+     */
+    public synchronized int getUnacked() {
+        return this.unacked.size();
+    }
+
+    /**
+     * Get the last sequence number received in order.
+     *
+     * @return cumulative sequence number of the current remote epoch
+     */
+    public synchronized int getCumulative() {
+        return this.cumulative;
+    }
+
+    /**
+     * Send a Packet reliably.
+     *
+     * @param object   PacketObject to send
+     * @param priority priority lane to queue the Packet on
+     * @return true if the Packet was accepted, false if the window is full or the Packet could not be created
+     */
+    public boolean send(Object object, PacketPriority priority) {
+        return send(object, priority, null);
+    }
+
+    /**
+     * Send a Packet reliably, running a callback once the node acknowledges it.
+     *
+     * <p>The callback runs on the thread handling the acknowledgement, and
+     * never runs if the session is stopped first.</p>
+     *
+     * @param object       PacketObject to send
+     * @param priority     priority lane to queue the Packet on
+     * @param acknowledged callback run once the Packet is acknowledged, or null
+     * @return true if the Packet was accepted, false if the window is full or the Packet could not be created
+     */
+    public boolean send(Object object, PacketPriority priority, Runnable acknowledged) {
+        Packet packet;
+        synchronized (this) {
+            if (!this.run || object == null) return false;
+            int base = this.unacked.isEmpty() ? this.nextSequence + 1 : this.unacked.firstKey();
+            if (this.nextSequence + 1 - base >= this.window) return false;
+            try {
+                packet = object instanceof Packet ? Packet.load(((Packet) object).dump()) : this.manager.createPacket(object, this.id);
+            } catch (Exception e) {
+                return false;
+            }
+            if (packet == null) return false;
+            packet.setReliable(this.epoch, ++this.nextSequence);
+            Pending pending = new Pending(packet, priority, acknowledged);
+            this.unacked.put(this.nextSequence, pending);
+            packet = pending.transmit();
+            scheduleRetransmit();
+        }
+        this.manager.send(this.id, packet, priority);
+        return true;
+    }
+
+    /**
+     * Check a reliable Packet received from the node.
+     *
+     * @param packet received Packet
+     * @return true if the Packet has to be delivered, false if it is a duplicate or cannot be accepted yet
+     */
+    public boolean receive(Packet packet) {
+        int epoch = packet.getReliableEpoch();
+        int sequence = packet.getReliableSequence();
+        ReliableAckPacket ack = null;
+        boolean fresh = false;
+        synchronized (this) {
+            if (epoch < this.remoteEpoch) {
+                // The sender restarted with a lower epoch, tell it the last one we know
+                ack = new ReliableAckPacket(this.remoteEpoch, this.manager.getInstance(), 0, Collections.emptyList());
+            } else if (epoch > this.remoteEpoch) {
+                if (this.remoteEpoch == 0 && sequence != 1) {
+                    // The session started before we did, tell the sender we know nothing of it
+                    ack = new ReliableAckPacket(epoch, this.manager.getInstance(), 0, Collections.emptyList());
+                } else {
+                    this.remoteEpoch = epoch;
+                    this.cumulative = 0;
+                    this.received.clear();
+                }
+            }
+            if (ack == null) {
+                if (sequence > this.cumulative + this.window) return false;
+                if (sequence > this.cumulative && this.received.add(sequence)) {
+                    fresh = true;
+                    while (this.received.remove(this.cumulative + 1))
+                        this.cumulative++;
+                }
+                if (++this.pendingAcks >= ACK_EVERY) ack = takeAck();
+                else scheduleAck();
+            }
+        }
+        if (ack != null) this.manager.send(this.id, ack);
+        return fresh;
+    }
+
+    /**
+     * Forget the Packets acknowledged by the node.
+     *
+     * @param ack acknowledgement received from the node
+     */
+    public void acknowledge(ReliableAckPacket ack) {
+        List<Pending> resend = Collections.emptyList();
+        List<Pending> acked = new ArrayList<>();
+        synchronized (this) {
+            boolean restarted = this.peerInstance != 0 && this.peerInstance != ack.getInstance();
+            this.peerInstance = ack.getInstance();
+            if (restarted) {
+                resend = renumber(this.manager.nextReliableEpoch());
+            } else if (ack.getEpoch() > this.epoch) {
+                resend = renumber(Math.max(this.manager.nextReliableEpoch(), ack.getEpoch() + 1));
+            } else if (ack.getEpoch() == this.epoch) {
+                take(this.unacked.headMap(ack.getCumulative(), true), acked);
+                List<Integer> ranges = ack.getRanges();
+                for (int i = 0; i + 1 < ranges.size(); i += 2)
+                    take(this.unacked.subMap(ranges.get(i), true, ranges.get(i + 1), true), acked);
+            }
+        }
+        for (Pending pending : acked)
+            if (pending.acknowledged != null) pending.acknowledged.run();
+        transmit(resend);
+    }
+
+    /**
+     * Move the acknowledged Packets out of the replay buffer.
+     */
+    private static void take(Map<Integer, Pending> acknowledged, List<Pending> acked) {
+        acked.addAll(acknowledged.values());
+        acknowledged.clear();
+    }
+
+    /**
+     * Send again every unacknowledged Packet, after the node reconnected.
+     */
+    public void replay() {
+        List<Pending> resend;
+        synchronized (this) {
+            resend = new ArrayList<>(this.unacked.values());
+        }
+        transmit(resend);
+    }
+
+    /**
+     * Stop the session, dropping the Packets not acknowledged yet.
+     */
+    public synchronized void stop() {
+        this.run = false;
+        this.unacked.clear();
+        if (this.retransmit != null) this.retransmit.cancel();
+        if (this.ack != null) this.ack.cancel();
+    }
+
+    /**
+     * Start a new epoch, numbering the unacknowledged Packets from 1.
+     *
+     * @param epoch new epoch
+     */
+    private List<Pending> renumber(int epoch) {
+        this.epoch = epoch;
+        List<Pending> pending = new ArrayList<>(this.unacked.values());
+        this.unacked.clear();
+        this.nextSequence = 0;
+        for (Pending p : pending) {
+            p.packet = Packet.load(p.packet.dump());
+            p.packet.setReliable(this.epoch, ++this.nextSequence);
+            this.unacked.put(this.nextSequence, p);
+        }
+        return pending;
+    }
+
+    private void transmit(List<Pending> pending) {
+        for (Pending p : pending) {
+            Packet packet;
+            synchronized (this) {
+                if (!this.run) return;
+                packet = p.transmit();
+            }
+            this.manager.send(this.id, packet, p.priority);
+        }
+    }
+
+    /**
+     * Build the acknowledgement of the Packets received so far.
+     */
+    private ReliableAckPacket takeAck() {
+        this.pendingAcks = 0;
+        if (this.ack != null) {
+            this.ack.cancel();
+            this.ack = null;
+        }
+        List<Integer> ranges = new ArrayList<>();
+        int start = 0;
+        int end = 0;
+        for (Integer sequence : this.received) {
+            if (start != 0 && sequence == end + 1) {
+                end = sequence;
+                continue;
+            }
+            if (start != 0) {
+                ranges.add(start);
+                ranges.add(end);
+                if (ranges.size() >= MAX_ACK_RANGES * 2) break;
+            }
+            start = end = sequence;
+        }
+        if (start != 0 && ranges.size() < MAX_ACK_RANGES * 2) {
+            ranges.add(start);
+            ranges.add(end);
+        }
+        return new ReliableAckPacket(this.remoteEpoch, this.manager.getInstance(), this.cumulative, ranges);
+    }
+
+    private void scheduleAck() {
+        if (this.ack != null || !this.run) return;
+        try {
+            this.ack = this.manager.getTimer().schedule(() -> this.manager.execute(this::flushAck), ACK_DELAY, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    private void flushAck() {
+        ReliableAckPacket ack;
+        synchronized (this) {
+            this.ack = null;
+            if (this.pendingAcks == 0) return;
+            ack = takeAck();
+        }
+        this.manager.send(this.id, ack);
+    }
+
+    private void scheduleRetransmit() {
+        if (this.retransmit != null || !this.run) return;
+        try {
+            this.retransmit = this.manager.getTimer().schedule(() -> this.manager.execute(this::retransmit), MIN_RETRANSMIT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    /**
+     * Send again the Packets not acknowledged in time, while the node can
+     * be reached. Packets for unreachable nodes wait for the reconnection.
+     */
+    private void retransmit() {
+        List<Pending> resend = new ArrayList<>();
+        synchronized (this) {
+            this.retransmit = null;
+            if (this.unacked.isEmpty()) return;
+            if (this.manager.getRoutingTable().getRoute(this.id) != null) {
+                long now = System.currentTimeMillis();
+                for (Pending pending : this.unacked.values())
+                    if (now - pending.sentAt >= pending.timeout()) resend.add(pending);
+            }
+            scheduleRetransmit();
+        }
+        transmit(resend);
+    }
+}
@@ -0,0 +1,206 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.packet.Packet;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Distance-vector routing table.
+ *
+ * <p>Every neighbour advertises its distance to the destinations it can
+ * reach, and the best neighbour for each destination becomes its next
+ * hop. Routes are kept in a concurrent map so forwarding only needs a
+ * lock-free lookup, while updates are serialized on the table.</p>
+ *
+ * <p>Routes are never advertised back to the neighbour they were learnt
+ * from (poisoned reverse) and distances are capped at {@link RoutingTable#INFINITY},
+ * which matches the default TTL of a Packet.</p>
+ */
+public class RoutingTable {
+    public static final int INFINITY = Packet.DEFAULT_TTL_VALUE;
+    private final Map<Integer, Route> routes = new ConcurrentHashMap<>();
+    private final Map<Integer, Map<Integer, Integer>> vectors = new HashMap<>();
+    private final Integer id;
+
+    /**
+     * Route to a destination.
+     */
+    public static class Route {
+        private final Integer nextHop;
+        private final int distance;
+
+        public Route(Integer nextHop, int distance) {
+            this.nextHop = nextHop;
+            this.distance = distance;
+        }
+
+        public Integer getNextHop() {
+            return nextHop;
+        }
+
+        public int getDistance() {
+            return distance;
+        }
+
+        @Override
+        public String toString() {
+            return "Route{" +
+                    "nextHop=" + nextHop +
+                    ", distance=" + distance +
+                    '}';
+        }
+    }
+
+    /**
+     * Create a RoutingTable for a node.
+     *
+     * @param id ID of the node owning the table
+     */
+    public RoutingTable(Integer id) {
+        this.id = id;
+    }
+
+    /**
+     * Get the neighbour to send Packets for a destination to.
+     *
+     * @param destination destination node ID
+     * @return next hop node ID or null if the destination is unreachable
+     */
+    public Integer getNextHop(Integer destination) {
+        Route route = destination == null ? null : this.routes.get(destination);
+        return route == null ? null : route.nextHop;
+    }
+
+    /**
+     * Get the route to a destination.
+     *
+     * @param destination destination node ID
+     * @return route or null if the destination is unreachable
+     */
+    public Route getRoute(Integer destination) {
+        return destination == null ? null : this.routes.get(destination);
+    }
+
+    /**
+     * Get every known route.
+     *
+     * @return read-only view of the routes by destination
+     */
+    public Map<Integer, Route> getRoutes() {
+        return Collections.unmodifiableMap(this.routes);
+    }
+
+    /**
+     * Add a directly connected neighbour.
+     *
+     * @param neighbour neighbour node ID
+     * @return destinations whose route changed
+     */
+    public synchronized Set<Integer> addNeighbour(Integer neighbour) {
+        if (this.vectors.containsKey(neighbour)) return Collections.emptySet();
+        this.vectors.put(neighbour, new HashMap<>());
+        return recompute(Collections.singleton(neighbour));
+    }
+
+    /**
+     * Remove a neighbour and every route learnt from it.
+     *
+     * @param neighbour neighbour node ID
+     * @return destinations whose route changed
+     */
+    public synchronized Set<Integer> removeNeighbour(Integer neighbour) {
+        Map<Integer, Integer> vector = this.vectors.remove(neighbour);
+        if (vector == null) return Collections.emptySet();
+        Set<Integer> destinations = new HashSet<>(vector.keySet());
+        destinations.add(neighbour);
+        return recompute(destinations);
+    }
+
+    /**
+     * Apply the distances advertised by a neighbour, adding
+     * the neighbour if it was not known yet.
+     *
+     * @param neighbour neighbour node ID
+     * @param distances distance from the neighbour to each destination
+     * @param full      true if the distances replace every previous advertisement
+     * @return destinations whose route changed
+     */
+    public synchronized Set<Integer> update(Integer neighbour, Map<Integer, Integer> distances, boolean full) {
+        Set<Integer> destinations = new HashSet<>();
+        Map<Integer, Integer> vector = this.vectors.get(neighbour);
+        if (vector == null) {
+            vector = new HashMap<>();
+            this.vectors.put(neighbour, vector);
+            destinations.add(neighbour);
+        }
+        if (full) {
+            destinations.addAll(vector.keySet());
+            vector.clear();
+        }
+        if (distances != null) {
+            for (Map.Entry<Integer, Integer> entry : distances.entrySet()) {
+                Integer destination = entry.getKey();
+                if (destination == null || destination.equals(this.id) || entry.getValue() == null) continue;
+                if (entry.getValue() >= INFINITY) vector.remove(destination);
+                else vector.put(destination, entry.getValue());
+                destinations.add(destination);
+            }
+        }
+        return recompute(destinations);
+    }
+
+    /**
+     * Get the distances to advertise to a neighbour.
+     *
+     * @param neighbour    neighbour node ID
+     * @param destinations destinations to advertise, null to advertise every route
+     * @return distance to each destination, INFINITY if it is unreachable through this node
+     */
+    public Map<Integer, Integer> advertise(Integer neighbour, Collection<Integer> destinations) {
+        Map<Integer, Integer> distances = new HashMap<>();
+        for (Integer destination : destinations == null ? this.routes.keySet() : destinations) {
+            if (destination.equals(neighbour)) continue;
+            Route route = this.routes.get(destination);
+            boolean reachable = route != null && !route.nextHop.equals(neighbour);
+            distances.put(destination, reachable ? route.distance : INFINITY);
+        }
+        return distances;
+    }
+
+    /**
+     * Choose the best route for a set of destinations.
+     *
+     * @param destinations destinations to recompute
+     * @return destinations whose route changed
+     */
+    private Set<Integer> recompute(Collection<Integer> destinations) {
+        Set<Integer> changed = new HashSet<>();
+        for (Integer destination : destinations) {
+            Route current = this.routes.get(destination);
+            Integer nextHop = null;
+            int distance = INFINITY;
+            if (this.vectors.containsKey(destination)) {
+                nextHop = destination;
+                distance = 1;
+            }
+            for (Map.Entry<Integer, Map<Integer, Integer>> entry : this.vectors.entrySet()) {
+                Integer advertised = entry.getValue().get(destination);
+                if (advertised == null) continue;
+                int candidate = advertised + 1;
+                boolean keep = current != null && entry.getKey().equals(current.nextHop) && candidate == distance;
+                if (candidate < distance || keep) {
+                    nextHop = entry.getKey();
+                    distance = candidate;
+                }
+            }
+            if (distance >= INFINITY) {
+                if (this.routes.remove(destination) != null) changed.add(destination);
+            } else if (current == null || current.distance != distance || !current.nextHop.equals(nextHop)) {
+                this.routes.put(destination, new Route(nextHop, distance));
+                changed.add(destination);
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,96 @@
+package eu.cifpfbmoll.netlib.node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Topics every known node subscribes to.
+ *
+ * <p>Subscribers are indexed by topic so finding the nodes interested
+ * in a publish is a single lookup.</p>
+ */
+public class SubscriptionTable {
+    private final Map<String, Set<Integer>> subscribers = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<String>> topics = new ConcurrentHashMap<>();
+
+    /**
+     * Add subscriptions for a node.
+     *
+     * @param id     node ID
+     * @param topics topics to subscribe the node to
+     */
+    public synchronized void subscribe(Integer id, Collection<String> topics) {
+        if (topics == null) return;
+        Set<String> nodeTopics = this.topics.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet());
+        for (String topic : topics) {
+            nodeTopics.add(topic);
+            this.subscribers.computeIfAbsent(topic, k -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    /**
+     * Remove subscriptions for a node.
+     *
+     * @param id     node ID
+     * @param topics topics to unsubscribe the node from
+     */
+    public synchronized void unsubscribe(Integer id, Collection<String> topics) {
+        Set<String> nodeTopics = this.topics.get(id);
+        if (topics == null || nodeTopics == null) return;
+        for (String topic : topics) {
+            nodeTopics.remove(topic);
+            Set<Integer> ids = this.subscribers.get(topic);
+            if (ids == null) continue;
+            ids.remove(id);
+            if (ids.isEmpty()) this.subscribers.remove(topic);
+        }
+        if (nodeTopics.isEmpty()) this.topics.remove(id);
+    }
+
+    /**
+     * Replace every subscription of a node.
+     *
+     * @param id     node ID
+     * @param topics topics the node subscribes to
+     */
+    public synchronized void replace(Integer id, Collection<String> topics) {
+        remove(id);
+        subscribe(id, topics);
+    }
+
+    /**
+     * Remove every subscription of a node.
+     *
+     * @param id node ID
+     */
+    public synchronized void remove(Integer id) {
+        Set<String> nodeTopics = this.topics.get(id);
+        if (nodeTopics != null) unsubscribe(id, new ArrayList<>(nodeTopics));
+    }
+
+    /**
+     * Get the nodes subscribed to a topic.
+     *
+     * @param topic topic to look for
+     * @return IDs of the subscribed nodes
+     */
+    public Set<Integer> getSubscribers(String topic) {
+        Set<Integer> ids = this.subscribers.get(topic);
+        return ids == null ? Collections.emptySet() : Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * Get the topics a node subscribes to.
+     *
+     * @param id node ID
+     * @return topics the node subscribes to
+     */
+    public Set<String> getTopics(Integer id) {
+        Set<String> nodeTopics = this.topics.get(id);
+        return nodeTopics == null ? Collections.emptySet() : Collections.unmodifiableSet(nodeTopics);
+    }
+}
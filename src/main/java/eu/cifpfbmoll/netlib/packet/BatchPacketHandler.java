@@ -0,0 +1,18 @@
+package eu.cifpfbmoll.netlib.packet;
+
+import java.util.List;
+
+/**
+ * Functional Interface to define how to handle several Packets of a specific Packet type at once.
+ *
+ * <p>Consecutive Packets of the same type and source decoded from a single
+ * read are handed over in one call, so that per-packet work like locking a
+ * sink can be done once per batch.</p>
+ *
+ * @see Packet
+ * @see PacketHandler
+ */
+@FunctionalInterface
+public interface BatchPacketHandler<T> {
+    void handle(int id, List<T> objects);
+}
@@ -11,6 +11,20 @@ import java.util.Arrays;
  * Defines the structure of a packet to be sent to other nodes on the network.
  *
  * <p>Instances of this Class must be created using the Constructor Factory Method</p>
+ *
+ * <p>Packets without header extensions are written with the original layout.
+ * Packets with extensions are prefixed with {@link Packet#EXTENDED_HEADER},
+ * the header version and a flags byte, and every extension announced by a
+ * flag is written after the resend IDs. The marker can never be mistaken
+ * for the first byte of a packet type, since 0xFF is not valid UTF-8.</p>
+ *
+ * <p>Node IDs are written as single bytes with header version 1 or without
+ * extended header. Packets with any ID that does not fit in a byte are
+ * written with {@link Packet#WIDE_HEADER_VERSION}, where every ID is an
+ * unsigned varint, so both layouts can be read by any node.</p>
+ *
+ * <p>Only the header layout is kept readable: the payload encoding changed,
+ * see {@link PacketParser}.</p>
  */
 public class Packet {
     public static final int MAX_PACKET_SIZE = 1024;
@@ -20,12 +34,27 @@ public class Packet {
     public static final int PACKET_TYPE_SIZE = 4;
     public static final int PACKET_TTL_SIZE = 1;
     public static final int PACKET_ID_SIZE = 1;
-
-    private String type;
+    public static final int EXTENDED_HEADER = 0xFF;
+    public static final byte HEADER_VERSION = 1;
+    public static final byte WIDE_HEADER_VERSION = 2;
+    public static final int MAX_ID_SIZE = 5;
+    public static final int PACKET_EXTENDED_HEADER_SIZE = 3;
+    public static final byte FLAG_REQUEST = 0x01;
+    public static final byte FLAG_RESPONSE = 0x02;
+    public static final byte FLAG_SEQUENCE = 0x04;
+    public static final byte FLAG_BROADCAST = 0x08;
+    public static final byte FLAG_RELIABLE = 0x10;
+
+    private byte flags;
+    private int correlationId;
+    private int sequence;
+    private int reliableEpoch;
+    private int reliableSequence;
+    private int type;
     private byte ttl;
-    private byte src;
-    private byte dst;
-    private byte[] resend;
+    private int src;
+    private int dst;
+    private int[] resend;
     private byte[] data;
 
     /**
@@ -40,10 +69,28 @@ public class Packet {
      * @return new Packet instance
      */
     public static Packet create(String type, Integer ttl, Integer src, Integer dst, Integer[] resend, byte[] data) {
-        byte[] bresend = new byte[resend.length];
+        int[] iresend = new int[resend.length];
         for (int i = 0; i < resend.length; i++)
-            bresend[i] = resend[i].byteValue();
-        return new Packet(Packet.formatType(type), ttl.byteValue(), src.byteValue(), dst.byteValue(), bresend, data);
+            iresend[i] = resend[i];
+        return new Packet(Packet.typeCode(type), ttl.byteValue(), src, dst, iresend, data);
+    }
+
+    /**
+     * Create a new Packet from a numeric packet type without specifying
+     * the Time to Live field and the resend ID.
+     *
+     * <p>Time to Live will have its default value.
+     * The resend ID will be the same as the source ID.</p>
+     *
+     * @param type packet type code
+     * @param src  source node id
+     * @param dst  destination node id
+     * @param data packet data
+     * @return new Packet instance
+     * @see Packet#typeCode(String)
+     */
+    public static Packet create(int type, Integer src, Integer dst, byte[] data) {
+        return new Packet(type, (byte) DEFAULT_TTL_VALUE, src, dst, new int[]{src}, data);
     }
 
     /**
@@ -102,23 +149,81 @@ public class Packet {
      * @return deserialized packet
      */
     public static Packet load(byte[] bytes) {
-        ByteBuffer bb = ByteBuffer.wrap(bytes);
-        byte[] ptype = new byte[PACKET_TYPE_SIZE];
-        for (int i = 0; i < PACKET_TYPE_SIZE; i++)
-            ptype[i] = bb.get();
-        String type = formatType(new String(ptype, CHARSET_ENCODING));
+        return load(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Create a new Packet from the current position of a ByteBuffer.
+     *
+     * <p>The buffer's position is moved past the loaded packet, so several
+     * packets can be loaded one after another from the same buffer.</p>
+     *
+     * @param bb ByteBuffer to load packet from
+     * @return deserialized packet
+     * @throws java.nio.BufferUnderflowException if the buffer does not hold a whole packet
+     */
+    public static Packet load(ByteBuffer bb) {
+        byte flags = 0;
+        boolean wide = false;
+        if ((bb.get(bb.position()) & 0xff) == EXTENDED_HEADER) {
+            bb.get();
+            byte version = bb.get();
+            if (version != HEADER_VERSION && version != WIDE_HEADER_VERSION)
+                throw new IllegalArgumentException(String.format("Unsupported packet header version: %d", version));
+            wide = version == WIDE_HEADER_VERSION;
+            flags = bb.get();
+        }
+        int type = bb.getInt();
         byte ttl = bb.get();
-        byte src = bb.get();
-        byte dst = bb.get();
-        byte nresend = bb.get();
-        byte[] resend = new byte[nresend];
-        for (int i = 0; i < nresend; i++)
-            resend[i] = bb.get();
-        short dataSize = bb.getShort();
-        byte[] data = new byte[dataSize];
-        for (int i = 0; i < dataSize; i++)
-            data[i] = bb.get();
-        return new Packet(type, ttl, src, dst, resend, data);
+        int src = getId(bb, wide);
+        int dst = getId(bb, wide);
+        int[] resend = new int[bb.get() & 0xff];
+        for (int i = 0; i < resend.length; i++)
+            resend[i] = getId(bb, wide);
+        int correlationId = 0;
+        if ((flags & (FLAG_REQUEST | FLAG_RESPONSE)) != 0)
+            correlationId = PacketParser.getVarInt(bb);
+        int sequence = 0;
+        if ((flags & FLAG_SEQUENCE) != 0)
+            sequence = PacketParser.getVarInt(bb);
+        int reliableEpoch = 0;
+        int reliableSequence = 0;
+        if ((flags & FLAG_RELIABLE) != 0) {
+            reliableEpoch = PacketParser.getVarInt(bb);
+            reliableSequence = PacketParser.getVarInt(bb);
+        }
+        byte[] data = new byte[bb.getShort() & 0xffff];
+        bb.get(data);
+        Packet packet = new Packet(type, ttl, src, dst, resend, data);
+        packet.flags = flags;
+        packet.correlationId = correlationId;
+        packet.sequence = sequence;
+        packet.reliableEpoch = reliableEpoch;
+        packet.reliableSequence = reliableSequence;
+        return packet;
+    }
+
+    /**
+     * Read a node ID.
+     *
+     * @param bb   ByteBuffer to read from
+     * @param wide true if the ID is a varint, false if it is a single byte
+     * @return node ID
+     */
+    private static int getId(ByteBuffer bb, boolean wide) {
+        return wide ? PacketParser.getVarInt(bb) : bb.get() & 0xff;
+    }
+
+    /**
+     * Write a node ID.
+     *
+     * @param bb   ByteBuffer to write to
+     * @param id   node ID
+     * @param wide true to write the ID as a varint, false to write a single byte
+     */
+    private static void putId(ByteBuffer bb, int id, boolean wide) {
+        if (wide) PacketParser.putVarInt(bb, id);
+        else bb.put((byte) id);
     }
 
     /**
@@ -129,11 +234,39 @@ public class Packet {
      * @return corrected Packet type format
      */
     public static String formatType(String type) {
+        return typeName(typeCode(type));
+    }
+
+    /**
+     * Get the numeric code of a Packet type.
+     *
+     * <p>The code holds the 4 bytes of the type header field in network
+     * byte order, so it is the exact value sent on the wire and it can be
+     * compared and dispatched on without decoding any String.</p>
+     *
+     * @param type packet type
+     * @return packet type code
+     */
+    public static int typeCode(String type) {
         if (type == null) type = StringUtils.EMPTY;
-        byte[] bytes = new byte[PACKET_TYPE_SIZE];
         byte[] str = type.getBytes(CHARSET_ENCODING);
+        int code = 0;
+        for (int i = 0; i < PACKET_TYPE_SIZE; i++)
+            code = (code << 8) | (((i < str.length) ? str[i] : DEFAULT_TYPE_VALUE) & 0xff);
+        return code;
+    }
+
+    /**
+     * Get the Packet type for a numeric packet type code.
+     *
+     * @param code packet type code
+     * @return packet type
+     * @see Packet#typeCode(String)
+     */
+    public static String typeName(int code) {
+        byte[] bytes = new byte[PACKET_TYPE_SIZE];
         for (int i = 0; i < PACKET_TYPE_SIZE; i++)
-            bytes[i] = (i < str.length) ? str[i] : DEFAULT_TYPE_VALUE;
+            bytes[i] = (byte) (code >>> (8 * (PACKET_TYPE_SIZE - 1 - i)));
         return new String(bytes, CHARSET_ENCODING);
     }
 
@@ -141,14 +274,14 @@ public class Packet {
      * Packet constructor with all attributes. This is the only constructor available,
      * in order to create new Packets the constructor factory method must be used.
      *
-     * @param type   packet type
+     * @param type   packet type code
      * @param ttl    time to live
      * @param src    source node id
      * @param dst    destination node id
      * @param resend resend node ids
      * @param data   packet data
      */
-    private Packet(String type, byte ttl, byte src, byte dst, byte[] resend, byte[] data) {
+    private Packet(int type, byte ttl, int src, int dst, int[] resend, byte[] data) {
         this.type = type;
         this.ttl = ttl;
         this.src = src;
@@ -163,7 +296,7 @@ public class Packet {
      * @return source node ID
      */
     public Integer getSourceId() {
-        return this.src & 0xff;
+        return this.src;
     }
 
     /**
@@ -172,7 +305,7 @@ public class Packet {
      * @param id new source node ID
      */
     public void setSourceId(Integer id) {
-        this.src = id.byteValue();
+        this.src = id;
     }
 
     /**
@@ -181,7 +314,7 @@ public class Packet {
      * @return destination node ID
      */
     public Integer getDestinationId() {
-        return this.dst & 0xff;
+        return this.dst;
     }
 
     /**
@@ -190,7 +323,7 @@ public class Packet {
      * @param id new destination node ID
      */
     public void setDestinationId(Integer id) {
-        this.dst = id.byteValue();
+        this.dst = id;
     }
 
     /**
@@ -201,7 +334,7 @@ public class Packet {
     public Integer[] getResenderIds() {
         Integer[] ids = new Integer[this.resend.length];
         for (int i = 0; i < ids.length; i++)
-            ids[i] = (int) this.resend[i];
+            ids[i] = this.resend[i];
         return ids;
     }
 
@@ -211,9 +344,9 @@ public class Packet {
      * @param ids new resender IDs.
      */
     public void setResenderIds(Integer... ids) {
-        this.resend = new byte[ids.length];
+        this.resend = new int[ids.length];
         for (int i = 0; i < ids.length; i++)
-            this.resend[i] = ids[i].byteValue();
+            this.resend[i] = ids[i];
     }
 
     /**
@@ -222,11 +355,10 @@ public class Packet {
      * @param ids new resender ids
      */
     public void addResender(Integer... ids) {
-        byte[] tmp = this.resend.clone();
-        this.resend = new byte[this.resend.length + PACKET_ID_SIZE * ids.length];
-        System.arraycopy(tmp, 0, this.resend, 0, tmp.length);
+        int[] tmp = this.resend;
+        this.resend = Arrays.copyOf(tmp, tmp.length + ids.length);
         for (int i = 0; i < ids.length; i++)
-            this.resend[tmp.length + i] = ids[i].byteValue();
+            this.resend[tmp.length + i] = ids[i];
     }
 
     /**
@@ -260,6 +392,16 @@ public class Packet {
      * @return packet type
      */
     public String getType() {
+        return typeName(this.type);
+    }
+
+    /**
+     * Get packet type code.
+     *
+     * @return packet type code
+     * @see Packet#typeCode(String)
+     */
+    public int getTypeCode() {
         return type;
     }
 
@@ -269,7 +411,143 @@ public class Packet {
      * @param type new packet type
      */
     public void setType(String type) {
-        this.type = formatType(type);
+        this.type = typeCode(type);
+    }
+
+    /**
+     * Check if the packet is a request waiting for a response.
+     *
+     * @return true if the packet is a request, false otherwise
+     */
+    public boolean isRequest() {
+        return (this.flags & FLAG_REQUEST) != 0;
+    }
+
+    /**
+     * Check if the packet is a response to a request.
+     *
+     * @return true if the packet is a response, false otherwise
+     */
+    public boolean isResponse() {
+        return (this.flags & FLAG_RESPONSE) != 0;
+    }
+
+    /**
+     * Get the correlation ID shared by a request and its response.
+     *
+     * @return correlation ID or 0 if the packet is neither a request nor a response
+     */
+    public int getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * Mark the packet as a request.
+     *
+     * @param correlationId ID the response will carry
+     */
+    public void setRequest(int correlationId) {
+        this.flags = (byte) ((this.flags & ~FLAG_RESPONSE) | FLAG_REQUEST);
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * Mark the packet as the response to a request.
+     *
+     * @param correlationId ID carried by the request
+     */
+    public void setResponse(int correlationId) {
+        this.flags = (byte) ((this.flags & ~FLAG_REQUEST) | FLAG_RESPONSE);
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * Check if the packet is addressed to every node in the network.
+     *
+     * @return true if the packet is a broadcast, false otherwise
+     */
+    public boolean isBroadcast() {
+        return (this.flags & FLAG_BROADCAST) != 0;
+    }
+
+    /**
+     * Address the packet to every node in the network,
+     * its destination ID is ignored from then on.
+     */
+    public void setBroadcast() {
+        this.flags |= FLAG_BROADCAST;
+    }
+
+    /**
+     * Check if the packet carries a sequence number from its source.
+     *
+     * @return true if the packet has a sequence number, false otherwise
+     */
+    public boolean hasSequence() {
+        return (this.flags & FLAG_SEQUENCE) != 0;
+    }
+
+    /**
+     * Get the sequence number given to the packet by its source.
+     *
+     * <p>Source ID and sequence number identify a packet across
+     * the whole network, no matter how many times it is relayed.</p>
+     *
+     * @return sequence number or 0 if the packet has none
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Set the sequence number of the packet.
+     *
+     * @param sequence sequence number given by the packet's source
+     */
+    public void setSequence(int sequence) {
+        this.flags |= FLAG_SEQUENCE;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Check if the packet was sent through a reliable session.
+     *
+     * @return true if the packet has to be acknowledged, false otherwise
+     */
+    public boolean isReliable() {
+        return (this.flags & FLAG_RELIABLE) != 0;
+    }
+
+    /**
+     * Get the epoch of the reliable session the packet was sent through.
+     *
+     * <p>Sequence numbers start over at 1 on every new epoch.</p>
+     *
+     * @return session epoch or 0 if the packet is not reliable
+     */
+    public int getReliableEpoch() {
+        return reliableEpoch;
+    }
+
+    /**
+     * Get the sequence number of the packet in its reliable session.
+     *
+     * @return reliable sequence number or 0 if the packet is not reliable
+     */
+    public int getReliableSequence() {
+        return reliableSequence;
+    }
+
+    /**
+     * Mark the packet as sent through a reliable session.
+     *
+     * @param epoch    session epoch
+     * @param sequence sequence number in the session
+     */
+    public void setReliable(int epoch, int sequence) {
+        this.flags |= FLAG_RELIABLE;
+        this.reliableEpoch = epoch;
+        this.reliableSequence = sequence;
     }
 
     /**
@@ -296,7 +574,28 @@ public class Packet {
      * @return packet header size
      */
     public int headerSize() {
-        return PACKET_TYPE_SIZE + PACKET_TTL_SIZE + PACKET_ID_SIZE * 2 + PACKET_ID_SIZE + this.resend.length;
+        if (!isWide())
+            return PACKET_TYPE_SIZE + PACKET_TTL_SIZE + PACKET_ID_SIZE * 2 + PACKET_ID_SIZE + this.resend.length + extensionSize();
+        int size = PACKET_TYPE_SIZE + PACKET_TTL_SIZE + PacketParser.varIntSize(this.src) + PacketParser.varIntSize(this.dst) + PACKET_ID_SIZE;
+        for (int id : this.resend) size += PacketParser.varIntSize(id);
+        return size + extensionSize();
+    }
+
+    /**
+     * Get the size of the extended header and the extensions announced by its flags.
+     *
+     * @return extensions size, 0 if the packet uses the original layout
+     */
+    private int extensionSize() {
+        if (this.flags == 0 && !isWide()) return 0;
+        int size = PACKET_EXTENDED_HEADER_SIZE;
+        if ((this.flags & (FLAG_REQUEST | FLAG_RESPONSE)) != 0)
+            size += PacketParser.varIntSize(this.correlationId);
+        if ((this.flags & FLAG_SEQUENCE) != 0)
+            size += PacketParser.varIntSize(this.sequence);
+        if ((this.flags & FLAG_RELIABLE) != 0)
+            size += PacketParser.varIntSize(this.reliableEpoch) + PacketParser.varIntSize(this.reliableSequence);
+        return size;
     }
 
     /**
@@ -305,7 +604,20 @@ public class Packet {
      * @return packet maximum header size
      */
     public int maxHeaderSize() {
-        return PACKET_TYPE_SIZE + PACKET_TTL_SIZE + PACKET_ID_SIZE * 2 + PACKET_ID_SIZE * this.ttl;
+        int idSize = isWide() ? MAX_ID_SIZE : PACKET_ID_SIZE;
+        return PACKET_TYPE_SIZE + PACKET_TTL_SIZE + idSize * 2 + PACKET_ID_SIZE + idSize * (this.resend.length + this.ttl) + extensionSize();
+    }
+
+    /**
+     * Check if the packet has to be written with varint IDs.
+     *
+     * @return true if any node ID does not fit in a single byte
+     */
+    public boolean isWide() {
+        if ((this.src & ~0xff) != 0 || (this.dst & ~0xff) != 0) return true;
+        for (int id : this.resend)
+            if ((id & ~0xff) != 0) return true;
+        return false;
     }
 
     /**
@@ -341,15 +653,27 @@ public class Packet {
      * @return Serialized packet as a byte array.
      */
     public byte[] dump() {
+        boolean wide = isWide();
         ByteBuffer bb = ByteBuffer.allocate(this.size());
-        byte[] str = this.type.getBytes(CHARSET_ENCODING);
-        for (int i = 0; i < PACKET_TYPE_SIZE; i++)
-            bb.put((i < str.length) ? str[i] : DEFAULT_TYPE_VALUE);
+        if (this.flags != 0 || wide) {
+            bb.put((byte) EXTENDED_HEADER);
+            bb.put(wide ? WIDE_HEADER_VERSION : HEADER_VERSION);
+            bb.put(this.flags);
+        }
+        bb.putInt(this.type);
         bb.put(this.ttl);
-        bb.put(this.src);
-        bb.put(this.dst);
+        putId(bb, this.src, wide);
+        putId(bb, this.dst, wide);
         bb.put((byte) this.resend.length);
-        for (byte b : this.resend) bb.put(b);
+        for (int id : this.resend) putId(bb, id, wide);
+        if ((this.flags & (FLAG_REQUEST | FLAG_RESPONSE)) != 0)
+            PacketParser.putVarInt(bb, this.correlationId);
+        if ((this.flags & FLAG_SEQUENCE) != 0)
+            PacketParser.putVarInt(bb, this.sequence);
+        if ((this.flags & FLAG_RELIABLE) != 0) {
+            PacketParser.putVarInt(bb, this.reliableEpoch);
+            PacketParser.putVarInt(bb, this.reliableSequence);
+        }
         bb.putShort((short) this.data.length);
         for (byte b : this.data) bb.put(b);
         return bb.array();
@@ -358,7 +682,12 @@ public class Packet {
     @Override
     public String toString() {
         return "Packet{" +
-                "type='" + type + '\'' +
+                "type='" + getType() + '\'' +
+                ", flags=" + flags +
+                ", correlationId=" + correlationId +
+                ", sequence=" + sequence +
+                ", reliableEpoch=" + reliableEpoch +
+                ", reliableSequence=" + reliableSequence +
                 ", ttl=" + ttl +
                 ", src=" + src +
                 ", dst=" + dst +
@@ -1,11 +1,16 @@
 package eu.cifpfbmoll.netlib.packet;
 
 import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.metrics.Metrics;
+import eu.cifpfbmoll.netlib.metrics.TypeMetrics;
+import eu.cifpfbmoll.netlib.util.StripedExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 
 /**
  * Manage incoming Packets and process them using PacketHandler.
@@ -13,42 +18,291 @@ import java.util.Map;
  * <p>PacketManager associates Packet type (4B string) with a PacketHandler.
  * Only one PacketHandler can be specified for a certain Packet type.</p>
  *
+ * <p>Each registered Packet type is identified by its numeric type code
+ * (see {@link Packet#typeCode(String)}), which is derived deterministically
+ * from the type header field and is therefore the same on every node.
+ * Registered types are placed in a collision-free dispatch table so that
+ * processing a Packet is a single array index lookup on its type code.</p>
+ *
+ * <p>Handlers run on the thread calling {@link PacketManager#process(Packet)}
+ * unless a dispatch Executor is set. With an Executor, Packets from the same
+ * source node are still handled one at a time and in arrival order, and
+ * Packet types registered as inline keep running on the calling thread,
+ * as do CONTROL priority types so they never wait behind data Packets.</p>
+ *
+ * <p>Packet types are kept in an immutable copy-on-write snapshot, so
+ * processing never locks while handlers are added, replaced or removed
+ * from other threads.</p>
+ *
+ * <p>While the {@link Metrics} set on the PacketManager are enabled, the
+ * time spent deserializing Packets and running handlers is recorded per
+ * Packet type.</p>
+ *
  * @see PacketHandler
+ * @see BatchPacketHandler
  */
 public class PacketManager {
+    private static final int MIN_TABLE_BITS = 3;
+    private static final int MAX_TABLE_BITS = 16;
+    private static final int SEED_ATTEMPTS = 64;
+    private static final int SEED_STEP = 0x9E3779B9;
+    private static final PacketPriority[] PRIORITIES = PacketPriority.values();
+
     /**
      * Store PacketType information.
      *
      * @param <T> PacketType parametrized type
      */
     private static final class PacketInfo<T> {
+        public final int code;
         public final Class<T> clazz;
         public final PacketHandler<T> handler;
+        public final BatchPacketHandler<T> batchHandler;
+        public final RequestHandler<T> requestHandler;
+        public final PacketPriority priority;
+        public final boolean inline;
 
-        private PacketInfo(Class<T> clazz, PacketHandler<T> handler) {
+        private PacketInfo(int code, Class<T> clazz, PacketHandler<T> handler, BatchPacketHandler<T> batchHandler, RequestHandler<T> requestHandler, boolean inline) {
+            this.code = code;
             this.clazz = clazz;
             this.handler = handler;
+            this.batchHandler = batchHandler;
+            this.requestHandler = requestHandler;
+            this.priority = PacketParser.getInstance().getPacketPriority(clazz);
+            this.inline = inline;
         }
 
         /**
          * Process a Packet and deserialize it into the correct object type.
          *
-         * @param packet Packet to deserialize
+         * @param packet    Packet to deserialize
+         * @param responder function used to send the response to a request
+         * @param metrics   metrics to record latencies on, or null
          */
-        public void process(Packet packet) {
+        public void process(Packet packet, BiConsumer<Packet, Object> responder, TypeMetrics metrics) {
+            if (this.batchHandler != null) {
+                process(packet.getSourceId(), Collections.singletonList(packet), metrics);
+                return;
+            }
             try {
-                T object = clazz.getConstructor().newInstance();
-                PacketParser parser = PacketParser.getInstance();
-                parser.deserialize(object, packet.getData());
-                handler.handle(packet.getSourceId(), object);
+                long start = metrics != null ? System.nanoTime() : 0;
+                T object = PacketParser.getInstance().deserialize(clazz, packet.getData());
+                if (metrics != null) {
+                    long now = System.nanoTime();
+                    metrics.deserialized(now - start);
+                    start = now;
+                }
+                if (requestHandler == null) {
+                    handler.handle(packet.getSourceId(), object);
+                    if (metrics != null) metrics.handled(System.nanoTime() - start);
+                    return;
+                }
+                Object response = requestHandler.handle(packet.getSourceId(), object);
+                if (metrics != null) metrics.handled(System.nanoTime() - start);
+                if (response == null || responder == null || !packet.isRequest()) return;
+                if (response instanceof CompletionStage) {
+                    ((CompletionStage<?>) response).thenAccept(result -> {
+                        if (result != null) responder.accept(packet, result);
+                    });
+                } else {
+                    responder.accept(packet, response);
+                }
             } catch (Exception e) {
                 log.error("failed to process packet: ", e);
             }
         }
+
+        /**
+         * Process a batch of Packets from the same source and deserialize
+         * them into the correct object type.
+         *
+         * @param id      source node id
+         * @param packets Packets to deserialize
+         * @param metrics metrics to record latencies on, or null
+         */
+        public void process(int id, List<Packet> packets, TypeMetrics metrics) {
+            try {
+                List<T> objects = new ArrayList<>(packets.size());
+                PacketParser parser = PacketParser.getInstance();
+                for (Packet packet : packets) {
+                    long start = metrics != null ? System.nanoTime() : 0;
+                    objects.add(parser.deserialize(clazz, packet.getData()));
+                    if (metrics != null) metrics.deserialized(System.nanoTime() - start);
+                }
+                long start = metrics != null ? System.nanoTime() : 0;
+                batchHandler.handle(id, objects);
+                if (metrics != null) metrics.handled(System.nanoTime() - start);
+            } catch (Exception e) {
+                log.error("failed to process packets: ", e);
+            }
+        }
+    }
+
+    /**
+     * Packets of the same type and source collected for a BatchPacketHandler.
+     */
+    private static final class Batch {
+        private final PacketInfo<?> info;
+        private final int id;
+        private final List<Packet> packets = new ArrayList<>();
+
+        private Batch(PacketInfo<?> info, int id) {
+            this.info = info;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the registered Packet types and their dispatch table.
+     *
+     * <p>Readers use whichever snapshot is current without locking,
+     * writers build a new snapshot and publish it in a single write.</p>
+     */
+    private static final class Registry {
+        private static final Registry EMPTY = new Registry(Collections.emptyMap(), new PacketInfo<?>[1 << MIN_TABLE_BITS], 1, Integer.SIZE - MIN_TABLE_BITS);
+        private final Map<Integer, PacketInfo<?>> packetInfo;
+        private final PacketInfo<?>[] table;
+        private final int seed;
+        private final int shift;
+
+        private Registry(Map<Integer, PacketInfo<?>> packetInfo, PacketInfo<?>[] table, int seed, int shift) {
+            this.packetInfo = packetInfo;
+            this.table = table;
+            this.seed = seed;
+            this.shift = shift;
+        }
+
+        /**
+         * Get the dispatch table slot of a packet type code.
+         *
+         * @param code  packet type code
+         * @param seed  multiplicative hash seed
+         * @param shift bits to discard from the hash
+         * @return slot index
+         */
+        private static int slot(int code, int seed, int shift) {
+            return (code * seed) >>> shift;
+        }
+
+        /**
+         * Build a Registry with all the given Packet types.
+         *
+         * <p>Looks for the smallest table and hash seed for which
+         * every registered type code lands on its own slot.</p>
+         *
+         * @param packetInfo registered Packet types by type code
+         * @return new Registry
+         */
+        private static Registry build(Map<Integer, PacketInfo<?>> packetInfo) {
+            Map<Integer, PacketInfo<?>> copy = Collections.unmodifiableMap(new HashMap<>(packetInfo));
+            for (int bits = MIN_TABLE_BITS; bits <= MAX_TABLE_BITS; bits++) {
+                if ((1 << bits) < copy.size() * 2) continue;
+                int shift = Integer.SIZE - bits;
+                int seed = 1;
+                for (int attempt = 0; attempt < SEED_ATTEMPTS; attempt++, seed += SEED_STEP) {
+                    PacketInfo<?>[] table = new PacketInfo<?>[1 << bits];
+                    boolean collision = false;
+                    for (PacketInfo<?> info : copy.values()) {
+                        int slot = slot(info.code, seed | 1, shift);
+                        if (table[slot] != null) {
+                            collision = true;
+                            break;
+                        }
+                        table[slot] = info;
+                    }
+                    if (!collision) return new Registry(copy, table, seed | 1, shift);
+                }
+            }
+            throw new IllegalStateException("Unable to build PacketType dispatch table.");
+        }
+
+        /**
+         * Get the registered Packet type for a type code.
+         *
+         * @param code packet type code
+         * @return registered PacketInfo or null if the type is not registered
+         */
+        private PacketInfo<?> get(int code) {
+            PacketInfo<?> info = this.table[slot(code, this.seed, this.shift)];
+            return info != null && info.code == code ? info : null;
+        }
     }
 
     private static final Logger log = LoggerFactory.getLogger(PacketManager.class);
-    private final Map<String, PacketInfo<?>> packetInfo = new HashMap<>();
+    private volatile Registry registry = Registry.EMPTY;
+    private volatile StripedExecutor dispatcher = null;
+    private volatile BiConsumer<Packet, Object> responder = null;
+    private volatile Metrics metrics = null;
+
+    /**
+     * Get the type code of a PacketType class.
+     *
+     * @param clazz PacketType class
+     * @return type code
+     * @throws IllegalArgumentException if the class does not have the PacketType annotation
+     */
+    private static int getTypeCode(Class<?> clazz) {
+        PacketType packetType = clazz.getAnnotation(PacketType.class);
+        if (packetType == null)
+            throw new IllegalArgumentException(String.format("Missing @PacketType annotation in class '%s'.", clazz.getSimpleName()));
+        return Packet.typeCode(packetType.value());
+    }
+
+    /**
+     * Get the priority of a Packet type.
+     *
+     * <p>Registered types use the priority of their class, other types
+     * the priority known by the {@link PacketParser}.</p>
+     *
+     * @param code Packet type code
+     * @return type's priority or NORMAL if the type is unknown
+     */
+    public PacketPriority getPriority(int code) {
+        PacketInfo<?> info = this.registry.get(code);
+        return info != null ? info.priority : PacketParser.getInstance().getPacketPriority(code);
+    }
+
+    /**
+     * Set the Executor used to run PacketHandlers.
+     *
+     * <p>Packets are handled in order per source node ID.
+     * A null Executor runs every PacketHandler on the calling thread.</p>
+     *
+     * @param executor dispatch executor or null to dispatch inline
+     */
+    public void setExecutor(Executor executor) {
+        this.dispatcher = executor != null ? new StripedExecutor(executor) : null;
+    }
+
+    /**
+     * Set the function used to send the responses returned by RequestHandlers.
+     *
+     * @param responder function receiving the request Packet and the response object
+     * @see RequestHandler
+     */
+    public void setResponder(BiConsumer<Packet, Object> responder) {
+        this.responder = responder;
+    }
+
+    /**
+     * Set the Metrics used to record deserialization and handler latencies.
+     *
+     * @param metrics node Metrics or null to record nothing
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the metrics of a Packet type if metrics are enabled.
+     *
+     * @param packetInfo Packet type information
+     * @return metrics of the type or null if disabled
+     */
+    private TypeMetrics typeMetrics(PacketInfo<?> packetInfo) {
+        Metrics metrics = this.metrics;
+        return metrics != null && metrics.isEnabled() ? metrics.type(packetInfo.code) : null;
+    }
 
     /**
      * Add a new Packet Handler for Packet type.
@@ -60,15 +314,98 @@ public class PacketManager {
      * @see PacketHandler
      */
     public <T> void add(Class<T> clazz, PacketHandler<T> handler) throws NullPointerException, IllegalArgumentException {
+        add(clazz, handler, false);
+    }
+
+    /**
+     * Add a new Packet Handler for Packet type.
+     *
+     * <p>Inline handlers always run on the thread processing the Packet,
+     * even when a dispatch Executor is set. Use it for trivial handlers
+     * where handing the Packet to another thread costs more than handling it.</p>
+     *
+     * @param clazz   object class to handle
+     * @param handler packet handler to handle a Packet type
+     * @param inline  true to run the handler on the processing thread
+     * @throws NullPointerException     if object's class or handler are null
+     * @throws IllegalArgumentException if object's class does not have the PacketType annotation or packet type is already registered
+     * @see PacketHandler
+     */
+    public <T> void add(Class<T> clazz, PacketHandler<T> handler, boolean inline) throws NullPointerException, IllegalArgumentException {
         if (clazz == null || handler == null)
             throw new NullPointerException("Object's class and PacketHandler cannot be null.");
-        PacketType packetType = clazz.getAnnotation(PacketType.class);
-        if (packetType == null)
-            throw new IllegalArgumentException(String.format("Missing @PacketType annotation in class '%s'.", clazz.getSimpleName()));
-        String type = Packet.formatType(packetType.value());
-        if (this.packetInfo.containsKey(type))
-            throw new IllegalArgumentException(String.format("PacketType '%s' is already registered.", type));
-        this.packetInfo.put(type, new PacketInfo<>(clazz, handler));
+        put(new PacketInfo<>(getTypeCode(clazz), clazz, handler, null, null, inline), false);
+    }
+
+    /**
+     * Add a new Batch Packet Handler for Packet type.
+     *
+     * <p>Packets processed together with {@link PacketManager#process(List)}
+     * are grouped by source and handed to the handler in a single call.</p>
+     *
+     * @param clazz   object class to handle
+     * @param handler batch packet handler to handle a Packet type
+     * @throws NullPointerException     if object's class or handler are null
+     * @throws IllegalArgumentException if object's class does not have the PacketType annotation or packet type is already registered
+     * @see BatchPacketHandler
+     */
+    public <T> void addBatch(Class<T> clazz, BatchPacketHandler<T> handler) throws NullPointerException, IllegalArgumentException {
+        if (clazz == null || handler == null)
+            throw new NullPointerException("Object's class and BatchPacketHandler cannot be null.");
+        put(new PacketInfo<>(getTypeCode(clazz), clazz, null, handler, null, false), false);
+    }
+
+    /**
+     * Add a new Request Handler for Packet type.
+     *
+     * <p>The object returned by the handler is sent back to the requesting
+     * node through the responder set with {@link PacketManager#setResponder(BiConsumer)}.</p>
+     *
+     * @param clazz   object class to handle
+     * @param handler request handler to answer a Packet type
+     * @throws NullPointerException     if object's class or handler are null
+     * @throws IllegalArgumentException if object's class does not have the PacketType annotation or packet type is already registered
+     * @see RequestHandler
+     */
+    public <T> void addRequest(Class<T> clazz, RequestHandler<T> handler) throws NullPointerException, IllegalArgumentException {
+        if (clazz == null || handler == null)
+            throw new NullPointerException("Object's class and RequestHandler cannot be null.");
+        put(new PacketInfo<>(getTypeCode(clazz), clazz, null, null, handler, false), false);
+    }
+
+    /**
+     * Set the Packet Handler for Packet type, replacing any handler already registered.
+     *
+     * <p>The swap is atomic: every Packet is handled either by the previous
+     * handler or by the new one, and the type is never seen as unregistered.</p>
+     *
+     * @param clazz   object class to handle
+     * @param handler packet handler to handle a Packet type
+     * @param inline  true to run the handler on the processing thread
+     * @throws NullPointerException     if object's class or handler are null
+     * @throws IllegalArgumentException if object's class does not have the PacketType annotation
+     * @see PacketHandler
+     */
+    public <T> void replace(Class<T> clazz, PacketHandler<T> handler, boolean inline) throws NullPointerException, IllegalArgumentException {
+        if (clazz == null || handler == null)
+            throw new NullPointerException("Object's class and PacketHandler cannot be null.");
+        put(new PacketInfo<>(getTypeCode(clazz), clazz, handler, null, null, inline), true);
+    }
+
+    /**
+     * Publish a new Registry snapshot containing a Packet type.
+     *
+     * @param info    Packet type to register
+     * @param replace true to replace a registered handler, false to fail instead
+     * @throws IllegalArgumentException if the packet type is already registered and replace is false
+     */
+    private synchronized void put(PacketInfo<?> info, boolean replace) throws IllegalArgumentException {
+        Registry registry = this.registry;
+        if (!replace && registry.packetInfo.containsKey(info.code))
+            throw new IllegalArgumentException(String.format("PacketType '%s' is already registered.", Packet.typeName(info.code)));
+        Map<Integer, PacketInfo<?>> packetInfo = new HashMap<>(registry.packetInfo);
+        packetInfo.put(info.code, info);
+        this.registry = Registry.build(packetInfo);
     }
 
     /**
@@ -77,8 +414,14 @@ public class PacketManager {
      * @param type packet type to remove
      */
     public void remove(String type) {
-        String packetType = Packet.formatType(type);
-        this.packetInfo.remove(packetType);
+        int code = Packet.typeCode(type);
+        synchronized (this) {
+            Registry registry = this.registry;
+            if (!registry.packetInfo.containsKey(code)) return;
+            Map<Integer, PacketInfo<?>> packetInfo = new HashMap<>(registry.packetInfo);
+            packetInfo.remove(code);
+            this.registry = Registry.build(packetInfo);
+        }
     }
 
     /**
@@ -90,8 +433,18 @@ public class PacketManager {
         if (clazz == null) return;
         PacketType packetType = clazz.getAnnotation(PacketType.class);
         if (packetType == null) return;
-        String type = Packet.formatType(packetType.value());
-        remove(type);
+        remove(packetType.value());
+    }
+
+    /**
+     * Get the number of handler tasks waiting to run for a source node.
+     *
+     * @param id source node ID
+     * @return queued handler tasks, 0 if handlers run inline
+     */
+    public int getBacklog(int id) {
+        StripedExecutor dispatcher = this.dispatcher;
+        return dispatcher == null ? 0 : dispatcher.pending(id);
     }
 
     /**
@@ -101,9 +454,104 @@ public class PacketManager {
      */
     public boolean process(Packet packet) {
         if (packet == null) return false;
-        PacketInfo<?> packetInfo = this.packetInfo.get(packet.getType());
+        PacketInfo<?> packetInfo = this.registry.get(packet.getTypeCode());
         if (packetInfo == null) return false;
-        packetInfo.process(packet);
+        dispatch(packetInfo, packet);
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * Run a Packet's handler inline or on the dispatch Executor.
+     *
+     * @param packetInfo Packet type information
+     * @param packet     packet to process
+     */
+    private void dispatch(PacketInfo<?> packetInfo, Packet packet) {
+        StripedExecutor dispatcher = this.dispatcher;
+        BiConsumer<Packet, Object> responder = this.responder;
+        TypeMetrics metrics = typeMetrics(packetInfo);
+        if (packetInfo.inline || packetInfo.priority == PacketPriority.CONTROL || dispatcher == null) {
+            packetInfo.process(packet, responder, metrics);
+        } else {
+            dispatcher.execute(packet.getSourceId(), () -> packetInfo.process(packet, responder, metrics));
+        }
+    }
+
+    /**
+     * Run a batch's handler inline or on the dispatch Executor.
+     *
+     * @param batch    packets of the same type and source
+     * @param priority lane of the batch's type
+     */
+    private void dispatch(Batch batch, PacketPriority priority) {
+        StripedExecutor dispatcher = this.dispatcher;
+        TypeMetrics metrics = typeMetrics(batch.info);
+        if (dispatcher == null || priority == PacketPriority.CONTROL) {
+            batch.info.process(batch.id, batch.packets, metrics);
+        } else {
+            dispatcher.execute(batch.id, () -> batch.info.process(batch.id, batch.packets, metrics));
+        }
+    }
+
+    /**
+     * Process several packets, usually all the packets decoded from a single read.
+     *
+     * <p>Packets are dispatched by priority lane, higher priority types first.
+     * Within a lane, consecutive packets of a source whose type has a
+     * BatchPacketHandler are grouped and handled once per group, before the
+     * next packet of that source with an other type, so the packets of every
+     * source keep their order.</p>
+     *
+     * @param packets packets to process
+     * @return packets without a registered handler
+     */
+    public List<Packet> process(List<Packet> packets) {
+        Registry registry = this.registry;
+        List<Packet> unhandled = Collections.emptyList();
+        PacketInfo<?>[] infos = new PacketInfo<?>[packets.size()];
+        int lanes = 0;
+        for (int i = 0; i < infos.length; i++) {
+            Packet packet = packets.get(i);
+            infos[i] = registry.get(packet.getTypeCode());
+            if (infos[i] != null) {
+                lanes |= 1 << infos[i].priority.ordinal();
+            } else {
+                if (unhandled.isEmpty()) unhandled = new ArrayList<>();
+                unhandled.add(packet);
+            }
+        }
+        for (PacketPriority priority : PRIORITIES) {
+            if ((lanes & (1 << priority.ordinal())) == 0) continue;
+            List<Batch> batches = Collections.emptyList();
+            for (int i = 0; i < infos.length; i++) {
+                PacketInfo<?> packetInfo = infos[i];
+                if (packetInfo == null || packetInfo.priority != priority) continue;
+                Packet packet = packets.get(i);
+                Batch batch = null;
+                for (int b = 0; b < batches.size(); b++) {
+                    if (batches.get(b).id != packet.getSourceId()) continue;
+                    batch = batches.get(b);
+                    if (batch.info != packetInfo || packetInfo.batchHandler == null) {
+                        // Handle the source's batch before the packets that came after it
+                        dispatch(batches.remove(b), priority);
+                        batch = null;
+                    }
+                    break;
+                }
+                if (packetInfo.batchHandler == null) {
+                    dispatch(packetInfo, packet);
+                    continue;
+                }
+                if (batch == null) {
+                    if (batches.isEmpty()) batches = new ArrayList<>();
+                    batch = new Batch(packetInfo, packet.getSourceId());
+                    batches.add(batch);
+                }
+                batch.packets.add(packet);
+            }
+            for (Batch batch : batches)
+                dispatch(batch, priority);
+        }
+        return unhandled;
+    }
+}
@@ -4,16 +4,31 @@ import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
 import eu.cifpfbmoll.netlib.annotation.PacketType;
 
 import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
+import java.lang.reflect.*;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Parse {@link eu.cifpfbmoll.netlib.annotation.PacketType} classes and serialize/deserialize their PacketAttributes.
+ *
+ * <p>Besides primitives, boxed primitives, their arrays and String, PacketAttributes may be
+ * enums, nested classes with their own PacketAttributes, and {@link List}, {@link Set} or
+ * {@link Map} fields whose element types are themselves supported.</p>
+ *
+ * <p>An object is serialized as a presence bitmap with one bit per non-primitive field,
+ * followed by every present field in name order. Null fields only cost their bit.
+ * Lengths and enum ordinals are encoded as unsigned varints, so values below 128
+ * take a single byte. The codec of every class is built once and cached.</p>
+ *
+ * <p>This payload encoding is not compatible with the one of earlier versions,
+ * which had no presence bitmap and wrote string and array lengths as a single
+ * byte. Packet headers stay readable across versions, but the payloads of every
+ * type, including types whose classes did not change, are misread by nodes
+ * running the other encoding, so every node of a network must be upgraded
+ * together.</p>
  */
 public class PacketParser {
-    private static final int MAX_PACKET_SIZE = 1024;
-    private static final int SIZE = 1;
     private static final int BYTE_SIZE = 1;
     private static final int SHORT_SIZE = 2;
     private static final int INT_SIZE = 4;
@@ -21,21 +36,36 @@ public class PacketParser {
     private static final int FLOAT_SIZE = 4;
     private static final int DOUBLE_SIZE = 8;
     private static final int CHAR_SIZE = 2;
-    private static final int STRING_SIZE = 1;
 
     /**
-     * Dynamically get object fields' size.
+     * Dynamically get a value's serialized size.
      */
     @FunctionalInterface
     private interface SizeHandler {
-        int handle(Object object, Field field) throws IllegalAccessException;
+        int handle(Object value) throws IllegalAccessException;
     }
 
     /**
-     * Serialize/Deserialize object's fields to a byte array using a ByteBuffer.
+     * Serialize a value to a byte array using a ByteBuffer.
      */
     @FunctionalInterface
-    private interface TypeHandler {
+    private interface Serializer {
+        void handle(Object value, ByteBuffer bb) throws IllegalAccessException;
+    }
+
+    /**
+     * Deserialize a value from a ByteBuffer.
+     */
+    @FunctionalInterface
+    private interface Deserializer {
+        Object handle(ByteBuffer bb) throws IllegalAccessException;
+    }
+
+    /**
+     * Serialize/Deserialize object's primitive fields to a byte array using a ByteBuffer.
+     */
+    @FunctionalInterface
+    private interface FieldHandler {
         void handle(Object object, Field field, ByteBuffer bb) throws IllegalAccessException;
     }
 
@@ -43,57 +73,191 @@ public class PacketParser {
      * Store PacketParser's supported types' info.
      *
      * <p>This class is used to specify how to serialize and deserialize
-     * a specific Object type using TypeHandler.</p>
+     * a specific Object type.</p>
      */
     private static final class TypeInfo {
         private final SizeHandler size;
-        private final TypeHandler serializer;
-        private final TypeHandler deserializer;
+        private final Serializer serializer;
+        private final Deserializer deserializer;
+
+        public TypeInfo(SizeHandler size, Serializer serializer, Deserializer deserializer) {
+            this.size = size;
+            this.serializer = serializer;
+            this.deserializer = deserializer;
+        }
+
+        /**
+         * Get a value's size.
+         *
+         * @param value non null value to get size from
+         * @return value's size
+         */
+        public int size(Object value) throws IllegalAccessException {
+            return this.size.handle(value);
+        }
+
+        /**
+         * Serialize a value with its serializer function.
+         *
+         * @param value non null value to serialize
+         * @param bb    ByteBuffer used to store serialized data
+         */
+        public void serialize(Object value, ByteBuffer bb) throws IllegalAccessException {
+            this.serializer.handle(value, bb);
+        }
+
+        /**
+         * Deserialize a value with its deserializer function.
+         *
+         * @param bb ByteBuffer used where the serialized data is stored
+         * @return deserialized value
+         */
+        public Object deserialize(ByteBuffer bb) throws IllegalAccessException {
+            return this.deserializer.handle(bb);
+        }
+    }
+
+    /**
+     * Store how to serialize and deserialize a primitive field without boxing its value.
+     */
+    private static final class PrimitiveInfo {
+        private final int size;
+        private final FieldHandler serializer;
+        private final FieldHandler deserializer;
 
-        public TypeInfo(SizeHandler size, TypeHandler serializer, TypeHandler deserializer) {
+        public PrimitiveInfo(int size, FieldHandler serializer, FieldHandler deserializer) {
             this.size = size;
             this.serializer = serializer;
             this.deserializer = deserializer;
         }
+    }
+
+    /**
+     * Precomputed codec of a single PacketAttribute field.
+     */
+    private static final class FieldInfo {
+        private final Field field;
+        private final PrimitiveInfo primitive;
+        private final TypeInfo type;
+
+        public FieldInfo(Field field, PrimitiveInfo primitive, TypeInfo type) {
+            this.field = field;
+            this.primitive = primitive;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Precomputed codec of a class with PacketAttribute fields.
+     *
+     * <p>Primitive fields are always present. Every other field has
+     * one bit in the presence bitmap written before the field values.</p>
+     */
+    private static final class ClassInfo {
+        private final Class<?> clazz;
+        private final Constructor<?> constructor;
+        private final FieldInfo[] fields;
+        private final int bitmapSize;
+
+        public ClassInfo(Class<?> clazz, Constructor<?> constructor, FieldInfo[] fields) {
+            int nullable = 0;
+            for (FieldInfo info : fields)
+                if (info.primitive == null) nullable++;
+            this.clazz = clazz;
+            this.constructor = constructor;
+            this.fields = fields;
+            this.bitmapSize = (nullable + 7) / 8;
+        }
+
+        /**
+         * Create a new instance of the class.
+         *
+         * @return new instance
+         * @throws IllegalArgumentException if the class cannot be instantiated
+         */
+        public Object newInstance() {
+            if (this.constructor == null)
+                throw new IllegalArgumentException(String.format("'%s' must have a no-argument constructor.", this.clazz.getSimpleName()));
+            try {
+                return this.constructor.newInstance();
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalArgumentException(String.format("Unable to instantiate '%s'.", this.clazz.getSimpleName()), e);
+            }
+        }
 
         /**
-         * Get an Object's field size.
+         * Get an object's serialized size.
          *
          * @param object object to get size from
-         * @param field  object's field to calculate size
-         * @return field's size
+         * @return object's size
          */
-        public int size(Object object, Field field) throws IllegalAccessException {
-            return this.size.handle(object, field);
+        public int size(Object object) throws IllegalAccessException {
+            int size = this.bitmapSize;
+            for (FieldInfo info : this.fields) {
+                if (info.primitive != null) {
+                    size += info.primitive.size;
+                } else {
+                    Object value = info.field.get(object);
+                    if (value != null) size += info.type.size(value);
+                }
+            }
+            return size;
         }
 
         /**
-         * Serialize an Object's field with its serializer function.
+         * Serialize an object's fields.
          *
          * @param object object to serialize
-         * @param field  field to serialize
          * @param bb     ByteBuffer used to store serialized data
          */
-        public void serialize(Object object, Field field, ByteBuffer bb) throws IllegalAccessException {
-            if (this.serializer != null)
-                this.serializer.handle(object, field, bb);
+        public void serialize(Object object, ByteBuffer bb) throws IllegalAccessException {
+            int bitmap = bb.position();
+            for (int i = 0; i < this.bitmapSize; i++)
+                bb.put((byte) 0);
+            int bit = 0;
+            for (FieldInfo info : this.fields) {
+                if (info.primitive != null) {
+                    info.primitive.serializer.handle(object, info.field, bb);
+                    continue;
+                }
+                Object value = info.field.get(object);
+                if (value != null) {
+                    int index = bitmap + bit / 8;
+                    bb.put(index, (byte) (bb.get(index) | (1 << (bit % 8))));
+                    info.type.serialize(value, bb);
+                }
+                bit++;
+            }
         }
 
         /**
-         * Deserialize an Object's field with its deserializer function.
+         * Deserialize an object's fields.
          *
-         * @param object object to deserialize
-         * @param field  field to deserialize
-         * @param bb     ByteBuffer used where the serialized data is stored
+         * @param object object to deserialize into
+         * @param bb     ByteBuffer where the serialized data is stored
          */
-        public void deserialize(Object object, Field field, ByteBuffer bb) throws IllegalAccessException {
-            if (this.deserializer != null)
-                this.deserializer.handle(object, field, bb);
+        public void deserialize(Object object, ByteBuffer bb) throws IllegalAccessException {
+            byte[] bitmap = new byte[this.bitmapSize];
+            bb.get(bitmap);
+            int bit = 0;
+            for (FieldInfo info : this.fields) {
+                if (info.primitive != null) {
+                    info.primitive.deserializer.handle(object, info.field, bb);
+                    continue;
+                }
+                boolean present = (bitmap[bit / 8] & (1 << (bit % 8))) != 0;
+                info.field.set(object, present ? info.type.deserialize(bb) : null);
+                bit++;
+            }
         }
     }
 
     private static final PacketParser instance = new PacketParser();
     private final Map<Class<?>, TypeInfo> types = new HashMap<>();
+    private final Map<Class<?>, PrimitiveInfo> primitives = new HashMap<>();
+    private final Map<Class<?>, ClassInfo> classes = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Integer> typeCodes = new ConcurrentHashMap<>();
+    private final Map<Integer, PacketPriority> priorities = new ConcurrentHashMap<>();
 
     /**
      * Get PacketParser's instance.
@@ -104,242 +268,552 @@ public class PacketParser {
         return instance;
     }
 
+    /**
+     * Get the size of an unsigned varint.
+     *
+     * @param value value to encode
+     * @return number of bytes used to encode the value
+     */
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Write an unsigned varint, 7 bits per byte with the most significant bit
+     * set on every byte but the last one.
+     *
+     * @param bb    ByteBuffer to write to
+     * @param value value to encode
+     */
+    public static void putVarInt(ByteBuffer bb, int value) {
+        while ((value & ~0x7f) != 0) {
+            bb.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        bb.put((byte) value);
+    }
+
+    /**
+     * Read an unsigned varint.
+     *
+     * @param bb ByteBuffer to read from
+     * @return decoded value
+     * @throws IllegalArgumentException if the varint is longer than 5 bytes
+     */
+    public static int getVarInt(ByteBuffer bb) {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            byte b = bb.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+
+    /**
+     * Read the length of an array or string, checking the buffer holds
+     * every element before anything is allocated.
+     *
+     * @param bb          ByteBuffer to read from
+     * @param elementSize bytes per element
+     * @return length
+     * @throws IllegalArgumentException if the length is negative or longer than the remaining bytes
+     */
+    private static int getLength(ByteBuffer bb, int elementSize) {
+        int length = getVarInt(bb);
+        if (length < 0 || (long) length * elementSize > bb.remaining())
+            throw new IllegalArgumentException(String.format("Invalid length %d with %d bytes left.", length, bb.remaining()));
+        return length;
+    }
+
+    /**
+     * Read the size of a collection or map, checking the buffer holds its
+     * presence bitmap before anything is allocated.
+     *
+     * @param bb ByteBuffer to read from
+     * @return number of elements
+     * @throws IllegalArgumentException if the size is negative or its bitmap is longer than the remaining bytes
+     */
+    private static int getContainerSize(ByteBuffer bb) {
+        int size = getVarInt(bb);
+        if (size < 0 || (size + 7L) / 8 > bb.remaining())
+            throw new IllegalArgumentException(String.format("Invalid size %d with %d bytes left.", size, bb.remaining()));
+        return size;
+    }
+
+    /**
+     * Get the UTF-8 encoded length of a String without encoding it.
+     *
+     * @param str string to measure
+     * @return number of bytes used to encode the string
+     */
+    private static int utf8Length(String str) {
+        int size = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
     public PacketParser() {
-        this.types.put(Byte.TYPE, new TypeInfo(
-                (object, field) -> BYTE_SIZE,
+        this.primitives.put(Byte.TYPE, new PrimitiveInfo(BYTE_SIZE,
                 (object, field, bb) -> bb.put(field.getByte(object)),
                 (object, field, bb) -> field.setByte(object, bb.get())));
         this.types.put(Byte.class, new TypeInfo(
-                (object, field) -> BYTE_SIZE,
-                (object, field, bb) -> bb.put((byte) field.get(object)),
-                (object, field, bb) -> field.set(object, bb.get())));
+                value -> BYTE_SIZE,
+                (value, bb) -> bb.put((Byte) value),
+                ByteBuffer::get));
         this.types.put(byte[].class, new TypeInfo(
-                (object, field) -> {
-                    byte[] arr = (byte[]) field.get(object);
-                    return arr.length * BYTE_SIZE + SIZE;
+                value -> {
+                    byte[] arr = (byte[]) value;
+                    return arr.length * BYTE_SIZE + varIntSize(arr.length);
                 },
-                (object, field, bb) -> {
-                    byte[] arr = (byte[]) field.get(object);
-                    bb.put((byte) arr.length);
-                    for (byte b : arr) bb.put(b);
+                (value, bb) -> {
+                    byte[] arr = (byte[]) value;
+                    putVarInt(bb, arr.length);
+                    bb.put(arr);
                 },
-                (object, field, bb) -> {
-                    int size = bb.get() & 0xff;
-                    byte[] arr = new byte[size];
-                    for (int i = 0; i < size; i++)
-                        arr[i] = bb.get();
-                    field.set(object, arr);
+                bb -> {
+                    byte[] arr = new byte[getLength(bb, BYTE_SIZE)];
+                    bb.get(arr);
+                    return arr;
                 }));
         this.types.put(Byte[].class, new TypeInfo(
-                (object, field) -> {
-                    Byte[] arr = (Byte[]) field.get(object);
-                    return arr.length * BYTE_SIZE + SIZE;
+                value -> {
+                    Byte[] arr = (Byte[]) value;
+                    return arr.length * BYTE_SIZE + varIntSize(arr.length);
                 },
-                (object, field, bb) -> {
-                    Byte[] arr = (Byte[]) field.get(object);
-                    bb.put((byte) arr.length);
+                (value, bb) -> {
+                    Byte[] arr = (Byte[]) value;
+                    putVarInt(bb, arr.length);
                     for (Byte b : arr) {
                         if (b == null) b = 0;
                         bb.put(b);
                     }
                 },
-                (object, field, bb) -> {
-                    int size = bb.get() & 0xff;
-                    Byte[] arr = new Byte[size];
-                    for (int i = 0; i < size; i++)
+                bb -> {
+                    Byte[] arr = new Byte[getLength(bb, BYTE_SIZE)];
+                    for (int i = 0; i < arr.length; i++)
                         arr[i] = bb.get();
-                    field.set(object, arr);
+                    return arr;
                 }));
 
-        this.types.put(Short.TYPE, new TypeInfo(
-                (object, field) -> SHORT_SIZE,
+        this.primitives.put(Short.TYPE, new PrimitiveInfo(SHORT_SIZE,
                 (object, field, bb) -> bb.putShort(field.getShort(object)),
-                (object, field, bb) -> field.set(object, bb.getShort())));
+                (object, field, bb) -> field.setShort(object, bb.getShort())));
         this.types.put(Short.class, new TypeInfo(
-                (object, field) -> SHORT_SIZE,
-                (object, field, bb) -> bb.putShort((short) field.get(object)),
-                (object, field, bb) -> field.set(object, bb.getShort())));
+                value -> SHORT_SIZE,
+                (value, bb) -> bb.putShort((Short) value),
+                ByteBuffer::getShort));
         this.types.put(short[].class, new TypeInfo(
-                (object, field) -> {
-                    short[] arr = (short[]) field.get(object);
-                    return arr.length * SHORT_SIZE + SIZE;
+                value -> {
+                    short[] arr = (short[]) value;
+                    return arr.length * SHORT_SIZE + varIntSize(arr.length);
                 },
-                (object, field, bb) -> {
-                    short[] arr = (short[]) field.get(object);
-                    bb.put((byte) arr.length);
+                (value, bb) -> {
+                    short[] arr = (short[]) value;
+                    putVarInt(bb, arr.length);
                     for (short b : arr) bb.putShort(b);
                 },
-                (object, field, bb) -> {
-                    int size = bb.get() & 0xff;
-                    short[] arr = new short[size];
-                    for (int i = 0; i < size; i++)
+                bb -> {
+                    short[] arr = new short[getLength(bb, SHORT_SIZE)];
+                    for (int i = 0; i < arr.length; i++)
                         arr[i] = bb.getShort();
-                    field.set(object, arr);
+                    return arr;
                 }));
 
-        this.types.put(Integer.TYPE, new TypeInfo(
-                (object, field) -> INT_SIZE,
+        this.primitives.put(Integer.TYPE, new PrimitiveInfo(INT_SIZE,
                 (object, field, bb) -> bb.putInt(field.getInt(object)),
-                (object, field, bb) -> field.set(object, bb.getInt())));
+                (object, field, bb) -> field.setInt(object, bb.getInt())));
         this.types.put(Integer.class, new TypeInfo(
-                (object, field) -> INT_SIZE,
-                (object, field, bb) -> bb.putInt((int) field.get(object)),
-                (object, field, bb) -> field.set(object, bb.getInt())));
+                value -> INT_SIZE,
+                (value, bb) -> bb.putInt((Integer) value),
+                ByteBuffer::getInt));
         this.types.put(int[].class, new TypeInfo(
-                (object, field) -> {
-                    int[] arr = (int[]) field.get(object);
-                    return arr.length * INT_SIZE + SIZE;
+                value -> {
+                    int[] arr = (int[]) value;
+                    return arr.length * INT_SIZE + varIntSize(arr.length);
                 },
-                (object, field, bb) -> {
-                    int[] arr = (int[]) field.get(object);
-                    bb.put((byte) arr.length);
+                (value, bb) -> {
+                    int[] arr = (int[]) value;
+                    putVarInt(bb, arr.length);
                     for (int b : arr) bb.putInt(b);
                 },
-                (object, field, bb) -> {
-                    int size = bb.get() & 0xff;
-                    int[] arr = new int[size];
-                    for (int i = 0; i < size; i++)
+                bb -> {
+                    int[] arr = new int[getLength(bb, INT_SIZE)];
+                    for (int i = 0; i < arr.length; i++)
                         arr[i] = bb.getInt();
-                    field.set(object, arr);
+                    return arr;
                 }));
 
-        this.types.put(Long.TYPE, new TypeInfo(
-                (object, field) -> LONG_SIZE,
+        this.primitives.put(Long.TYPE, new PrimitiveInfo(LONG_SIZE,
                 (object, field, bb) -> bb.putLong(field.getLong(object)),
-                (object, field, bb) -> field.set(object, bb.getLong())));
+                (object, field, bb) -> field.setLong(object, bb.getLong())));
         this.types.put(Long.class, new TypeInfo(
-                (object, field) -> LONG_SIZE,
-                (object, field, bb) -> bb.putLong((long) field.get(object)),
-                (object, field, bb) -> field.set(object, bb.getLong())));
+                value -> LONG_SIZE,
+                (value, bb) -> bb.putLong((Long) value),
+                ByteBuffer::getLong));
         this.types.put(long[].class, new TypeInfo(
-                (object, field) -> {
-                    long[] arr = (long[]) field.get(object);
-                    return arr.length * LONG_SIZE + SIZE;
+                value -> {
+                    long[] arr = (long[]) value;
+                    return arr.length * LONG_SIZE + varIntSize(arr.length);
                 },
-                (object, field, bb) -> {
-                    long[] arr = (long[]) field.get(object);
-                    bb.put((byte) arr.length);
+                (value, bb) -> {
+                    long[] arr = (long[]) value;
+                    putVarInt(bb, arr.length);
                     for (long b : arr) bb.putLong(b);
                 },
-                (object, field, bb) -> {
-                    int size = bb.get() & 0xff;
-                    long[] arr = new long[size];
-                    for (int i = 0; i < size; i++)
+                bb -> {
+                    long[] arr = new long[getLength(bb, LONG_SIZE)];
+                    for (int i = 0; i < arr.length; i++)
                         arr[i] = bb.getLong();
-                    field.set(object, arr);
+                    return arr;
                 }));
 
-        this.types.put(Float.TYPE, new TypeInfo(
-                (object, field) -> FLOAT_SIZE,
+        this.primitives.put(Float.TYPE, new PrimitiveInfo(FLOAT_SIZE,
                 (object, field, bb) -> bb.putFloat(field.getFloat(object)),
-                (object, field, bb) -> field.set(object, bb.getFloat())));
+                (object, field, bb) -> field.setFloat(object, bb.getFloat())));
         this.types.put(Float.class, new TypeInfo(
-                (object, field) -> FLOAT_SIZE,
-                (object, field, bb) -> bb.putFloat((float) field.get(object)),
-                (object, field, bb) -> field.set(object, bb.getFloat())));
+                value -> FLOAT_SIZE,
+                (value, bb) -> bb.putFloat((Float) value),
+                ByteBuffer::getFloat));
         this.types.put(float[].class, new TypeInfo(
-                (object, field) -> {
-                    float[] arr = (float[]) field.get(object);
-                    return arr.length * FLOAT_SIZE + SIZE;
+                value -> {
+                    float[] arr = (float[]) value;
+                    return arr.length * FLOAT_SIZE + varIntSize(arr.length);
                 },
-                (object, field, bb) -> {
-                    float[] arr = (float[]) field.get(object);
-                    bb.put((byte) arr.length);
+                (value, bb) -> {
+                    float[] arr = (float[]) value;
+                    putVarInt(bb, arr.length);
                     for (float b : arr) bb.putFloat(b);
                 },
-                (object, field, bb) -> {
-                    int size = bb.get() & 0xff;
-                    float[] arr = new float[size];
-                    for (int i = 0; i < size; i++)
+                bb -> {
+                    float[] arr = new float[getLength(bb, FLOAT_SIZE)];
+                    for (int i = 0; i < arr.length; i++)
                         arr[i] = bb.getFloat();
-                    field.set(object, arr);
+                    return arr;
                 }));
 
-        this.types.put(Double.TYPE, new TypeInfo(
-                (object, field) -> DOUBLE_SIZE,
+        this.primitives.put(Double.TYPE, new PrimitiveInfo(DOUBLE_SIZE,
                 (object, field, bb) -> bb.putDouble(field.getDouble(object)),
-                (object, field, bb) -> field.set(object, bb.getDouble())));
+                (object, field, bb) -> field.setDouble(object, bb.getDouble())));
         this.types.put(Double.class, new TypeInfo(
-                (object, field) -> DOUBLE_SIZE,
-                (object, field, bb) -> bb.putDouble((double) field.get(object)),
-                (object, field, bb) -> field.set(object, bb.getDouble())));
+                value -> DOUBLE_SIZE,
+                (value, bb) -> bb.putDouble((Double) value),
+                ByteBuffer::getDouble));
         this.types.put(double[].class, new TypeInfo(
-                (object, field) -> {
-                    double[] arr = (double[]) field.get(object);
-                    return arr.length * DOUBLE_SIZE + SIZE;
+                value -> {
+                    double[] arr = (double[]) value;
+                    return arr.length * DOUBLE_SIZE + varIntSize(arr.length);
                 },
-                (object, field, bb) -> {
-                    double[] arr = (double[]) field.get(object);
-                    bb.put((byte) arr.length);
+                (value, bb) -> {
+                    double[] arr = (double[]) value;
+                    putVarInt(bb, arr.length);
                     for (double b : arr) bb.putDouble(b);
                 },
-                (object, field, bb) -> {
-                    int size = bb.get() & 0xff;
-                    double[] arr = new double[size];
-                    for (int i = 0; i < size; i++)
+                bb -> {
+                    double[] arr = new double[getLength(bb, DOUBLE_SIZE)];
+                    for (int i = 0; i < arr.length; i++)
                         arr[i] = bb.getDouble();
-                    field.set(object, arr);
+                    return arr;
                 }));
 
-        this.types.put(Character.TYPE, new TypeInfo(
-                (object, field) -> CHAR_SIZE,
+        this.primitives.put(Character.TYPE, new PrimitiveInfo(CHAR_SIZE,
                 (object, field, bb) -> bb.putChar(field.getChar(object)),
-                (object, field, bb) -> field.set(object, bb.getChar())));
+                (object, field, bb) -> field.setChar(object, bb.getChar())));
         this.types.put(Character.class, new TypeInfo(
-                (object, field) -> CHAR_SIZE,
-                (object, field, bb) -> bb.putChar((char) field.get(object)),
-                (object, field, bb) -> field.set(object, bb.getChar())));
+                value -> CHAR_SIZE,
+                (value, bb) -> bb.putChar((Character) value),
+                ByteBuffer::getChar));
         this.types.put(char[].class, new TypeInfo(
-                (object, field) -> {
-                    char[] arr = (char[]) field.get(object);
-                    return arr.length * CHAR_SIZE + SIZE;
+                value -> {
+                    char[] arr = (char[]) value;
+                    return arr.length * CHAR_SIZE + varIntSize(arr.length);
                 },
-                (object, field, bb) -> {
-                    char[] arr = (char[]) field.get(object);
-                    bb.put((byte) arr.length);
+                (value, bb) -> {
+                    char[] arr = (char[]) value;
+                    putVarInt(bb, arr.length);
                     for (char b : arr) bb.putChar(b);
                 },
-                (object, field, bb) -> {
-                    int size = bb.get() & 0xff;
-                    char[] arr = new char[size];
-                    for (int i = 0; i < size; i++)
+                bb -> {
+                    char[] arr = new char[getLength(bb, CHAR_SIZE)];
+                    for (int i = 0; i < arr.length; i++)
                         arr[i] = bb.getChar();
-                    field.set(object, arr);
+                    return arr;
                 }));
 
+        this.primitives.put(Boolean.TYPE, new PrimitiveInfo(BYTE_SIZE,
+                (object, field, bb) -> bb.put((byte) (field.getBoolean(object) ? 1 : 0)),
+                (object, field, bb) -> field.setBoolean(object, bb.get() != 0)));
+        this.types.put(Boolean.class, new TypeInfo(
+                value -> BYTE_SIZE,
+                (value, bb) -> bb.put((byte) ((Boolean) value ? 1 : 0)),
+                bb -> bb.get() != 0));
+
         this.types.put(String.class, new TypeInfo(
-                (object, field) -> {
-                    String str = (String) field.get(object);
-                    return str.length() * STRING_SIZE + SIZE;
+                value -> {
+                    int size = utf8Length((String) value);
+                    return size + varIntSize(size);
                 },
-                (object, field, bb) -> {
-                    String str = (String) field.get(object);
-                    str = str != null ? str : "";
-                    byte[] bytes = str.getBytes(Packet.CHARSET_ENCODING);
-                    bb.put((byte) bytes.length);
-                    for (byte b : bytes)
-                        bb.put(b);
+                (value, bb) -> {
+                    byte[] bytes = ((String) value).getBytes(Packet.CHARSET_ENCODING);
+                    putVarInt(bb, bytes.length);
+                    bb.put(bytes);
                 },
-                (object, field, bb) -> {
-                    int size = bb.get() & 0xff;
-                    byte[] bytes = new byte[size];
-                    for (int i = 0; i < size; i++)
-                        bytes[i] = bb.get();
-                    field.set(object, new String(bytes, Packet.CHARSET_ENCODING));
+                bb -> {
+                    byte[] bytes = new byte[getLength(bb, BYTE_SIZE)];
+                    bb.get(bytes);
+                    return new String(bytes, Packet.CHARSET_ENCODING);
                 }));
     }
 
+    /**
+     * Check if a class can be serialized as a nested PacketAttribute,
+     * which means it is annotated with PacketType or has PacketAttribute fields.
+     *
+     * @param clazz class to check
+     * @return true if the class has its own PacketAttributes, false otherwise
+     */
+    private boolean isPacketClass(Class<?> clazz) {
+        if (clazz.isAnnotationPresent(PacketType.class)) return true;
+        for (Field field : clazz.getDeclaredFields())
+            if (field.isAnnotationPresent(PacketAttribute.class)) return true;
+        return false;
+    }
+
+    /**
+     * Get the ClassInfo of a class, building and caching it on first use.
+     *
+     * @param clazz class to get ClassInfo for
+     * @return class' ClassInfo
+     * @throws IllegalArgumentException if any PacketAttribute field type is not supported
+     */
+    private ClassInfo getClassInfo(Class<?> clazz) {
+        ClassInfo classInfo = this.classes.get(clazz);
+        if (classInfo != null) return classInfo;
+        List<Field> fields = getOrderedFieldsWithAnnotation(clazz, PacketAttribute.class);
+        FieldInfo[] infos = new FieldInfo[fields.size()];
+        for (int i = 0; i < infos.length; i++) {
+            Field field = fields.get(i);
+            PrimitiveInfo primitive = this.primitives.get(field.getType());
+            infos[i] = new FieldInfo(field, primitive, primitive == null ? getTypeInfo(field.getGenericType()) : null);
+        }
+        Constructor<?> constructor = null;
+        try {
+            constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException ignored) {
+        }
+        classInfo = new ClassInfo(clazz, constructor, infos);
+        this.classes.putIfAbsent(clazz, classInfo);
+        return classInfo;
+    }
+
+    /**
+     * Get TypeInfo for a nested PacketAttribute class.
+     *
+     * <p>The nested ClassInfo is resolved on use so that
+     * self-referencing classes can be described.</p>
+     *
+     * @param clazz nested class
+     * @return nested class' TypeInfo
+     */
+    private TypeInfo getObjectTypeInfo(Class<?> clazz) {
+        return new TypeInfo(
+                value -> getClassInfo(clazz).size(value),
+                (value, bb) -> getClassInfo(clazz).serialize(value, bb),
+                bb -> {
+                    ClassInfo classInfo = getClassInfo(clazz);
+                    Object object = classInfo.newInstance();
+                    classInfo.deserialize(object, bb);
+                    return object;
+                });
+    }
+
+    /**
+     * Get TypeInfo for an enum, encoded as its ordinal.
+     *
+     * @param clazz enum class
+     * @return enum's TypeInfo
+     */
+    private TypeInfo getEnumTypeInfo(Class<?> clazz) {
+        Object[] constants = clazz.getEnumConstants();
+        return new TypeInfo(
+                value -> varIntSize(((Enum<?>) value).ordinal()),
+                (value, bb) -> putVarInt(bb, ((Enum<?>) value).ordinal()),
+                bb -> {
+                    int ordinal = getVarInt(bb);
+                    if (ordinal < 0 || ordinal >= constants.length)
+                        throw new IllegalArgumentException(String.format("Invalid ordinal %d for '%s'.", ordinal, clazz.getSimpleName()));
+                    return constants[ordinal];
+                });
+    }
+
+    /**
+     * Get a factory for a collection or map type. Interfaces and abstract
+     * classes are mapped to a default implementation.
+     *
+     * @param clazz collection or map type
+     * @return instance factory
+     */
+    private ClassInfo getContainerFactory(Class<?> clazz) {
+        Class<?> impl = clazz;
+        if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+            if (clazz.isAssignableFrom(ArrayList.class)) impl = ArrayList.class;
+            else if (clazz.isAssignableFrom(LinkedHashSet.class)) impl = LinkedHashSet.class;
+            else if (clazz.isAssignableFrom(TreeSet.class)) impl = TreeSet.class;
+            else if (clazz.isAssignableFrom(ArrayDeque.class)) impl = ArrayDeque.class;
+            else if (clazz.isAssignableFrom(LinkedHashMap.class)) impl = LinkedHashMap.class;
+            else if (clazz.isAssignableFrom(TreeMap.class)) impl = TreeMap.class;
+            else throw new IllegalArgumentException(String.format("'%s' type is not supported as a PacketAttribute.", clazz.getSimpleName()));
+        }
+        try {
+            return new ClassInfo(impl, impl.getConstructor(), new FieldInfo[0]);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(String.format("'%s' must have a public no-argument constructor.", impl.getSimpleName()));
+        }
+    }
+
+    /**
+     * Get TypeInfo for a collection. Elements are preceded by the
+     * collection size and a presence bitmap for null elements.
+     *
+     * @param clazz   collection type
+     * @param element element TypeInfo
+     * @return collection's TypeInfo
+     */
+    @SuppressWarnings("unchecked")
+    private TypeInfo getCollectionTypeInfo(Class<?> clazz, TypeInfo element) {
+        ClassInfo factory = getContainerFactory(clazz);
+        return new TypeInfo(
+                value -> {
+                    Collection<Object> collection = (Collection<Object>) value;
+                    int size = varIntSize(collection.size()) + (collection.size() + 7) / 8;
+                    for (Object item : collection)
+                        if (item != null) size += element.size(item);
+                    return size;
+                },
+                (value, bb) -> {
+                    Collection<Object> collection = (Collection<Object>) value;
+                    putVarInt(bb, collection.size());
+                    byte[] bitmap = new byte[(collection.size() + 7) / 8];
+                    int i = 0;
+                    for (Object item : collection) {
+                        if (item != null) bitmap[i / 8] |= 1 << (i % 8);
+                        i++;
+                    }
+                    bb.put(bitmap);
+                    for (Object item : collection)
+                        if (item != null) element.serialize(item, bb);
+                },
+                bb -> {
+                    int size = getContainerSize(bb);
+                    byte[] bitmap = new byte[(size + 7) / 8];
+                    bb.get(bitmap);
+                    Collection<Object> collection = (Collection<Object>) factory.newInstance();
+                    for (int i = 0; i < size; i++)
+                        collection.add((bitmap[i / 8] & (1 << (i % 8))) != 0 ? element.deserialize(bb) : null);
+                    return collection;
+                });
+    }
+
+    /**
+     * Get TypeInfo for a map. Entries are preceded by the map size and a
+     * presence bitmap for null values. Keys cannot be null.
+     *
+     * @param clazz map type
+     * @param key   key TypeInfo
+     * @param val   value TypeInfo
+     * @return map's TypeInfo
+     */
+    @SuppressWarnings("unchecked")
+    private TypeInfo getMapTypeInfo(Class<?> clazz, TypeInfo key, TypeInfo val) {
+        ClassInfo factory = getContainerFactory(clazz);
+        return new TypeInfo(
+                value -> {
+                    Map<Object, Object> map = (Map<Object, Object>) value;
+                    int size = varIntSize(map.size()) + (map.size() + 7) / 8;
+                    for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                        if (entry.getKey() == null)
+                            throw new IllegalArgumentException("Map PacketAttributes cannot contain null keys.");
+                        size += key.size(entry.getKey());
+                        if (entry.getValue() != null) size += val.size(entry.getValue());
+                    }
+                    return size;
+                },
+                (value, bb) -> {
+                    Map<Object, Object> map = (Map<Object, Object>) value;
+                    putVarInt(bb, map.size());
+                    byte[] bitmap = new byte[(map.size() + 7) / 8];
+                    int i = 0;
+                    for (Object item : map.values()) {
+                        if (item != null) bitmap[i / 8] |= 1 << (i % 8);
+                        i++;
+                    }
+                    bb.put(bitmap);
+                    for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                        key.serialize(entry.getKey(), bb);
+                        if (entry.getValue() != null) val.serialize(entry.getValue(), bb);
+                    }
+                },
+                bb -> {
+                    int size = getContainerSize(bb);
+                    byte[] bitmap = new byte[(size + 7) / 8];
+                    bb.get(bitmap);
+                    Map<Object, Object> map = (Map<Object, Object>) factory.newInstance();
+                    for (int i = 0; i < size; i++) {
+                        Object k = key.deserialize(bb);
+                        map.put(k, (bitmap[i / 8] & (1 << (i % 8))) != 0 ? val.deserialize(bb) : null);
+                    }
+                    return map;
+                });
+    }
+
     /**
      * Get TypeInfo for a specific type.
      *
      * @param type type to check for TypeInfo
-     * @return TypeInfo that is assignable from the specified type, null if no TypeInfo was found
+     * @return TypeInfo that is assignable from the specified type
      * @throws IllegalArgumentException if specified type is not supported
      */
-    private TypeInfo getTypeInfo(Class<?> type) {
-        for (Class<?> key : types.keySet())
-            if (key.isAssignableFrom(type)) return types.get(key);
-        throw new IllegalArgumentException(String.format("'%s' type is not supported as a PacketAttribute.", type.getSimpleName()));
+    private TypeInfo getTypeInfo(Type type) {
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            Class<?> raw = (Class<?>) parameterized.getRawType();
+            Type[] args = parameterized.getActualTypeArguments();
+            if (Collection.class.isAssignableFrom(raw))
+                return getCollectionTypeInfo(raw, getTypeInfo(args[0]));
+            if (Map.class.isAssignableFrom(raw))
+                return getMapTypeInfo(raw, getTypeInfo(args[0]), getTypeInfo(args[1]));
+            return getTypeInfo(raw);
+        }
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            TypeInfo typeInfo = this.types.get(clazz);
+            if (typeInfo != null) return typeInfo;
+            if (clazz.isEnum()) return getEnumTypeInfo(clazz);
+            if (!Collection.class.isAssignableFrom(clazz) && !Map.class.isAssignableFrom(clazz)) {
+                for (Class<?> key : this.types.keySet())
+                    if (key.isAssignableFrom(clazz)) return this.types.get(key);
+                if (isPacketClass(clazz)) return getObjectTypeInfo(clazz);
+            }
+        }
+        throw new IllegalArgumentException(String.format("'%s' type is not supported as a PacketAttribute.", type.getTypeName()));
     }
 
     /**
@@ -349,6 +823,7 @@ public class PacketParser {
      * @return true if type is supported, false otherwise.
      */
     public boolean checkType(Class<?> type) {
+        if (this.primitives.containsKey(type)) return true;
         try {
             return getTypeInfo(type) != null;
         } catch (IllegalArgumentException e) {
@@ -368,6 +843,52 @@ public class PacketParser {
         return packetType.value();
     }
 
+    /**
+     * Get Class' packet priority.
+     *
+     * @param clazz class to get packet priority from
+     * @return class' packet priority or NORMAL if no PacketType annotation was found.
+     */
+    public PacketPriority getPacketPriority(Class<?> clazz) {
+        PacketType packetType = clazz.getAnnotation(PacketType.class);
+        if (packetType == null) return PacketPriority.NORMAL;
+        return packetType.priority();
+    }
+
+    /**
+     * Get Class' packet type code.
+     *
+     * <p>Type codes are cached per Class so the annotation is only
+     * read and encoded once.</p>
+     *
+     * @param clazz class to get packet type code from
+     * @return class' packet type code or null if no PacketType annotation was found.
+     * @see Packet#typeCode(String)
+     */
+    public Integer getPacketTypeCode(Class<?> clazz) {
+        Integer code = this.typeCodes.get(clazz);
+        if (code != null) return code;
+        String type = getPacketType(clazz);
+        if (type == null) return null;
+        code = Packet.typeCode(type);
+        this.priorities.put(code, getPacketPriority(clazz));
+        this.typeCodes.put(clazz, code);
+        return code;
+    }
+
+    /**
+     * Get the packet priority of a type code.
+     *
+     * <p>Only the type codes of classes already passed to
+     * {@link #getPacketTypeCode(Class)} are known.</p>
+     *
+     * @param code packet type code
+     * @return type's packet priority or NORMAL if the type is unknown.
+     */
+    public PacketPriority getPacketPriority(int code) {
+        return this.priorities.getOrDefault(code, PacketPriority.NORMAL);
+    }
+
     /**
      * Get Object's packet type.
      *
@@ -381,16 +902,17 @@ public class PacketParser {
     /**
      * Get an ordered field list of all annotated fields in a class.
      *
-     * @param clazz class to get fields from
+     * @param clazz      class to get fields from
      * @param annotation annotation to check
      * @return ordered field list
      */
     public List<Field> getOrderedFieldsWithAnnotation(Class<?> clazz, Class<? extends Annotation> annotation) {
         List<Field> fields = new ArrayList<>();
         for (Field field : clazz.getDeclaredFields()) {
-            field.setAccessible(true);
-            if (field.isAnnotationPresent(annotation))
+            if (field.isAnnotationPresent(annotation)) {
+                field.setAccessible(true);
                 fields.add(field);
+            }
         }
         fields.sort(Comparator.comparing(Field::getName));
         return fields;
@@ -406,35 +928,43 @@ public class PacketParser {
      */
     public byte[] serialize(Object object) throws IllegalAccessException, IllegalArgumentException {
         if (object == null) return null;
-        int size = 0;
-        Class<?> clazz = object.getClass();
-        List<Field> fields = getOrderedFieldsWithAnnotation(clazz, PacketAttribute.class);
-        for (Field field : fields) {
-            field.setAccessible(true);
-            TypeInfo typeInfo = getTypeInfo(field.getType());
-            size += typeInfo.size(object, field);
-        }
-        ByteBuffer bb = ByteBuffer.allocate(size);
-        for (Field field : fields)
-            getTypeInfo(field.getType()).serialize(object, field, bb);
+        ClassInfo classInfo = getClassInfo(object.getClass());
+        ByteBuffer bb = ByteBuffer.allocate(classInfo.size(object));
+        classInfo.serialize(object, bb);
         return bb.array();
     }
 
     /**
      * Deserialize Object's annotated PacketAttribute fields from byte array.
      *
+     * <p>Empty data leaves the object untouched, so packets without
+     * attributes can be received by classes that added new ones.</p>
+     *
      * @param object Object to deserialize
      * @param data   Object's serialized data
      * @throws IllegalAccessException if setting a field fails
      */
     public void deserialize(Object object, byte[] data) throws IllegalAccessException {
-        if (object == null || data == null) return;
-        Class<?> clazz = object.getClass();
-        ByteBuffer bb = ByteBuffer.wrap(data);
-        List<Field> fields = getOrderedFieldsWithAnnotation(clazz, PacketAttribute.class);
-        for (Field field : fields) {
-            field.setAccessible(true);
-            getTypeInfo(field.getType()).deserialize(object, field, bb);
-        }
+        if (object == null || data == null || data.length == 0) return;
+        getClassInfo(object.getClass()).deserialize(object, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a new instance of a class and deserialize its annotated
+     * PacketAttribute fields from byte array.
+     *
+     * @param clazz class to instantiate
+     * @param data  Object's serialized data
+     * @param <T>   object type
+     * @return deserialized object
+     * @throws IllegalAccessException   if setting a field fails
+     * @throws IllegalArgumentException if the class cannot be instantiated
+     */
+    public <T> T deserialize(Class<T> clazz, byte[] data) throws IllegalAccessException, IllegalArgumentException {
+        ClassInfo classInfo = getClassInfo(clazz);
+        T object = clazz.cast(classInfo.newInstance());
+        if (data != null && data.length > 0)
+            classInfo.deserialize(object, ByteBuffer.wrap(data));
+        return object;
     }
 }
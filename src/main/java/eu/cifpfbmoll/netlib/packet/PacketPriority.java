@@ -0,0 +1,17 @@
+package eu.cifpfbmoll.netlib.packet;
+
+/**
+ * Priority lanes used to queue and dispatch Packets.
+ *
+ * <p>Packets on a lane are always written and handled before the Packets
+ * waiting on any lane after it. CONTROL is reserved for the internal
+ * packets that keep connections alive and is never dropped.</p>
+ *
+ * @see eu.cifpfbmoll.netlib.annotation.PacketType#priority()
+ */
+public enum PacketPriority {
+    CONTROL,
+    HIGH,
+    NORMAL,
+    LOW
+}
@@ -0,0 +1,16 @@
+package eu.cifpfbmoll.netlib.packet;
+
+/**
+ * Functional Interface to define how to answer a request of a specific Packet type.
+ *
+ * <p>The returned object is sent back to the requesting node as the response.
+ * A {@link java.util.concurrent.CompletionStage} can be returned to respond
+ * once it completes, and null sends no response at all.</p>
+ *
+ * @see Packet
+ * @see PacketHandler
+ */
+@FunctionalInterface
+public interface RequestHandler<T> {
+    Object handle(int id, T request);
+}
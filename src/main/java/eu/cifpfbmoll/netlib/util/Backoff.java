@@ -0,0 +1,50 @@
+package eu.cifpfbmoll.netlib.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter for retrying failed operations.
+ *
+ * <p>Every delay doubles the previous one up to a maximum. Each delay is
+ * randomized between half and all of its value, so peers that failed at
+ * the same time do not retry in lockstep.</p>
+ */
+public class Backoff {
+    private final long minDelay;
+    private final long maxDelay;
+    private long delay;
+
+    /**
+     * Create a Backoff.
+     *
+     * @param minDelay first delay
+     * @param maxDelay maximum delay
+     * @throws IllegalArgumentException if minDelay is lower than 1 or greater than maxDelay
+     */
+    public Backoff(long minDelay, long maxDelay) throws IllegalArgumentException {
+        if (minDelay < 1 || minDelay > maxDelay)
+            throw new IllegalArgumentException(String.format("Invalid backoff delays: %d, %d", minDelay, maxDelay));
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.delay = minDelay;
+    }
+
+    /**
+     * Get the next delay and double the one after it.
+     *
+     * @return delay to wait before retrying
+     */
+    public synchronized long next() {
+        long delay = this.delay;
+        this.delay = Math.min(this.maxDelay, this.delay * 2);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    /**
+     * Start again from the first delay, after an operation succeeded.
+     */
+    public synchronized void reset() {
+        this.delay = this.minDelay;
+    }
+}
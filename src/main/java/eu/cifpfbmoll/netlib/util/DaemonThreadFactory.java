@@ -0,0 +1,29 @@
+package eu.cifpfbmoll.netlib.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Create named daemon threads, so that pools owned by the library
+ * never keep the application running.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger(0);
+    private final String name;
+
+    /**
+     * Create a new DaemonThreadFactory.
+     *
+     * @param name base name for the created threads
+     */
+    public DaemonThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, String.format("%s-%d", this.name, this.count.incrementAndGet()));
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,134 @@
+package eu.cifpfbmoll.netlib.util;
+
+import java.util.Arrays;
+
+/**
+ * Time-windowed set remembering recently seen keys.
+ *
+ * <p>Keys are added to the current generation of the set, and both the
+ * current and the previous generation are checked. The current generation
+ * becomes the previous one once the window elapses or it holds as many
+ * keys as its capacity, so memory stays bounded.</p>
+ *
+ * <p>Keys are stored exactly, so a new key is never reported as seen. A
+ * seen key is remembered for at least one window unless more than the
+ * capacity of a generation is added within it, in which case the oldest
+ * keys are forgotten early and can be reported as new again.</p>
+ */
+public class DuplicateFilter {
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+    public static final long DEFAULT_WINDOW = 30000;
+    private final int capacity;
+    private final long window;
+    private Generation current;
+    private Generation previous;
+    private long rotated;
+
+    /**
+     * Create a DuplicateFilter with the default capacity and window.
+     */
+    public DuplicateFilter() {
+        this(DEFAULT_CAPACITY, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Create a DuplicateFilter.
+     *
+     * @param capacity keys per generation
+     * @param window   milliseconds after which the current generation is rotated
+     * @throws IllegalArgumentException if capacity or window are not positive
+     */
+    public DuplicateFilter(int capacity, long window) throws IllegalArgumentException {
+        if (capacity <= 0 || capacity > 1 << 29 || window <= 0)
+            throw new IllegalArgumentException(String.format("Invalid filter capacity or window: %d keys, %d ms", capacity, window));
+        this.capacity = capacity;
+        this.window = window * 1000000L;
+        this.current = new Generation(capacity);
+        this.previous = new Generation(capacity);
+        this.rotated = System.nanoTime();
+    }
+
+    /**
+     * Add a key to the filter.
+     *
+     * @param key key to add
+     * @return true if the key was not seen within the window, false if it is a duplicate
+     */
+    public synchronized boolean add(long key) {
+        long now = System.nanoTime();
+        if (now - this.rotated >= this.window || this.current.count >= this.capacity) {
+            Generation tmp = this.previous;
+            this.previous = this.current;
+            this.current = tmp;
+            this.current.clear();
+            this.rotated = now;
+        }
+        if (this.previous.contains(key)) return false;
+        return this.current.add(key);
+    }
+
+    /**
+     * Get the number of keys currently remembered.
+     *
+     * @return keys in both generations
+     */
+    public synchronized int size() {
+        return this.current.count + this.previous.count;
+    }
+
+    /**
+     * Open addressing hash set of longs, sized to stay at most half full.
+     */
+    private static final class Generation {
+        private final long[] keys;
+        private final int mask;
+        private boolean zero = false;
+        private int count = 0;
+
+        Generation(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 2;
+            this.keys = new long[size];
+            this.mask = size - 1;
+        }
+
+        boolean contains(long key) {
+            if (key == 0) return this.zero;
+            for (int i = mix(key) & this.mask; this.keys[i] != 0; i = (i + 1) & this.mask)
+                if (this.keys[i] == key) return true;
+            return false;
+        }
+
+        boolean add(long key) {
+            if (key == 0) {
+                if (this.zero) return false;
+                this.zero = true;
+                this.count++;
+                return true;
+            }
+            int i = mix(key) & this.mask;
+            for (; this.keys[i] != 0; i = (i + 1) & this.mask)
+                if (this.keys[i] == key) return false;
+            this.keys[i] = key;
+            this.count++;
+            return true;
+        }
+
+        void clear() {
+            Arrays.fill(this.keys, 0L);
+            this.zero = false;
+            this.count = 0;
+        }
+    }
+
+    /**
+     * Spread the bits of a key (MurmurHash3 finalizer).
+     */
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
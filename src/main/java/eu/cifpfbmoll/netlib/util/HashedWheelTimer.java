@@ -0,0 +1,267 @@
+package eu.cifpfbmoll.netlib.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run tasks after a delay using a single thread and a hashed wheel.
+ *
+ * <p>Timeouts are hashed into the bucket of the tick they expire on, so
+ * scheduling and cancelling a task take constant time no matter how many
+ * tasks are pending. The price is precision: tasks run on the first tick
+ * after their deadline, never before it.</p>
+ *
+ * <p>Tasks run on the timer's thread one after another, so they must be
+ * short. Tasks that block should hand their work to an Executor.</p>
+ */
+public class HashedWheelTimer {
+    private static final Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+    public static final int DEFAULT_TICK = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    private static final int MAX_TRANSFERS = 100000;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tick;
+    private final long startTime;
+    private final Thread worker;
+    private volatile boolean run = true;
+    private long ticks = 0;
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task if it did not run yet.
+         *
+         * @return true if the task was cancelled, false if it already ran or was cancelled
+         */
+        public boolean cancel() {
+            if (!this.state.compareAndSet(WAITING, CANCELLED)) return false;
+            cancelled.add(this);
+            return true;
+        }
+
+        /**
+         * Check if the task was cancelled.
+         *
+         * @return true if the task was cancelled
+         */
+        public boolean isCancelled() {
+            return this.state.get() == CANCELLED;
+        }
+
+        /**
+         * Check if the task ran or is running.
+         *
+         * @return true if the deadline passed and the task ran
+         */
+        public boolean isExpired() {
+            return this.state.get() == EXPIRED;
+        }
+
+        private void expire() {
+            if (!this.state.compareAndSet(WAITING, EXPIRED)) return;
+            try {
+                this.task.run();
+            } catch (Throwable e) {
+                log.error("timer task failed: ", e);
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the Timeouts that expire on the same tick.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (this.head == null) {
+                this.head = this.tail = timeout;
+            } else {
+                this.tail.next = timeout;
+                timeout.prev = this.tail;
+                this.tail = timeout;
+            }
+        }
+
+        private Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) timeout.prev.next = next;
+            if (timeout.next != null) timeout.next.prev = timeout.prev;
+            if (timeout == this.head) this.head = next;
+            if (timeout == this.tail) this.tail = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+    }
+
+    /**
+     * Create a HashedWheelTimer with the default tick and wheel size.
+     *
+     * @param threadFactory factory for the timer's thread
+     */
+    public HashedWheelTimer(ThreadFactory threadFactory) {
+        this(threadFactory, DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Create a HashedWheelTimer and start its thread.
+     *
+     * <p>Shorter ticks make tasks run closer to their deadline, bigger
+     * wheels make long delays cheaper. The wheel size is rounded up to
+     * a power of two.</p>
+     *
+     * @param threadFactory factory for the timer's thread
+     * @param tick          duration of a tick in milliseconds
+     * @param wheelSize     number of buckets in the wheel
+     * @throws IllegalArgumentException if tick or wheel size are lower than 1
+     */
+    public HashedWheelTimer(ThreadFactory threadFactory, int tick, int wheelSize) throws IllegalArgumentException {
+        if (tick < 1 || wheelSize < 1 || wheelSize > 1 << 30)
+            throw new IllegalArgumentException(String.format("Invalid timer tick or wheel size: %d, %d", tick, wheelSize));
+        int buckets = 1;
+        while (buckets < wheelSize) buckets <<= 1;
+        this.wheel = new Bucket[buckets];
+        for (int i = 0; i < buckets; i++) this.wheel[i] = new Bucket();
+        this.mask = buckets - 1;
+        this.tick = TimeUnit.MILLISECONDS.toNanos(tick);
+        this.startTime = System.nanoTime();
+        this.worker = threadFactory.newThread(this::work);
+        this.worker.start();
+    }
+
+    /**
+     * Run a task once after a delay.
+     *
+     * @param task  task to run on the timer's thread
+     * @param delay time to wait before running the task
+     * @param unit  unit of the delay
+     * @return handle to cancel the task
+     * @throws NullPointerException  if task or unit are null
+     * @throws IllegalStateException if the timer was stopped
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) throws NullPointerException, IllegalStateException {
+        if (task == null || unit == null)
+            throw new NullPointerException("Task and time unit cannot be null.");
+        if (!this.run)
+            throw new IllegalStateException("Timer was stopped.");
+        Timeout timeout = new Timeout(task, System.nanoTime() - this.startTime + Math.max(0, unit.toNanos(delay)));
+        this.size.incrementAndGet();
+        this.pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Get the number of tasks waiting to run.
+     *
+     * @return pending tasks
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Stop the timer, tasks that did not run yet never will.
+     */
+    public void stop() {
+        this.run = false;
+        this.worker.interrupt();
+    }
+
+    /**
+     * Advance the wheel one tick at a time and run the tasks that expire.
+     */
+    private void work() {
+        while (this.run) {
+            long deadline = this.tick * (this.ticks + 1);
+            long wait = deadline - (System.nanoTime() - this.startTime);
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            removeCancelled();
+            transferPending();
+            expire(this.wheel[(int) (this.ticks & this.mask)], deadline);
+            this.ticks++;
+        }
+    }
+
+    /**
+     * Unlink the Timeouts cancelled since the last tick.
+     */
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = this.cancelled.poll()) != null) {
+            if (timeout.bucket != null) timeout.bucket.remove(timeout);
+            this.size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Hash the Timeouts scheduled since the last tick into their buckets.
+     */
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS; i++) {
+            Timeout timeout = this.pending.poll();
+            if (timeout == null) return;
+            if (timeout.isCancelled()) continue;
+            long expiry = timeout.deadline / this.tick;
+            timeout.rounds = (expiry - this.ticks) / this.wheel.length;
+            this.wheel[(int) (Math.max(expiry, this.ticks) & this.mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Run the tasks of a bucket whose deadline passed.
+     */
+    private void expire(Bucket bucket, long deadline) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            if (timeout.rounds <= 0 && timeout.deadline <= deadline) {
+                Timeout next = bucket.remove(timeout);
+                if (!timeout.isCancelled()) {
+                    this.size.decrementAndGet();
+                    timeout.expire();
+                }
+                timeout = next;
+            } else {
+                timeout.rounds--;
+                timeout = timeout.next;
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package eu.cifpfbmoll.netlib.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Append-only log of byte frames stored in memory-mapped segment files.
+ *
+ * <p>Frames are appended to the last segment and read back in order from
+ * a cursor. Every segment file is named after the log offset of its first
+ * byte, and a new one is started when a frame does not fit in the last
+ * one. Each frame is written as its length followed by its bytes, and the
+ * length goes last, so a frame torn by a crash reads as the end of the log.</p>
+ *
+ * <p>Frames are read from a position kept in memory, and stay in the log
+ * until they are committed. The committed cursor is stored in its own
+ * mapped file, so after a restart reading starts again from the first
+ * frame that was not committed. Segments that were committed entirely are
+ * deleted, and appends fail once the segments take the maximum size on
+ * disk.</p>
+ */
+public class SegmentLog implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 4 << 20;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_FILE = "cursor";
+    private static final int FRAME_HEADER_SIZE = 4;
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final FileChannel cursorChannel;
+    private final MappedByteBuffer cursor;
+    private long writeOffset;
+    private long readOffset;
+    private long commitOffset;
+    private boolean closed = false;
+
+    /**
+     * Mapped segment file.
+     */
+    private static final class Segment {
+        private final long base;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long base, Path file, int size) throws IOException {
+            this.base = base;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        /**
+         * Get the length of the frame at a position.
+         *
+         * @return frame length or 0 if there is no valid frame
+         */
+        private int frameAt(int position) {
+            if (position + FRAME_HEADER_SIZE > this.buffer.capacity()) return 0;
+            int length = this.buffer.getInt(position);
+            if (length <= 0 || length > this.buffer.capacity() - position - FRAME_HEADER_SIZE) return 0;
+            return length;
+        }
+    }
+
+    /**
+     * Open a SegmentLog, creating it if the directory is empty.
+     *
+     * @param directory   directory holding the segments and the cursor
+     * @param segmentSize bytes per segment file
+     * @param maxBytes    maximum bytes taken by the segments
+     * @throws IOException              if the log could not be opened
+     * @throws IllegalArgumentException if a segment cannot hold a frame, or maxBytes cannot hold a segment
+     */
+    public SegmentLog(Path directory, int segmentSize, long maxBytes) throws IOException, IllegalArgumentException {
+        if (segmentSize <= FRAME_HEADER_SIZE || maxBytes < segmentSize)
+            throw new IllegalArgumentException(String.format("Invalid log sizes: %d bytes per segment, %d bytes max", segmentSize, maxBytes));
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    this.segments.put(base, new Segment(base, file, (int) Files.size(file)));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        this.cursorChannel = FileChannel.open(directory.resolve(CURSOR_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.cursor = this.cursorChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+        this.readOffset = this.cursor.getLong(0);
+        if (this.segments.isEmpty()) {
+            this.writeOffset = this.readOffset;
+        } else {
+            Segment last = this.segments.lastEntry().getValue();
+            int position = 0;
+            for (int length; (length = last.frameAt(position)) > 0; )
+                position += FRAME_HEADER_SIZE + length;
+            this.writeOffset = last.base + position;
+            this.readOffset = Math.min(Math.max(this.readOffset, this.segments.firstKey()), this.writeOffset);
+        }
+        this.commitOffset = this.readOffset;
+    }
+
+    /**
+     * Append a frame to the log.
+     *
+     * @param frame bytes to append
+     * @return true if the frame was appended, false if the log is full
+     * @throws IOException              if a new segment could not be created
+     * @throws IllegalArgumentException if the frame is empty or does not fit in a segment
+     */
+    public synchronized boolean append(byte[] frame) throws IOException, IllegalArgumentException {
+        checkOpen();
+        if (frame.length == 0 || frame.length > this.segmentSize - FRAME_HEADER_SIZE)
+            throw new IllegalArgumentException(String.format("Invalid frame size: %d bytes", frame.length));
+        Segment segment = this.segments.isEmpty() ? null : this.segments.lastEntry().getValue();
+        int position = segment == null ? 0 : (int) (this.writeOffset - segment.base);
+        if (segment == null || position + FRAME_HEADER_SIZE + frame.length > segment.buffer.capacity()) {
+            compact();
+            if ((long) (this.segments.size() + 1) * this.segmentSize > this.maxBytes) return false;
+            Segment empty = this.segments.remove(this.writeOffset);
+            if (empty != null) empty.channel.close();
+            segment = new Segment(this.writeOffset, this.directory.resolve(String.format("%020d%s", this.writeOffset, SEGMENT_SUFFIX)), this.segmentSize);
+            this.segments.put(segment.base, segment);
+            position = 0;
+        }
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(position + FRAME_HEADER_SIZE);
+        buffer.put(frame);
+        segment.buffer.putInt(position, frame.length);
+        this.writeOffset += FRAME_HEADER_SIZE + frame.length;
+        return true;
+    }
+
+    /**
+     * Read the frame at the read position without moving it.
+     *
+     * @return frame bytes or null if every frame was read
+     */
+    public synchronized byte[] peek() {
+        if (this.closed) return null;
+        Segment segment = position();
+        if (segment == null) return null;
+        int position = (int) (this.readOffset - segment.base);
+        byte[] frame = new byte[segment.frameAt(position)];
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(position + FRAME_HEADER_SIZE);
+        buffer.get(frame);
+        return frame;
+    }
+
+    /**
+     * Move the read position past the frame returned by {@link SegmentLog#peek()}.
+     *
+     * <p>The frame stays in the log until it is committed.</p>
+     *
+     * @return log offset after the frame, or -1 if every frame was read
+     */
+    public synchronized long advance() {
+        if (this.closed) return -1;
+        Segment segment = position();
+        if (segment == null) return -1;
+        this.readOffset += FRAME_HEADER_SIZE + segment.frameAt((int) (this.readOffset - segment.base));
+        return this.readOffset;
+    }
+
+    /**
+     * Get the read position, the log offset of the frame returned by {@link SegmentLog#peek()}.
+     *
+     * @return read position
+     */
+    public synchronized long getPosition() {
+        position();
+        return this.readOffset;
+    }
+
+    /**
+     * Remove every frame before a log offset, storing the cursor.
+     *
+     * <p>Offsets past the read position commit up to the read position,
+     * and offsets before the committed cursor are ignored.</p>
+     *
+     * @param offset log offset returned by {@link SegmentLog#advance()}
+     */
+    public synchronized void commit(long offset) {
+        if (this.closed) return;
+        offset = Math.min(offset, this.readOffset);
+        if (offset <= this.commitOffset) return;
+        Map.Entry<Long, Segment> entry = this.segments.floorEntry(offset);
+        Long next = this.segments.higherKey(offset);
+        if (entry != null && next != null && entry.getValue().frameAt((int) (offset - entry.getKey())) == 0)
+            offset = Math.min(next, this.readOffset);
+        this.commitOffset = offset;
+        this.cursor.putLong(0, offset);
+    }
+
+    /**
+     * Move the read position back to the committed cursor, to read again
+     * the frames that were not committed.
+     */
+    public synchronized void rewind() {
+        this.readOffset = this.commitOffset;
+    }
+
+    /**
+     * Get the bytes waiting to be committed.
+     *
+     * @return bytes after the committed cursor, frame lengths included
+     */
+    public synchronized long size() {
+        return this.writeOffset - this.commitOffset;
+    }
+
+    /**
+     * Check if every frame was committed.
+     *
+     * @return true if there is nothing after the committed cursor
+     */
+    public synchronized boolean isEmpty() {
+        return this.writeOffset == this.commitOffset;
+    }
+
+    /**
+     * Check if every frame was read.
+     *
+     * @return true if there is nothing after the read position
+     */
+    public synchronized boolean isRead() {
+        return this.writeOffset == this.readOffset;
+    }
+
+    /**
+     * Delete the segments that were committed entirely.
+     *
+     * <p>The last segment is kept to append to it.</p>
+     *
+     * @return number of deleted segments
+     * @throws IOException if a segment could not be deleted
+     */
+    public synchronized int compact() throws IOException {
+        int deleted = 0;
+        Iterator<Map.Entry<Long, Segment>> iterator = this.segments.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next().getValue();
+            Long next = this.segments.higherKey(segment.base);
+            if (next == null || next > this.commitOffset) break;
+            iterator.remove();
+            segment.channel.close();
+            Files.deleteIfExists(segment.file);
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Write every change to the storage device.
+     */
+    public synchronized void flush() {
+        if (this.closed) return;
+        for (Segment segment : this.segments.values())
+            segment.buffer.force();
+        this.cursor.force();
+    }
+
+    /**
+     * Close the segment files and drop the mapped segments, which are
+     * unmapped once they are garbage collected.
+     *
+     * @throws IOException if a file could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) return;
+        this.closed = true;
+        for (Segment segment : this.segments.values())
+            segment.channel.close();
+        this.segments.clear();
+        this.cursorChannel.close();
+    }
+
+    /**
+     * Move the cursor to the next frame, skipping the unused end of a segment.
+     *
+     * @return segment holding the frame at the cursor or null if every frame was read
+     */
+    private Segment position() {
+        while (this.readOffset < this.writeOffset) {
+            Map.Entry<Long, Segment> entry = this.segments.floorEntry(this.readOffset);
+            if (entry == null) return null;
+            Segment segment = entry.getValue();
+            if (segment.frameAt((int) (this.readOffset - segment.base)) > 0) return segment;
+            Long next = this.segments.higherKey(segment.base);
+            if (next == null) return null;
+            this.readOffset = next;
+        }
+        return null;
+    }
+
+    private void checkOpen() throws IOException {
+        if (this.closed)
+            throw new IOException(String.format("Log %s is closed.", this.directory));
+    }
+}
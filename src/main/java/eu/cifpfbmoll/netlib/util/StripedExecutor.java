@@ -0,0 +1,148 @@
+package eu.cifpfbmoll.netlib.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Run tasks on a shared Executor while keeping the order of tasks with the same key.
+ *
+ * <p>Keys are mapped to a fixed number of stripes. Each stripe runs its tasks
+ * one after another, so two tasks with the same key never run concurrently
+ * and always run in submission order, while tasks on different stripes
+ * run in parallel on the underlying Executor.</p>
+ */
+public class StripedExecutor {
+    private static final Logger log = LoggerFactory.getLogger(StripedExecutor.class);
+    public static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * Run tasks one at a time and in order on an underlying Executor.
+     */
+    private static final class SerialExecutor implements Executor, Runnable {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private final Executor executor;
+        private boolean active = false;
+
+        private SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        private synchronized int pending() {
+            return this.tasks.size() + (this.active ? 1 : 0);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (this) {
+                this.tasks.add(task);
+                if (this.active) return;
+                this.active = true;
+            }
+            try {
+                this.executor.execute(this);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    this.tasks.clear();
+                    this.active = false;
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean drained = false;
+            try {
+                while (true) {
+                    Runnable task;
+                    synchronized (this) {
+                        task = this.tasks.poll();
+                        if (task == null) {
+                            this.active = false;
+                            drained = true;
+                            return;
+                        }
+                    }
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        log.error("StripedExecutor task failed: ", e);
+                    }
+                }
+            } finally {
+                if (!drained) resume();
+            }
+        }
+
+        /**
+         * Keep running the queued tasks after a task threw an Error.
+         */
+        private void resume() {
+            synchronized (this) {
+                this.active = !this.tasks.isEmpty();
+                if (!this.active) return;
+            }
+            try {
+                this.executor.execute(this);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    this.tasks.clear();
+                    this.active = false;
+                }
+            }
+        }
+    }
+
+    private final SerialExecutor[] stripes;
+
+    /**
+     * Create a StripedExecutor with the default number of stripes.
+     *
+     * @param executor executor used to run the tasks
+     */
+    public StripedExecutor(Executor executor) {
+        this(executor, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Create a StripedExecutor.
+     *
+     * @param executor executor used to run the tasks
+     * @param stripes  number of stripes
+     */
+    public StripedExecutor(Executor executor, int stripes) {
+        if (executor == null)
+            throw new NullPointerException("Executor cannot be null.");
+        if (stripes <= 0)
+            throw new IllegalArgumentException("Number of stripes must be positive.");
+        this.stripes = new SerialExecutor[stripes];
+        for (int i = 0; i < stripes; i++)
+            this.stripes[i] = new SerialExecutor(executor);
+    }
+
+    /**
+     * Execute a task after every previously submitted task with the same key.
+     *
+     * @param key  ordering key
+     * @param task task to run
+     */
+    public void execute(int key, Runnable task) {
+        this.stripes[Math.floorMod(key, this.stripes.length)].execute(task);
+    }
+
+    /**
+     * Get the number of tasks waiting on the stripe of a key.
+     *
+     * <p>Tasks of other keys sharing the stripe are counted too.</p>
+     *
+     * @param key ordering key
+     * @return queued tasks, plus the one running
+     */
+    public int pending(int key) {
+        return this.stripes[Math.floorMod(key, this.stripes.length)].pending();
+    }
+}
@@ -53,6 +53,13 @@ public abstract class Threaded implements Runnable {
         this.paused = false;
     }
 
+    /**
+     * Sleep the calling thread.
+     *
+     * @param delay time to sleep in milliseconds
+     * @deprecated schedule delayed work on {@link HashedWheelTimer} instead
+     */
+    @Deprecated
     public void sleep(int delay) {
         try {
             this.thread.sleep(delay);
@@ -0,0 +1,69 @@
+package eu.cifpfbmoll.netlib.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+    @Test
+    void emptyHistogram() {
+        Histogram.Snapshot snapshot = new Histogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMean());
+        assertEquals(0, snapshot.getPercentile(0.99));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        for (long value = 0; value < Histogram.SUB_BUCKETS; value++) {
+            Histogram histogram = new Histogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE);
+            assertEquals(value, histogram.snapshot().getPercentile(0.5));
+        }
+    }
+
+    @Test
+    void bucketBoundsHoldTheValue() {
+        for (int shift = 0; shift < 62; shift++) {
+            for (long value : new long[]{1L << shift, (1L << shift) + 1, (3L << shift) - 1, (1L << (shift + 1)) - 1}) {
+                Histogram histogram = new Histogram();
+                histogram.record(value);
+                histogram.record(Long.MAX_VALUE);
+                long bound = histogram.snapshot().getPercentile(0.5);
+                assertTrue(bound >= value, String.format("bound %d below value %d", bound, value));
+                assertTrue(bound - value <= value / 4, String.format("bound %d too far from value %d", bound, value));
+            }
+        }
+    }
+
+    @Test
+    void percentilesAreCappedByTheMaximum() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getPercentile(1));
+        assertEquals(1000, snapshot.getMax());
+    }
+
+    @Test
+    void recordsCountSumAndPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) histogram.record(i);
+        histogram.record(-5);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(101, snapshot.getCount());
+        assertEquals(5050, snapshot.getSum());
+        assertEquals(100, snapshot.getMax());
+        assertEquals(50, snapshot.getMean(), 0.01);
+        long p50 = snapshot.getPercentile(0.5);
+        assertTrue(p50 >= 50 && p50 <= 63, "p50 " + p50);
+        assertEquals(Long.MAX_VALUE, record(Long.MAX_VALUE).getPercentile(0.99));
+    }
+
+    private static Histogram.Snapshot record(long value) {
+        Histogram histogram = new Histogram();
+        histogram.record(value);
+        return histogram.snapshot();
+    }
+}
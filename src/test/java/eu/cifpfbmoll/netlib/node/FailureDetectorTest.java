@@ -0,0 +1,53 @@
+package eu.cifpfbmoll.netlib.node;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FailureDetectorTest {
+    private static final double THRESHOLD = FailureDetector.DEFAULT_THRESHOLD;
+
+    private static FailureDetector busy() throws InterruptedException {
+        FailureDetector detector = new FailureDetector(100, 1);
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(5);
+            detector.heartbeat();
+        }
+        return detector;
+    }
+
+    @Test
+    void rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new FailureDetector(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new FailureDetector(1, 0));
+    }
+
+    @Test
+    void freshHeartbeatIsNotSuspected() throws InterruptedException {
+        assertTrue(busy().phi(1000, 50) < 1);
+    }
+
+    @Test
+    void busyLinkIsSuspectedSoonerThanTheProbeInterval() throws InterruptedException {
+        FailureDetector detector = busy();
+        Thread.sleep(300);
+        assertTrue(detector.phi(1000, 50) > THRESHOLD, "the learned intervals must not be replaced by the probe interval");
+    }
+
+    @Test
+    void linkWithoutHistoryWaitsForTheProbeInterval() throws InterruptedException {
+        FailureDetector detector = new FailureDetector(100, 1);
+        Thread.sleep(300);
+        assertTrue(detector.phi(1000, 50) < 1);
+        assertTrue(detector.idle() >= 300);
+    }
+
+    @Test
+    void acceptablePauseToleratesSilence() throws InterruptedException {
+        FailureDetector detector = busy();
+        Thread.sleep(300);
+        assertTrue(detector.phi(1000, 1000) < 1);
+        detector.heartbeat();
+        assertTrue(detector.idle() < 100);
+    }
+}
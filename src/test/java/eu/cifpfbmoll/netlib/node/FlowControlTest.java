@@ -0,0 +1,88 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowControlTest {
+    private static Packet packet(String type) {
+        return Packet.create(type, 1, 2, new byte[0]);
+    }
+
+    @Test
+    void queueIsUnlimitedUntilTheFirstGrant() {
+        OutboundQueue queue = new OutboundQueue(8);
+        assertEquals(-1, queue.getCredits());
+        for (int i = 0; i < 3; i++)
+            assertTrue(queue.offer(packet("DATA"), PacketPriority.NORMAL));
+        for (int i = 0; i < 3; i++)
+            assertNotNull(queue.poll());
+    }
+
+    @Test
+    void dataWaitsForCredits() {
+        OutboundQueue queue = new OutboundQueue(8);
+        queue.grant(1);
+        assertEquals(1, queue.getCredits());
+        queue.offer(packet("DAT1"), PacketPriority.NORMAL);
+        queue.offer(packet("DAT2"), PacketPriority.NORMAL);
+        assertEquals("DAT1", queue.poll().getType());
+        assertNull(queue.poll());
+        assertEquals(0, queue.getCredits());
+        queue.grant(1);
+        assertNull(queue.poll(), "lower grants are ignored");
+        queue.grant(2);
+        assertEquals("DAT2", queue.poll().getType());
+    }
+
+    @Test
+    void controlPacketsAreCountedButNeverHeld() {
+        OutboundQueue queue = new OutboundQueue(8);
+        queue.grant(1);
+        queue.offer(packet("CTL1"), PacketPriority.CONTROL);
+        queue.offer(packet("CTL2"), PacketPriority.CONTROL);
+        queue.offer(packet("DATA"), PacketPriority.NORMAL);
+        assertEquals("CTL1", queue.poll().getType());
+        assertEquals("CTL2", queue.poll().getType());
+        assertNull(queue.poll());
+        queue.grant(2);
+        assertNull(queue.poll(), "control Packets used the credits");
+        queue.grant(3);
+        assertEquals("DATA", queue.poll().getType());
+    }
+
+    @Test
+    void rejectsInvalidWindows() {
+        assertThrows(IllegalArgumentException.class, () -> new FlowControl(null, 0));
+    }
+
+    @Test
+    void bothEndsAgreeOnTheCreditsOfAnAcceptedConnection() throws InterruptedException {
+        NodeManager server = new NodeManager(1, "127.0.0.1", true, 0);
+        NodeManager client = new NodeManager(2, "127.0.0.1", false, 0);
+        try {
+            client.addNode(1, "127.0.0.1", server.getPort());
+            NodeConnection outbound = client.connect(1);
+            assertNotNull(outbound);
+            long deadline = System.currentTimeMillis() + 5000;
+            long credits = -1;
+            long expected = -2;
+            while (System.currentTimeMillis() < deadline) {
+                NodeConnection inbound = server.nodeConnectionById(2);
+                if (inbound != null) {
+                    FlowControl flowControl = inbound.getFlowControl();
+                    credits = outbound.getOutboundQueue().getCredits();
+                    expected = flowControl.getAdvertised() - flowControl.getReceived();
+                    if (credits == expected) break;
+                }
+                Thread.sleep(10);
+            }
+            assertEquals(expected, credits, "the hello is counted on both ends");
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+}
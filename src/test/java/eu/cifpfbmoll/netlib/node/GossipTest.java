@@ -0,0 +1,99 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GossipTest {
+    @PacketType(value = "TGSP", priority = PacketPriority.HIGH)
+    public static class Message {
+        @PacketAttribute
+        public int value;
+    }
+
+    private static List<Integer> record(NodeManager manager) {
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+        manager.getPacketManager().add(Message.class, (id, message) -> handled.add(message.value));
+        return handled;
+    }
+
+    private static void link(NodeManager from, NodeManager to) throws InterruptedException {
+        from.addNode(to.getId(), "127.0.0.1", to.getPort());
+        assertNotNull(from.connect(to.getId()));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!to.isConnected(from.getId()) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(to.isConnected(from.getId()));
+    }
+
+    private static void await(List<Integer> handled, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handled.size() < size && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+    }
+
+    @Test
+    void broadcastsReachEveryNodeOnce() throws InterruptedException {
+        NodeManager a = new NodeManager(1, "127.0.0.1", true, 0);
+        NodeManager b = new NodeManager(2, "127.0.0.1", true, 0);
+        NodeManager c = new NodeManager(3, "127.0.0.1", true, 0);
+        try {
+            List<Integer> onA = record(a);
+            List<Integer> onB = record(b);
+            List<Integer> onC = record(c);
+            link(b, a);
+            link(c, b);
+            link(c, a);
+            Message message = new Message();
+            message.value = 7;
+            assertEquals(2, a.gossip(message));
+            await(onB, 1);
+            await(onC, 1);
+            Thread.sleep(300);
+            assertTrue(onA.isEmpty(), "the sender does not handle its own broadcast");
+            assertEquals(1, onB.size());
+            assertEquals(1, onC.size());
+            assertEquals(7, onC.get(0));
+        } finally {
+            a.close();
+            b.close();
+            c.close();
+        }
+    }
+
+    @Test
+    void relayDropsExpiredBroadcasts() {
+        NodeManager manager = new NodeManager(1, "127.0.0.1", false, 0);
+        try {
+            Packet packet = Packet.create("TGSP", 2, 0, new byte[0]);
+            packet.setBroadcast();
+            packet.setTTL((byte) 1);
+            assertFalse(manager.relay(packet));
+            assertEquals(1, manager.getMetrics().getExpired());
+            assertArrayEquals(new Integer[]{2, 1}, packet.getResenderIds());
+            packet.setTTL((byte) 2);
+            assertTrue(manager.relay(packet), "broadcasts are relayed while their TTL lasts");
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    void rejectsInvalidGossipSettings() {
+        NodeManager manager = new NodeManager(1, "127.0.0.1", false, 0);
+        try {
+            assertThrows(IllegalArgumentException.class, () -> manager.setGossip(0, 1));
+            assertThrows(IllegalArgumentException.class, () -> manager.setGossip(1, 0));
+            manager.setGossip(1, 1);
+        } finally {
+            manager.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package eu.cifpfbmoll.netlib.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+    private static final int KEYS = 10000;
+
+    private static HashRing ring(Integer... ids) {
+        HashRing ring = new HashRing();
+        for (Integer id : ids) ring.add(id);
+        return ring;
+    }
+
+    @Test
+    void emptyRingHasNoOwner() {
+        HashRing ring = new HashRing();
+        assertNull(ring.getOwner("room"));
+        assertTrue(ring.getOwners("room", 3).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new HashRing(0));
+    }
+
+    @Test
+    void membership() {
+        HashRing ring = new HashRing();
+        assertTrue(ring.add(1));
+        assertFalse(ring.add(1));
+        assertFalse(ring.add(null));
+        assertTrue(ring.contains(1));
+        assertEquals(1, ring.getOwner("room"));
+        assertTrue(ring.remove(1));
+        assertFalse(ring.remove(1));
+        assertNull(ring.getOwner("room"));
+    }
+
+    @Test
+    void ownersDoNotDependOnInsertionOrder() {
+        HashRing a = ring(1, 2, 3, 4);
+        HashRing b = ring(4, 3, 2, 1);
+        for (int i = 0; i < KEYS; i++)
+            assertEquals(a.getOwner("key" + i), b.getOwner("key" + i));
+    }
+
+    @Test
+    void removingANodeOnlyMovesItsKeys() {
+        HashRing before = ring(1, 2, 3, 4, 5);
+        HashRing after = ring(1, 2, 3, 4, 5);
+        after.remove(3);
+        for (int i = 0; i < KEYS; i++) {
+            Integer owner = before.getOwner("key" + i);
+            if (owner != 3) assertEquals(owner, after.getOwner("key" + i));
+            else assertNotEquals(3, after.getOwner("key" + i));
+        }
+    }
+
+    @Test
+    void keysAreSpreadOverEveryNode() {
+        HashRing ring = ring(1, 2, 3, 4);
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++)
+            counts.merge(ring.getOwner("key" + i), 1, Integer::sum);
+        assertEquals(4, counts.size());
+        for (int count : counts.values())
+            assertTrue(count > KEYS / 4 / 2 && count < KEYS / 4 * 2, "unbalanced ring: " + counts);
+    }
+
+    @Test
+    void ownersAreDistinctAndStartWithTheOwner() {
+        HashRing ring = ring(1, 2, 3);
+        List<Integer> owners = ring.getOwners("room", 5);
+        assertEquals(3, owners.size());
+        assertEquals(3, new HashSet<>(owners).size());
+        assertEquals(ring.getOwner("room"), owners.get(0));
+        assertEquals(2, ring.getOwners("room", 2).size());
+    }
+}
@@ -0,0 +1,108 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.internal.MemberUpdate;
+import eu.cifpfbmoll.netlib.internal.MemberUpdate.State;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MembershipTest {
+    private static MemberUpdate update(int id, State state, int incarnation) {
+        return new MemberUpdate(id, "10.0.0." + id, 4000 + id, state, incarnation);
+    }
+
+    private static List<MemberUpdate> merge(Membership membership, MemberUpdate update) {
+        return membership.merge(Collections.singletonList(update));
+    }
+
+    @Test
+    void mergeAddsUnknownMembers() {
+        Membership membership = new Membership(1, "10.0.0.1", 4001);
+        List<MemberUpdate> applied = merge(membership, update(2, State.ALIVE, 5));
+        assertEquals(1, applied.size());
+        Membership.Member member = membership.getMember(2);
+        assertEquals(State.ALIVE, member.getState());
+        assertEquals(5, member.getIncarnation());
+        assertEquals("10.0.0.2", member.getIp());
+        assertEquals(4002, member.getPort());
+        assertEquals(Collections.singletonList(2), membership.getLive());
+        assertTrue(membership.merge(null).isEmpty());
+    }
+
+    @Test
+    void newerNewsOverrideOlderOnes() {
+        Membership membership = new Membership(1, "10.0.0.1", 4001);
+        merge(membership, update(2, State.ALIVE, 5));
+        assertTrue(merge(membership, update(2, State.ALIVE, 5)).isEmpty(), "same incarnation alive is old news");
+        assertTrue(merge(membership, update(2, State.SUSPECT, 4)).isEmpty(), "older incarnations are ignored");
+        assertEquals(1, merge(membership, update(2, State.SUSPECT, 5)).size());
+        assertEquals(State.SUSPECT, membership.getMember(2).getState());
+        assertTrue(merge(membership, update(2, State.SUSPECT, 5)).isEmpty());
+        assertTrue(merge(membership, update(2, State.ALIVE, 5)).isEmpty(), "suspicion is only refuted by a new incarnation");
+        assertEquals(1, merge(membership, update(2, State.ALIVE, 6)).size());
+        assertEquals(State.ALIVE, membership.getMember(2).getState());
+        assertEquals(1, merge(membership, update(2, State.DEAD, 6)).size());
+        assertEquals(State.DEAD, membership.getMember(2).getState());
+        assertTrue(merge(membership, update(2, State.SUSPECT, 6)).isEmpty());
+        assertTrue(merge(membership, update(2, State.DEAD, 7)).isEmpty(), "dead members stay dead");
+        assertTrue(membership.getLive().isEmpty());
+        assertEquals(1, merge(membership, update(2, State.ALIVE, 7)).size(), "until they come back with a new incarnation");
+    }
+
+    @Test
+    void refutesSuspicionsAboutItself() {
+        Membership membership = new Membership(1, "10.0.0.1", 4001);
+        int incarnation = membership.getIncarnation();
+        assertTrue(merge(membership, update(1, State.SUSPECT, incarnation - 1)).isEmpty());
+        assertEquals(incarnation, membership.getIncarnation());
+        assertTrue(merge(membership, update(1, State.SUSPECT, incarnation)).isEmpty());
+        assertEquals(incarnation + 1, membership.getIncarnation());
+        MemberUpdate self = membership.piggyback().get(0);
+        assertEquals(1, self.getId());
+        assertEquals(State.ALIVE, self.getState());
+        assertEquals(incarnation + 1, self.getIncarnation());
+        assertNull(membership.getMember(1));
+    }
+
+    @Test
+    void suspectsAndExpiresMembers() {
+        Membership membership = new Membership(1, "10.0.0.1", 4001);
+        membership.alive(2, "10.0.0.2", 4002);
+        assertFalse(membership.suspect(3));
+        assertTrue(membership.suspect(2));
+        assertFalse(membership.suspect(2));
+        assertTrue(membership.expire(60000, 60000).isEmpty());
+        assertEquals(Collections.singletonList(2), membership.expire(0, 60000));
+        assertEquals(State.DEAD, membership.getMember(2).getState());
+        membership.alive(2, "10.0.0.2", 4002);
+        assertEquals(State.ALIVE, membership.getMember(2).getState(), "talking to a dead member revives it");
+        membership.suspect(2);
+        membership.expire(0, 60000);
+        membership.expire(0, 0);
+        assertNull(membership.getMember(2));
+    }
+
+    @Test
+    void piggybacksEveryUpdateALimitedNumberOfTimes() {
+        Membership membership = new Membership(1, "10.0.0.1", 4001);
+        List<MemberUpdate> updates = new ArrayList<>();
+        for (int id = 2; id < 2 + Membership.MAX_PIGGYBACK * 2; id++)
+            updates.add(update(id, State.ALIVE, 1));
+        membership.merge(updates);
+        int sent = 0;
+        for (int i = 0; i < 1000; i++) {
+            List<MemberUpdate> piggyback = membership.piggyback();
+            if (piggyback.isEmpty()) break;
+            assertTrue(piggyback.size() <= Membership.MAX_PIGGYBACK);
+            sent += piggyback.size();
+        }
+        int members = Membership.MAX_PIGGYBACK * 2;
+        int limit = Membership.RETRANSMIT_MULTIPLIER * (32 - Integer.numberOfLeadingZeros(members + 1));
+        assertEquals((members + 1) * limit, sent);
+        assertTrue(membership.piggyback().isEmpty());
+    }
+}
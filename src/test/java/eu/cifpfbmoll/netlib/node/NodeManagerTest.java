@@ -0,0 +1,264 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.metrics.Metrics;
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketParser;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+import eu.cifpfbmoll.netlib.util.SegmentLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeManagerTest {
+    @TempDir
+    Path directory;
+
+    @PacketType("TNMT")
+    public static class Message {
+        @PacketAttribute
+        public int value;
+    }
+
+    /**
+     * NodeManager answering every request as soon as it is sent.
+     */
+    private static class Responder extends NodeManager {
+        private final boolean encodes;
+
+        Responder(boolean encodes) {
+            super(1, "127.0.0.1", false, 0);
+            this.encodes = encodes;
+        }
+
+        @Override
+        protected Packet createPacket(Object object, Integer dst) throws IllegalAccessException, IllegalArgumentException {
+            return this.encodes ? super.createPacket(object, dst) : null;
+        }
+
+        @Override
+        public boolean send(Integer id, Object packet, PacketPriority priority) {
+            Packet request = (Packet) packet;
+            Message message = new Message();
+            message.value = 42;
+            try {
+                Packet response = Packet.create(request.getTypeCode(), id, getId(), PacketParser.getInstance().serialize(message));
+                response.setResponse(request.getCorrelationId());
+                completeRequest(response);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            return true;
+        }
+    }
+
+    @Test
+    void requestCancelsItsTimeoutWhenAnswered() throws Exception {
+        Responder manager = new Responder(true);
+        try {
+            int pending = manager.getTimer().size();
+            CompletableFuture<Message> future = manager.request(2, new Message(), Message.class, 60000);
+            assertEquals(42, future.get(1, TimeUnit.SECONDS).value);
+            long deadline = System.currentTimeMillis() + 1000;
+            while (manager.getTimer().size() > pending && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(pending, manager.getTimer().size());
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    void requestFailsForObjectsThatCannotBeEncoded() throws InterruptedException {
+        Responder manager = new Responder(false);
+        try {
+            CompletableFuture<Message> future = manager.request(2, new Message(), Message.class, 60000);
+            assertTrue(future.isCompletedExceptionally());
+            ExecutionException e = assertThrows(ExecutionException.class, future::get);
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    void closeSavesThePeerCache() {
+        Path file = this.directory.resolve("peers");
+        NodeManager manager = new NodeManager(1, "127.0.0.1", false, 0, file);
+        manager.addNode(2, "10.0.0.2", 3002);
+        manager.close();
+        List<PeerCache.Peer> peers = new PeerCache(file).load();
+        assertEquals(1, peers.size());
+        assertEquals(2, peers.get(0).getNode().getId());
+        assertEquals(3002, peers.get(0).getNode().getPort());
+    }
+
+    @Test
+    void closeStopsTheTimerAndTheServer() throws IOException {
+        NodeManager manager = new NodeManager(1, "127.0.0.1", true, 0);
+        int port = manager.getPort();
+        assertTrue(port > 0);
+        assertFalse(manager.isClosed());
+        manager.close();
+        assertTrue(manager.isClosed());
+        assertThrows(IllegalStateException.class, () -> manager.getTimer().schedule(() -> {
+        }, 1, TimeUnit.MILLISECONDS));
+        // Connecting to a free ephemeral port can connect the socket to itself, bind it instead
+        try (ServerSocket socket = new ServerSocket()) {
+            assertDoesNotThrow(() -> socket.bind(new InetSocketAddress("127.0.0.1", port)));
+        }
+        manager.close();
+    }
+
+    @Test
+    void closeKeepsTheOutboxForTheNextRun() throws IOException {
+        Path outbox = this.directory.resolve("outbox");
+        NodeManager manager = new NodeManager(1, "127.0.0.1", false, 0);
+        manager.setOutbox(outbox, SegmentLog.DEFAULT_SEGMENT_SIZE);
+        assertTrue(manager.sendDurable(5, new Message()));
+        long size = manager.getOutbox().size(5);
+        assertTrue(size > 0);
+        manager.close();
+
+        NodeManager restarted = new NodeManager(1, "127.0.0.1", false, 0);
+        restarted.setOutbox(outbox, SegmentLog.DEFAULT_SEGMENT_SIZE);
+        assertEquals(size, restarted.getOutbox().size(5));
+        restarted.close();
+    }
+
+    @Test
+    void closeUnregistersTheMBeans() throws MalformedObjectNameException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.DOMAIN + ":node=7,type=Node");
+        NodeManager manager = new NodeManager(7, "127.0.0.1", false, 0);
+        manager.setMetricsEnabled(true);
+        assertTrue(server.isRegistered(name));
+        manager.close();
+        assertFalse(server.isRegistered(name));
+
+        NodeManager restarted = new NodeManager(7, "127.0.0.1", false, 0);
+        restarted.setMetricsEnabled(true);
+        assertTrue(server.isRegistered(name));
+        restarted.close();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    void derivedIdsDependOnTheWholeEndpoint() {
+        Integer id = NodeManager.getIdForEndpoint("10.0.0.1", 4242);
+        assertTrue(id > 0);
+        assertEquals(id, NodeManager.getIdForEndpoint("10.0.0.1", 4242));
+        assertNotEquals(id, NodeManager.getIdForEndpoint("10.0.1.1", 4242));
+        assertNotEquals(id, NodeManager.getIdForEndpoint("10.0.0.1", 4243));
+        assertEquals(1, NodeManager.getIdForIp("10.0.0.1"), "narrow IDs stay available");
+    }
+
+    @Test
+    void ownIdIsInUseOnOtherPorts() {
+        NodeManager manager = new NodeManager(1, "127.0.0.1", true, 0);
+        int port = manager.getPort();
+        assertFalse(manager.isIdInUse(1, "127.0.0.1", port));
+        assertTrue(manager.isIdInUse(1, "127.0.0.1", port + 1));
+        assertFalse(manager.isIdInUse(2, "127.0.0.1", port + 1), "unconnected nodes can take any free ID");
+        manager.close();
+    }
+
+    @Test
+    void handshakeRejectsDuplicateIds() throws InterruptedException {
+        NodeManager server = new NodeManager(1, "127.0.0.1", true, 0);
+        NodeManager first = new NodeManager(2, "127.0.0.1", true, 0);
+        NodeManager second = new NodeManager(2, "127.0.0.1", true, 0);
+        try {
+            first.addNode(1, "127.0.0.1", server.getPort());
+            second.addNode(1, "127.0.0.1", server.getPort());
+            assertNotNull(first.connect(1));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!server.isConnected(2) && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertTrue(server.isConnected(2));
+            assertTrue(server.isIdInUse(2, "127.0.0.1", second.getPort()));
+            NodeConnection connection = server.nodeConnectionById(2);
+
+            second.connect(1);
+            deadline = System.currentTimeMillis() + 5000;
+            while (second.isConnected(1) && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertFalse(second.isConnected(1));
+            assertSame(connection, server.nodeConnectionById(2));
+            assertEquals(first.getPort(), server.getNodePort(2));
+        } finally {
+            server.close();
+            first.close();
+            second.close();
+        }
+    }
+
+    private static void awaitSingleConnection(NodeManager low, NodeManager high) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            NodeConnection lowEnd = low.nodeConnectionById(high.getId());
+            NodeConnection highEnd = high.nodeConnectionById(low.getId());
+            if (lowEnd != null && highEnd != null && lowEnd.isOutbound() && !highEnd.isOutbound()
+                    && !lowEnd.getNodeSocket().isClosed() && !highEnd.getNodeSocket().isClosed())
+                return;
+            Thread.sleep(10);
+        }
+        fail("the connection opened by the lowest ID was not kept on both ends");
+    }
+
+    @Test
+    void lowestIdKeepsItsConnection() throws InterruptedException {
+        NodeManager low = new NodeManager(1, "127.0.0.1", true, 0);
+        NodeManager high = new NodeManager(2, "127.0.0.1", true, 0);
+        try {
+            low.addNode(2, "127.0.0.1", high.getPort());
+            high.addNode(1, "127.0.0.1", low.getPort());
+            NodeConnection opened = low.connect(2);
+            assertNotNull(opened);
+            awaitSingleConnection(low, high);
+            high.connect(1);
+            Thread.sleep(200);
+            awaitSingleConnection(low, high);
+            assertSame(opened, low.nodeConnectionById(2));
+        } finally {
+            low.close();
+            high.close();
+        }
+    }
+
+    @Test
+    void simultaneousConnectsKeepOneConnection() throws InterruptedException {
+        NodeManager low = new NodeManager(1, "127.0.0.1", true, 0);
+        NodeManager high = new NodeManager(2, "127.0.0.1", true, 0);
+        try {
+            low.addNode(2, "127.0.0.1", high.getPort());
+            high.addNode(1, "127.0.0.1", low.getPort());
+            Thread lowThread = new Thread(() -> low.connect(2));
+            Thread highThread = new Thread(() -> high.connect(1));
+            lowThread.start();
+            highThread.start();
+            lowThread.join();
+            highThread.join();
+            awaitSingleConnection(low, high);
+        } finally {
+            low.close();
+            high.close();
+        }
+    }
+}
+
@@ -0,0 +1,74 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+    private static Packet packet(String type) {
+        return Packet.create(type, 1, 2, new byte[0]);
+    }
+
+    private static List<String> types(List<Packet> packets) {
+        return packets.stream().map(Packet::getType).collect(Collectors.toList());
+    }
+
+    @Test
+    void takesFromTheFirstNonEmptyLane() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue();
+        queue.offer(packet("LOW1"), PacketPriority.LOW);
+        queue.offer(packet("NRM1"), PacketPriority.NORMAL);
+        queue.offer(packet("HGH1"), PacketPriority.HIGH);
+        queue.offer(packet("NRM2"), PacketPriority.NORMAL);
+        queue.offer(packet("CTL1"), PacketPriority.CONTROL);
+        assertEquals(5, queue.size());
+        assertEquals("CTL1", queue.poll().getType());
+        assertEquals("HGH1", queue.take(0).getType());
+        assertEquals("NRM1", queue.poll().getType());
+        assertEquals("NRM2", queue.poll().getType());
+        assertEquals("LOW1", queue.poll().getType());
+        assertNull(queue.poll());
+        assertNull(queue.take(10));
+    }
+
+    @Test
+    void onlyControlPacketsFitInAFullQueue() {
+        OutboundQueue queue = new OutboundQueue(2);
+        assertTrue(queue.offer(packet("NRM1"), PacketPriority.NORMAL));
+        assertTrue(queue.offer(packet("LOW1"), PacketPriority.LOW));
+        assertFalse(queue.offer(packet("HGH1"), PacketPriority.HIGH));
+        assertTrue(queue.offer(packet("CTL1"), PacketPriority.CONTROL));
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    void drainKeepsTheWriteOrder() {
+        OutboundQueue queue = new OutboundQueue();
+        queue.offer(packet("LOW1"), PacketPriority.LOW);
+        queue.offer(packet("CTL1"), PacketPriority.CONTROL);
+        queue.offer(packet("NRM1"), PacketPriority.NORMAL);
+        queue.offer(packet("HGH1"), PacketPriority.HIGH);
+        assertEquals(Arrays.asList("NRM1"), types(queue.drain(PacketPriority.NORMAL)));
+        assertEquals(Arrays.asList("CTL1", "HGH1", "LOW1"), types(queue.drain()));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void transferMovesDataAndDropsControlPackets() {
+        OutboundQueue queue = new OutboundQueue();
+        OutboundQueue target = new OutboundQueue(2);
+        queue.offer(packet("CTL1"), PacketPriority.CONTROL);
+        queue.offer(packet("HGH1"), PacketPriority.HIGH);
+        queue.offer(packet("NRM1"), PacketPriority.NORMAL);
+        queue.offer(packet("LOW1"), PacketPriority.LOW);
+        assertEquals(2, queue.transferTo(target), "Packets that do not fit are dropped");
+        assertEquals(0, queue.size());
+        assertEquals(Arrays.asList("HGH1", "NRM1"), types(target.drain()));
+    }
+}
@@ -0,0 +1,236 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.internal.ReliableAckPacket;
+import eu.cifpfbmoll.netlib.packet.Packet;
+import eu.cifpfbmoll.netlib.packet.PacketPriority;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReliableSessionTest {
+    @PacketType("RTEST")
+    public static class Message {
+        @PacketAttribute
+        public int value;
+
+        public Message() {
+        }
+
+        Message(int value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * NodeManager that records the Packets it sends instead of sending them.
+     */
+    private static class Recorder extends NodeManager {
+        private final List<Object> sent = new ArrayList<>();
+        private volatile int instance;
+        private int epoch;
+
+        Recorder(int id, int instance, int epoch) {
+            super(id, "127.0.0.1", false, 0);
+            this.instance = instance;
+            this.epoch = epoch;
+        }
+
+        @Override
+        public boolean send(Integer id, Object packet, PacketPriority priority) {
+            synchronized (this.sent) {
+                this.sent.add(packet);
+            }
+            return true;
+        }
+
+        @Override
+        protected int getInstance() {
+            return this.instance;
+        }
+
+        @Override
+        protected synchronized int nextReliableEpoch() {
+            return ++this.epoch;
+        }
+
+        List<Packet> packets() {
+            List<Packet> packets = new ArrayList<>();
+            synchronized (this.sent) {
+                for (Object object : this.sent)
+                    if (object instanceof Packet) packets.add((Packet) object);
+                this.sent.clear();
+            }
+            return packets;
+        }
+
+        List<ReliableAckPacket> acks() {
+            List<ReliableAckPacket> acks = new ArrayList<>();
+            synchronized (this.sent) {
+                for (Object object : this.sent)
+                    if (object instanceof ReliableAckPacket) acks.add((ReliableAckPacket) object);
+                this.sent.clear();
+            }
+            return acks;
+        }
+    }
+
+    private static List<Packet> send(ReliableSession session, Recorder manager, int count) {
+        for (int i = 0; i < count; i++)
+            assertTrue(session.send(new Message(i), PacketPriority.NORMAL));
+        return manager.packets();
+    }
+
+    @Test
+    void numbersPacketsInTheSessionEpoch() {
+        Recorder a = new Recorder(1, 100, 0);
+        ReliableSession session = new ReliableSession(a, 2, 10, 16);
+        List<Packet> packets = send(session, a, 3);
+        assertEquals(3, packets.size());
+        for (int i = 0; i < packets.size(); i++) {
+            assertEquals(10, packets.get(i).getReliableEpoch());
+            assertEquals(i + 1, packets.get(i).getReliableSequence());
+        }
+        assertEquals(3, session.getUnacked());
+        session.stop();
+    }
+
+    @Test
+    void windowLimitsUnackedPackets() {
+        Recorder a = new Recorder(1, 100, 0);
+        ReliableSession session = new ReliableSession(a, 2, 10, 4);
+        send(session, a, 4);
+        assertFalse(session.send(new Message(4), PacketPriority.NORMAL));
+        session.acknowledge(new ReliableAckPacket(10, 200, 1, Collections.emptyList()));
+        assertTrue(session.send(new Message(4), PacketPriority.NORMAL));
+        session.stop();
+        assertFalse(session.send(new Message(5), PacketPriority.NORMAL));
+    }
+
+    @Test
+    void acknowledgeRemovesCumulativeAndRanges() {
+        Recorder a = new Recorder(1, 100, 0);
+        ReliableSession session = new ReliableSession(a, 2, 10, 16);
+        List<Integer> acknowledged = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 1; i <= 6; i++) {
+            int sequence = i;
+            assertTrue(session.send(new Message(i), PacketPriority.NORMAL, () -> acknowledged.add(sequence)));
+        }
+        session.acknowledge(new ReliableAckPacket(10, 200, 2, Arrays.asList(4, 5)));
+        assertEquals(2, session.getUnacked());
+        assertEquals(Arrays.asList(1, 2, 4, 5), acknowledged);
+        session.acknowledge(new ReliableAckPacket(9, 200, 6, Collections.emptyList()));
+        assertEquals(2, session.getUnacked(), "acknowledgements of older epochs are ignored");
+        session.acknowledge(new ReliableAckPacket(10, 200, 6, Collections.emptyList()));
+        assertEquals(0, session.getUnacked());
+        assertEquals(Arrays.asList(1, 2, 4, 5, 3, 6), acknowledged);
+        session.stop();
+    }
+
+    @Test
+    void receiveDeliversEveryPacketOnce() {
+        Recorder a = new Recorder(1, 100, 0);
+        Recorder b = new Recorder(2, 200, 0);
+        ReliableSession sender = new ReliableSession(a, 2, 10, 16);
+        ReliableSession receiver = new ReliableSession(b, 1, 20, 16);
+        List<Packet> packets = send(sender, a, 4);
+        assertTrue(receiver.receive(packets.get(0)));
+        assertTrue(receiver.receive(packets.get(2)));
+        assertEquals(1, receiver.getCumulative());
+        assertTrue(receiver.receive(packets.get(1)));
+        assertEquals(3, receiver.getCumulative());
+        assertFalse(receiver.receive(packets.get(1)));
+        assertFalse(receiver.receive(packets.get(2)));
+        assertTrue(receiver.receive(packets.get(3)));
+        assertEquals(4, receiver.getCumulative());
+        sender.stop();
+        receiver.stop();
+    }
+
+    @Test
+    void acknowledgesEveryAckEveryPackets() {
+        Recorder a = new Recorder(1, 100, 0);
+        Recorder b = new Recorder(2, 200, 0);
+        ReliableSession sender = new ReliableSession(a, 2, 10, 2 * ReliableSession.ACK_EVERY);
+        ReliableSession receiver = new ReliableSession(b, 1, 20, 2 * ReliableSession.ACK_EVERY);
+        for (Packet packet : send(sender, a, ReliableSession.ACK_EVERY))
+            assertTrue(receiver.receive(packet));
+        List<ReliableAckPacket> acks = b.acks();
+        assertEquals(1, acks.size());
+        assertEquals(10, acks.get(0).getEpoch());
+        assertEquals(ReliableSession.ACK_EVERY, acks.get(0).getCumulative());
+        sender.acknowledge(acks.get(0));
+        assertEquals(0, sender.getUnacked());
+        sender.stop();
+        receiver.stop();
+    }
+
+    @Test
+    void renumbersWhenThePeerRestarts() {
+        Recorder a = new Recorder(1, 100, 50);
+        ReliableSession session = new ReliableSession(a, 2, 10, 16);
+        send(session, a, 3);
+        session.acknowledge(new ReliableAckPacket(10, 200, 1, Collections.emptyList()));
+        assertEquals(2, session.getUnacked());
+        assertTrue(a.packets().isEmpty());
+        session.acknowledge(new ReliableAckPacket(10, 201, 0, Collections.emptyList()));
+        List<Packet> resent = a.packets();
+        assertEquals(2, resent.size());
+        for (int i = 0; i < resent.size(); i++) {
+            assertEquals(51, resent.get(i).getReliableEpoch());
+            assertEquals(i + 1, resent.get(i).getReliableSequence());
+        }
+        assertEquals(2, session.getUnacked());
+        session.acknowledge(new ReliableAckPacket(51, 201, 2, Collections.emptyList()));
+        assertEquals(0, session.getUnacked());
+        session.stop();
+    }
+
+    @Test
+    void staleEpochMovesTheSenderPastTheReceiver() {
+        Recorder a = new Recorder(1, 100, 0);
+        Recorder b = new Recorder(2, 200, 0);
+        ReliableSession receiver = new ReliableSession(b, 1, 20, 16);
+        ReliableSession before = new ReliableSession(a, 2, 30, 16);
+        assertTrue(receiver.receive(send(before, a, 1).get(0)));
+        before.stop();
+        b.acks();
+
+        // The sender restarted and picked a lower epoch than the receiver knows
+        ReliableSession sender = new ReliableSession(a, 2, 10, 16);
+        Packet stale = send(sender, a, 1).get(0);
+        assertFalse(receiver.receive(stale));
+        List<ReliableAckPacket> acks = b.acks();
+        assertEquals(1, acks.size());
+        assertEquals(30, acks.get(0).getEpoch());
+
+        sender.acknowledge(acks.get(0));
+        List<Packet> resent = a.packets();
+        assertEquals(1, resent.size());
+        assertEquals(31, resent.get(0).getReliableEpoch());
+        assertEquals(1, resent.get(0).getReliableSequence());
+        assertTrue(receiver.receive(resent.get(0)));
+        assertEquals(1, receiver.getCumulative());
+        sender.stop();
+        receiver.stop();
+    }
+
+    @Test
+    void stoppedSessionNeverRunsCallbacks() {
+        Recorder a = new Recorder(1, 100, 0);
+        ReliableSession session = new ReliableSession(a, 2, 10, 16);
+        AtomicInteger acknowledged = new AtomicInteger();
+        assertTrue(session.send(new Message(1), PacketPriority.NORMAL, acknowledged::incrementAndGet));
+        session.stop();
+        session.acknowledge(new ReliableAckPacket(10, 200, 1, Collections.emptyList()));
+        assertEquals(0, acknowledged.get());
+        assertEquals(0, session.getUnacked());
+    }
+}
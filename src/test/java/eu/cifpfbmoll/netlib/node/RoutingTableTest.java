@@ -0,0 +1,114 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.internal.RoutePacket;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoutingTableTest {
+    private static Map<Integer, Integer> distances(int... pairs) {
+        Map<Integer, Integer> distances = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2)
+            distances.put(pairs[i], pairs[i + 1]);
+        return distances;
+    }
+
+    @Test
+    void neighboursAreOneHopAway() {
+        RoutingTable table = new RoutingTable(1);
+        assertEquals(Collections.singleton(2), table.addNeighbour(2));
+        assertTrue(table.addNeighbour(2).isEmpty());
+        assertEquals(2, table.getNextHop(2));
+        assertEquals(1, table.getRoute(2).getDistance());
+        assertNull(table.getNextHop(3));
+        assertNull(table.getNextHop(null));
+    }
+
+    @Test
+    void choosesTheShortestAdvertisedRoute() {
+        RoutingTable table = new RoutingTable(1);
+        table.addNeighbour(2);
+        table.addNeighbour(3);
+        assertEquals(new HashSet<>(Arrays.asList(4, 5)), table.update(2, distances(4, 3, 5, 1), false));
+        assertEquals(2, table.getNextHop(4));
+        assertEquals(4, table.getRoute(4).getDistance());
+        assertEquals(Collections.singleton(4), table.update(3, distances(4, 1, 1, 1), false));
+        assertEquals(3, table.getNextHop(4));
+        assertEquals(2, table.getRoute(4).getDistance());
+        assertNull(table.getRoute(1), "no route to the node itself");
+        assertTrue(table.update(3, distances(5, 1), false).isEmpty(), "equal routes keep the current next hop");
+        assertEquals(2, table.getNextHop(5));
+    }
+
+    @Test
+    void removingANeighbourDropsItsRoutes() {
+        RoutingTable table = new RoutingTable(1);
+        table.addNeighbour(2);
+        table.addNeighbour(3);
+        table.update(2, distances(4, 1, 5, 1), false);
+        table.update(3, distances(5, 2), false);
+        assertEquals(new HashSet<>(Arrays.asList(2, 4, 5)), table.removeNeighbour(2));
+        assertNull(table.getRoute(2));
+        assertNull(table.getRoute(4));
+        assertEquals(3, table.getNextHop(5));
+        assertEquals(3, table.getRoute(5).getDistance());
+        assertTrue(table.removeNeighbour(2).isEmpty());
+    }
+
+    @Test
+    void fullAdvertisementsReplaceThePreviousOnes() {
+        RoutingTable table = new RoutingTable(1);
+        table.update(2, distances(4, 1, 5, 1), true);
+        assertEquals(Collections.singleton(5), table.update(2, distances(4, 1), true));
+        assertNull(table.getRoute(5));
+        assertEquals(Collections.singleton(4), table.update(2, distances(4, RoutingTable.INFINITY), false));
+        assertNull(table.getRoute(4));
+        assertEquals(2, table.getNextHop(2));
+    }
+
+    @Test
+    void distancesStopAtInfinity() {
+        RoutingTable table = new RoutingTable(1);
+        table.update(2, distances(4, RoutingTable.INFINITY - 1), false);
+        assertNull(table.getRoute(4));
+        table.update(2, distances(4, RoutingTable.INFINITY - 2), false);
+        assertEquals(RoutingTable.INFINITY - 1, table.getRoute(4).getDistance());
+    }
+
+    @Test
+    void poisonsRoutesLearntFromTheNeighbour() {
+        RoutingTable table = new RoutingTable(1);
+        table.addNeighbour(2);
+        table.addNeighbour(3);
+        table.update(2, distances(4, 1), false);
+        Map<Integer, Integer> toTwo = table.advertise(2, null);
+        assertEquals(RoutingTable.INFINITY, toTwo.get(4));
+        assertEquals(1, toTwo.get(3));
+        assertFalse(toTwo.containsKey(2), "a neighbour is not told about itself");
+        Map<Integer, Integer> toThree = table.advertise(3, Arrays.asList(4, 6));
+        assertEquals(2, toThree.get(4));
+        assertEquals(RoutingTable.INFINITY, toThree.get(6));
+    }
+
+    @Test
+    void splitsLargeAdvertisements() {
+        Map<Integer, Integer> routes = new HashMap<>();
+        for (int i = 0; i < RoutePacket.MAX_ROUTES * 2 + 1; i++)
+            routes.put(i, 1);
+        List<RoutePacket> packets = RoutePacket.split(true, routes);
+        assertEquals(3, packets.size());
+        assertTrue(packets.get(0).isFull());
+        assertFalse(packets.get(1).isFull());
+        Map<Integer, Integer> joined = new HashMap<>();
+        for (RoutePacket packet : packets) {
+            assertTrue(packet.getRoutes().size() <= RoutePacket.MAX_ROUTES);
+            joined.putAll(packet.getRoutes());
+        }
+        assertEquals(routes, joined);
+        List<RoutePacket> empty = RoutePacket.split(true, Collections.emptyMap());
+        assertEquals(1, empty.size());
+        assertTrue(empty.get(0).isFull());
+    }
+}
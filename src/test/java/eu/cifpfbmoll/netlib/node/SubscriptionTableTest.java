@@ -0,0 +1,76 @@
+package eu.cifpfbmoll.netlib.node;
+
+import eu.cifpfbmoll.netlib.internal.SubscribePacket;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubscriptionTableTest {
+    @Test
+    void indexesSubscribersByTopic() {
+        SubscriptionTable table = new SubscriptionTable();
+        table.subscribe(1, Arrays.asList("a", "b"));
+        table.subscribe(2, Collections.singletonList("b"));
+        table.subscribe(3, null);
+        assertEquals(Collections.singleton(1), table.getSubscribers("a"));
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), table.getSubscribers("b"));
+        assertTrue(table.getSubscribers("c").isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), table.getTopics(1));
+        assertTrue(table.getTopics(3).isEmpty());
+    }
+
+    @Test
+    void unsubscribeForgetsEmptyTopicsAndNodes() {
+        SubscriptionTable table = new SubscriptionTable();
+        table.subscribe(1, Arrays.asList("a", "b"));
+        table.subscribe(2, Collections.singletonList("b"));
+        table.unsubscribe(1, Arrays.asList("a", "c"));
+        assertTrue(table.getSubscribers("a").isEmpty());
+        assertEquals(Collections.singleton("b"), table.getTopics(1));
+        table.unsubscribe(2, Collections.singletonList("b"));
+        assertEquals(Collections.singleton(1), table.getSubscribers("b"));
+        assertTrue(table.getTopics(2).isEmpty());
+        table.unsubscribe(4, Collections.singletonList("b"));
+        assertEquals(Collections.singleton(1), table.getSubscribers("b"));
+    }
+
+    @Test
+    void replaceAndRemoveChangeEveryTopicOfANode() {
+        SubscriptionTable table = new SubscriptionTable();
+        table.subscribe(1, Arrays.asList("a", "b"));
+        table.replace(1, Arrays.asList("b", "c"));
+        assertTrue(table.getSubscribers("a").isEmpty());
+        assertEquals(Collections.singleton(1), table.getSubscribers("c"));
+        assertEquals(new HashSet<>(Arrays.asList("b", "c")), table.getTopics(1));
+        table.remove(1);
+        assertTrue(table.getTopics(1).isEmpty());
+        assertTrue(table.getSubscribers("b").isEmpty());
+        table.remove(1);
+    }
+
+    @Test
+    void splitsSnapshotsThatDoNotFitInAPacket() throws IllegalAccessException {
+        List<String> topics = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            topics.add(String.format("topic-%04d", i));
+        topics.add(new String(new char[SubscribePacket.MAX_TOPIC_BYTES]).replace('\0', 'x'));
+        List<SubscribePacket> packets = SubscribePacket.split(true, topics);
+        assertTrue(packets.size() > 2);
+        List<String> joined = new ArrayList<>();
+        for (int i = 0; i < packets.size(); i++) {
+            SubscribePacket packet = packets.get(i);
+            assertEquals(i == 0, packet.isFull());
+            assertTrue(packet.getUnsubscribe().isEmpty());
+            assertNotNull(NodeSocket.createPacket(packet, 1, 2), "every part fits in a Packet");
+            joined.addAll(packet.getSubscribe());
+        }
+        assertEquals(topics, joined);
+
+        List<SubscribePacket> empty = SubscribePacket.split(true, Collections.emptyList());
+        assertEquals(1, empty.size());
+        assertTrue(empty.get(0).isFull());
+        assertFalse(SubscribePacket.split(false, topics).get(0).isFull());
+    }
+}
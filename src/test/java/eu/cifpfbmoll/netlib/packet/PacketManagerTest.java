@@ -0,0 +1,238 @@
+package eu.cifpfbmoll.netlib.packet;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+import eu.cifpfbmoll.netlib.annotation.PacketType;
+import eu.cifpfbmoll.netlib.node.NodeSocket;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketManagerTest {
+    @PacketType("TBTA")
+    public static class BatchA {
+        @PacketAttribute
+        public int value;
+    }
+
+    @PacketType("TBTB")
+    public static class BatchB {
+        @PacketAttribute
+        public int value;
+    }
+
+    @PacketType("TSGL")
+    public static class Single {
+        @PacketAttribute
+        public int value;
+    }
+
+    @PacketType(value = "TCTL", priority = PacketPriority.CONTROL)
+    public static class Control {
+        @PacketAttribute
+        public int value;
+    }
+
+    @PacketType(value = "THGH", priority = PacketPriority.HIGH)
+    public static class High {
+        @PacketAttribute
+        public int value;
+    }
+
+    public static class Unannotated {
+    }
+
+    private static Packet packet(Object object, int src) throws IllegalAccessException {
+        return NodeSocket.createPacket(object, src, 0);
+    }
+
+    private static BatchA a(int value) {
+        BatchA a = new BatchA();
+        a.value = value;
+        return a;
+    }
+
+    private static BatchB b(int value) {
+        BatchB b = new BatchB();
+        b.value = value;
+        return b;
+    }
+
+    private static Single single(int value) {
+        Single single = new Single();
+        single.value = value;
+        return single;
+    }
+
+    /**
+     * PacketManager recording the handled values of every source, in order.
+     */
+    private static List<List<String>> handled(PacketManager manager, int sources) {
+        List<List<String>> handled = new ArrayList<>();
+        for (int i = 0; i < sources; i++) handled.add(new ArrayList<>());
+        manager.addBatch(BatchA.class, (id, objects) ->
+                handled.get(id).add("A" + objects.stream().map(o -> o.value).collect(Collectors.toList())));
+        manager.addBatch(BatchB.class, (id, objects) ->
+                handled.get(id).add("B" + objects.stream().map(o -> o.value).collect(Collectors.toList())));
+        manager.add(Single.class, (id, object) -> handled.get(id).add("S" + object.value));
+        return handled;
+    }
+
+    @Test
+    void batchesConsecutivePacketsOfASource() throws IllegalAccessException {
+        PacketManager manager = new PacketManager();
+        List<List<String>> handled = handled(manager, 3);
+        List<Packet> unhandled = manager.process(Arrays.asList(
+                packet(a(1), 1), packet(a(2), 2), packet(a(3), 1), packet(a(4), 2), packet(a(5), 1)));
+        assertTrue(unhandled.isEmpty());
+        assertEquals(Arrays.asList("A[1, 3, 5]"), handled.get(1));
+        assertEquals(Arrays.asList("A[2, 4]"), handled.get(2));
+    }
+
+    @Test
+    void mixedBatchAndSinglePacketsKeepSourceOrder() throws IllegalAccessException {
+        PacketManager manager = new PacketManager();
+        List<List<String>> handled = handled(manager, 3);
+        manager.process(Arrays.asList(
+                packet(a(1), 1), packet(a(2), 2), packet(single(3), 1), packet(a(4), 1),
+                packet(a(5), 2), packet(b(6), 1), packet(a(7), 1), packet(single(8), 2)));
+        assertEquals(Arrays.asList("A[1]", "S3", "A[4]", "B[6]", "A[7]"), handled.get(1));
+        assertEquals(Arrays.asList("A[2, 5]", "S8"), handled.get(2));
+    }
+
+    @Test
+    void mixedPacketsKeepSourceOrderOnTheDispatchExecutor() throws IllegalAccessException {
+        PacketManager manager = new PacketManager();
+        manager.setExecutor(Runnable::run);
+        List<List<String>> handled = handled(manager, 2);
+        manager.process(Arrays.asList(
+                packet(single(1), 1), packet(a(2), 1), packet(a(3), 1), packet(single(4), 1), packet(a(5), 1)));
+        assertEquals(Arrays.asList("S1", "A[2, 3]", "S4", "A[5]"), handled.get(1));
+    }
+
+    @Test
+    void unregisteredPacketsAreReturned() throws IllegalAccessException {
+        PacketManager manager = new PacketManager();
+        manager.add(Single.class, (id, object) -> {
+        });
+        Packet unknown = packet(a(1), 1);
+        assertEquals(Arrays.asList(unknown), manager.process(Arrays.asList(packet(single(1), 1), unknown)));
+        assertFalse(manager.process(unknown));
+    }
+
+    @Test
+    void dispatchesByTypeCode() throws IllegalAccessException {
+        PacketManager manager = new PacketManager();
+        List<List<String>> handled = handled(manager, 2);
+        byte[] data = PacketParser.getInstance().serialize(single(1));
+        assertTrue(manager.process(Packet.create(Packet.typeCode("TSGL"), 1, 0, data)));
+        assertFalse(manager.process(Packet.create(Packet.typeCode("TSGM"), 1, 0, data)));
+        assertFalse(manager.process(Packet.create(0, 1, 0, data)));
+        assertEquals(Arrays.asList("S1"), handled.get(1));
+    }
+
+    @Test
+    void registryRejectsDuplicateAndUnannotatedTypes() {
+        PacketManager manager = new PacketManager();
+        manager.add(Single.class, (id, object) -> {
+        });
+        assertThrows(IllegalArgumentException.class, () -> manager.add(Single.class, (id, object) -> {
+        }));
+        assertThrows(IllegalArgumentException.class, () -> manager.addBatch(Single.class, (id, objects) -> {
+        }));
+        assertThrows(IllegalArgumentException.class, () -> manager.add(Unannotated.class, (id, object) -> {
+        }));
+        assertThrows(NullPointerException.class, () -> manager.add(Single.class, null));
+    }
+
+    @Test
+    void registryReplacesAndRemovesHandlers() throws IllegalAccessException {
+        PacketManager manager = new PacketManager();
+        List<String> handled = new ArrayList<>();
+        manager.add(Single.class, (id, object) -> handled.add("first" + object.value));
+        manager.add(BatchA.class, (id, object) -> handled.add("a" + object.value));
+        assertTrue(manager.process(packet(single(1), 1)));
+        manager.replace(Single.class, (id, object) -> handled.add("second" + object.value), false);
+        assertTrue(manager.process(packet(single(2), 1)));
+        manager.remove(Single.class);
+        assertFalse(manager.process(packet(single(3), 1)));
+        assertTrue(manager.process(packet(a(4), 1)), "other types stay registered");
+        manager.remove("TBTA");
+        assertFalse(manager.process(packet(a(5), 1)));
+        manager.remove("TBTA");
+        manager.remove(Unannotated.class);
+        manager.add(Single.class, (id, object) -> handled.add("third" + object.value));
+        assertTrue(manager.process(packet(single(6), 1)));
+        assertEquals(Arrays.asList("first1", "second2", "a4", "third6"), handled);
+    }
+
+    @Test
+    void replacingAHandlerNeverUnregistersTheType() throws Exception {
+        PacketManager manager = new PacketManager();
+        manager.add(Single.class, (id, object) -> {
+        });
+        Packet packet = packet(single(1), 1);
+        AtomicBoolean run = new AtomicBoolean(true);
+        AtomicInteger missed = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (run.get())
+                if (!manager.process(packet)) missed.incrementAndGet();
+        });
+        reader.start();
+        for (int i = 0; i < 2000; i++) {
+            manager.replace(Single.class, (id, object) -> {
+            }, i % 2 == 0);
+            manager.add(BatchA.class, (id, object) -> {
+            });
+            manager.remove(BatchA.class);
+        }
+        run.set(false);
+        reader.join();
+        assertEquals(0, missed.get());
+    }
+
+    @Test
+    void higherLanesAreHandledFirst() throws IllegalAccessException {
+        PacketManager manager = new PacketManager();
+        List<String> handled = new ArrayList<>();
+        manager.add(Single.class, (id, object) -> handled.add("S" + object.value));
+        manager.add(High.class, (id, object) -> handled.add("H" + object.value));
+        manager.add(Control.class, (id, object) -> handled.add("C" + object.value));
+        High high = new High();
+        high.value = 2;
+        Control control = new Control();
+        control.value = 3;
+        manager.process(Arrays.asList(packet(single(1), 1), packet(high, 2), packet(control, 1)));
+        assertEquals(Arrays.asList("C3", "H2", "S1"), handled);
+        assertEquals(PacketPriority.CONTROL, manager.getPriority(Packet.typeCode("TCTL")));
+        assertEquals(PacketPriority.HIGH, manager.getPriority(Packet.typeCode("THGH")));
+        assertEquals(PacketPriority.NORMAL, manager.getPriority(Packet.typeCode("NONE")));
+    }
+
+    @Test
+    void controlHandlersRunOnTheCallingThread() throws IllegalAccessException {
+        PacketManager manager = new PacketManager();
+        List<Runnable> queued = new ArrayList<>();
+        manager.setExecutor(queued::add);
+        List<String> handled = new ArrayList<>();
+        manager.add(Single.class, (id, object) -> handled.add("S" + object.value));
+        manager.add(Control.class, (id, object) -> handled.add("C" + object.value));
+        Control control = new Control();
+        control.value = 2;
+        assertTrue(manager.process(packet(single(1), 1)));
+        assertTrue(manager.process(packet(control, 1)));
+        assertEquals(Arrays.asList("C2"), handled);
+        assertTrue(manager.getBacklog(1) > 0);
+        while (!queued.isEmpty())
+            queued.remove(0).run();
+        assertEquals(Arrays.asList("C2", "S1"), handled);
+        assertEquals(0, manager.getBacklog(1));
+    }
+}
+
@@ -0,0 +1,175 @@
+package eu.cifpfbmoll.netlib.packet;
+
+import eu.cifpfbmoll.netlib.annotation.PacketAttribute;
+import eu.cifpfbmoll.netlib.annotation.PacketType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketParserTest {
+    private final PacketParser parser = PacketParser.getInstance();
+
+    public enum Color {
+        RED, GREEN, BLUE
+    }
+
+    public static class Point {
+        @PacketAttribute
+        public int x;
+        @PacketAttribute
+        public int y;
+
+        public Point() {
+        }
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Point && ((Point) o).x == this.x && ((Point) o).y == this.y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.x + this.y;
+        }
+    }
+
+    @PacketType("TPRS")
+    public static class Shape {
+        @PacketAttribute
+        public int id;
+        @PacketAttribute
+        public String name;
+        @PacketAttribute
+        public Color color;
+        @PacketAttribute
+        public Point origin;
+        @PacketAttribute
+        public List<Point> points;
+        @PacketAttribute
+        public Set<String> tags;
+        @PacketAttribute
+        public Map<String, Integer> weights;
+        @PacketAttribute
+        public byte[] data;
+        @PacketAttribute
+        public long[] times;
+    }
+
+    @PacketType("TPRT")
+    public static class Text {
+        @PacketAttribute
+        public String text;
+    }
+
+    private static byte[] varInt(int value) {
+        ByteBuffer bb = ByteBuffer.allocate(PacketParser.varIntSize(value));
+        PacketParser.putVarInt(bb, value);
+        assertFalse(bb.hasRemaining());
+        return bb.array();
+    }
+
+    @Test
+    void varIntRoundTrip() {
+        int[] values = {0, 1, 127, 128, 16383, 16384, 2097151, 2097152, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        int[] sizes = {1, 1, 1, 2, 2, 3, 3, 4, 5, 5, 5};
+        for (int i = 0; i < values.length; i++) {
+            byte[] bytes = varInt(values[i]);
+            assertEquals(sizes[i], bytes.length, "size of " + values[i]);
+            assertEquals(values[i], PacketParser.getVarInt(ByteBuffer.wrap(bytes)));
+        }
+    }
+
+    @Test
+    void rejectsMalformedVarInts() {
+        byte[] bytes = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01};
+        assertThrows(IllegalArgumentException.class, () -> PacketParser.getVarInt(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    void roundTripsNestedObjectsCollectionsAndEnums() throws IllegalAccessException {
+        Shape shape = new Shape();
+        shape.id = 42;
+        shape.name = "triangle";
+        shape.color = Color.BLUE;
+        shape.origin = new Point(-1, 2);
+        shape.points = Arrays.asList(new Point(0, 0), new Point(3, 0), new Point(0, 4));
+        shape.tags = new HashSet<>(Arrays.asList("a", "b"));
+        shape.weights = new HashMap<>();
+        shape.weights.put("x", 1);
+        shape.weights.put("y", 300);
+        shape.data = new byte[200];
+        shape.times = new long[]{1, Long.MAX_VALUE};
+        Shape copy = this.parser.deserialize(Shape.class, this.parser.serialize(shape));
+        assertEquals(42, copy.id);
+        assertEquals("triangle", copy.name);
+        assertEquals(Color.BLUE, copy.color);
+        assertEquals(shape.origin, copy.origin);
+        assertEquals(shape.points, copy.points);
+        assertEquals(shape.tags, copy.tags);
+        assertEquals(shape.weights, copy.weights);
+        assertArrayEquals(shape.data, copy.data);
+        assertArrayEquals(shape.times, copy.times);
+    }
+
+    @Test
+    void nullFieldsOnlyCostTheirPresenceBit() throws IllegalAccessException {
+        Shape empty = new Shape();
+        empty.id = 7;
+        byte[] data = this.parser.serialize(empty);
+        Shape copy = this.parser.deserialize(Shape.class, data);
+        assertEquals(7, copy.id);
+        assertNull(copy.name);
+        assertNull(copy.color);
+        assertNull(copy.origin);
+        assertNull(copy.points);
+        assertNull(copy.weights);
+        assertNull(copy.data);
+
+        Shape named = new Shape();
+        named.id = 7;
+        named.name = "";
+        assertEquals(data.length + 1, this.parser.serialize(named).length, "an empty string takes its one byte length");
+    }
+
+    @Test
+    void shortLengthsTakeOneByte() throws IllegalAccessException {
+        Text text = new Text();
+        text.text = "hello";
+        assertEquals(1 + 1 + 5, this.parser.serialize(text).length);
+        text.text = new String(new char[200]).replace('\0', 'x');
+        byte[] data = this.parser.serialize(text);
+        assertEquals(1 + 2 + 200, data.length);
+        assertEquals(text.text, this.parser.deserialize(Text.class, data).text);
+    }
+
+    @Test
+    void rejectsLengthsPastTheData() throws IllegalAccessException {
+        Text text = new Text();
+        text.text = "hello";
+        byte[] data = this.parser.serialize(text);
+        data[1] = 100;
+        assertThrows(IllegalArgumentException.class, () -> this.parser.deserialize(Text.class, data));
+        byte[] huge = {1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07};
+        assertThrows(IllegalArgumentException.class, () -> this.parser.deserialize(Text.class, huge));
+    }
+
+    @Test
+    void rejectsUnknownEnumOrdinals() throws IllegalAccessException {
+        Shape shape = new Shape();
+        shape.color = Color.RED;
+        byte[] data = this.parser.serialize(shape);
+        Shape copy = this.parser.deserialize(Shape.class, data);
+        assertEquals(Color.RED, copy.color);
+        // Fields are written in name order, the color's ordinal right after the bitmap
+        data[1] = 9;
+        assertThrows(IllegalArgumentException.class, () -> this.parser.deserialize(Shape.class, data));
+    }
+}
@@ -0,0 +1,118 @@
+package eu.cifpfbmoll.netlib.packet;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketTest {
+    private static Packet roundTrip(Packet packet) {
+        byte[] bytes = packet.dump();
+        assertEquals(packet.size(), bytes.length);
+        assertTrue(bytes.length <= packet.maxSize());
+        return Packet.load(bytes);
+    }
+
+    @Test
+    void narrowPacketsKeepTheOriginalLayout() {
+        Packet packet = Packet.create("TEST", 1, 255, new byte[]{7});
+        assertFalse(packet.isWide());
+        byte[] bytes = packet.dump();
+        assertEquals('T', bytes[0], "no extended header");
+        assertEquals(4 + 1 + 1 + 1 + 1 + 1 + 2 + 1, bytes.length);
+        assertEquals((byte) 255, bytes[6]);
+        Packet loaded = Packet.load(bytes);
+        assertEquals("TEST", loaded.getType());
+        assertEquals(1, loaded.getSourceId());
+        assertEquals(255, loaded.getDestinationId());
+        assertArrayEquals(new Integer[]{1}, loaded.getResenderIds());
+        assertArrayEquals(new byte[]{7}, loaded.getData());
+    }
+
+    @Test
+    void narrowPacketsWithFlagsUseHeaderVersionOne() {
+        Packet packet = Packet.create("TEST", 1, 2, new byte[0]);
+        packet.setSequence(300);
+        byte[] bytes = packet.dump();
+        assertEquals((byte) Packet.EXTENDED_HEADER, bytes[0]);
+        assertEquals(Packet.HEADER_VERSION, bytes[1]);
+        assertEquals(Packet.FLAG_SEQUENCE, bytes[2]);
+        Packet loaded = Packet.load(bytes);
+        assertTrue(loaded.hasSequence());
+        assertEquals(300, loaded.getSequence());
+        assertFalse(loaded.isWide());
+    }
+
+    @Test
+    void wideIdsUseHeaderVersionTwo() {
+        Packet packet = Packet.create("TEST", 256, Integer.MAX_VALUE, new byte[]{1, 2});
+        packet.addResender(70000);
+        packet.setRequest(12);
+        packet.setReliable(5, 6);
+        assertTrue(packet.isWide());
+        byte[] bytes = packet.dump();
+        assertEquals((byte) Packet.EXTENDED_HEADER, bytes[0]);
+        assertEquals(Packet.WIDE_HEADER_VERSION, bytes[1]);
+        Packet loaded = roundTrip(packet);
+        assertEquals(256, loaded.getSourceId());
+        assertEquals(Integer.MAX_VALUE, loaded.getDestinationId());
+        assertArrayEquals(new Integer[]{256, 70000}, loaded.getResenderIds());
+        assertTrue(loaded.isRequest());
+        assertEquals(12, loaded.getCorrelationId());
+        assertTrue(loaded.isReliable());
+        assertEquals(5, loaded.getReliableEpoch());
+        assertEquals(6, loaded.getReliableSequence());
+        assertArrayEquals(new byte[]{1, 2}, loaded.getData());
+    }
+
+    @Test
+    void onlyWideIdsMakeThePacketWide() {
+        Packet packet = Packet.create("TEST", 1, 2, new byte[0]);
+        assertFalse(packet.isWide());
+        packet.addResender(256);
+        assertTrue(packet.isWide());
+        assertEquals(packet.size(), packet.dump().length);
+    }
+
+    @Test
+    void loadsConsecutivePacketsFromOneBuffer() {
+        Packet narrow = Packet.create("NARR", 1, 2, new byte[]{1});
+        Packet wide = Packet.create("WIDE", 1000, 2, new byte[]{2});
+        ByteBuffer bb = ByteBuffer.allocate(narrow.size() + wide.size());
+        bb.put(narrow.dump()).put(wide.dump()).flip();
+        assertEquals("NARR", Packet.load(bb).getType());
+        Packet second = Packet.load(bb);
+        assertEquals("WIDE", second.getType());
+        assertEquals(1000, second.getSourceId());
+        assertFalse(bb.hasRemaining());
+    }
+
+    @Test
+    void rejectsUnknownHeaderVersions() {
+        byte[] bytes = Packet.create("TEST", 256, 2, new byte[0]).dump();
+        bytes[1] = 3;
+        assertThrows(IllegalArgumentException.class, () -> Packet.load(bytes));
+    }
+
+    @Test
+    void typeCodesHoldTheWireBytes() {
+        assertEquals(0x41424344, Packet.typeCode("ABCD"));
+        assertEquals(0x41420000, Packet.typeCode("AB"), "short types are padded");
+        assertEquals(Packet.typeCode("ABCD"), Packet.typeCode("ABCDEF"), "long types are truncated");
+        assertEquals(0, Packet.typeCode(null));
+        assertEquals("ABCD", Packet.typeName(Packet.typeCode("ABCD")));
+        assertEquals("ABCD", Packet.formatType("ABCDEF"));
+    }
+
+    @Test
+    void packetsKeepTheirTypeCode() {
+        int code = Packet.typeCode("CODE");
+        Packet packet = Packet.create(code, 1, 2, new byte[0]);
+        assertEquals(code, packet.getTypeCode());
+        assertEquals("CODE", packet.getType());
+        byte[] bytes = packet.dump();
+        assertEquals(code, ByteBuffer.wrap(bytes).getInt());
+        assertEquals(code, Packet.load(bytes).getTypeCode());
+    }
+}
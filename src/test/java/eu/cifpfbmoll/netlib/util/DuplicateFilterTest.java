@@ -0,0 +1,60 @@
+package eu.cifpfbmoll.netlib.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateFilterTest {
+    @Test
+    void reportsSeenKeysAsDuplicates() {
+        DuplicateFilter filter = new DuplicateFilter(16, 60000);
+        assertTrue(filter.add(1));
+        assertTrue(filter.add(0));
+        assertTrue(filter.add(-1));
+        assertFalse(filter.add(1));
+        assertFalse(filter.add(0));
+        assertFalse(filter.add(-1));
+        assertEquals(3, filter.size());
+    }
+
+    @Test
+    void neverReportsNewKeysAsSeen() {
+        DuplicateFilter filter = new DuplicateFilter();
+        for (long source = 1; source <= 4; source++)
+            for (long sequence = 0; sequence < 100000; sequence++)
+                assertTrue(filter.add(source << 32 | sequence));
+    }
+
+    @Test
+    void remembersThePreviousGeneration() {
+        DuplicateFilter filter = new DuplicateFilter(4, 60000);
+        for (long key = 1; key <= 4; key++)
+            assertTrue(filter.add(key));
+        assertTrue(filter.add(5), "a full generation is rotated");
+        for (long key = 1; key <= 5; key++)
+            assertFalse(filter.add(key));
+        for (long key = 6; key <= 8; key++)
+            assertTrue(filter.add(key));
+        assertTrue(filter.add(9));
+        assertTrue(filter.add(1), "keys older than two generations are forgotten");
+        assertTrue(filter.size() <= 2 * 4);
+    }
+
+    @Test
+    void forgetsKeysAfterTheWindow() throws InterruptedException {
+        DuplicateFilter filter = new DuplicateFilter(16, 20);
+        assertTrue(filter.add(1));
+        Thread.sleep(30);
+        assertFalse(filter.add(1), "keys are kept for at least one window");
+        Thread.sleep(30);
+        assertTrue(filter.add(2));
+        Thread.sleep(30);
+        assertTrue(filter.add(1));
+    }
+
+    @Test
+    void rejectsInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new DuplicateFilter(0, 1000));
+        assertThrows(IllegalArgumentException.class, () -> new DuplicateFilter(16, 0));
+    }
+}
@@ -0,0 +1,89 @@
+package eu.cifpfbmoll.netlib.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashedWheelTimerTest {
+    private final HashedWheelTimer timer = new HashedWheelTimer(new DaemonThreadFactory("TestTimer"), 1, 4);
+
+    @AfterEach
+    void stop() {
+        this.timer.stop();
+    }
+
+    @Test
+    void rejectsInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new HashedWheelTimer(new DaemonThreadFactory("TestTimer"), 0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new HashedWheelTimer(new DaemonThreadFactory("TestTimer"), 1, 0));
+    }
+
+    @Test
+    void runsTasksAfterTheirDelay() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        long[] ran = new long[1];
+        HashedWheelTimer.Timeout timeout = this.timer.schedule(() -> {
+            ran[0] = System.nanoTime();
+            latch.countDown();
+        }, 30, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(ran[0] - start >= TimeUnit.MILLISECONDS.toNanos(30), "a delay over several wheel rounds must not run early");
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    void runsTasksInDeadlineOrder() throws InterruptedException {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(3);
+        for (int delay : new int[]{40, 10, 25})
+            this.timer.schedule(() -> {
+                order.add(delay);
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(10, 25, 40), order);
+        assertEquals(0, this.timer.size());
+    }
+
+    @Test
+    void cancelledTasksNeverRun() throws InterruptedException {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch after = new CountDownLatch(1);
+        HashedWheelTimer.Timeout timeout = this.timer.schedule(cancelled::countDown, 20, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        assertFalse(timeout.cancel());
+        this.timer.schedule(after::countDown, 40, TimeUnit.MILLISECONDS);
+        assertTrue(after.await(5, TimeUnit.SECONDS));
+        assertEquals(1, cancelled.getCount());
+        assertFalse(timeout.isExpired());
+    }
+
+    @Test
+    void failedTasksDoNotStopTheTimer() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        this.timer.schedule(() -> {
+            throw new IllegalStateException("task failure");
+        }, 5, TimeUnit.MILLISECONDS);
+        this.timer.schedule(latch::countDown, 20, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void stoppedTimerRejectsTasks() {
+        this.timer.stop();
+        assertThrows(IllegalStateException.class, () -> this.timer.schedule(() -> {
+        }, 1, TimeUnit.MILLISECONDS));
+        assertThrows(NullPointerException.class, () -> this.timer.schedule(null, 1, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,176 @@
+package eu.cifpfbmoll.netlib.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentLogTest {
+    @TempDir
+    Path directory;
+
+    private static byte[] frame(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(SegmentLog log) {
+        byte[] frame = log.peek();
+        if (frame == null) return null;
+        log.advance();
+        return new String(frame, StandardCharsets.UTF_8);
+    }
+
+    private int segments() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "*.seg")) {
+            for (Path ignored : files) count++;
+        }
+        return count;
+    }
+
+    @Test
+    void readsFramesInOrder() throws IOException {
+        try (SegmentLog log = new SegmentLog(this.directory, 64, 256)) {
+            assertTrue(log.isEmpty());
+            assertTrue(log.append(frame("a")));
+            assertTrue(log.append(frame("bb")));
+            assertTrue(log.append(frame("ccc")));
+            assertEquals(3 * 4 + 6, log.size());
+            assertEquals("a", read(log));
+            assertEquals("bb", read(log));
+            assertEquals("ccc", read(log));
+            assertNull(log.peek());
+            assertEquals(-1, log.advance());
+            assertTrue(log.isRead());
+            assertFalse(log.isEmpty());
+        }
+    }
+
+    @Test
+    void rejectsInvalidFrames() throws IOException {
+        try (SegmentLog log = new SegmentLog(this.directory, 64, 256)) {
+            assertThrows(IllegalArgumentException.class, () -> log.append(new byte[0]));
+            assertThrows(IllegalArgumentException.class, () -> log.append(new byte[61]));
+            assertTrue(log.append(new byte[60]));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new SegmentLog(this.directory, 64, 32));
+    }
+
+    @Test
+    void commitRemovesReadFrames() throws IOException {
+        try (SegmentLog log = new SegmentLog(this.directory, 64, 256)) {
+            log.append(frame("a"));
+            log.append(frame("b"));
+            log.peek();
+            long offset = log.advance();
+            assertEquals(5, offset);
+            log.commit(offset);
+            assertEquals(5, log.size());
+            log.commit(1000);
+            assertEquals(5, log.size(), "commits past the read position stop at it");
+            log.commit(0);
+            assertEquals(5, log.size(), "commits before the cursor are ignored");
+        }
+    }
+
+    @Test
+    void rewindReadsUncommittedFramesAgain() throws IOException {
+        try (SegmentLog log = new SegmentLog(this.directory, 64, 256)) {
+            log.append(frame("a"));
+            log.append(frame("b"));
+            log.append(frame("c"));
+            read(log);
+            log.commit(log.getPosition());
+            read(log);
+            read(log);
+            assertTrue(log.isRead());
+            log.rewind();
+            assertFalse(log.isRead());
+            assertEquals("b", read(log));
+            assertEquals("c", read(log));
+        }
+    }
+
+    @Test
+    void reopenResumesAfterCommittedCursor() throws IOException {
+        try (SegmentLog log = new SegmentLog(this.directory, 64, 256)) {
+            log.append(frame("a"));
+            log.append(frame("b"));
+            log.append(frame("c"));
+            read(log);
+            log.commit(log.getPosition());
+            read(log);
+            log.flush();
+        }
+        try (SegmentLog log = new SegmentLog(this.directory, 64, 256)) {
+            assertEquals(2 * 5, log.size());
+            assertEquals("b", read(log));
+            assertEquals("c", read(log));
+            assertTrue(log.append(frame("d")));
+            assertEquals("d", read(log));
+        }
+    }
+
+    @Test
+    void tornFrameReadsAsEndOfLog() throws IOException {
+        try (SegmentLog log = new SegmentLog(this.directory, 64, 256)) {
+            log.append(frame("a"));
+            log.append(frame("torn"));
+        }
+        // The length of a frame is written last, a crash leaves it at 0
+        try (FileChannel channel = FileChannel.open(this.directory.resolve(String.format("%020d.seg", 0)), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4), 5);
+        }
+        try (SegmentLog log = new SegmentLog(this.directory, 64, 256)) {
+            assertEquals(5, log.size());
+            assertTrue(log.append(frame("b")));
+            assertEquals("a", read(log));
+            assertEquals("b", read(log));
+            assertNull(log.peek());
+        }
+    }
+
+    @Test
+    void compactDeletesCommittedSegments() throws IOException {
+        try (SegmentLog log = new SegmentLog(this.directory, 32, 128)) {
+            for (int i = 0; i < 3; i++)
+                assertTrue(log.append(new byte[20]));
+            assertEquals(3, segments());
+            read(log);
+            read(log);
+            assertEquals(0, log.compact(), "segments are kept until they are committed");
+            log.commit(log.getPosition());
+            assertEquals(2, log.compact());
+            assertEquals(1, segments());
+            assertEquals(24, log.size());
+            assertNotNull(log.peek());
+        }
+        try (SegmentLog log = new SegmentLog(this.directory, 32, 128)) {
+            assertEquals(24, log.size());
+            assertNotNull(read(log));
+            assertNull(log.peek());
+        }
+    }
+
+    @Test
+    void fullLogRejectsAppendsUntilCommitted() throws IOException {
+        try (SegmentLog log = new SegmentLog(this.directory, 32, 64)) {
+            assertTrue(log.append(new byte[20]));
+            assertTrue(log.append(new byte[20]));
+            assertFalse(log.append(new byte[20]));
+            read(log);
+            log.commit(log.getPosition());
+            assertTrue(log.append(new byte[20]));
+            assertEquals(2, segments());
+        }
+    }
+}